@@ -0,0 +1,173 @@
+package org.gusdb.oauth2.client;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Non-blocking HTTP transport shared by all requests an OAuthClient makes.
+ * Requests are sent by the JDK's HttpClient, which pools and reuses
+ * connections (over HTTP/2 where the server supports it) and never holds a
+ * thread while waiting on the network.
+ *
+ * At most maxConcurrentRequests requests are in flight at once; further
+ * requests wait in a queue, without a thread, until one completes.  Cancelling
+ * the future returned by send() removes a queued request or aborts one in
+ * flight.  close() fails all queued and in-flight requests, closes the client's
+ * connections and stops its threads.
+ *
+ * Thread-safe.
+ */
+class AsyncHttpTransport implements AutoCloseable {
+
+  private static class PendingRequest {
+
+    final HttpRequest request;
+    final CompletableFuture<HttpResponse<String>> response = new CompletableFuture<>();
+
+    PendingRequest(HttpRequest request) {
+      this.request = request;
+    }
+  }
+
+  private final ExecutorService _executor;
+  private final HttpClient _client;
+  private final Duration _readTimeout;
+  private final int _maxConcurrentRequests;
+  private final Queue<PendingRequest> _queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger _activeRequests = new AtomicInteger();
+  private volatile boolean _closed = false;
+
+  /**
+   * @param sslContext SSL context used for all connections
+   * @param connectTimeoutMs max time to wait for a connection; zero means no limit
+   * @param readTimeoutMs max time to wait for a response; zero means no limit
+   * @param maxConcurrentRequests max number of requests in flight at once
+   */
+  AsyncHttpTransport(SSLContext sslContext, int connectTimeoutMs, int readTimeoutMs, int maxConcurrentRequests) {
+    if (connectTimeoutMs < 0 || readTimeoutMs < 0) {
+      throw new IllegalArgumentException("Timeouts cannot be negative");
+    }
+    if (maxConcurrentRequests < 1) {
+      throw new IllegalArgumentException("Max concurrent requests must be positive");
+    }
+    // runs response handling and the continuations callers attach to it
+    _executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "oauth-client-http");
+      thread.setDaemon(true);
+      return thread;
+    });
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .sslContext(sslContext)
+        .executor(_executor);
+    if (connectTimeoutMs > 0) {
+      builder.connectTimeout(Duration.ofMillis(connectTimeoutMs));
+    }
+    _client = builder.build();
+    _readTimeout = readTimeoutMs == 0 ? null : Duration.ofMillis(readTimeoutMs);
+    _maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * Sends the passed request once fewer than the max number of requests are
+   * in flight.
+   *
+   * @param request request to send
+   * @return future completed with the response (whatever its status), or
+   * exceptionally if the request could not be sent or timed out
+   */
+  CompletableFuture<HttpResponse<String>> send(HttpRequest.Builder request) {
+    if (_readTimeout != null) {
+      request.timeout(_readTimeout);
+    }
+    PendingRequest pending = new PendingRequest(request.build());
+    if (_closed) {
+      pending.response.completeExceptionally(closedException());
+      return pending.response;
+    }
+    _queue.add(pending);
+    // close() may have drained the queue between the check above and the add;
+    //   whichever of us removes the request fails it
+    if (_closed) {
+      if (_queue.remove(pending)) {
+        pending.response.completeExceptionally(closedException());
+      }
+      return pending.response;
+    }
+    startQueuedRequests();
+    return pending.response;
+  }
+
+  private void startQueuedRequests() {
+    while (!_queue.isEmpty()) {
+      int active = _activeRequests.get();
+      if (active >= _maxConcurrentRequests) {
+        // a running request will start the next one when it completes
+        return;
+      }
+      if (!_activeRequests.compareAndSet(active, active + 1)) {
+        continue;
+      }
+      PendingRequest next = _queue.poll();
+      if (next == null || next.response.isDone()) {
+        // queue emptied by another thread, or request cancelled while queued
+        _activeRequests.decrementAndGet();
+        continue;
+      }
+      CompletableFuture<HttpResponse<String>> exchange;
+      try {
+        exchange = _client.sendAsync(next.request, BodyHandlers.ofString());
+      }
+      catch (RejectedExecutionException e) {
+        // client closed after this request was dequeued
+        _activeRequests.decrementAndGet();
+        next.response.completeExceptionally(closedException());
+        continue;
+      }
+      next.response.whenComplete((response, exception) -> {
+        if (next.response.isCancelled()) {
+          exchange.cancel(true);
+        }
+      });
+      exchange.whenComplete((response, exception) -> {
+        // release slot before completing so continuations may send requests
+        _activeRequests.decrementAndGet();
+        if (exception == null) {
+          next.response.complete(response);
+        }
+        else {
+          // requests aborted by close() fail as if they were never sent
+          next.response.completeExceptionally(_closed ? closedException() : exception);
+        }
+        startQueuedRequests();
+      });
+    }
+  }
+
+  @Override
+  public void close() {
+    _closed = true;
+    PendingRequest pending;
+    while ((pending = _queue.poll()) != null) {
+      pending.response.completeExceptionally(closedException());
+    }
+    // aborts in-flight exchanges and closes pooled connections
+    _client.shutdownNow();
+    _executor.shutdownNow();
+  }
+
+  private static IllegalStateException closedException() {
+    return new IllegalStateException("OAuth client has been closed");
+  }
+}
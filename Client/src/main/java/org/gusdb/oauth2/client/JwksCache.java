@@ -0,0 +1,163 @@
+package org.gusdb.oauth2.client;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caches the public signing keys (JWKS) of each OAuth server a client talks
+ * to, keyed by the server's base URL.
+ *
+ * Once an issuer's keys have been fetched, lookups never wait on the network:
+ * expired keys continue to be served while a single background fetch replaces
+ * them (stale-while-revalidate), and a lookup for a key ID not in the cache
+ * triggers a (rate-limited) background fetch and fails until it completes.
+ * Only the first lookup for an issuer blocks, and concurrent first lookups
+ * share one fetch.  After a failed fetch, no further fetch for that issuer is
+ * attempted until the retry interval passes; lookups in the meantime use the
+ * keys already held or, if there are none, fail immediately with the error
+ * from the last attempt.
+ *
+ * Thread-safe.
+ */
+class JwksCache {
+
+  private static final Logger LOG = LogManager.getLogger(JwksCache.class);
+
+  private final Function<String, Map<String,String>> _fetcher;
+  private final Executor _refreshExecutor;
+  private final LongSupplier _cacheDurationMs;
+  private final long _retryIntervalMs;
+  private final Map<String, IssuerKeys> _issuers = new ConcurrentHashMap<>();
+
+  /**
+   * @param fetcher fetches map from key ID to base64-encoded key from the passed OAuth base URL
+   * @param refreshExecutor runs background fetches
+   * @param cacheDurationMs supplies number of milliseconds fetched keys are fresh
+   * @param retryIntervalMs min time between fetch attempts after a failure, and
+   * between fetches triggered by unknown key IDs
+   */
+  JwksCache(Function<String, Map<String,String>> fetcher, Executor refreshExecutor,
+      LongSupplier cacheDurationMs, long retryIntervalMs) {
+    _fetcher = fetcher;
+    _refreshExecutor = refreshExecutor;
+    _cacheDurationMs = cacheDurationMs;
+    _retryIntervalMs = retryIntervalMs;
+  }
+
+  /**
+   * Returns the keys published by the passed OAuth server.  If keyId is not
+   * null and not among them, a refresh is started in the background.
+   *
+   * @param oauthBaseUrl base URL of OAuth server
+   * @param keyId ID of the key being looked for, or null
+   * @return map from key ID to base64-encoded key, in the order published
+   * @throws RuntimeException if this issuer's keys have never been fetched
+   * successfully and the most recent attempt failed
+   */
+  Map<String,String> getKeys(String oauthBaseUrl, String keyId) {
+    IssuerKeys issuer = _issuers.computeIfAbsent(oauthBaseUrl, IssuerKeys::new);
+    KeySet keySet = issuer._keySet;
+    if (keySet == null) {
+      return issuer.awaitFirstFetch();
+    }
+    long now = System.currentTimeMillis();
+    if (now >= keySet.expirationTime ||
+        (keyId != null && !keySet.keys.containsKey(keyId) && now >= keySet.fetchTime + _retryIntervalMs)) {
+      issuer.refreshInBackground(now);
+    }
+    return keySet.keys;
+  }
+
+  private static class KeySet {
+
+    final Map<String,String> keys;
+    final long fetchTime;
+    final long expirationTime;
+
+    KeySet(Map<String,String> keys, long fetchTime, long expirationTime) {
+      this.keys = keys;
+      this.fetchTime = fetchTime;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  private class IssuerKeys {
+
+    private final String _oauthBaseUrl;
+    private final AtomicBoolean _fetchInProgress = new AtomicBoolean(false);
+    private volatile KeySet _keySet;
+    private volatile RuntimeException _lastFailure;
+    private volatile long _lastFailureTime;
+
+    IssuerKeys(String oauthBaseUrl) {
+      _oauthBaseUrl = oauthBaseUrl;
+    }
+
+    Map<String,String> awaitFirstFetch() {
+      synchronized (this) {
+        // another thread may have completed the first fetch while we waited
+        KeySet keySet = _keySet;
+        if (keySet != null) {
+          return keySet.keys;
+        }
+        if (System.currentTimeMillis() < _lastFailureTime + _retryIntervalMs) {
+          throw new RuntimeException("Public keys from " + _oauthBaseUrl +
+              " are unavailable; last attempt to fetch them failed", _lastFailure);
+        }
+        _fetchInProgress.set(true);
+        fetch();
+        if (_keySet == null) {
+          throw _lastFailure;
+        }
+        return _keySet.keys;
+      }
+    }
+
+    void refreshInBackground(long now) {
+      if (now < _lastFailureTime + _retryIntervalMs || !_fetchInProgress.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        _refreshExecutor.execute(this::fetch);
+      }
+      catch (RejectedExecutionException e) {
+        // client is closed; keep serving what we have
+        _fetchInProgress.set(false);
+      }
+    }
+
+    /**
+     * Fetches keys and records the result; caller must have set _fetchInProgress
+     */
+    private void fetch() {
+      try {
+        LOG.trace("Refreshing public keys from " + _oauthBaseUrl + Endpoints.JWKS);
+        Map<String,String> keys = Collections.unmodifiableMap(new LinkedHashMap<>(_fetcher.apply(_oauthBaseUrl)));
+        long now = System.currentTimeMillis();
+        _keySet = new KeySet(keys, now, now + _cacheDurationMs.getAsLong());
+        _lastFailure = null;
+        _lastFailureTime = 0;
+      }
+      catch (RuntimeException e) {
+        _lastFailure = e;
+        _lastFailureTime = System.currentTimeMillis();
+        LOG.warn("Unable to fetch public keys from " + _oauthBaseUrl + (_keySet == null ? "" :
+            "; will continue to use keys fetched at " + new Date(_keySet.fetchTime)), e);
+      }
+      finally {
+        _fetchInProgress.set(false);
+      }
+    }
+  }
+}
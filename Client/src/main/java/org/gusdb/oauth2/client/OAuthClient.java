@@ -3,31 +3,40 @@ package org.gusdb.oauth2.client;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.NotAuthorizedException;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.Invocation;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
@@ -37,27 +46,44 @@ import javax.ws.rs.core.Response.Status;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.glassfish.jersey.client.ClientConfig;
 import org.gusdb.oauth2.client.KeyStoreTrustManager.KeyStoreConfig;
 import org.gusdb.oauth2.client.ValidatedToken.TokenType;
 import org.gusdb.oauth2.exception.ConflictException;
 import org.gusdb.oauth2.exception.ExpiredTokenException;
 import org.gusdb.oauth2.exception.InvalidPropertiesException;
 import org.gusdb.oauth2.exception.InvalidTokenException;
-import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
-import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.io.DecodingException;
 import io.jsonwebtoken.security.SignatureException;
 
-public class OAuthClient {
+/**
+ * Performs token, user info and user management requests against an OAuth
+ * server and validates the tokens it returns.
+ *
+ * Each request method has an asynchronous form (named with an Async suffix)
+ * returning a CompletableFuture, which completes exceptionally with the
+ * exception the blocking form would throw; the blocking forms simply wait on
+ * them.  Cancelling a returned future aborts the underlying request.
+ * Dependent stages attached to the futures run on this client's HTTP threads,
+ * as does validation of returned tokens, which waits on the network only the
+ * first time a server's public keys are needed.
+ *
+ * Each instance holds a single non-blocking HTTP client (and SSL context)
+ * used for all its requests, so connections to the OAuth server are kept
+ * alive and reused, and new connections can resume earlier TLS sessions
+ * instead of performing a full handshake.  At most maxConcurrentRequests
+ * requests are sent at once; further requests are queued.  Instances are
+ * thread-safe and intended to be long-lived; create one per application and
+ * close() it on shutdown.
+ */
+public class OAuthClient implements AutoCloseable {
 
   private static final Logger LOG = LogManager.getLogger(OAuthClient.class);
 
@@ -73,14 +99,17 @@ public class OAuthClient {
 
   private static final String AUTHORIZATION_HEADER_VALUE_PREFIX = "Bearer ";
 
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000; // ten seconds
+  public static final int DEFAULT_READ_TIMEOUT_MS = 60000; // one minute
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
   // applications can configure or turn off public key cache if desired
   public static AtomicBoolean USE_PUBLIC_KEY_CACHE = new AtomicBoolean(true);
   public static AtomicInteger PUBLIC_KEY_CACHE_DURATION_SECS = new AtomicInteger(120); // two minutes
 
-  // values used to store and control cached public signing key
-  private static String CACHED_PUBLIC_KEY = null;
-  private static String LAST_PUBLIC_KEY_FETCH_URL = null;
-  private static long PUBLIC_KEY_FETCH_EXPIRATION = 0;
+  // min time between refreshes forced by a token signed with an unknown key,
+  //   and between attempts to fetch public keys after a failure
+  private static final long PUBLIC_KEY_RETRY_INTERVAL_MS = 10000;
 
   public static String getTokenFromAuthHeader(String authHeader) {
     Objects.requireNonNull(authHeader);
@@ -107,69 +136,175 @@ public class OAuthClient {
     }
   }
 
-  // manages SSL certs needed to connect to OAuth server (SSL required)
-  private final TrustManager _trustManager;
+  // shared by all requests so connections and TLS sessions can be reused
+  private final AsyncHttpTransport _transport;
+
+  // public signing keys of each OAuth server this client validates tokens from
+  private final ExecutorService _publicKeyRefresher;
+  private final JwksCache _publicKeyCache;
+
+  // reusable parsers that verify token signatures
+  private final TokenVerifiers _verifiers = new TokenVerifiers(this::getPublicSigningKey);
 
+  // bearer tokens that have already passed validation
+  private final ValidatedTokenCache _validatedTokenCache;
+
+  /**
+   * Creates a client with default connect and read timeouts
+   *
+   * @param trustManager manages SSL certs needed to connect to OAuth server (SSL required)
+   */
   public OAuthClient(TrustManager trustManager) {
-    _trustManager = trustManager;
+    this(trustManager, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+  }
+
+  /**
+   * @param trustManager manages SSL certs needed to connect to OAuth server (SSL required)
+   * @param connectTimeoutMs max time to wait for a connection to the OAuth server; zero means no limit
+   * @param readTimeoutMs max time to wait for a response from the OAuth server; zero means no limit
+   */
+  public OAuthClient(TrustManager trustManager, int connectTimeoutMs, int readTimeoutMs) {
+    this(trustManager, connectTimeoutMs, readTimeoutMs, 0);
   }
 
-  private String getPublicSigningKey(String oauthBaseUrl) {
-    return USE_PUBLIC_KEY_CACHE.get() ? getCachedPublicSigningKey(oauthBaseUrl) : fetchPublicSigningKey(oauthBaseUrl);
+  /**
+   * @param trustManager manages SSL certs needed to connect to OAuth server (SSL required)
+   * @param connectTimeoutMs max time to wait for a connection to the OAuth server; zero means no limit
+   * @param readTimeoutMs max time to wait for a response from the OAuth server; zero means no limit
+   * @param validatedTokenCacheSize max number of validated bearer tokens to remember so
+   * repeat validations of the same token skip signature verification; zero disables caching
+   */
+  public OAuthClient(TrustManager trustManager, int connectTimeoutMs, int readTimeoutMs, int validatedTokenCacheSize) {
+    this(trustManager, connectTimeoutMs, readTimeoutMs, validatedTokenCacheSize, DEFAULT_MAX_CONCURRENT_REQUESTS);
   }
 
-  private synchronized String getCachedPublicSigningKey(String oauthBaseUrl) {
-    // cache new value if first fetch, different oauth URL, or current value expired
-    if (LAST_PUBLIC_KEY_FETCH_URL == null
-        || !LAST_PUBLIC_KEY_FETCH_URL.equals(oauthBaseUrl)
-        || System.currentTimeMillis() > PUBLIC_KEY_FETCH_EXPIRATION) {
-      LOG.trace("Cached public key expired; refreshing from " + oauthBaseUrl + Endpoints.JWKS);
-      CACHED_PUBLIC_KEY = fetchPublicSigningKey(oauthBaseUrl);
-      LAST_PUBLIC_KEY_FETCH_URL = oauthBaseUrl;
-      PUBLIC_KEY_FETCH_EXPIRATION = System.currentTimeMillis() + (PUBLIC_KEY_CACHE_DURATION_SECS.get() * 1000);
+  /**
+   * @param trustManager manages SSL certs needed to connect to OAuth server (SSL required)
+   * @param connectTimeoutMs max time to wait for a connection to the OAuth server; zero means no limit
+   * @param readTimeoutMs max time to wait for a response from the OAuth server; zero means no limit
+   * @param validatedTokenCacheSize max number of validated bearer tokens to remember so
+   * repeat validations of the same token skip signature verification; zero disables caching
+   * @param maxConcurrentRequests max number of requests sent to OAuth servers at once
+   */
+  public OAuthClient(TrustManager trustManager, int connectTimeoutMs, int readTimeoutMs,
+      int validatedTokenCacheSize, int maxConcurrentRequests) {
+    try {
+      _transport = new AsyncHttpTransport(createSslContext(trustManager),
+          connectTimeoutMs, readTimeoutMs, maxConcurrentRequests);
+    }
+    catch (KeyManagementException | NoSuchAlgorithmException e) {
+      throw new RuntimeException("Unable to create SSL context for OAuth client", e);
     }
-    return CACHED_PUBLIC_KEY;
+    _publicKeyRefresher = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "oauth-public-key-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    _publicKeyCache = new JwksCache(this::fetchPublicSigningKeys, _publicKeyRefresher,
+        () -> PUBLIC_KEY_CACHE_DURATION_SECS.get() * 1000L, PUBLIC_KEY_RETRY_INTERVAL_MS);
+    _validatedTokenCache = new ValidatedTokenCache(validatedTokenCacheSize);
   }
-  
-  private String fetchPublicSigningKey(String oauthBaseUrl) {
+
+  /**
+   * @return cache of validated bearer tokens (empty unless a size was passed to the constructor)
+   */
+  public ValidatedTokenCache getValidatedTokenCache() {
+    return _validatedTokenCache;
+  }
+
+  /**
+   * Closes the underlying HTTP client, failing any queued requests.  This
+   * client may not be used afterward.
+   */
+  @Override
+  public void close() {
+    _publicKeyRefresher.shutdownNow();
+    _transport.close();
+  }
+
+  private static HttpRequest.Builder request(String url) {
+    return HttpRequest.newBuilder(URI.create(url))
+        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Finds the public key with the passed key ID.  Tokens signed before the
+   * server published key IDs have none; for those, the server's first listed
+   * (i.e. currently active) key is returned.  Keys are cached per OAuth server
+   * and refreshed in the background, so this only waits on the network the
+   * first time a server's keys are needed.  A key the cache does not yet hold
+   * (e.g. just published by a rotation) is looked up in the background and
+   * the token rejected until it arrives.
+   *
+   * @param oauthBaseUrl base URL of OAuth server
+   * @param keyId ID of the key that signed a token, or null if the token has none
+   * @return base64-encoded public key
+   * @throws SignatureException if the server does not publish a key with the passed ID
+   */
+  private String getPublicSigningKey(String oauthBaseUrl, String keyId) {
+    if (!USE_PUBLIC_KEY_CACHE.get()) {
+      return selectPublicSigningKey(fetchPublicSigningKeys(oauthBaseUrl), keyId);
+    }
+    return selectPublicSigningKey(_publicKeyCache.getKeys(oauthBaseUrl, keyId), keyId);
+  }
+
+  private static String selectPublicSigningKey(Map<String,String> keys, String keyId) {
+    if (keyId == null) {
+      return keys.values().iterator().next();
+    }
+    String key = keys.get(keyId);
+    if (key == null) {
+      throw new SignatureException("Token signed with unknown key '" + keyId + "'");
+    }
+    return key;
+  }
+
+  private Map<String,String> fetchPublicSigningKeys(String oauthBaseUrl) {
     String jwksEndpoint = oauthBaseUrl + Endpoints.JWKS;
+    String failureMessage = "Unable to retrieve public signing key from OAuth service at " + jwksEndpoint;
 
     // get JWKS response from OAuth server
-    try (Response response = ClientBuilder.newBuilder()
-          .withConfig(new ClientConfig())
-          .sslContext(createSslContext(_trustManager))
-          .build()
-          .target(jwksEndpoint)
-          .request(MediaType.APPLICATION_JSON)
-          .get()) {
+    CompletableFuture<HttpResponse<String>> request = mapFailures(
+        _transport.send(request(jwksEndpoint).GET()), e -> true, failureMessage);
+
+    return await(map(request, response -> {
 
       // check for successful processing
-      if (response.getStatus() != 200) {
-        String responseBody = !response.hasEntity() ? "<empty>" : readResponseBody(response);
-        throw new RuntimeException("Failure to get JWKS information.  GET " + jwksEndpoint + " returned " + response.getStatus() + " with body: " + responseBody);
+      if (response.statusCode() != 200) {
+        String responseBody = response.body().isEmpty() ? "<empty>" : response.body();
+        throw new RuntimeException("Failure to get JWKS information.  GET " + jwksEndpoint + " returned " + response.statusCode() + " with body: " + responseBody);
       }
 
-      // parse response and find elliptic curve public key
-      JSONObject jwksJson = new JSONObject(readResponseBody(response));
-      return findECPublicKeyValue(jwksJson);
-
-    }
-    catch (KeyManagementException | NoSuchAlgorithmException | JSONException | IOException e) {
-      throw new RuntimeException("Unable to retrieve public signing key from OAuth service at " + jwksEndpoint, e);
-    }
+      try {
+        // parse response and find elliptic curve public keys
+        JSONObject jwksJson = new JSONObject(response.body());
+        return findECPublicKeyValues(jwksJson);
+      }
+      catch (JSONException e) {
+        throw new RuntimeException(failureMessage, e);
+      }
+    }));
   }
 
-  private static String findECPublicKeyValue(JSONObject jwksJson) {
+  /**
+   * @return map from key ID to base64-encoded key for each EC key in the
+   * passed JWKS, in the order listed (the server lists its active key first)
+   */
+  private static Map<String,String> findECPublicKeyValues(JSONObject jwksJson) {
+    Map<String,String> ecKeys = new LinkedHashMap<>();
     JSONArray keys = jwksJson.getJSONArray("keys");
     for (int i = 0; i < keys.length(); i++) {
       JSONObject keyDef = keys.getJSONObject(i);
       if (keyDef.getString("kty").equals("EC")) {
         // specific to our OAuth implementation; typically EC key returns
         //   x and y coords, which we also do, but this is easier to interpret
-        return keyDef.getString("k");
+        ecKeys.put(keyDef.getString("kid"), keyDef.getString("k"));
       }
     }
-    throw new RuntimeException("Unable to find EC key information in JWKS response: " + jwksJson.toString(2));
+    if (ecKeys.isEmpty()) {
+      throw new RuntimeException("Unable to find EC key information in JWKS response: " + jwksJson.toString(2));
+    }
+    return ecKeys;
   }
 
   public static String readResponseBody(Response response) throws IOException {
@@ -179,20 +314,22 @@ public class OAuthClient {
     return body.toString(StandardCharsets.UTF_8);
   }
 
-  private interface TokenSupplier {
-    ValidatedToken getToken() throws InvalidTokenException, ExpiredTokenException;
+  private interface TokenValidator {
+    ValidatedToken validate(String token) throws InvalidTokenException, ExpiredTokenException;
   }
 
-  private ValidatedToken hideBadTokenExceptions(TokenSupplier tokenSupplier) throws InvalidPropertiesException {
-    try {
-      return tokenSupplier.getToken();
-    }
-    catch (IllegalArgumentException e) {
-      throw new InvalidPropertiesException(e.getMessage());
-    }
-    catch (InvalidTokenException | ExpiredTokenException e) {
-      throw new RuntimeException("Unexpected validation failure of 'known' token", e);
-    }
+  private static CompletableFuture<ValidatedToken> hideBadTokenExceptions(CompletableFuture<String> token, TokenValidator validator) {
+    return map(token, tokenValue -> {
+      try {
+        return validator.validate(tokenValue);
+      }
+      catch (IllegalArgumentException e) {
+        throw new InvalidPropertiesException(e.getMessage());
+      }
+      catch (InvalidTokenException | ExpiredTokenException e) {
+        throw new RuntimeException("Unexpected validation failure of 'known' token", e);
+      }
+    });
   }
 
   private Consumer<MultivaluedMap<String, String>> getAuthCodeFormModifier(String authCode) {
@@ -203,21 +340,29 @@ public class OAuthClient {
   }
 
   public ValidatedToken getIdTokenFromAuthCode(OAuthConfig oauthConfig, String authCode, String redirectUri) throws InvalidPropertiesException {
+    return await(getIdTokenFromAuthCodeAsync(oauthConfig, authCode, redirectUri), InvalidPropertiesException.class);
+  }
+
+  public CompletableFuture<ValidatedToken> getIdTokenFromAuthCodeAsync(OAuthConfig oauthConfig, String authCode, String redirectUri) {
 
     // get legacy token, signed with HMAC using client secret as the key
-    String token = getToken(Endpoints.ID_TOKEN, getAuthCodeFormModifier(authCode), oauthConfig, redirectUri);
+    CompletableFuture<String> token = getToken(Endpoints.ID_TOKEN, getAuthCodeFormModifier(authCode), oauthConfig, redirectUri);
 
     // validate signature and return parsed claims
-    return hideBadTokenExceptions(() -> getValidatedHmacSignedToken(oauthConfig.getOauthClientSecret(), token));
+    return hideBadTokenExceptions(token, tokenValue -> getValidatedHmacSignedToken(oauthConfig.getOauthClientSecret(), tokenValue));
   }
 
   public ValidatedToken getBearerTokenFromAuthCode(OAuthConfig oauthConfig, String authCode, String redirectUri) throws InvalidPropertiesException {
+    return await(getBearerTokenFromAuthCodeAsync(oauthConfig, authCode, redirectUri), InvalidPropertiesException.class);
+  }
+
+  public CompletableFuture<ValidatedToken> getBearerTokenFromAuthCodeAsync(OAuthConfig oauthConfig, String authCode, String redirectUri) {
 
     // get bearer token, signed with ECDSA using public/private key pair
-    String token = getToken(Endpoints.BEARER_TOKEN, getAuthCodeFormModifier(authCode), oauthConfig, redirectUri);
+    CompletableFuture<String> token = getToken(Endpoints.BEARER_TOKEN, getAuthCodeFormModifier(authCode), oauthConfig, redirectUri);
 
     // validate signature and return parsed claims
-    return hideBadTokenExceptions(() -> getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), token));
+    return hideBadTokenExceptions(token, tokenValue -> getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), tokenValue));
   }
 
   private Consumer<MultivaluedMap<String, String>> getUserPassFormModifier(String username, String password) {
@@ -229,37 +374,52 @@ public class OAuthClient {
   }
 
   public ValidatedToken getIdTokenFromUsernamePassword(OAuthConfig oauthConfig, String username, String password, String redirectUri) throws InvalidPropertiesException {
+    return await(getIdTokenFromUsernamePasswordAsync(oauthConfig, username, password, redirectUri), InvalidPropertiesException.class);
+  }
+
+  public CompletableFuture<ValidatedToken> getIdTokenFromUsernamePasswordAsync(OAuthConfig oauthConfig, String username, String password, String redirectUri) {
 
     // get legacy token, signed with HMAC using client secret as the key
-    String token = getToken(Endpoints.ID_TOKEN, getUserPassFormModifier(username, password), oauthConfig, redirectUri);
+    CompletableFuture<String> token = getToken(Endpoints.ID_TOKEN, getUserPassFormModifier(username, password), oauthConfig, redirectUri);
 
     // validate signature and return parsed claims
-    return hideBadTokenExceptions(() -> getValidatedHmacSignedToken(oauthConfig.getOauthClientSecret(), token));
+    return hideBadTokenExceptions(token, tokenValue -> getValidatedHmacSignedToken(oauthConfig.getOauthClientSecret(), tokenValue));
   }
 
   public ValidatedToken getBearerTokenFromUsernamePassword(OAuthConfig oauthConfig, String username, String password, String redirectUri) throws InvalidPropertiesException {
+    return await(getBearerTokenFromUsernamePasswordAsync(oauthConfig, username, password, redirectUri), InvalidPropertiesException.class);
+  }
+
+  public CompletableFuture<ValidatedToken> getBearerTokenFromUsernamePasswordAsync(OAuthConfig oauthConfig, String username, String password, String redirectUri) {
 
     // get bearer token, signed with ECDSA using public/private key pair
-    String token = getToken(Endpoints.BEARER_TOKEN, getUserPassFormModifier(username, password), oauthConfig, redirectUri);
+    CompletableFuture<String> token = getToken(Endpoints.BEARER_TOKEN, getUserPassFormModifier(username, password), oauthConfig, redirectUri);
 
     // validate signature and return parsed claims
-    return hideBadTokenExceptions(() -> getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), token));
+    return hideBadTokenExceptions(token, tokenValue -> getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), tokenValue));
   }
 
   public ValidatedToken getNewGuestToken(OAuthConfig oauthConfig) {
-    try {
-      // get guest bearer token, signed with ECDSA using public/private key pair
-      String token = getToken(Endpoints.GUEST_TOKEN, form -> {}, oauthConfig, null);
+    return await(getNewGuestTokenAsync(oauthConfig));
+  }
 
-      // validate signature and return parsed claims
-      return getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), token);
-    }
-    catch (ExpiredTokenException | InvalidTokenException e) {
-      throw new IllegalStateException("New guest token returned from OAuth is not valid!", e);
-    }
+  public CompletableFuture<ValidatedToken> getNewGuestTokenAsync(OAuthConfig oauthConfig) {
+
+    // get guest bearer token, signed with ECDSA using public/private key pair
+    CompletableFuture<String> token = getToken(Endpoints.GUEST_TOKEN, form -> {}, oauthConfig, null);
+
+    return map(token, tokenValue -> {
+      try {
+        // validate signature and return parsed claims
+        return getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), tokenValue);
+      }
+      catch (ExpiredTokenException | InvalidTokenException e) {
+        throw new IllegalStateException("New guest token returned from OAuth is not valid!", e);
+      }
+    });
   }
 
-  private String getToken(String path, Consumer<MultivaluedMap<String, String>> formModifier, OAuthConfig oauthConfig, String redirectUri) {
+  private CompletableFuture<String> getToken(String path, Consumer<MultivaluedMap<String, String>> formModifier, OAuthConfig oauthConfig, String redirectUri) {
 
     String oauthUrl = oauthConfig.getOauthUrl() + path;
 
@@ -278,24 +438,22 @@ public class OAuthClient {
         " and params: " + dumpMultiMap(formData));
 
     // build request and get token response
-    try (Response response = ClientBuilder.newBuilder()
-          .withConfig(new ClientConfig())
-          .sslContext(createSslContext(_trustManager))
-          .build()
-          .target(oauthUrl)
-          .request(MediaType.APPLICATION_JSON)
-          .post(Entity.form(formData))) {
-  
-      if (response.getStatus() == 200) {
-        // Success!  Read result into buffer and convert to JSON
-        JSONObject json = new JSONObject(readResponseBody(response));
+    CompletableFuture<HttpResponse<String>> request = _transport.send(request(oauthUrl)
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED)
+        .POST(BodyPublishers.ofString(encodeForm(formData))));
+
+    CompletableFuture<String> token = map(request, response -> {
+
+      if (response.statusCode() == 200) {
+        // Success!  Convert response body to JSON
+        JSONObject json = new JSONObject(response.body());
         LOG.trace("Response received from OAuth server for token request: " + json.toString(2));
 
         // get id_token from object and decode to user ID
         return json.getString("id_token");
       }
-      else if (response.getStatus() == 406) {
-        String reasonString = readResponseBody(response).trim();
+      else if (response.statusCode() == 406) {
+        String reasonString = response.body().trim();
         Optional<UnacceptableRequestReason> reasonOpt = UnacceptableRequestReason.parse(reasonString);
         Function<UnacceptableRequestReason,RuntimeException> exceptionMapper = reason -> {
           switch(reason) {
@@ -319,33 +477,23 @@ public class OAuthClient {
       else {
         // Failure; throw exception
         throw new RuntimeException("OAuth2 token request failed with status " +
-            response.getStatus() + ": " + response.getStatusInfo().getReasonPhrase() + NL + response.getEntity());
+            response.statusCode() + ": " + getReasonPhrase(response.statusCode()) + NL + response.body());
       }
-    }
-    catch(Exception e) {
-      throw new RuntimeException("Unable to complete OAuth token request to fetch user id", e);
-    }
+    });
+
+    return mapFailures(token, e -> true, "Unable to complete OAuth token request to fetch user id");
   }
 
   public ValidatedToken getValidatedHmacSignedToken(String clientSecret, String token) throws InvalidTokenException, ExpiredTokenException {
 
-    // encode the key as a base64 string
-    byte[] unencodedKey = clientSecret.getBytes(StandardCharsets.UTF_8);
-    String encodedKeyStr = Base64.getEncoder().encodeToString(unencodedKey);
-
-    // convert the key back to bytes
-    byte[] keyBytes = Base64.getDecoder().decode(encodedKeyStr);
-
     try {
-      // verify signature and create claims object
-      Claims claims = Jwts.parserBuilder()
-          .setSigningKey(keyBytes)
-          .build()
+      // verify signature with the client secret as the key, and create claims object
+      Claims claims = _verifiers.getHmacParser(clientSecret)
           .parseClaimsJws(token)
           .getBody();
-  
+
       validateClaims(claims);
-  
+
       return ValidatedToken.build(TokenType.ID, token, claims);
     }
     catch (ExpiredJwtException e) {
@@ -357,22 +505,19 @@ public class OAuthClient {
   }
 
   public ValidatedToken getValidatedEcdsaSignedToken(String oauthBaseUrl, String token) throws InvalidTokenException, ExpiredTokenException {
+    return _validatedTokenCache.get(oauthBaseUrl, token, () -> validateEcdsaSignedToken(oauthBaseUrl, token));
+  }
 
-    String key = getPublicSigningKey(oauthBaseUrl);
-
-    // convert the key string to a public key object
-    PublicKey publicKey = new ECPublicKeyRepresentation(key).getPublicKey();
+  private ValidatedToken validateEcdsaSignedToken(String oauthBaseUrl, String token) throws InvalidTokenException, ExpiredTokenException {
 
     try {
-      // verify signature and create claims object
-      Claims claims = Jwts.parserBuilder()
-          .setSigningKey(publicKey)
-          .build()
+      // verify signature using the key named in the token header, and create claims object
+      Claims claims = _verifiers.getEcdsaParser(oauthBaseUrl)
           .parseClaimsJws(token)
           .getBody();
-  
+
       validateClaims(claims);
-  
+
       return ValidatedToken.build(TokenType.BEARER, token, claims);
     }
     catch (ExpiredJwtException e) {
@@ -395,6 +540,14 @@ public class OAuthClient {
     return sslContext;
   }
 
+  private static String encodeForm(MultivaluedMap<String, String> formData) {
+    return formData.entrySet().stream()
+        .flatMap(entry -> entry.getValue().stream().map(value ->
+            URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8) + "=" +
+            URLEncoder.encode(value, StandardCharsets.UTF_8)))
+        .collect(Collectors.joining("&"));
+  }
+
   private static String dumpMultiMap(MultivaluedMap<String, String> formData) {
     StringBuilder str = new StringBuilder("{").append(NL);
     for (Entry<String,List<String>> entry : formData.entrySet()) {
@@ -406,6 +559,11 @@ public class OAuthClient {
     return str.append("}").append(NL).toString();
   }
 
+  private static String getReasonPhrase(int statusCode) {
+    Status status = Status.fromStatusCode(statusCode);
+    return status == null ? "" : status.getReasonPhrase();
+  }
+
   public static String getAuthorizationHeaderValue(ValidatedToken token) {
     if (token.getTokenType() != TokenType.BEARER) {
       throw new RuntimeException("User info and edit endpoints require a user's bearer token (legacy auth tokens are not supported).");
@@ -414,49 +572,57 @@ public class OAuthClient {
   }
 
   public JSONObject getUserData(String oauthBaseUrl, ValidatedToken token) {
+    return await(getUserDataAsync(oauthBaseUrl, token));
+  }
+
+  public CompletableFuture<JSONObject> getUserDataAsync(String oauthBaseUrl, ValidatedToken token) {
     String url = oauthBaseUrl + Endpoints.USER_INFO;
     //LOG.info("Will send Authorization header value: " + getAuthorizationHeaderValue(token));
     // build request and get JSON response
-    try (Response response = ClientBuilder.newBuilder()
-          .withConfig(new ClientConfig())
-          .sslContext(createSslContext(_trustManager))
-          .build()
-          .target(url)
-          .request(MediaType.APPLICATION_JSON)
-          .header(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue(token))
-          .get()) {
+    CompletableFuture<HttpResponse<String>> request = _transport.send(request(url)
+        .header(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue(token))
+        .GET());
+
+    CompletableFuture<JSONObject> userData = map(request, response -> {
 
-      if (response.getStatus() == 200) {
-        return new JSONObject(readResponseBody(response));
+      if (response.statusCode() == 200) {
+        return new JSONObject(response.body());
       }
 
       // otherwise request failed
-      throw new RuntimeException("Unable to retrieve user info from OAuth server.  GET " + url + " returned " + response.getStatus());
+      throw new RuntimeException("Unable to retrieve user info from OAuth server.  GET " + url + " returned " + response.statusCode());
 
-    }
-    catch (Exception e) {
-      throw new RuntimeException("Unable to retrieve user info from OAuth server", e);
-    }
+    });
+
+    return mapFailures(userData, e -> true, "Unable to retrieve user info from OAuth server");
   }
 
   public JSONObject createNewUser(OAuthConfig oauthConfig, Map<String,String> userProperties) throws InvalidPropertiesException, ConflictException {
-    return new JSONObject(performCredentialsBasedRequest(
+    return await(createNewUserAsync(oauthConfig, userProperties), InvalidPropertiesException.class, ConflictException.class);
+  }
+
+  public CompletableFuture<JSONObject> createNewUserAsync(OAuthConfig oauthConfig, Map<String,String> userProperties) {
+    return map(performCredentialsBasedRequest(
         Endpoints.USER_CREATE,
         oauthConfig,
         json -> json.put("user", userProperties),
-        (builder,entity) -> builder.post(entity)
-    ));
+        (builder,body) -> builder.POST(body)
+    ), JSONObject::new);
   }
 
   public JSONObject modifyUser(OAuthConfig oauthConfig, ValidatedToken token, Map<String,String> userProperties) throws InvalidPropertiesException, ConflictException {
-    return new JSONObject(performCredentialsBasedRequest(
+    return await(modifyUserAsync(oauthConfig, token, userProperties), InvalidPropertiesException.class, ConflictException.class);
+  }
+
+  public CompletableFuture<JSONObject> modifyUserAsync(OAuthConfig oauthConfig, ValidatedToken token, Map<String,String> userProperties) {
+    return map(performCredentialsBasedRequest(
         Endpoints.USER_EDIT,
         oauthConfig,
         json -> json.put("user",  userProperties),
-        (builder,entity) -> builder
+        (builder,body) -> builder
           .header(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue(token))
-          .put(entity)
-    ));
+          .PUT(body)
+    ), JSONObject::new);
   }
 
   /**
@@ -469,55 +635,61 @@ public class OAuthClient {
    * @param userIdToDelete ID of the user to delete
    */
   public void deleteUser(OAuthConfig oauthConfig, ValidatedToken token, String userIdToDelete) {
-    try {
-      performCredentialsBasedRequest(
-          Endpoints.USER_DELETE,
-          oauthConfig,
-          json -> json.put("userId", userIdToDelete),
-          (builder,entity) -> builder
-            .header(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue(token))
-            .post(entity)
-      );
-    }
-    catch (InvalidPropertiesException | ConflictException e) {
-      // these should never happen on delete
-      throw new RuntimeException(e);
-    }
+    await(deleteUserAsync(oauthConfig, token, userIdToDelete));
+  }
+
+  public CompletableFuture<Void> deleteUserAsync(OAuthConfig oauthConfig, ValidatedToken token, String userIdToDelete) {
+    CompletableFuture<String> response = performCredentialsBasedRequest(
+        Endpoints.USER_DELETE,
+        oauthConfig,
+        json -> json.put("userId", userIdToDelete),
+        (builder,body) -> builder
+          .header(HttpHeaders.AUTHORIZATION, getAuthorizationHeaderValue(token))
+          .POST(body)
+    );
+    // these should never happen on delete
+    return map(mapFailures(response, e -> e instanceof InvalidPropertiesException || e instanceof ConflictException, null), body -> null);
   }
 
   public JSONObject resetPassword(OAuthConfig oauthConfig, String loginName) throws InvalidPropertiesException {
-    try {
-      return new JSONObject(performCredentialsBasedRequest(
-          Endpoints.PASSWORD_RESET,
-          oauthConfig,
-          json -> json.put("loginName",  loginName),
-          (builder,entity) -> builder.post(entity)
-      ));
-    }
-    catch (ConflictException e) {
-      // this should never happen; password_reset does not throw 409
-      throw new RuntimeException(e);
-    }
+    return await(resetPasswordAsync(oauthConfig, loginName), InvalidPropertiesException.class);
+  }
+
+  public CompletableFuture<JSONObject> resetPasswordAsync(OAuthConfig oauthConfig, String loginName) {
+    CompletableFuture<String> response = performCredentialsBasedRequest(
+        Endpoints.PASSWORD_RESET,
+        oauthConfig,
+        json -> json.put("loginName",  loginName),
+        (builder,body) -> builder.POST(body)
+    );
+    // this should never happen; password_reset does not throw 409
+    return map(mapFailures(response, e -> e instanceof ConflictException, null), JSONObject::new);
   }
 
   public String queryOAuth(OAuthConfig oauthConfig, JSONObject queryConfig) {
-    try {
-      return performCredentialsBasedRequest(
-          Endpoints.QUERY_USERS,
-          oauthConfig,
-          json -> json
-            .put("query", queryConfig),
-          (builder,entity) -> builder.post(entity)
-      );
-    }
-    catch (InvalidPropertiesException | ConflictException e) {
-      // this should never happen; user query does not throw 422 or 409
-      throw new RuntimeException(e);
-    }
+    return await(queryOAuthAsync(oauthConfig, queryConfig));
   }
 
-  private String performCredentialsBasedRequest(String endpointPath, OAuthConfig oauthConfig,
-      Function<JSONObject,JSONObject> jsonModifier, BiFunction<Invocation.Builder,Entity<String>,Response> responseSupplier) throws InvalidPropertiesException, ConflictException {
+  public CompletableFuture<String> queryOAuthAsync(OAuthConfig oauthConfig, JSONObject queryConfig) {
+    CompletableFuture<String> response = performCredentialsBasedRequest(
+        Endpoints.QUERY_USERS,
+        oauthConfig,
+        json -> json
+          .put("query", queryConfig),
+        (builder,body) -> builder.POST(body)
+    );
+    // this should never happen; user query does not throw 422 or 409
+    return mapFailures(response, e -> e instanceof InvalidPropertiesException || e instanceof ConflictException, null);
+  }
+
+  /**
+   * @return future completed with the response body (null if the response
+   * has no content), or exceptionally with InvalidPropertiesException (422),
+   * ConflictException (409), NotAuthorizedException (401), ForbiddenException
+   * (403) or RuntimeException (other failures)
+   */
+  private CompletableFuture<String> performCredentialsBasedRequest(String endpointPath, OAuthConfig oauthConfig,
+      Function<JSONObject,JSONObject> jsonModifier, BiFunction<HttpRequest.Builder,BodyPublisher,HttpRequest.Builder> methodSetter) {
 
     String endpoint = oauthConfig.getOauthUrl() + endpointPath;
 
@@ -529,52 +701,133 @@ public class OAuthClient {
     String requestJson = jsonModifier.apply(initialJson).toString();
 
     // build request and get JSON response
-    try (Response response = responseSupplier.apply(
-        ClientBuilder.newBuilder()
-          .withConfig(new ClientConfig())
-          .sslContext(createSslContext(_trustManager))
-          .build()
-          .target(endpoint)
-          .request(MediaType.APPLICATION_JSON),
-        Entity.entity(requestJson, MediaType.APPLICATION_JSON))) {
+    CompletableFuture<HttpResponse<String>> request = mapFailures(_transport.send(methodSetter.apply(
+        request(endpoint).header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON),
+        BodyPublishers.ofString(requestJson))),
+      e -> true, "Unable to perform credentialed operation on OAuth server");
+
+    return map(request, response -> {
 
       // return new user's user info object
-      if (response.getStatus() == 200) {
-        return readResponseBody(response);
+      if (response.statusCode() == 200) {
+        return response.body();
       }
 
       // some requests do not return content; this is ok
-      if (response.getStatus() == 204) {
+      if (response.statusCode() == 204) {
         return null;
       }
 
       // check for input validation issues
-      if (response.getStatusInfo().getFamily().equals(Status.Family.CLIENT_ERROR)) {
-        if (response.getStatus() == HttpStatus.UNPROCESSABLE_CONTENT.getStatusCode()) {
-          throw new InvalidPropertiesException(readResponseBody(response));
+      if (Status.Family.familyOf(response.statusCode()).equals(Status.Family.CLIENT_ERROR)) {
+        if (response.statusCode() == HttpStatus.UNPROCESSABLE_CONTENT.getStatusCode()) {
+          throw new InvalidPropertiesException(response.body());
         }
-        if (response.getStatus() == Status.CONFLICT.getStatusCode()) {
-          throw new ConflictException(readResponseBody(response));
+        if (response.statusCode() == Status.CONFLICT.getStatusCode()) {
+          throw new ConflictException(response.body());
         }
         // propagate 401/403 responses, converting back to the associated exceptions
-        if (response.getStatus() == Status.UNAUTHORIZED.getStatusCode()) {
-          throw new NotAuthorizedException(readResponseBody(response));
+        if (response.statusCode() == Status.UNAUTHORIZED.getStatusCode()) {
+          throw new NotAuthorizedException(response.body());
         }
-        if (response.getStatus() == Status.FORBIDDEN.getStatusCode()) {
-          throw new ForbiddenException(readResponseBody(response));
+        if (response.statusCode() == Status.FORBIDDEN.getStatusCode()) {
+          throw new ForbiddenException(response.body());
         }
         // a 400 indicates a syntax error (e.g. JSON misformat) on our side and should be a 500
         // a 406 indicates a misconfiguration (client does not have perms for this type of request) and should be a 500
-        throw new RuntimeException("Created bad request to " + endpoint + "; returned " + response.getStatus() + ", " + readResponseBody(response));
+        throw new RuntimeException("Created bad request to " + endpoint + "; returned " + response.statusCode() + ", " + response.body());
       }
 
       // else server error
-      throw new RuntimeException("Unable to perform credentialed operation on OAuth server.  " + endpoint + " returned " + response.getStatus());
-      
+      throw new RuntimeException("Unable to perform credentialed operation on OAuth server.  " + endpoint + " returned " + response.statusCode());
+
+    });
+  }
+
+  private interface ResultMapper<T,R> {
+    R apply(T value) throws Exception;
+  }
+
+  /**
+   * Returns a future completed with the result of applying mapper to the
+   * passed future's value, or exceptionally with whatever mapper or the passed
+   * future failed with.  Cancelling the returned future cancels the passed one.
+   */
+  private static <T,R> CompletableFuture<R> map(CompletableFuture<T> future, ResultMapper<T,R> mapper) {
+    return linkCancellation(future.thenApply(value -> {
+      try {
+        return mapper.apply(value);
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }), future);
+  }
+
+  /**
+   * Returns a future completed as the passed one is, except that failures
+   * matching the passed predicate are wrapped in a RuntimeException with the
+   * passed message (or the failure's own message if null).  Cancellation is
+   * never wrapped, and cancelling the returned future cancels the passed one.
+   */
+  private static <T> CompletableFuture<T> mapFailures(CompletableFuture<T> future, Predicate<Throwable> isWrapped, String message) {
+    return linkCancellation(future.handle((value, exception) -> {
+      if (exception == null) {
+        return value;
+      }
+      Throwable cause = unwrap(exception);
+      if (!(cause instanceof CancellationException) && isWrapped.test(cause)) {
+        throw new CompletionException(message == null ? new RuntimeException(cause) : new RuntimeException(message, cause));
+      }
+      throw new CompletionException(cause);
+    }), future);
+  }
+
+  private static <T> CompletableFuture<T> linkCancellation(CompletableFuture<T> dependent, CompletableFuture<?> source) {
+    dependent.whenComplete((value, exception) -> {
+      if (dependent.isCancelled()) {
+        source.cancel(true);
+      }
+    });
+    return dependent;
+  }
+
+  private static Throwable unwrap(Throwable exception) {
+    return exception instanceof CompletionException && exception.getCause() != null ? exception.getCause() : exception;
+  }
+
+  private static <T> T await(CompletableFuture<T> future) {
+    return await(future, RuntimeException.class, RuntimeException.class);
+  }
+
+  private static <T, E extends Exception> T await(CompletableFuture<T> future, Class<E> checkedType) throws E {
+    return await(future, checkedType, checkedType);
+  }
+
+  /**
+   * Waits for the passed future's value, rethrowing the exception it failed
+   * with if it is unchecked or of one of the passed checked types
+   */
+  private static <T, E1 extends Exception, E2 extends Exception> T await(
+      CompletableFuture<T> future, Class<E1> checkedType1, Class<E2> checkedType2) throws E1, E2 {
+    try {
+      return future.get();
     }
-    catch (IOException | KeyManagementException | NoSuchAlgorithmException e) {
-      throw new RuntimeException("Unable to perform credentialed operation on OAuth server", e);
+    catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting on OAuth server", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (checkedType1.isInstance(cause)) throw checkedType1.cast(cause);
+      if (checkedType2.isInstance(cause)) throw checkedType2.cast(cause);
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      throw new RuntimeException(cause);
     }
   }
-
 }
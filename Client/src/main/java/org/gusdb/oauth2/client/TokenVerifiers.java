@@ -0,0 +1,91 @@
+package org.gusdb.oauth2.client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.interfaces.ECPublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+
+/**
+ * Registry of token parsers, built once and reused for every token they
+ * verify (JwtParser instances are immutable and thread-safe).
+ *
+ * HMAC-signed (ID) tokens are verified by a parser per client secret.
+ * ECDSA-signed (bearer) tokens are verified by a parser per OAuth server,
+ * which looks up the key named by each token's kid header and converts it
+ * to an ECPublicKey; converted keys are kept, keyed by their base64 encoding,
+ * so each published key is decoded once no matter how many tokens it signed.
+ *
+ * Each map is cleared if it grows beyond MAX_ENTRIES, which only happens if
+ * an application uses an unexpectedly large number of secrets or servers, or
+ * keys are rotated very many times.
+ *
+ * Thread-safe.
+ */
+class TokenVerifiers {
+
+  private static final int MAX_ENTRIES = 100;
+
+  private final BiFunction<String,String,String> _publicKeyLookup;
+  private final Map<String, JwtParser> _hmacParsers = new ConcurrentHashMap<>();
+  private final Map<String, JwtParser> _ecdsaParsers = new ConcurrentHashMap<>();
+  private final Map<String, ECPublicKey> _publicKeys = new ConcurrentHashMap<>();
+
+  /**
+   * @param publicKeyLookup returns the base64-encoded public key with a key ID
+   * (second arg, possibly null) published by an OAuth server (first arg, base URL)
+   */
+  TokenVerifiers(BiFunction<String,String,String> publicKeyLookup) {
+    _publicKeyLookup = publicKeyLookup;
+  }
+
+  /**
+   * @param clientSecret secret the token was signed with
+   * @return parser that verifies tokens signed with the passed client secret
+   */
+  JwtParser getHmacParser(String clientSecret) {
+    return get(_hmacParsers, clientSecret, secret -> Jwts.parserBuilder()
+        .setSigningKey(secret.getBytes(StandardCharsets.UTF_8))
+        .build());
+  }
+
+  /**
+   * @param oauthBaseUrl base URL of the OAuth server that signed the token
+   * @return parser that verifies tokens signed with the passed server's keys
+   */
+  JwtParser getEcdsaParser(String oauthBaseUrl) {
+    return get(_ecdsaParsers, oauthBaseUrl, url -> Jwts.parserBuilder()
+        .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+          @Override
+          public Key resolveSigningKey(@SuppressWarnings("rawtypes") JwsHeader header, Claims claims) {
+            return getPublicKey(_publicKeyLookup.apply(url, header.getKeyId()));
+          }
+        })
+        .build());
+  }
+
+  private ECPublicKey getPublicKey(String base64EncodedKey) {
+    return get(_publicKeys, base64EncodedKey, key -> new ECPublicKeyRepresentation(key).getPublicKey());
+  }
+
+  private static <T> T get(Map<String,T> map, String key, Function<String,T> factory) {
+    T value = map.get(key);
+    if (value == null) {
+      if (map.size() >= MAX_ENTRIES) {
+        map.clear();
+      }
+      value = map.computeIfAbsent(key, factory);
+    }
+    return value;
+  }
+}
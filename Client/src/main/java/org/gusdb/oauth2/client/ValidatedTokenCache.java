@@ -0,0 +1,92 @@
+package org.gusdb.oauth2.client;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.exception.ExpiredTokenException;
+import org.gusdb.oauth2.exception.InvalidTokenException;
+import org.gusdb.oauth2.shared.TokenDigestCache;
+
+/**
+ * Remembers bearer tokens that passed validation, so a token presented again
+ * (e.g. on every request an application receives from a logged-in user) is
+ * returned without another ECDSA verification.  Entries are keyed by the
+ * SHA-256 digest of the OAuth server URL and token (the token itself is
+ * never stored) and each expires exactly when its token does, after which
+ * the token is validated (and rejected) as usual.  Cached ValidatedTokens
+ * are shared by all callers presenting the token, so their claims must not
+ * be modified.
+ *
+ * At most maxSize tokens are remembered; see TokenDigestCache for how a full
+ * cache behaves.  A size of zero disables caching.  Hit and miss counts are
+ * logged periodically and available via getStatistics().
+ *
+ * Thread-safe.
+ */
+public class ValidatedTokenCache {
+
+  private static final Logger LOG = LogManager.getLogger(ValidatedTokenCache.class);
+
+  public interface TokenValidator {
+    ValidatedToken validate() throws InvalidTokenException, ExpiredTokenException;
+  }
+
+  private final TokenDigestCache<ValidatedToken> _tokens;
+
+  /**
+   * @param maxSize max number of validated tokens remembered; zero disables caching
+   */
+  public ValidatedTokenCache(int maxSize) {
+    _tokens = new TokenDigestCache<>(maxSize, "Validated token cache", LOG);
+  }
+
+  /**
+   * Returns the cached result of validating the passed token against the
+   * passed OAuth server if present and unexpired, else validates the token,
+   * caching and returning the result.
+   *
+   * @param oauthBaseUrl base URL of OAuth server that signed the token
+   * @param token signed token (JWS)
+   * @param validator validates the token on a miss
+   * @return validated token
+   * @throws InvalidTokenException if validator finds the token invalid
+   * @throws ExpiredTokenException if validator finds the token expired
+   */
+  public ValidatedToken get(String oauthBaseUrl, String token, TokenValidator validator)
+      throws InvalidTokenException, ExpiredTokenException {
+    if (!_tokens.isEnabled()) {
+      return validator.validate();
+    }
+    ByteBuffer digest = TokenDigestCache.digest(oauthBaseUrl, token);
+    ValidatedToken validatedToken = _tokens.get(digest);
+    if (validatedToken != null) {
+      return validatedToken;
+    }
+    validatedToken = validator.validate();
+    Date expiration = validatedToken.getTokenContents().getExpiration();
+    // tokens without exp are valid until evicted
+    _tokens.put(digest, validatedToken, expiration == null ? Long.MAX_VALUE : expiration.getTime());
+    return validatedToken;
+  }
+
+  public long getHitCount() {
+    return _tokens.getHitCount();
+  }
+
+  public long getMissCount() {
+    return _tokens.getMissCount();
+  }
+
+  public int getSize() {
+    return _tokens.getSize();
+  }
+
+  /**
+   * @return summary of cache size and hit/miss counts since creation
+   */
+  public String getStatistics() {
+    return _tokens.getStatistics();
+  }
+}
@@ -1,8 +1,17 @@
 package org.gusdb.oauth2.client.veupathdb;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -14,16 +23,41 @@ import org.gusdb.oauth2.shared.IdTokenFields;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+/**
+ * Looks up multiple users at once via the OAuth server's user query endpoint.
+ *
+ * Identifiers are deduplicated and split into batches of at most BATCH_SIZE,
+ * each sent as its own query; at most MAX_PARALLEL_BATCHES queries are in
+ * flight at once.  Each batch's response is parsed and handed to the caller
+ * as soon as it arrives, so only a few batches' responses are ever held in
+ * memory.  Results are delivered on the calling thread, in batch completion
+ * order.  Identifiers the server does not recognize map to null.
+ */
 public class OAuthQuerier {
 
   private static final Logger LOG = LogManager.getLogger(OAuthQuerier.class);
 
+  // applications can tune batching if desired
+  public static AtomicInteger BATCH_SIZE = new AtomicInteger(500);
+  public static AtomicInteger MAX_PARALLEL_BATCHES = new AtomicInteger(4);
+
   public static Map<String, UserInfo> getUsersByEmail(OAuthClient client, OAuthConfig config, Collection<String> emails) {
     return getUsersByEmail(client, config, emails, UserInfoImpl::new);
   }
 
   public static <T extends UserInfo> Map<String, T> getUsersByEmail(OAuthClient client, OAuthConfig config, Collection<String> emails, Function<JSONObject, T> userConverter) {
-    return getUsers(client, config, emails, userConverter, "emails", u -> u.getString(IdTokenFields.email.name()));
+    Map<String, T> userMap = new HashMap<>();
+    forEachUserByEmail(client, config, emails, userConverter, userMap::put);
+    return userMap;
+  }
+
+  /**
+   * Looks up the users with the passed emails, passing each email and its
+   * user (or null if not found) to userConsumer as each batch arrives
+   */
+  public static <T extends UserInfo> void forEachUserByEmail(OAuthClient client, OAuthConfig config, Collection<String> emails,
+      Function<JSONObject, T> userConverter, BiConsumer<String, T> userConsumer) {
+    queryUsers(client, config, emails, userConverter, "emails", u -> u.getString(IdTokenFields.email.name()), userConsumer);
   }
 
   public static Map<Long, UserInfo> getUsersById(OAuthClient client, OAuthConfig config, Collection<Long> userIds) {
@@ -31,20 +65,83 @@ public class OAuthQuerier {
   }
 
   public static <T extends UserInfo> Map<Long, T> getUsersById(OAuthClient client, OAuthConfig config, Collection<Long> userIds, Function<JSONObject, T> userConverter) {
-    return getUsers(client, config, userIds, userConverter, "userIds", u -> Long.valueOf(u.getString(IdTokenFields.sub.name())));
-  }
-
-  private static <T extends UserInfo, S> Map<S, T> getUsers(OAuthClient client, OAuthConfig config, Collection<S> identifiers,
-      Function<JSONObject, T> userConverter, String identifiersJsonPropKey, Function<JSONObject,S> keyGenerator) {
-    LOG.info("Using OAuthQuerier for multi-user request by " + identifiersJsonPropKey +
-        ": [" + identifiers.stream().map(String::valueOf).collect(Collectors.joining(", ")) + "]");
-    JSONArray response = new JSONArray(client.queryOAuth(config, new JSONObject().put(identifiersJsonPropKey, new JSONArray(identifiers))));
-    Map<S, T> userMap = new HashMap<>();
-    for (int i = 0; i < response.length(); i++) {
-      JSONObject userJson = response.getJSONObject(i);
-      T user = userJson.getBoolean("found") ? userConverter.apply(userJson) : null;
-      userMap.put(keyGenerator.apply(userJson), user);
-    }
+    Map<Long, T> userMap = new HashMap<>();
+    forEachUserById(client, config, userIds, userConverter, userMap::put);
     return userMap;
   }
+
+  /**
+   * Looks up the users with the passed IDs, passing each ID and its user (or
+   * null if not found) to userConsumer as each batch arrives
+   */
+  public static <T extends UserInfo> void forEachUserById(OAuthClient client, OAuthConfig config, Collection<Long> userIds,
+      Function<JSONObject, T> userConverter, BiConsumer<Long, T> userConsumer) {
+    queryUsers(client, config, userIds, userConverter, "userIds", u -> Long.valueOf(u.getString(IdTokenFields.sub.name())), userConsumer);
+  }
+
+  private static <T extends UserInfo, S> void queryUsers(OAuthClient client, OAuthConfig config, Collection<S> identifiers,
+      Function<JSONObject, T> userConverter, String identifiersJsonPropKey, Function<JSONObject,S> keyGenerator,
+      BiConsumer<S, T> userConsumer) {
+
+    List<List<S>> batches = toBatches(identifiers, Math.max(1, BATCH_SIZE.get()));
+    if (batches.isEmpty()) {
+      return;
+    }
+    LOG.info("Using OAuthQuerier for multi-user request of " + identifiers.size() + " " +
+        identifiersJsonPropKey + " in " + batches.size() + " batch(es)");
+
+    // responses are added as they complete; only this thread reads them
+    BlockingQueue<CompletableFuture<String>> completed = new LinkedBlockingQueue<>();
+    List<CompletableFuture<String>> inFlight = new ArrayList<>();
+    int maxParallel = Math.max(1, MAX_PARALLEL_BATCHES.get());
+    int nextBatch = 0;
+    try {
+      while (nextBatch < batches.size() || !inFlight.isEmpty()) {
+
+        // keep up to max batches in flight
+        while (nextBatch < batches.size() && inFlight.size() < maxParallel) {
+          List<S> batch = batches.get(nextBatch++);
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Querying OAuth for " + identifiersJsonPropKey + ": [" +
+                batch.stream().map(String::valueOf).collect(Collectors.joining(", ")) + "]");
+          }
+          CompletableFuture<String> response = client.queryOAuthAsync(config,
+              new JSONObject().put(identifiersJsonPropKey, new JSONArray(batch)));
+          inFlight.add(response);
+          response.whenComplete((body, exception) -> completed.add(response));
+        }
+
+        // process the next response to arrive
+        CompletableFuture<String> response = completed.take();
+        inFlight.remove(response);
+        JSONArray users = new JSONArray(response.get());
+        for (int i = 0; i < users.length(); i++) {
+          JSONObject userJson = users.getJSONObject(i);
+          T user = userJson.getBoolean("found") ? userConverter.apply(userJson) : null;
+          userConsumer.accept(keyGenerator.apply(userJson), user);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while querying OAuth for users", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException ? (RuntimeException)cause : new RuntimeException(cause);
+    }
+    finally {
+      // abandon remaining batches if any failed
+      inFlight.forEach(response -> response.cancel(true));
+    }
+  }
+
+  private static <S> List<List<S>> toBatches(Collection<S> identifiers, int batchSize) {
+    List<S> unique = new ArrayList<>(new LinkedHashSet<>(identifiers));
+    List<List<S>> batches = new ArrayList<>();
+    for (int i = 0; i < unique.size(); i += batchSize) {
+      batches.add(unique.subList(i, Math.min(i + batchSize, unique.size())));
+    }
+    return batches;
+  }
 }
@@ -0,0 +1,83 @@
+package org.gusdb.oauth2.shared;
+
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * An elliptic curve key pair used to sign bearer, guest and ID tokens, with
+ * the key ID (kid) under which it is published in the JWKS and written into
+ * the header of tokens it signs, and the time from which it is used to sign.
+ * The signing algorithm is determined by the key's curve: P-256 keys sign
+ * with ES256, P-384 with ES384 and P-521 with ES512.
+ */
+public class AsyncSigningKey {
+
+  private final String _keyId;
+  private final KeyPair _keyPair;
+  private final SignatureAlgorithm _algorithm;
+  private final long _activationTime;
+  private final JwsSigner _signer;
+
+  /**
+   * @param keyId key ID published in the JWKS and token headers
+   * @param keyPair EC key pair
+   * @param activationTime time (epoch millis) from which this key should sign
+   * new tokens; until then it is only published so clients can learn it
+   * @throws IllegalArgumentException if the key is not on a supported curve
+   */
+  public AsyncSigningKey(String keyId, KeyPair keyPair, long activationTime) {
+    _keyId = keyId;
+    _keyPair = keyPair;
+    _algorithm = getAlgorithm((ECPublicKey)keyPair.getPublic());
+    _activationTime = activationTime;
+    _signer = new JwsSigner(_algorithm, keyPair.getPrivate(), keyId);
+  }
+
+  public String getKeyId() {
+    return _keyId;
+  }
+
+  public KeyPair getKeyPair() {
+    return _keyPair;
+  }
+
+  public SignatureAlgorithm getAlgorithm() {
+    return _algorithm;
+  }
+
+  public long getActivationTime() {
+    return _activationTime;
+  }
+
+  public JwsSigner getSigner() {
+    return _signer;
+  }
+
+  /**
+   * @return JWK name of this key's curve (e.g. "P-256")
+   */
+  public String getCurveName() {
+    return getCurveName(_algorithm);
+  }
+
+  public static SignatureAlgorithm getAlgorithm(ECPublicKey key) {
+    int fieldSize = key.getParams().getCurve().getField().getFieldSize();
+    switch (fieldSize) {
+      case 256: return SignatureAlgorithm.ES256;
+      case 384: return SignatureAlgorithm.ES384;
+      case 521: return SignatureAlgorithm.ES512;
+      default: throw new IllegalArgumentException("Unsupported EC key field size: " + fieldSize);
+    }
+  }
+
+  public static String getCurveName(SignatureAlgorithm algorithm) {
+    switch (algorithm) {
+      case ES256: return "P-256";
+      case ES384: return "P-384";
+      case ES512: return "P-521";
+      default: throw new IllegalArgumentException("Not an elliptic curve algorithm: " + algorithm.getValue());
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.gusdb.oauth2.shared;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hit and miss counts of a cache, summarized by toString() and logged (at
+ * info level, to the cache's logger) at most once per logging interval.
+ *
+ * Thread-safe.
+ */
+public class CacheStatistics {
+
+  private static final long LOG_INTERVAL_MS = 10 * 60 * 1000;
+
+  private final String _cacheName;
+  private final Logger _log;
+  private final IntSupplier _size;
+  private final LongAdder _hits = new LongAdder();
+  private final LongAdder _misses = new LongAdder();
+  private final AtomicLong _nextLogTime = new AtomicLong(System.currentTimeMillis() + LOG_INTERVAL_MS);
+
+  /**
+   * @param cacheName name of the cache in the summary, e.g. "User info cache"
+   * @param log logger the summary is periodically written to
+   * @param size supplies the current number of cache entries
+   */
+  public CacheStatistics(String cacheName, Logger log, IntSupplier size) {
+    _cacheName = cacheName;
+    _log = log;
+    _size = size;
+  }
+
+  public void addHits(int count) {
+    _hits.add(count);
+  }
+
+  public void addMisses(int count) {
+    _misses.add(count);
+  }
+
+  public long getHitCount() {
+    return _hits.sum();
+  }
+
+  public long getMissCount() {
+    return _misses.sum();
+  }
+
+  /**
+   * Logs the summary if the logging interval has passed since it was last logged
+   *
+   * @param now current time in millis
+   */
+  public void logIfDue(long now) {
+    long next = _nextLogTime.get();
+    // only one caller wins the right to log each interval
+    if (now >= next && _nextLogTime.compareAndSet(next, now + LOG_INTERVAL_MS)) {
+      _log.info(toString());
+    }
+  }
+
+  /**
+   * @return summary of cache size and hit/miss counts since creation
+   */
+  @Override
+  public String toString() {
+    long hits = getHitCount();
+    long misses = getMissCount();
+    long lookups = hits + misses;
+    return _cacheName + ": " + _size.getAsInt() + " entries, " + lookups + " lookups, " +
+        hits + " hits, " + misses + " misses, hit ratio " +
+        (lookups == 0 ? "n/a" : String.format("%.3f", (double)hits / lookups));
+  }
+}
@@ -0,0 +1,205 @@
+package org.gusdb.oauth2.shared;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+/**
+ * Streams a JWT claims object as UTF-8 into a byte buffer that is pooled and
+ * reused for many tokens, so claims can be handed to
+ * JwsSigner.sign(ClaimsWriter) without building a JsonObject, a String or a
+ * byte array per token.  Typical use:
+ *
+ * <pre>
+ *   try (ClaimsWriter claims = ClaimsWriter.acquire()) {
+ *     JsonGenerator json = claims.start();
+ *     json.write("sub", userId);
+ *     ...
+ *     claims.end(json);
+ *     String token = signer.sign(claims);
+ *   }
+ * </pre>
+ *
+ * close() returns the writer to the pool, so it must not be used afterward;
+ * a writer that is not closed is simply garbage collected.  Instances are not
+ * thread-safe and must be used by one thread at a time.
+ */
+public class ClaimsWriter implements AutoCloseable {
+
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
+  private static final JsonGeneratorFactory GENERATOR_FACTORY =
+      Json.createGeneratorFactory(Collections.emptyMap());
+
+  // max number of idle writers kept for reuse
+  private static final int MAX_IDLE_WRITERS = 256;
+
+  private static final ObjectPool<ClaimsWriter> WRITERS = new ObjectPool<>(MAX_IDLE_WRITERS, ClaimsWriter::new);
+
+  /**
+   * @return a claims writer from the pool; close it once its claims are signed
+   */
+  public static ClaimsWriter acquire() {
+    ClaimsWriter writer = WRITERS.take();
+    writer._closed = false;
+    return writer;
+  }
+
+  private byte[] _buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int _length;
+  private final Writer _utf8Writer = new Utf8BufferWriter();
+  private boolean _closed = false;
+
+  private ClaimsWriter() { }
+
+  /**
+   * Returns this writer to the pool.  Closing a writer more than once has no
+   * further effect.
+   */
+  @Override
+  public void close() {
+    if (!_closed) {
+      _closed = true;
+      WRITERS.give(this);
+    }
+  }
+
+  /**
+   * Discards any previously written claims and opens a new claims object.
+   *
+   * @return generator positioned inside the claims object
+   */
+  public JsonGenerator start() {
+    _length = 0;
+    JsonGenerator generator = GENERATOR_FACTORY.createGenerator(_utf8Writer);
+    generator.writeStartObject();
+    return generator;
+  }
+
+  /**
+   * Closes the claims object opened by start() and flushes it to the buffer.
+   *
+   * @param generator generator returned by start()
+   */
+  public void end(JsonGenerator generator) {
+    generator.writeEnd();
+    generator.close();
+  }
+
+  /**
+   * @return buffer holding the written claims as UTF-8; only the first
+   * getLength() bytes are valid
+   */
+  public byte[] getBuffer() {
+    return _buffer;
+  }
+
+  public int getLength() {
+    return _length;
+  }
+
+  /**
+   * @return the written claims as a JSON string (allocates; use for logging)
+   */
+  @Override
+  public String toString() {
+    return new String(_buffer, 0, _length, StandardCharsets.UTF_8);
+  }
+
+  private void ensureCapacity(int additionalBytes) {
+    if (_length + additionalBytes > _buffer.length) {
+      _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _length + additionalBytes));
+    }
+  }
+
+  /**
+   * Encodes characters written by the generator as UTF-8 directly into the
+   * enclosing buffer.  The generator may split a surrogate pair across two
+   * writes, so a dangling high surrogate is held until the next character.
+   */
+  private class Utf8BufferWriter extends Writer {
+
+    private char _highSurrogate;
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+      ensureCapacity(length * 3 + 1);
+      for (int i = offset; i < offset + length; i++) {
+        encode(chars[i]);
+      }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) {
+      ensureCapacity(length * 3 + 1);
+      for (int i = offset; i < offset + length; i++) {
+        encode(str.charAt(i));
+      }
+    }
+
+    @Override
+    public void write(int c) {
+      ensureCapacity(4);
+      encode((char)c);
+    }
+
+    // caller has ensured room for 3 bytes per char, plus one byte for a
+    // surrogate held over from the previous write
+    private void encode(char c) {
+      byte[] buf = _buffer;
+      if (_highSurrogate != 0) {
+        char high = _highSurrogate;
+        _highSurrogate = 0;
+        if (Character.isLowSurrogate(c)) {
+          int codePoint = Character.toCodePoint(high, c);
+          buf[_length++] = (byte)(0xF0 | (codePoint >> 18));
+          buf[_length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+          buf[_length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+          buf[_length++] = (byte)(0x80 | (codePoint & 0x3F));
+          return;
+        }
+        // unpaired surrogate; replace as String.getBytes() would
+        buf[_length++] = '?';
+      }
+      if (c < 0x80) {
+        buf[_length++] = (byte)c;
+      }
+      else if (c < 0x800) {
+        buf[_length++] = (byte)(0xC0 | (c >> 6));
+        buf[_length++] = (byte)(0x80 | (c & 0x3F));
+      }
+      else if (Character.isHighSurrogate(c)) {
+        _highSurrogate = c;
+      }
+      else if (Character.isLowSurrogate(c)) {
+        buf[_length++] = '?';
+      }
+      else {
+        buf[_length++] = (byte)(0xE0 | (c >> 12));
+        buf[_length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        buf[_length++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+
+    @Override
+    public void flush() {
+      // nothing buffered outside the enclosing buffer
+    }
+
+    @Override
+    public void close() {
+      // the generator closes its writer; replace a trailing unpaired surrogate
+      // and keep the writer usable for the next claims object
+      if (_highSurrogate != 0) {
+        _highSurrogate = 0;
+        ensureCapacity(1);
+        _buffer[_length++] = '?';
+      }
+    }
+  }
+}
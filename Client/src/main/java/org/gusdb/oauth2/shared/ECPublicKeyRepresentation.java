@@ -17,7 +17,8 @@ import java.util.Base64;
 import java.util.Objects;
 
 /**
- * Handles conversion of EC-521 public key to the following formats:
+ * Handles conversion of EC public keys (P-521 unless another curve is named)
+ * to the following formats:
  * - ECPublicKey object
  * - Base64 encoded string
  * - X and Y EC Coordinates
@@ -43,7 +44,16 @@ public class ECPublicKeyRepresentation {
   }
 
   public ECPublicKeyRepresentation(String x, String y) {
-    _key = toECPublicKey(x, y);
+    this(x, y, "P-521");
+  }
+
+  /**
+   * @param x base64url-encoded X coordinate
+   * @param y base64url-encoded Y coordinate
+   * @param curveName JWK curve name: P-256, P-384 or P-521
+   */
+  public ECPublicKeyRepresentation(String x, String y, String curveName) {
+    _key = toECPublicKey(x, y, toJcaCurveName(curveName));
   }
 
   public ECPublicKey getPublicKey() {
@@ -70,10 +80,18 @@ public class ECPublicKeyRepresentation {
     }
   }
 
-  private static ECPublicKey toECPublicKey(String xStr, String yStr) {
+  private static String toJcaCurveName(String curveName) {
+    switch (curveName) {
+      case "P-256": return "secp256r1";
+      case "P-384": return "secp384r1";
+      case "P-521": return "secp521r1";
+      default: throw new IllegalArgumentException("Unsupported curve: " + curveName);
+    }
+  }
+
+  private static ECPublicKey toECPublicKey(String xStr, String yStr, String jcaName) {
     try {
       String algorithm = "EC";
-      String jcaName = "secp521r1";
 
       BigInteger x = new BigInteger(1, Base64.getUrlDecoder().decode(xStr));
       BigInteger y = new BigInteger(1, Base64.getUrlDecoder().decode(yStr));
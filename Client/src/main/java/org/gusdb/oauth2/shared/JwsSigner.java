@@ -0,0 +1,245 @@
+package org.gusdb.oauth2.shared;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.Signature;
+
+import javax.crypto.Mac;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Signs JWT payloads with a single key, producing JWS compact serializations
+ * (header.payload.signature) identical in form to those produced by jjwt's
+ * JwtBuilder.  If a key ID is given, it is written into each header as "kid".
+ * Unlike JwtBuilder, all per-key work is done once: the encoded header is
+ * computed at construction, and initialized Signatures (ECDSA) or Macs (HMAC)
+ * for this key, along with the buffers tokens are assembled in, are pooled
+ * and reused by every thread signing with this instance.  Payloads written with a ClaimsWriter are
+ * base64url-encoded straight from its buffer, so signing a token allocates
+ * little beyond the returned String.
+ *
+ * Instances are thread-safe and intended to live as long as their key.
+ * Supported algorithms are HS256/384/512 and ES256/384/512.
+ */
+public class JwsSigner {
+
+  private static final byte[] BASE64URL_ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+  // large enough for any supported signature (ES512)
+  private static final int MAX_SIGNATURE_LENGTH = 132;
+
+  // max number of idle signers kept for reuse, per key
+  private static final int MAX_IDLE_STATES = 256;
+
+  @FunctionalInterface
+  private interface RawSigner {
+    /**
+     * Signs the first length bytes of data, writing the signature to the
+     * start of the passed buffer
+     *
+     * @return length of the signature
+     */
+    int sign(byte[] data, int length, byte[] signature) throws GeneralSecurityException;
+  }
+
+  @FunctionalInterface
+  private interface RawSignerFactory {
+    RawSigner newSigner() throws GeneralSecurityException;
+  }
+
+  /**
+   * A signer for this key and the buffers it assembles tokens in
+   */
+  private static class SigningState {
+    final RawSigner signer;
+    final byte[] signature = new byte[MAX_SIGNATURE_LENGTH];
+    byte[] jws = new byte[1024];
+    SigningState(RawSigner signer) { this.signer = signer; }
+  }
+
+  private final SignatureAlgorithm _algorithm;
+  private final byte[] _encodedHeader; // includes trailing '.'
+  private final int _encodedSignatureLength;
+  private final RawSignerFactory _signerFactory;
+  private final ObjectPool<SigningState> _states;
+
+  /**
+   * @param algorithm algorithm used to sign
+   * @param key key used to sign; a SecretKey for HMAC algorithms, an EC
+   * PrivateKey for ECDSA algorithms
+   * @throws IllegalArgumentException if the algorithm is not supported or
+   * the key cannot be used with it
+   */
+  public JwsSigner(SignatureAlgorithm algorithm, Key key) {
+    this(algorithm, key, null);
+  }
+
+  /**
+   * @param algorithm algorithm used to sign
+   * @param key key used to sign; a SecretKey for HMAC algorithms, an EC
+   * PrivateKey for ECDSA algorithms
+   * @param keyId key ID written to token headers, or null to omit it
+   * @throws IllegalArgumentException if the algorithm is not supported or
+   * the key cannot be used with it
+   */
+  public JwsSigner(SignatureAlgorithm algorithm, Key key, String keyId) {
+    _algorithm = algorithm;
+    JsonObjectBuilder header = Json.createObjectBuilder().add("alg", algorithm.getValue());
+    if (keyId != null) header.add("kid", keyId);
+    byte[] headerBytes = header.build().toString().getBytes(StandardCharsets.UTF_8);
+    _encodedHeader = new byte[encodedLength(headerBytes.length) + 1];
+    base64UrlEncode(headerBytes, headerBytes.length, _encodedHeader, 0);
+    _encodedHeader[_encodedHeader.length - 1] = '.';
+    _encodedSignatureLength = encodedLength(signatureLength(algorithm));
+    _signerFactory = getSignerFactory(algorithm, key);
+    try {
+      // fail fast on an unusable key rather than on first use
+      _signerFactory.newSigner();
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("Key cannot be used to sign with " + algorithm.getValue(), e);
+    }
+    RawSignerFactory signerFactory = _signerFactory;
+    _states = new ObjectPool<>(MAX_IDLE_STATES, () -> {
+      try {
+        return new SigningState(signerFactory.newSigner());
+      }
+      catch (GeneralSecurityException e) {
+        // already succeeded once in the constructor
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+  private static RawSignerFactory getSignerFactory(SignatureAlgorithm algorithm, Key key) {
+    if (algorithm.isHmac()) {
+      return () -> {
+        Mac mac = Mac.getInstance(algorithm.getJcaName());
+        mac.init(key);
+        return (data, length, signature) -> {
+          mac.update(data, 0, length);
+          mac.doFinal(signature, 0);
+          return mac.getMacLength();
+        };
+      };
+    }
+    if (algorithm.isEllipticCurve() && key instanceof PrivateKey) {
+      // JWS wants the fixed-length R|S (IEEE P1363) form of the signature
+      // rather than the DER encoding produced by plain SHAxxxwithECDSA
+      return () -> {
+        Signature signer = Signature.getInstance(algorithm.getJcaName() + "inP1363Format");
+        signer.initSign((PrivateKey)key);
+        return (data, length, signature) -> {
+          signer.update(data, 0, length);
+          return signer.sign(signature, 0, signature.length);
+        };
+      };
+    }
+    throw new IllegalArgumentException("Unsupported signing algorithm or key type: " +
+        algorithm.getValue() + ", " + key.getAlgorithm());
+  }
+
+  public SignatureAlgorithm getAlgorithm() {
+    return _algorithm;
+  }
+
+  /**
+   * @param payload JWT claims (or other payload) as a JSON string
+   * @return JWS compact serialization of the signed payload
+   */
+  public String sign(String payload) {
+    byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+    return sign(payloadBytes, payloadBytes.length);
+  }
+
+  /**
+   * @param claims JWT claims written since the writer's last start()
+   * @return JWS compact serialization of the signed claims
+   */
+  public String sign(ClaimsWriter claims) {
+    return sign(claims.getBuffer(), claims.getLength());
+  }
+
+  private String sign(byte[] payload, int payloadLength) {
+    SigningState state = _states.take();
+
+    // header and payload segments form both the signing input and the
+    // start of the output; leave room for the signature segment after them
+    int signingInputLength = _encodedHeader.length + encodedLength(payloadLength);
+    int jwsLength = signingInputLength + 1 + _encodedSignatureLength;
+    if (state.jws.length < jwsLength) {
+      state.jws = new byte[Math.max(jwsLength, state.jws.length * 2)];
+    }
+    byte[] jws = state.jws;
+    System.arraycopy(_encodedHeader, 0, jws, 0, _encodedHeader.length);
+    base64UrlEncode(payload, payloadLength, jws, _encodedHeader.length);
+
+    int signatureLength;
+    try {
+      signatureLength = state.signer.sign(jws, signingInputLength, state.signature);
+    }
+    catch (GeneralSecurityException e) {
+      // the signer's state is unknown, so it is not returned to the pool
+      throw new IllegalStateException("Unable to sign token with " + _algorithm.getValue(), e);
+    }
+
+    jws[signingInputLength] = '.';
+    base64UrlEncode(state.signature, signatureLength, jws, signingInputLength + 1);
+    String token = new String(jws, 0, jwsLength, StandardCharsets.US_ASCII);
+    _states.give(state);
+    return token;
+  }
+
+  /**
+   * Base64url-encodes (without padding) the first length bytes of src into
+   * dest, starting at destOffset
+   */
+  private static void base64UrlEncode(byte[] src, int length, byte[] dest, int destOffset) {
+    int d = destOffset;
+    int fullGroupsEnd = length - length % 3;
+    for (int s = 0; s < fullGroupsEnd; s += 3) {
+      int bits = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8 | (src[s + 2] & 0xFF);
+      dest[d++] = BASE64URL_ALPHABET[bits >>> 18];
+      dest[d++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3F];
+      dest[d++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3F];
+      dest[d++] = BASE64URL_ALPHABET[bits & 0x3F];
+    }
+    int remaining = length - fullGroupsEnd;
+    if (remaining > 0) {
+      int bits = (src[fullGroupsEnd] & 0xFF) << 16 | (remaining == 2 ? (src[fullGroupsEnd + 1] & 0xFF) << 8 : 0);
+      dest[d++] = BASE64URL_ALPHABET[bits >>> 18];
+      dest[d++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3F];
+      if (remaining == 2) {
+        dest[d++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3F];
+      }
+    }
+  }
+
+  /**
+   * @return length of the unpadded base64url encoding of the passed number of bytes
+   */
+  private static int encodedLength(int byteCount) {
+    return (byteCount * 4 + 2) / 3;
+  }
+
+  /**
+   * @return length in bytes of signatures produced with the passed algorithm
+   */
+  private static int signatureLength(SignatureAlgorithm algorithm) {
+    switch (algorithm) {
+      case HS256: return 32;
+      case HS384: return 48;
+      case HS512: return 64;
+      case ES256: return 64;
+      case ES384: return 96;
+      case ES512: return MAX_SIGNATURE_LENGTH;
+      default: throw new IllegalArgumentException("Unsupported signing algorithm: " + algorithm.getValue());
+    }
+  }
+}
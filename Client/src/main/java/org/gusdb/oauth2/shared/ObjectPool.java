@@ -0,0 +1,63 @@
+package org.gusdb.oauth2.shared;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of reusable objects (e.g. initialized signers and their
+ * buffers).  Used instead of ThreadLocals, whose values stay reachable from
+ * container threads, and with them the webapp's class loader, after the
+ * webapp is undeployed; pooled objects are reachable only from their pool.
+ *
+ * Objects are taken with take(), which creates one if none is idle, and
+ * handed back with give() once no longer used.  Objects that are not handed
+ * back (e.g. because using them failed and their state is unknown) are simply
+ * garbage collected, as are those handed back when maxIdle are already idle.
+ * The most recently returned object is reused first.
+ *
+ * Thread-safe.
+ *
+ * @param <T> type of pooled object
+ */
+class ObjectPool<T> {
+
+  private final Deque<T> _idle = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger _idleCount = new AtomicInteger(); // Deque.size() is O(n)
+  private final int _maxIdle;
+  private final Supplier<T> _factory;
+
+  /**
+   * @param maxIdle max number of idle objects kept for reuse
+   * @param factory creates a new object when none is idle
+   */
+  ObjectPool(int maxIdle, Supplier<T> factory) {
+    _maxIdle = maxIdle;
+    _factory = factory;
+  }
+
+  /**
+   * @return an idle object, or a new one if none is idle
+   */
+  T take() {
+    T obj = _idle.pollFirst();
+    if (obj == null) {
+      return _factory.get();
+    }
+    _idleCount.decrementAndGet();
+    return obj;
+  }
+
+  /**
+   * Returns an object obtained from take() to the pool; it must not be used
+   * by the caller afterward.
+   */
+  void give(T obj) {
+    if (_idleCount.incrementAndGet() > _maxIdle) {
+      _idleCount.decrementAndGet();
+      return;
+    }
+    _idle.offerFirst(obj);
+  }
+}
@@ -2,9 +2,7 @@ package org.gusdb.oauth2.shared;
 
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
-import java.security.Key;
 import java.security.KeyPair;
-import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.interfaces.ECPublicKey;
 import java.util.HashMap;
@@ -12,6 +10,7 @@ import java.util.Map;
 
 import javax.crypto.SecretKey;
 import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonStructure;
 import javax.json.JsonWriter;
@@ -21,7 +20,6 @@ import org.apache.logging.log4j.LogManager;
 import org.gusdb.oauth2.exception.CryptoException;
 import org.gusdb.oauth2.shared.ECPublicKeyRepresentation.ECCoordinateStrings;
 
-import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.impl.crypto.EllipticCurveProvider;
 import io.jsonwebtoken.security.Keys;
@@ -31,15 +29,24 @@ public class Signatures {
   public static final SignatureAlgorithm SECRET_KEY_ALGORITHM = SignatureAlgorithm.HS512;
   public static final SignatureAlgorithm ASYMMETRIC_KEY_ALGORITHM = SignatureAlgorithm.ES512;
 
-  public static final TokenSigner SECRET_KEY_SIGNER = Signatures::createJwtFromJsonHmac;
-  public static final TokenSigner ASYMMETRIC_KEY_SIGNER = Signatures::createJwtFromJsonEcdsa;
+  public static final TokenSigner SECRET_KEY_SIGNER = (keyStore, clientId, clientSecret) -> keyStore.getSecretKeySigner(clientId, clientSecret);
+  public static final TokenSigner ASYMMETRIC_KEY_SIGNER = (keyStore, clientId, clientSecret) -> keyStore.getAsyncKeySigner();
 
   private static final int MINIMUM_SEED_LENGTH = 16;
 
   public interface TokenSigner {
     /**
-     * Takes a JSON object representing a JWT and produces a JWS (i.e. signed JWT).  The
-     * signing strategy decides how to procure a key from the passed config and token data.
+     * Procures the signer for a token from the passed key store and token data.
+     *
+     * @param keyStore set of signing keys for this application
+     * @param clientId client ID
+     * @param clientSecret client secret
+     * @return signer to sign the token with
+     */
+    JwsSigner getSigner(SigningKeyStore keyStore, String clientId, String clientSecret);
+
+    /**
+     * Takes a JSON object representing a JWT and produces a JWS (i.e. signed JWT).
      *
      * @param tokenJson raw JSON that constitutes the JWT (claims as properties)
      * @param keyStore set of signing keys for this application
@@ -47,7 +54,33 @@ public class Signatures {
      * @param clientSecret client secret
      * @return signed token string
      */
-    String getSignedEncodedToken(JsonObject tokenJson, SigningKeyStore keyStore, String clientId, String clientSecret);
+    default String getSignedEncodedToken(JsonObject tokenJson, SigningKeyStore keyStore, String clientId, String clientSecret) {
+      JwsSigner signer = getSigner(keyStore, clientId, clientSecret);
+      log("Will create " + signer.getAlgorithm().getValue() + " JWT from the following token body: " + prettyPrintJson(tokenJson));
+      String jwt = signer.sign(tokenJson.toString());
+      log("JWT created: " + jwt);
+      return jwt;
+    }
+
+    /**
+     * Produces a JWS from claims streamed into a ClaimsWriter; see ClaimsWriter.
+     *
+     * @param claims writer holding the JWT claims
+     * @param keyStore set of signing keys for this application
+     * @param clientId client ID
+     * @param clientSecret client secret
+     * @return signed token string
+     */
+    default String getSignedEncodedToken(ClaimsWriter claims, SigningKeyStore keyStore, String clientId, String clientSecret) {
+      JwsSigner signer = getSigner(keyStore, clientId, clientSecret);
+      String jwt = signer.sign(claims);
+      // build log messages only when needed; this path is meant to be garbage-free
+      if (LogManager.getLogger(Signatures.class).isDebugEnabled()) {
+        log("Created " + signer.getAlgorithm().getValue() + " JWT from the following token body: " + claims);
+        log("JWT created: " + jwt);
+      }
+      return jwt;
+    }
   }
 
   /**
@@ -67,33 +100,21 @@ public class Signatures {
   }
 
   public static KeyPair getKeyPair(String seed) throws CryptoException {
+    return getKeyPair(seed, ASYMMETRIC_KEY_ALGORITHM);
+  }
+
+  /**
+   * @param seed random seed
+   * @param algorithm elliptic curve algorithm (ES256, ES384 or ES512) the keys will be used with
+   * @return new key pair on the algorithm's curve
+   * @throws CryptoException if the seed is too short
+   */
+  public static KeyPair getKeyPair(String seed, SignatureAlgorithm algorithm) throws CryptoException {
     if (seed == null || seed.length() < MINIMUM_SEED_LENGTH) {
       throw new CryptoException("Asynchronous key pair generation seed must be present and greater than " + MINIMUM_SEED_LENGTH + " characters");
     }
     SecureRandom random = new SecureRandom(seed.getBytes(StandardCharsets.UTF_8));
-    return EllipticCurveProvider.generateKeyPair(ASYMMETRIC_KEY_ALGORITHM, random);
-  }
-
-  private static String createJwtFromJsonHmac(JsonObject tokenJson, SigningKeyStore keyStore, String clientId, String clientSecret) {
-    Key key = keyStore.getSecretKey(clientId, clientSecret);
-    log("Will create JWT using HMAC from the following token body: " + prettyPrintJson(tokenJson));
-    String jwt = Jwts.builder()
-        .setPayload(tokenJson.toString())
-        .signWith(key)
-        .compact();
-    log("JWT created: " + jwt);
-    return jwt;
-  }
-
-  private static String createJwtFromJsonEcdsa(JsonObject tokenJson, SigningKeyStore keyStore, String clientId, String clientSecret) {
-    PrivateKey privateKey = keyStore.getAsyncKeys().getPrivate();
-    log("Will create JWT using ECDSA from the following token body: " + prettyPrintJson(tokenJson));
-    String jwt = Jwts.builder()
-        .setPayload(tokenJson.toString())
-        .signWith(privateKey)
-        .compact();
-    log("JWT created: " + jwt);
-    return jwt;
+    return EllipticCurveProvider.generateKeyPair(algorithm, random);
   }
 
   private static void log(String message) {
@@ -101,6 +122,10 @@ public class Signatures {
   }
 
   private static String prettyPrintJson(JsonStructure json) {
+    // skip the formatting work unless it will be logged
+    if (!LogManager.getLogger(Signatures.class).isDebugEnabled()) {
+      return "";
+    }
     Map<String, Boolean> config = new HashMap<>();
     config.put(JsonGenerator.PRETTY_PRINTING, true);
     StringWriter writer = new StringWriter();
@@ -112,35 +137,49 @@ public class Signatures {
 
   public static JsonObject getJwksContent(SigningKeyStore keyStore) {
 
+    JsonArrayBuilder keys = Json.createArrayBuilder()
+      .add(Json.createObjectBuilder()
+        .add("kid", "0")
+        .add("use", "sig")
+        .add("fmt", keyStore.getSecretKeyFormat())
+        .add("kty", "oct")
+        .add("alg", Signatures.SECRET_KEY_ALGORITHM.getValue())
+        .add("k", "<your_client_secret>")
+        .build());
+
+    // list the active key first; clients that ignore kid use the first EC key
+    AsyncSigningKey activeKey = keyStore.getActiveAsyncKey();
+    keys.add(getJwk(activeKey));
+    for (AsyncSigningKey key : keyStore.getAsyncSigningKeys()) {
+      if (key != activeKey) {
+        keys.add(getJwk(key));
+      }
+    }
+
+    return Json.createObjectBuilder()
+      .add("keys", keys.build())
+      .build();
+  }
+
+  private static JsonObject getJwk(AsyncSigningKey key) {
+
     // get the public key and be able to represent it as base64 or as xy coordinates
-    ECPublicKey publicKey = (ECPublicKey)keyStore.getAsyncKeys().getPublic();
+    ECPublicKey publicKey = (ECPublicKey)key.getKeyPair().getPublic();
     ECPublicKeyRepresentation publicKeyRep = new ECPublicKeyRepresentation(publicKey);
     ECCoordinateStrings publicKeyCoords = publicKeyRep.getCoordinates();
 
     return Json.createObjectBuilder()
-      .add("keys", Json.createArrayBuilder()
-        .add(Json.createObjectBuilder()
-          .add("kid", "0")
-          .add("use", "sig")
-          .add("fmt", keyStore.getSecretKeyFormat())
-          .add("kty", "oct")
-          .add("alg", Signatures.SECRET_KEY_ALGORITHM.getValue())
-          .add("k", "<your_client_secret>")
-          .build())
-        .add(Json.createObjectBuilder()
-          .add("kid", "1")
-          .add("use", "sig")
-          .add("fmt", publicKey.getFormat())
-          .add("kty", "EC")
-          .add("alg", Signatures.ASYMMETRIC_KEY_ALGORITHM.getValue())
-          .add("crv","P-521")
-          .add("x", publicKeyCoords.getX())
-          .add("y", publicKeyCoords.getY())
-          // Note: some clients may find it easier to use the base-64 encoded
-          //       key vs coordinates, so including here as an extra property
-          .add("k", publicKeyRep.getBase64String())
-          .build())
-        .build())
+      .add("kid", key.getKeyId())
+      .add("use", "sig")
+      .add("fmt", publicKey.getFormat())
+      .add("kty", "EC")
+      .add("alg", key.getAlgorithm().getValue())
+      .add("crv", key.getCurveName())
+      .add("x", publicKeyCoords.getX())
+      .add("y", publicKeyCoords.getY())
+      // Note: some clients may find it easier to use the base-64 encoded
+      //       key vs coordinates, so including here as an extra property
+      .add("k", publicKeyRep.getBase64String())
       .build();
   }
 
@@ -1,7 +1,11 @@
 package org.gusdb.oauth2.shared;
 
 import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,29 +21,61 @@ public class SigningKeyStore {
 
   private static final Logger LOG = LogManager.getLogger(SigningKeyStore.class);
 
-  // async keys for bearer tokens
-  private final KeyPair _asyncKeys;
+  // key ID of the async key when only one is configured (as published before key rotation)
+  public static final String DEFAULT_ASYNC_KEY_ID = "1";
+
+  // async keys for bearer tokens, newest activation time first
+  private final List<AsyncSigningKey> _asyncKeys;
 
   // maps client IDs -> client secrets -> SecretKey objects representing those secrets
   private final Map<String,Map<String,SecretKey>> _clientSecretKeys = new HashMap<>();
 
+  // maps client IDs -> client secrets -> signers using those secrets
+  private final Map<String,Map<String,JwsSigner>> _clientSecretSigners = new HashMap<>();
+
   // secret key format (for JWKS)
   private String _secretKeyFormat;
 
   public SigningKeyStore(String asyncKeysRandomSeed) throws CryptoException {
-    _asyncKeys = Signatures.getKeyPair(asyncKeysRandomSeed);
+    this(Signatures.getKeyPair(asyncKeysRandomSeed));
   }
 
   public SigningKeyStore(KeyPair asyncKeys) {
-    _asyncKeys = asyncKeys;
+    this(List.of(new AsyncSigningKey(DEFAULT_ASYNC_KEY_ID, asyncKeys, 0)));
+  }
+
+  /**
+   * Creates a key store holding multiple async keys.  At any time, the key
+   * with the latest activation time not in the future signs new tokens;
+   * all keys are published in the JWKS so tokens signed by a previously
+   * active key still validate and clients can learn a key before it becomes
+   * active.
+   *
+   * @param asyncKeys async signing keys; key IDs must be unique and at least
+   * one key must already be active
+   */
+  public SigningKeyStore(List<AsyncSigningKey> asyncKeys) {
+    List<AsyncSigningKey> keys = new ArrayList<>(asyncKeys);
+    keys.sort(Comparator.comparingLong(AsyncSigningKey::getActivationTime).reversed());
+    if (keys.stream().map(AsyncSigningKey::getKeyId).distinct().count() != keys.size()) {
+      throw new IllegalArgumentException("Async signing key IDs must be unique");
+    }
+    _asyncKeys = Collections.unmodifiableList(keys);
+    // fail fast rather than on the first token request; reads the local list
+    //   since getActiveAsyncKey() may be overridden by subclasses
+    AsyncSigningKey activeKey = findActiveKey(keys);
+    LOG.info("Tokens will be signed with key '" + activeKey.getKeyId() + "' (" +
+        activeKey.getAlgorithm().getValue() + "); " + keys.size() + " key(s) published");
   }
 
   public void setClientSigningKeys(String clientId, Set<String> rawSigningKeys) throws CryptoException {
     Map<String,SecretKey> secretMap = new HashMap<>();
+    Map<String,JwsSigner> signerMap = new HashMap<>();
     for (String rawSigningKey : rawSigningKeys) {
       try {
         SecretKey signingKey = Signatures.getValidatedSecretKey(rawSigningKey);
         secretMap.put(rawSigningKey, signingKey);
+        signerMap.put(rawSigningKey, new JwsSigner(Signatures.SECRET_KEY_ALGORITHM, signingKey));
         if (_secretKeyFormat == null) {
           _secretKeyFormat = signingKey.getFormat();
         }
@@ -51,16 +87,56 @@ public class SigningKeyStore {
       }
     }
     _clientSecretKeys.put(clientId, secretMap);
+    _clientSecretSigners.put(clientId, signerMap);
   }
 
+  /**
+   * @return key pair of the currently active async key
+   */
   public KeyPair getAsyncKeys() {
+    return getActiveAsyncKey().getKeyPair();
+  }
+
+  /**
+   * @return signer using the currently active async key
+   */
+  public JwsSigner getAsyncKeySigner() {
+    return getActiveAsyncKey().getSigner();
+  }
+
+  /**
+   * @return all async keys, including inactive ones, newest activation time first
+   */
+  public List<AsyncSigningKey> getAsyncSigningKeys() {
     return _asyncKeys;
   }
 
+  /**
+   * @return the async key with the latest activation time that is not in the future
+   */
+  public AsyncSigningKey getActiveAsyncKey() {
+    return findActiveKey(_asyncKeys);
+  }
+
+  // keys must be sorted newest activation time first
+  private static AsyncSigningKey findActiveKey(List<AsyncSigningKey> keys) {
+    long now = System.currentTimeMillis();
+    for (AsyncSigningKey key : keys) {
+      if (key.getActivationTime() <= now) {
+        return key;
+      }
+    }
+    throw new IllegalStateException("No async signing key is active yet");
+  }
+
   public SecretKey getSecretKey(String clientId, String clientSecret) {
     return _clientSecretKeys.get(clientId).get(clientSecret);
   }
 
+  public JwsSigner getSecretKeySigner(String clientId, String clientSecret) {
+    return _clientSecretSigners.get(clientId).get(clientSecret);
+  }
+
   public String getSecretKeyFormat() {
     if (_secretKeyFormat == null) {
       throw new IllegalStateException("At least one client must be configured.");
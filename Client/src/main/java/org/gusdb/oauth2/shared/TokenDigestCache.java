@@ -0,0 +1,169 @@
+package org.gusdb.oauth2.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the result of checking a token (e.g. verifying its signature)
+ * until the token expires.  Entries are keyed by the SHA-256 digest of the
+ * token (the token itself is never stored) and each is dropped once its
+ * expiration time passes.  Cached values are shared by all callers presenting
+ * the token, so they must not be modified.
+ *
+ * At most maxSize tokens are remembered.  When full, expired entries are
+ * swept (at most once a second); if none can be removed, new entries are
+ * simply not cached until room is made.  A size of zero disables caching.
+ *
+ * Thread-safe.
+ *
+ * @param <T> type of the cached result
+ */
+public class TokenDigestCache<T> {
+
+  private static final long MIN_SWEEP_INTERVAL_MS = 1000;
+
+  // max number of idle digests kept for reuse
+  private static final int MAX_IDLE_DIGESTS = 256;
+
+  private static final ObjectPool<MessageDigest> DIGESTS = new ObjectPool<>(MAX_IDLE_DIGESTS, () -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every JRE must support SHA-256
+      throw new IllegalStateException(e);
+    }
+  });
+
+  private static class Entry<T> {
+
+    final T value;
+    final long expirationTime;
+
+    Entry(T value, long expirationTime) {
+      this.value = value;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  private final int _maxSize;
+  private final String _cacheName;
+  private final Logger _log;
+  private final Map<ByteBuffer, Entry<T>> _entries = new ConcurrentHashMap<>();
+  private final AtomicLong _lastSweepTime = new AtomicLong();
+  private final CacheStatistics _stats;
+
+  /**
+   * @param maxSize max number of tokens remembered; zero disables caching
+   * @param cacheName name of the cache in log messages, e.g. "Verified token cache"
+   * @param log logger statistics and sweeps are written to
+   */
+  public TokenDigestCache(int maxSize, String cacheName, Logger log) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException(cacheName + " size cannot be negative");
+    }
+    _maxSize = maxSize;
+    _cacheName = cacheName;
+    _log = log;
+    _stats = new CacheStatistics(cacheName, log, _entries::size);
+  }
+
+  /**
+   * Computes the key of a token.  Pass any context the token's result depends
+   * on (e.g. the URL of the server that signed it) before the token itself.
+   *
+   * @param values context values, if any, followed by the token
+   * @return SHA-256 digest of the passed values
+   */
+  public static ByteBuffer digest(String... values) {
+    MessageDigest digest = DIGESTS.take();
+    for (int i = 0; i < values.length - 1; i++) {
+      digest.update(values[i].getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0); // separator; tokens and URLs contain no nulls
+    }
+    // digest() resets the digest for reuse
+    ByteBuffer key = ByteBuffer.wrap(digest.digest(values[values.length - 1].getBytes(StandardCharsets.UTF_8)));
+    DIGESTS.give(digest);
+    return key;
+  }
+
+  public boolean isEnabled() {
+    return _maxSize > 0;
+  }
+
+  /**
+   * Counts a hit if an unexpired entry is found under the passed key, else a miss
+   *
+   * @param key token digest
+   * @return cached value, or null if not present or expired
+   */
+  public T get(ByteBuffer key) {
+    long now = System.currentTimeMillis();
+    _stats.logIfDue(now);
+    Entry<T> entry = _entries.get(key);
+    if (entry != null) {
+      if (entry.expirationTime > now) {
+        _stats.addHits(1);
+        return entry.value;
+      }
+      _entries.remove(key, entry);
+    }
+    _stats.addMisses(1);
+    return null;
+  }
+
+  /**
+   * Caches the passed value if there is room for it
+   *
+   * @param key token digest
+   * @param value value to return for the token until it expires
+   * @param expirationTime time in millis the token expires; Long.MAX_VALUE
+   * for tokens that never do, which are kept until swept by a full cache
+   */
+  public void put(ByteBuffer key, T value, long expirationTime) {
+    if (_maxSize > 0 && (_entries.size() < _maxSize || sweepExpired(System.currentTimeMillis()))) {
+      _entries.put(key, new Entry<>(value, expirationTime));
+    }
+  }
+
+  /**
+   * Removes expired entries unless a sweep was done within the last second
+   *
+   * @return true if the cache now has room for another entry
+   */
+  private boolean sweepExpired(long now) {
+    long lastSweep = _lastSweepTime.get();
+    if (now - lastSweep >= MIN_SWEEP_INTERVAL_MS && _lastSweepTime.compareAndSet(lastSweep, now)) {
+      int sizeBefore = _entries.size();
+      _entries.values().removeIf(entry -> entry.expirationTime <= now);
+      _log.debug("Swept " + (sizeBefore - _entries.size()) + " expired tokens from " + _cacheName.toLowerCase());
+    }
+    return _entries.size() < _maxSize;
+  }
+
+  public long getHitCount() {
+    return _stats.getHitCount();
+  }
+
+  public long getMissCount() {
+    return _stats.getMissCount();
+  }
+
+  public int getSize() {
+    return _entries.size();
+  }
+
+  /**
+   * @return summary of cache size and hit/miss counts since creation
+   */
+  public String getStatistics() {
+    return _stats.toString();
+  }
+}
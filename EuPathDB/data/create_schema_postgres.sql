@@ -29,6 +29,34 @@ CREATE TABLE USERACCOUNTS.ACCOUNT_PROPERTIES (
      REFERENCES USERACCOUNTS.ACCOUNTS (USER_ID)
 );
 
+-- supports case-insensitive lookup of users by username property
+CREATE INDEX ACCOUNT_PROPS_USERNAME_IX
+  ON USERACCOUNTS.ACCOUNT_PROPERTIES (LOWER(VALUE)) WHERE KEY = 'username';
+
+-- Account_Profiles table: optional projection of ACCOUNT_PROPERTIES with one
+--   column per user property, maintained by the OAuth server when its
+--   useProfileProjection option is enabled; load with AccountProfilesTool.
+--   Other applications writing ACCOUNTS or ACCOUNT_PROPERTIES must maintain it
+--   too, or stale rows must be rebuilt with AccountProfilesTool's repair mode
+CREATE TABLE USERACCOUNTS.ACCOUNT_PROFILES (
+  USER_ID            BIGINT NOT NULL,
+  USERNAME           VARCHAR(4000),
+  FIRST_NAME         VARCHAR(4000),
+  MIDDLE_NAME        VARCHAR(4000),
+  LAST_NAME          VARCHAR(4000),
+  ORGANIZATION       VARCHAR(4000),
+  ORGANIZATION_TYPE  VARCHAR(4000),
+  COUNTRY            VARCHAR(4000),
+  POSITION           VARCHAR(4000),
+  GROUP_NAME         VARCHAR(4000),
+  GROUP_TYPE         VARCHAR(4000),
+  SUBSCRIPTION_TOKEN VARCHAR(4000),
+  INTERESTS          VARCHAR(4000),
+  CONSTRAINT ACCOUNT_PROFILES_PK PRIMARY KEY (USER_ID),
+  CONSTRAINT ACCOUNT_PROFILES_USER_ID_FKEY FOREIGN KEY (USER_ID)
+     REFERENCES USERACCOUNTS.ACCOUNTS (USER_ID)
+);
+
 -- Guest_IDs table
 CREATE TABLE USERACCOUNTS.GUEST_IDS (
   USER_ID       BIGINT NOT NULL,
@@ -65,6 +93,11 @@ GRANT SELECT ON USERACCOUNTS.ACCOUNT_PROPERTIES TO USERACCTS_W;
 GRANT INSERT ON USERACCOUNTS.ACCOUNT_PROPERTIES TO USERACCTS_W;
 GRANT UPDATE ON USERACCOUNTS.ACCOUNT_PROPERTIES TO USERACCTS_W;
 GRANT DELETE ON USERACCOUNTS.ACCOUNT_PROPERTIES TO USERACCTS_W;
+GRANT SELECT ON USERACCOUNTS.ACCOUNT_PROFILES TO USERACCTS_R;
+GRANT SELECT ON USERACCOUNTS.ACCOUNT_PROFILES TO USERACCTS_W;
+GRANT INSERT ON USERACCOUNTS.ACCOUNT_PROFILES TO USERACCTS_W;
+GRANT UPDATE ON USERACCOUNTS.ACCOUNT_PROFILES TO USERACCTS_W;
+GRANT DELETE ON USERACCOUNTS.ACCOUNT_PROFILES TO USERACCTS_W;
 GRANT SELECT ON USERACCOUNTS.GUEST_IDS TO USERACCTS_R;
 GRANT SELECT ON USERACCOUNTS.GUEST_IDS TO USERACCTS_W;
 GRANT INSERT ON USERACCOUNTS.GUEST_IDS TO USERACCTS_W;
@@ -23,6 +23,34 @@ CREATE TABLE "USERACCOUNTS"."ACCOUNT_PROPERTIES" (
      REFERENCES "USERACCOUNTS.ACCOUNTS" ("USER_ID")
 );
 
+-- supports case-insensitive lookup of users by username property
+CREATE INDEX "USERACCOUNTS"."ACCOUNT_PROPS_USERNAME_IX"
+  ON "USERACCOUNTS"."ACCOUNT_PROPERTIES" ("KEY", LOWER("VALUE"));
+
+-- Account_Profiles table: optional projection of ACCOUNT_PROPERTIES with one
+--   column per user property, maintained by the OAuth server when its
+--   useProfileProjection option is enabled; load with AccountProfilesTool.
+--   Other applications writing ACCOUNTS or ACCOUNT_PROPERTIES must maintain it
+--   too, or stale rows must be rebuilt with AccountProfilesTool's repair mode
+CREATE TABLE "USERACCOUNTS"."ACCOUNT_PROFILES" (
+  "USER_ID"            NUMBER(12,0) NOT NULL ENABLE,
+  "USERNAME"           VARCHAR2(4000 BYTE),
+  "FIRST_NAME"         VARCHAR2(4000 BYTE),
+  "MIDDLE_NAME"        VARCHAR2(4000 BYTE),
+  "LAST_NAME"          VARCHAR2(4000 BYTE),
+  "ORGANIZATION"       VARCHAR2(4000 BYTE),
+  "ORGANIZATION_TYPE"  VARCHAR2(4000 BYTE),
+  "COUNTRY"            VARCHAR2(4000 BYTE),
+  "POSITION"           VARCHAR2(4000 BYTE),
+  "GROUP_NAME"         VARCHAR2(4000 BYTE),
+  "GROUP_TYPE"         VARCHAR2(4000 BYTE),
+  "SUBSCRIPTION_TOKEN" VARCHAR2(4000 BYTE),
+  "INTERESTS"          VARCHAR2(4000 BYTE),
+  CONSTRAINT "ACCOUNT_PROFILES_PK" PRIMARY KEY ("USER_ID"),
+  CONSTRAINT "ACCOUNT_PROFILES_USER_ID_FKEY" FOREIGN KEY ("USER_ID")
+     REFERENCES "USERACCOUNTS.ACCOUNTS" ("USER_ID")
+);
+
 -- Guest_IDs table
 CREATE TABLE "USERACCOUNTS"."GUEST_IDS" (
   "USER_ID"       NUMBER(12,0) NOT NULL ENABLE,
@@ -60,6 +88,11 @@ GRANT SELECT ON "USERACCOUNTS"."ACCOUNT_PROPERTIES" TO "USERACCTS_W";
 GRANT INSERT ON "USERACCOUNTS"."ACCOUNT_PROPERTIES" TO "USERACCTS_W";
 GRANT UPDATE ON "USERACCOUNTS"."ACCOUNT_PROPERTIES" TO "USERACCTS_W";
 GRANT DELETE ON "USERACCOUNTS"."ACCOUNT_PROPERTIES" TO "USERACCTS_W";
+GRANT SELECT ON "USERACCOUNTS"."ACCOUNT_PROFILES" TO "USERACCTS_R";
+GRANT SELECT ON "USERACCOUNTS"."ACCOUNT_PROFILES" TO "USERACCTS_W";
+GRANT INSERT ON "USERACCOUNTS"."ACCOUNT_PROFILES" TO "USERACCTS_W";
+GRANT UPDATE ON "USERACCOUNTS"."ACCOUNT_PROFILES" TO "USERACCTS_W";
+GRANT DELETE ON "USERACCOUNTS"."ACCOUNT_PROFILES" TO "USERACCTS_W";
 GRANT SELECT ON "USERACCOUNTS"."GUEST_IDS" TO "USERACCTS_R";
 GRANT SELECT ON "USERACCOUNTS"."GUEST_IDS" TO "USERACCTS_W";
 GRANT INSERT ON "USERACCOUNTS"."GUEST_IDS" TO "USERACCTS_W";
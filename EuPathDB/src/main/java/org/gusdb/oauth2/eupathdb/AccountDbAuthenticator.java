@@ -4,20 +4,22 @@ import static org.gusdb.fgputil.FormatUtil.getInnerClassLog4jName;
 import static org.gusdb.oauth2.client.veupathdb.UserInfo.USER_PROPERTY_LIST;
 
 import java.net.URI;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Random;
 import java.util.stream.Collectors;
 
 import javax.json.Json;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
 
 import org.apache.log4j.Logger;
 import org.gusdb.fgputil.db.platform.SupportedPlatform;
@@ -31,10 +33,13 @@ import org.gusdb.fgputil.functional.Functions;
 import org.gusdb.oauth2.Authenticator;
 import org.gusdb.oauth2.InitializationException;
 import org.gusdb.oauth2.UserAccountInfo;
+import org.gusdb.oauth2.UserInfoCache;
 import org.gusdb.oauth2.client.veupathdb.UserInfo;
 import org.gusdb.oauth2.client.veupathdb.UserProperty;
 import org.gusdb.oauth2.client.veupathdb.UserProperty.InputType;
 import org.gusdb.oauth2.eupathdb.accountdb.AccountDbManager;
+import org.gusdb.oauth2.eupathdb.accountdb.AccountDbWriteBehind;
+import org.gusdb.oauth2.eupathdb.accountdb.UserIdBlockAllocator;
 import org.gusdb.oauth2.eupathdb.accountdb.UserProfile;
 import org.gusdb.oauth2.exception.ConflictException;
 import org.gusdb.oauth2.exception.InvalidPropertiesException;
@@ -44,6 +49,9 @@ public class AccountDbAuthenticator implements Authenticator {
 
   private static final Logger LOG = Logger.getLogger(AccountDbAuthenticator.class);
 
+  // Json.createValue() looks up the provider on every call
+  private static final JsonProvider JSON_PROVIDER = JsonProvider.provider();
+
   private static final int BEARER_TOKEN_ID_LENGTH = 20;
 
   // create specially scoped Logger to write the login recording log
@@ -57,12 +65,34 @@ public class AccountDbAuthenticator implements Authenticator {
     platform,
     poolSize,
     schema,
-    adminUserIds
+    adminUserIds,
+    writeBehindQueueSize,
+    writeBehindFlushIntervalMs,
+    guestIdBlockSize,
+    userInfoCacheSize,
+    userInfoCacheTtlSecs,
+    useProfileProjection
   }
 
+  private static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10000;
+  private static final int DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS = 1000;
+  private static final int DEFAULT_GUEST_ID_BLOCK_SIZE = 100;
+  private static final int DEFAULT_USER_INFO_CACHE_SIZE = 10000;
+  private static final int DEFAULT_USER_INFO_CACHE_TTL_SECS = 60;
+
   private DatabaseInstance _accountDb;
+  private AccountDbManager _accountMgr;
   private String _schema;
   private List<String> _adminUserIds;
+  private int _writeBehindQueueSize = DEFAULT_WRITE_BEHIND_QUEUE_SIZE;
+  private int _writeBehindFlushIntervalMs = DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS;
+  private int _guestIdBlockSize = DEFAULT_GUEST_ID_BLOCK_SIZE;
+  private int _userInfoCacheSize = DEFAULT_USER_INFO_CACHE_SIZE;
+  private int _userInfoCacheTtlSecs = DEFAULT_USER_INFO_CACHE_TTL_SECS;
+  private boolean _useProfileProjection = false;
+  private AccountDbWriteBehind _writeBehind;
+  private UserIdBlockAllocator _guestIdAllocator;
+  private UserInfoCache _userInfoCache;
 
   public AccountDbInfo getAccountDbInfo() {
     return new AccountDbInfo(_accountDb, _schema);
@@ -81,6 +111,12 @@ public class AccountDbAuthenticator implements Authenticator {
         (short)configJson.getInt(JsonKey.poolSize.name()));
     String schema = configJson.getString(JsonKey.schema.name());
     List<String> adminUserIds = List.of(configJson.getString(JsonKey.adminUserIds.name(), "").split(","));
+    _writeBehindQueueSize = configJson.getInt(JsonKey.writeBehindQueueSize.name(), DEFAULT_WRITE_BEHIND_QUEUE_SIZE);
+    _writeBehindFlushIntervalMs = configJson.getInt(JsonKey.writeBehindFlushIntervalMs.name(), DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS);
+    _guestIdBlockSize = configJson.getInt(JsonKey.guestIdBlockSize.name(), DEFAULT_GUEST_ID_BLOCK_SIZE);
+    _useProfileProjection = configJson.getBoolean(JsonKey.useProfileProjection.name(), false);
+    _userInfoCacheSize = configJson.getInt(JsonKey.userInfoCacheSize.name(), DEFAULT_USER_INFO_CACHE_SIZE);
+    _userInfoCacheTtlSecs = configJson.getInt(JsonKey.userInfoCacheTtlSecs.name(), DEFAULT_USER_INFO_CACHE_TTL_SECS);
     initialize(dbConfig, schema, adminUserIds);
     QueryLogger.initialize(new QueryLogConfig(){}); // use defaults
   }
@@ -91,29 +127,70 @@ public class AccountDbAuthenticator implements Authenticator {
     if (!schema.isEmpty() && !schema.endsWith(".")) schema += ".";
     _schema = schema;
     _adminUserIds = adminUserIds;
+    // shared by all requests; renders its SQL once here
+    _accountMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST, _useProfileProjection);
+    _writeBehind = new AccountDbWriteBehind(_accountMgr, _writeBehindQueueSize, _writeBehindFlushIntervalMs);
+    _guestIdAllocator = new UserIdBlockAllocator(_accountMgr, _guestIdBlockSize);
+    _userInfoCache = new UserInfoCache(_userInfoCacheSize, _userInfoCacheTtlSecs);
   }
 
-  // WDK uses email and password
+  // WDK uses email and password; only the user ID is needed here, so the profile is not loaded
   @Override
   public Optional<String> isCredentialsValid(String username, String password) throws Exception {
-    return Optional.ofNullable(
-        new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).getUserProfile(username, password))
-      .map(profile -> profile.getUserId().toString());
+    return Optional.ofNullable(_accountMgr.getUserIdByCredentials(username, password))
+      .map(userId -> userId.toString());
   }
 
   @Override
   public Optional<UserAccountInfo> getUserInfoByLoginName(String loginName, DataScope scope) throws Exception {
-    return getUserInfo(new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).getUserProfileByUsernameOrEmail(loginName), scope);
+    return getUserInfo(_accountMgr.getUserProfileByUsernameOrEmail(loginName), scope);
   }
 
   @Override
   public Optional<UserAccountInfo> getUserInfoByUserId(String userId, DataScope scope) throws Exception {
-    return getUserInfo(new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).getUserProfile(Long.valueOf(userId)), scope);
+    return _userInfoCache.get(userId, scope, (id, sc) ->
+      getUserInfo(_accountMgr.getUserProfile(Long.valueOf(id)), sc));
+  }
+
+  /**
+   * Looks up the profile info of registered users, then guests, with the
+   * passed IDs.  Registered users are read through the user info cache; all
+   * cache misses, and then all guests not awaiting write-behind, are each read
+   * in one query per AccountDbManager.MAX_IN_LIST_SIZE IDs.
+   *
+   * @return profile info of found users, keyed by user ID; IDs not found are absent
+   */
+  Map<Long, UserAccountInfo> getUserInfoByUserIds(Collection<Long> userIds) throws Exception {
+    Map<Long, UserAccountInfo> users = new HashMap<>();
+    List<String> userIdStrs = userIds.stream().map(String::valueOf).collect(Collectors.toList());
+    _userInfoCache.getAll(userIdStrs, DataScope.PROFILE, (ids, scope) -> {
+      Map<String, UserAccountInfo> loaded = new HashMap<>();
+      List<Long> idsToLoad = ids.stream().map(Long::valueOf).collect(Collectors.toList());
+      for (UserProfile profile : _accountMgr.getUserProfiles(idsToLoad).values()) {
+        loaded.put(profile.getUserId().toString(), createUserInfoObject(profile, true, scope));
+      }
+      return loaded;
+    }).forEach((id, user) -> users.put(Long.valueOf(id), user));
+
+    // look for guests among the rest
+    List<Long> guestIds = new ArrayList<>();
+    for (Long userId : userIds) {
+      if (!users.containsKey(userId)) guestIds.add(userId);
+    }
+    try {
+      _accountMgr.findGuestCreationDates(guestIds)
+        .forEach((userId, date) -> users.put(userId, createGuestInfo(userId, date)));
+    }
+    catch (SQLRunnerException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return users;
   }
 
   @Override
   public void resetPassword(String userId, String newPassword) {
-    new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).updatePassword(Long.valueOf(userId), newPassword);
+    _accountMgr.updatePassword(Long.valueOf(userId), newPassword);
+    _userInfoCache.invalidate(userId);
   }
 
   @Override
@@ -174,38 +251,38 @@ public class AccountDbAuthenticator implements Authenticator {
       }
       @Override
       public Map<String, JsonValue> getSupplementalFields() {
-        JsonObjectBuilder builder = Json.createObjectBuilder();
+        // values go straight into the map the token writer streams from
+        Map<String,JsonValue> fields = new LinkedHashMap<>();
         Map<String,String> props = profile.getProperties();
         switch (scope) {
           case PROFILE:
             for (String propName : UserInfo.USER_PROPERTIES.keySet()) {
-              builder.add(propName, Optional.ofNullable(props.get(propName)).orElse(""));
+              fields.put(propName, JSON_PROVIDER.createValue(Optional.ofNullable(props.get(propName)).orElse("")));
             }
             break;
           case ID_TOKEN:
-            builder.add("name", UserInfo.formatDisplayName(
+            fields.put("name", JSON_PROVIDER.createValue(UserInfo.formatDisplayName(
                 props.get("firstName"),
                 props.get("middleName"),
                 props.get("lastName")
-            ));
-            builder.add("organization", props.get("organization"));
+            )));
+            fields.put("organization", JSON_PROVIDER.createValue(props.get("organization")));
             break;
           case BEARER_TOKEN:
           default:
             return Collections.emptyMap();
         }
-        // convert JSON object to map of String -> JsonValue
-        return builder.build().entrySet().stream()
-            .peek(entry -> LOG.debug("Adding entry to supplemental fields: " + entry.getKey() + " -> " + entry.getValue().toString()))
-            .collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-
+        if (LOG.isDebugEnabled()) {
+          fields.forEach((key, value) -> LOG.debug("Adding entry to supplemental fields: " + key + " -> " + value));
+        }
+        return fields;
       }
     };
   }
 
   // protected so TestAuthenticator can override
   protected UserProfile getUserProfile(String userId) {
-    return new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).getUserProfile(Long.valueOf(userId));
+    return _accountMgr.getUserProfile(Long.valueOf(userId));
   }
 
   @Override
@@ -219,29 +296,35 @@ public class AccountDbAuthenticator implements Authenticator {
   @Override
   public GuestIds getNextGuestIds(TokenTimestamps timestamps) {
     try {
-      AccountDbManager acctMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
-
-      // get user ID for the guest
-      String userId = acctMgr.createGuestAccount("guest_").getUserId().toString();
+      // get user ID for the guest; usually from an already reserved block
+      long guestUserId = _guestIdAllocator.getNextUserId();
 
       // get token ID for this specific token
       String tokenId = generateRandomChars(BEARER_TOKEN_ID_LENGTH);
 
-      // insert row
-      acctMgr.insertGuestIds(userId, tokenId, timestamps);
+      // insert row, batched with concurrent requests; returns once committed
+      _writeBehind.insertGuestIds(guestUserId, tokenId, timestamps.getCreationDate());
 
+      String userId = String.valueOf(guestUserId);
       return new GuestIds() {
         @Override public String getUserId() { return userId; }
         @Override public String getTokenId() { return tokenId; }
       };
     }
-    catch (SQLException e) {
-      throw new RuntimeException("Unable to generate next guest ID", e);
+    catch (SQLRunnerException e) {
+      throw new RuntimeException("Unable to generate next guest ID", e.getCause());
     }
   }
 
   @Override
   public void close() {
+    // flush pending writes while the DB is still open
+    if (_writeBehind != null) {
+      _writeBehind.close();
+    }
+    if (_userInfoCache != null) {
+      LOG.info(_userInfoCache.getStatistics());
+    }
     if (_accountDb != null) {
       try {
         _accountDb.close();
@@ -255,14 +338,14 @@ public class AccountDbAuthenticator implements Authenticator {
   @Override
   public void overwritePassword(String username, String newPassword) throws Exception {
     UserProfile profile = getUserProfile(username);
-    new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).updatePassword(profile.getUserId(), newPassword);
+    _accountMgr.updatePassword(profile.getUserId(), newPassword);
+    _userInfoCache.invalidate(profile.getUserId().toString());
   }
 
   @Override
   public JsonValue executeQuery(JsonObject querySpec)
       throws UnsupportedOperationException, IllegalArgumentException {
-    AccountDbManager acctDb = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
-    return new UserQueryHandler(this, acctDb).handleQuery(querySpec);
+    return new UserQueryHandler(this, _accountMgr).handleQuery(querySpec);
   }
 
   @Override
@@ -282,10 +365,9 @@ public class AccountDbAuthenticator implements Authenticator {
 
   @Override
   public UserAccountInfo createUser(UserPropertiesRequest userProps, String initialPassword) throws ConflictException, InvalidPropertiesException {
-    AccountDbManager accountMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
-    validateUserProps(accountMgr, userProps, Optional.empty());
+    validateUserProps(_accountMgr, userProps, Optional.empty());
     UserProfile newUser = Functions.mapException(
-        () -> accountMgr.createAccount(userProps.getEmail(), initialPassword, userProps),
+        () -> _accountMgr.createAccount(userProps.getEmail(), initialPassword, userProps),
         e -> new RuntimeException(e)); // all exceptions at this point are 500s
     return createUserInfoObject(newUser, false, DataScope.PROFILE);
   }
@@ -362,44 +444,44 @@ public class AccountDbAuthenticator implements Authenticator {
 
   @Override
   public UserAccountInfo modifyUser(String userIdStr, UserPropertiesRequest userProps) throws ConflictException, InvalidPropertiesException {
-    AccountDbManager accountMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
     Long userId = Long.valueOf(userIdStr);
-    validateUserProps(accountMgr, userProps, Optional.of(userId));
+    validateUserProps(_accountMgr, userProps, Optional.of(userId));
     Functions.mapException(
-        () -> accountMgr.saveUserProfile(userId, userProps.getEmail(), userProps),
+        () -> _accountMgr.saveUserProfile(userId, userProps.getEmail(), userProps),
         e -> new RuntimeException(e)); // all exceptions at this point are 500s
+    _userInfoCache.invalidate(userIdStr);
     // after saving, read object back out of DB
-    UserProfile user = accountMgr.getUserProfile(userId);
+    UserProfile user = _accountMgr.getUserProfile(userId);
     return createUserInfoObject(user, true, DataScope.PROFILE);
   }
 
   @Override
   public void deleteUser(String userIdStr) {
-    AccountDbManager accountMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
     Long userId = Long.valueOf(userIdStr);
-    accountMgr.anonymizeUser(userId);
+    _accountMgr.anonymizeUser(userId);
+    _userInfoCache.invalidate(userIdStr);
   }
 
   @Override
   public Optional<UserAccountInfo> getGuestProfileInfo(String userIdStr) {
     try {
       long userId = Long.valueOf(userIdStr);
-      AccountDbManager accountMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
-      Optional<Date> creationDate = accountMgr.findGuestCreationDate(userId);
-      return creationDate.map(date -> {
-        UserProfile guest = AccountDbManager.createGuestProfile("guest", userId, date);
-        return createUserInfoObject(guest, false, DataScope.PROFILE);
-      });
+      return _accountMgr.findGuestCreationDate(userId).map(date -> createGuestInfo(userId, date));
     }
     catch (SQLRunnerException e) {
       throw new RuntimeException(e.getCause());
     }
   }
 
+  private UserAccountInfo createGuestInfo(long userId, Date creationDate) {
+    UserProfile guest = AccountDbManager.createGuestProfile("guest", userId, creationDate);
+    return createUserInfoObject(guest, false, DataScope.PROFILE);
+  }
+
   @Override
   public void updateLastLoginTimestamp(String userId) {
-    AccountDbManager accountMgr = new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST);
-    accountMgr.updateLastLogin(Long.valueOf(userId));
+    // written asynchronously; not needed to complete the login
+    _writeBehind.updateLastLogin(Long.valueOf(userId));
   }
 
   @Override
@@ -413,7 +495,8 @@ public class AccountDbAuthenticator implements Authenticator {
       throw new RuntimeException("This method should not be used to generate token IDs for guest users.");
     }
 
-    new AccountDbManager(_accountDb, _schema, USER_PROPERTY_LIST).writeBearerTokenRecord(
+    // written asynchronously; the record is not read back while the token is being issued
+    _writeBehind.writeBearerTokenRecord(
         Long.valueOf(userInfo.getUserId()),
         tokenId,
         timestamps.getCreationDate(),
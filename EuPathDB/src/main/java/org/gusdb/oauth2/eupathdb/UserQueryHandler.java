@@ -1,5 +1,6 @@
 package org.gusdb.oauth2.eupathdb;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -14,6 +15,7 @@ import javax.json.JsonObject;
 import javax.json.JsonValue;
 import javax.json.stream.JsonParsingException;
 
+import org.gusdb.fgputil.functional.Functions;
 import org.gusdb.oauth2.Authenticator.DataScope;
 import org.gusdb.oauth2.eupathdb.accountdb.AccountDbManager;
 import org.gusdb.oauth2.eupathdb.accountdb.UserProfile;
@@ -56,12 +58,11 @@ public class UserQueryHandler {
 
         case userIds:
           JsonArray idInputArray = querySpec.getJsonArray(ValidQueryTypePropKey.userIds.name());
-          JsonArrayBuilder idOutputArray = Json.createArrayBuilder();
-          Map<Long,JsonObject> idCache = new HashMap<>();
+          List<Long> requestedUserIds = new ArrayList<>();
           for (int i = 0; i < idInputArray.size(); i++) {
-            idOutputArray.add(idCache.computeIfAbsent(idInputArray.getJsonNumber(i).longValue(), id -> getUserJsonById(id)));
+            requestedUserIds.add(idInputArray.getJsonNumber(i).longValue());
           }
-          return idOutputArray.build();
+          return getUsersJsonByIds(requestedUserIds);
 
         case email:
           String requestedEmail = querySpec.getString(ValidQueryTypePropKey.email.name());
@@ -69,12 +70,11 @@ public class UserQueryHandler {
 
         case emails:
           JsonArray emailInputArray = querySpec.getJsonArray(ValidQueryTypePropKey.emails.name());
-          JsonArrayBuilder emailOutputArray = Json.createArrayBuilder();
-          Map<String,JsonObject> emailCache = new HashMap<>();
+          List<String> requestedEmails = new ArrayList<>();
           for (int i = 0; i < emailInputArray.size(); i++) {
-            emailOutputArray.add(emailCache.computeIfAbsent(emailInputArray.getString(i), email -> getUserJsonByEmail(email)));
+            requestedEmails.add(emailInputArray.getString(i));
           }
-          return emailOutputArray.build();
+          return getUsersJsonByEmails(requestedEmails);
 
         default:
           throw new IllegalStateException("This should never happen.");
@@ -88,37 +88,72 @@ public class UserQueryHandler {
   private JsonObject getUserJsonByEmail(String requestedEmail) {
     // only registered users have email
     UserProfile userProfile = _accountDb.getUserProfileByEmail(requestedEmail);
-    if (userProfile == null) {
-      return Json.createObjectBuilder()
-        .add(IdTokenFields.email.name(), requestedEmail)
-        .add(FOUND_KEY, false)
-        .build();
+    return userProfile == null
+      ? getNotFoundJson(IdTokenFields.email, requestedEmail)
+      : getFoundJson(_authenticator.getUserInfo(userProfile, DataScope.PROFILE).get());
+  }
+
+  // all users are loaded at once; results are returned in the order requested
+  private JsonArray getUsersJsonByEmails(List<String> requestedEmails) {
+    Map<String, UserProfile> profiles = _accountDb.getUserProfilesByEmails(requestedEmails);
+    JsonArrayBuilder output = Json.createArrayBuilder();
+    Map<String, JsonObject> emailCache = new HashMap<>();
+    for (String requestedEmail : requestedEmails) {
+      output.add(emailCache.computeIfAbsent(requestedEmail, email -> {
+        UserProfile userProfile = profiles.get(AccountDbManager.trimAndLowercase(email));
+        return userProfile == null
+          ? getNotFoundJson(IdTokenFields.email, email)
+          : getFoundJson(_authenticator.getUserInfo(userProfile, DataScope.PROFILE).get());
+      }));
     }
-    else {
-      UserAccountInfo user = _authenticator.getUserInfo(userProfile, DataScope.PROFILE).get();
-      return OAuthRequestHandler.getUserInfoResponseJson(user, Optional.empty())
-        .add(FOUND_KEY, true)
-        .build();
+    return output.build();
+  }
+
+  // all users are loaded at once; results are returned in the order requested
+  private JsonArray getUsersJsonByIds(List<Long> requestedUserIds) {
+    Map<Long, UserAccountInfo> users = Functions.mapException(
+        () -> _authenticator.getUserInfoByUserIds(requestedUserIds),
+        e -> new RuntimeException(e));
+    JsonArrayBuilder output = Json.createArrayBuilder();
+    Map<Long, JsonObject> idCache = new HashMap<>();
+    for (Long requestedUserId : requestedUserIds) {
+      output.add(idCache.computeIfAbsent(requestedUserId, id -> {
+        UserAccountInfo user = users.get(id);
+        return user == null
+          ? getNotFoundJson(IdTokenFields.sub, String.valueOf(id))
+          : getFoundJson(user);
+      }));
     }
+    return output.build();
   }
 
   private JsonObject getUserJsonById(long requestedUserId) {
-    // look for registered user first
-    UserProfile userProfile = _accountDb.getUserProfile(requestedUserId);
-    Optional<UserAccountInfo> userOpt = userProfile == null
+    // look for registered user first (through the authenticator's user info cache)
+    String userIdStr = String.valueOf(requestedUserId);
+    Optional<UserAccountInfo> userOpt = Functions.mapException(
+        () -> _authenticator.getUserInfoByUserId(userIdStr, DataScope.PROFILE),
+        e -> new RuntimeException(e));
+    if (userOpt.isEmpty()) {
       // no registered user found; look for guest
-      ? _authenticator.getGuestProfileInfo(String.valueOf(requestedUserId))
-      // convert profile to UserInfo
-      : _authenticator.getUserInfo(userProfile, DataScope.PROFILE);
+      userOpt = _authenticator.getGuestProfileInfo(userIdStr);
+    }
     return userOpt
       // found a user with this ID
-      .map(user -> OAuthRequestHandler.getUserInfoResponseJson(user, Optional.empty())
-        .add(FOUND_KEY, true)
-        .build())
+      .map(UserQueryHandler::getFoundJson)
       // did not find user of any type
-      .orElse(Json.createObjectBuilder()
-        .add(IdTokenFields.sub.name(), String.valueOf(requestedUserId))
-        .add(FOUND_KEY, false)
-        .build());
+      .orElseGet(() -> getNotFoundJson(IdTokenFields.sub, userIdStr));
+  }
+
+  private static JsonObject getFoundJson(UserAccountInfo user) {
+    return OAuthRequestHandler.getUserInfoResponseJson(user, Optional.empty())
+      .add(FOUND_KEY, true)
+      .build();
+  }
+
+  private static JsonObject getNotFoundJson(IdTokenFields requestedField, String requestedValue) {
+    return Json.createObjectBuilder()
+      .add(requestedField.name(), requestedValue)
+      .add(FOUND_KEY, false)
+      .build();
   }
 }
@@ -5,21 +5,28 @@ import static org.gusdb.fgputil.FormatUtil.join;
 import static org.gusdb.fgputil.functional.Functions.mapToList;
 import static org.gusdb.fgputil.functional.Functions.pickKeys;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
@@ -27,6 +34,8 @@ import org.gusdb.fgputil.FormatUtil;
 import org.gusdb.fgputil.Tuples.TwoTuple;
 import org.gusdb.fgputil.db.DBStateException;
 import org.gusdb.fgputil.db.SqlUtils;
+import org.gusdb.fgputil.db.platform.DBPlatform;
+import org.gusdb.fgputil.db.platform.Oracle;
 import org.gusdb.fgputil.db.pool.DatabaseInstance;
 import org.gusdb.fgputil.db.runner.ArgumentBatch;
 import org.gusdb.fgputil.db.runner.ParamBuilder;
@@ -37,12 +46,17 @@ import org.gusdb.oauth2.Authenticator.TokenTimestamps;
 import org.gusdb.oauth2.client.veupathdb.UserInfo;
 import org.gusdb.oauth2.client.veupathdb.UserProperty;
 
+/**
+ * Reads and writes user accounts in the account DB.  Instances are immutable
+ * and thread-safe, so a single instance can serve all requests.
+ */
 public class AccountDbManager {
 
   private static final Logger LOG = Logger.getLogger(AccountDbManager.class);
 
   public static final String TABLE_ACCOUNTS = "accounts";
   public static final String TABLE_ACCOUNT_PROPS = "account_properties";
+  public static final String TABLE_ACCOUNT_PROFILES = "account_profiles";
   public static final String TABLE_SUBSCRIPTION_GROUP_LEADS = "subscription_group_leads";
 
   private static final String COL_USER_ID = "user_id";
@@ -60,12 +74,17 @@ public class AccountDbManager {
   private static final String COL_PROP_KEY = "key";
   private static final String COL_PROP_VALUE = "value";
 
+  // account_profiles user_id, aliased to tell a missing projection row from a missing user
+  private static final String COL_PROFILE_USER_ID = "profile_user_id";
+
   private static final String ACCOUNT_SCHEMA_MACRO = "$$ACCOUNT_SCHEMA$$";
-  private static final String DEFINED_PROPERTY_NAMES_MACRO = "$$DEFINED_PROPERTY_NAMES$$";
   private static final String DEFINED_PROPERTY_SELECTION_MACRO = "$$DEFINED_PROPERTIES_MACRO$$";
   private static final String DEFINED_PROPERTY_NAME_MACRO = "$$PROPERTY_NAME$$";
   private static final String EMAIL_LIST_MACRO = "$$EMAIL_LIST$$";
   private static final String ID_LIST_MACRO = "$$ID_LIST$$";
+  private static final String IN_LIST_MACRO = "$$IN_LIST$$";
+  private static final String PROFILE_COLUMNS_MACRO = "$$PROFILE_COLUMNS$$";
+  private static final String PROFILE_VALUES_MACRO = "$$PROFILE_VALUES$$";
 
   private static final String INSERT_USER_SQL =
       "insert into " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " (" + COL_USER_ID +
@@ -97,25 +116,113 @@ public class AccountDbManager {
       "    select " + COL_USER_ID + DEFINED_PROPERTY_SELECTION_MACRO +
       "    from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROPS;
 
-  private static final String SELECT_FLAT_USER_SQL =
+  // returns one row per property of each matched user (or a single row with
+  //   null key/value if the user has none); conditions may only reference
+  //   accounts columns, so property rows are read only for the matched users
+  private static final String SELECT_USER_SQL =
       "select u." + COL_USER_ID +
       "    , " + COL_EMAIL +
       "    , " + COL_IS_GUEST +
       "    , " + COL_SIGNATURE +
       "    , " + COL_STABLE_ID +
       "    , " + COL_REGISTER_TIME +
-      "    , " + COL_LAST_LOGIN + DEFINED_PROPERTY_NAMES_MACRO +
+      "    , " + COL_LAST_LOGIN +
+      "    , p." + COL_PROP_KEY +
+      "    , p." + COL_PROP_VALUE +
       "  from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " u " +
-      "  left join (" +
-      "    " + SELECT_FLAT_USER_PROPS_SQL +
-      "    group by " + COL_USER_ID +
-      "  ) p" +
+      "  left join " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROPS + " p" +
       "  on u." + COL_USER_ID + " = p." + COL_USER_ID;
 
+  // reads only what is needed to check a password; conditions are the same as for SELECT_USER_SQL
+  private static final String SELECT_CREDENTIALS_SQL =
+      "select u." + COL_USER_ID +
+      "    , " + COL_PASSWORD +
+      "  from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " u";
+
+  // returns the accounts row and projection row of each matched user; the
+  //   projection columns are null if the user has no row in account_profiles
+  private static final String SELECT_PROJECTED_USER_SQL =
+      "select u." + COL_USER_ID +
+      "    , " + COL_EMAIL +
+      "    , " + COL_IS_GUEST +
+      "    , " + COL_SIGNATURE +
+      "    , " + COL_STABLE_ID +
+      "    , " + COL_REGISTER_TIME +
+      "    , " + COL_LAST_LOGIN +
+      "    , p." + COL_USER_ID + " as " + COL_PROFILE_USER_ID +
+      PROFILE_COLUMNS_MACRO +
+      "  from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " u " +
+      "  left join " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES + " p" +
+      "  on u." + COL_USER_ID + " = p." + COL_USER_ID;
+
+  private static final String INSERT_PROFILE_SQL =
+      "insert into " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES +
+      " (" + COL_USER_ID + PROFILE_COLUMNS_MACRO + ") values (?" + PROFILE_VALUES_MACRO + ")";
+
+  private static final String REMOVE_PROFILE_SQL =
+      "delete from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES + " where " + COL_USER_ID + " = ?";
+
+  // pivots the property rows of accounts not yet in the projection into it
+  private static final String BACKFILL_PROFILES_SQL =
+      "insert into " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES +
+      " (" + COL_USER_ID + PROFILE_COLUMNS_MACRO + ")" +
+      " select u." + COL_USER_ID + PROFILE_VALUES_MACRO +
+      "  from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " u " +
+      "  left join (" + SELECT_FLAT_USER_PROPS_SQL + " group by " + COL_USER_ID + ") e" +
+      "  on u." + COL_USER_ID + " = e." + COL_USER_ID +
+      " where not exists (select 1 from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES + " p" +
+      "  where p." + COL_USER_ID + " = u." + COL_USER_ID + ")";
+
+  // selects accounts whose projection row is missing or differs from their property rows
+  private static final String SELECT_PROFILE_MISMATCHES_SQL =
+      "select u." + COL_USER_ID +
+      "  from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " u " +
+      "  left join (" + SELECT_FLAT_USER_PROPS_SQL + " group by " + COL_USER_ID + ") e" +
+      "  on u." + COL_USER_ID + " = e." + COL_USER_ID +
+      "  left join " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES + " p" +
+      "  on u." + COL_USER_ID + " = p." + COL_USER_ID +
+      " where p." + COL_USER_ID + " is null" + PROFILE_COLUMNS_MACRO;
+
+  private static final String FIND_PROFILE_MISMATCHES_SQL =
+      SELECT_PROFILE_MISMATCHES_SQL + " order by u." + COL_USER_ID;
+
+  // removes the projection rows that differ from their property rows, so
+  //   that a backfill rebuilds them
+  private static final String REMOVE_MISMATCHED_PROFILES_SQL =
+      "delete from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROFILES +
+      " where " + COL_USER_ID + " in (" + SELECT_PROFILE_MISMATCHES_SQL + ")";
+
   private static final String PROPERTY_COLUMN_SELECTION_SQL =
       ", max(case when key = '" + DEFINED_PROPERTY_NAME_MACRO + "' then value end) as " + DEFINED_PROPERTY_NAME_MACRO;
 
-  private static final String USERNAME_CONDITION = "( " + COL_EMAIL + " = ? OR lower(" + USERNAME_PROPERTY_KEY + ") = lower(?) )";
+  // note: need to qualify user_id column with 'u.' because of join above; not needed for other fields
+  static final String USER_ID_CONDITION = " where u." + COL_USER_ID + " = ?";
+
+  static final String EMAIL_CONDITION = " where " + COL_EMAIL + " = ?";
+
+  // served by the username index defined in data/create_*.sql
+  static final String USERNAME_CONDITION =
+      " where u." + COL_USER_ID + " in (" +
+      " select " + COL_USER_ID + " from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROPS +
+      " where " + COL_PROP_KEY + " = '" + USERNAME_PROPERTY_KEY + "'" +
+      " and lower(" + COL_PROP_VALUE + ") = lower(?) )";
+
+  static final String PASSWORD_CONDITION = " and " + COL_PASSWORD + " = ?";
+
+  static final String SIGNATURE_CONDITION = " where " + COL_SIGNATURE + " = ?";
+
+  // IN_LIST_MACRO is replaced by bind variables; see renderInListSqls()
+  static final String USER_IDS_CONDITION = " where u." + COL_USER_ID + " in (" + IN_LIST_MACRO + ")";
+
+  static final String EMAILS_CONDITION = " where " + COL_EMAIL + " in (" + IN_LIST_MACRO + ")";
+
+  // max number of values bound into a single IN-list (must be a power of two;
+  //   Oracle allows at most 1000)
+  static final int MAX_IN_LIST_SIZE = 512;
+
+  private static final Integer[] USER_ID_PARAM_TYPES = { Types.BIGINT };
+  private static final Integer[] STRING_PARAM_TYPES = { Types.VARCHAR };
+  private static final Integer[] TWO_STRING_PARAM_TYPES = { Types.VARCHAR, Types.VARCHAR };
 
   private static String getUpdateColumnSql(String colName) {
     return "update " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS + " set " + colName + " = ? where " + COL_USER_ID + " = ?";
@@ -127,6 +234,24 @@ public class AccountDbManager {
   private static final String UPDATE_LAST_LOGIN_SQL = getUpdateColumnSql(COL_LAST_LOGIN);
   private static final Integer[] UPDATE_LAST_LOGIN_PARAM_TYPES = { Types.TIMESTAMP, Types.BIGINT };
 
+  private static final String SELECT_GUEST_CREATION_SQL =
+      "select creation_time from " + ACCOUNT_SCHEMA_MACRO + "guest_ids where user_id = ?";
+
+  private static final String SELECT_GUEST_CREATIONS_SQL =
+      "select user_id, creation_time from " + ACCOUNT_SCHEMA_MACRO + "guest_ids where user_id in (" + IN_LIST_MACRO + ")";
+
+  private static final String INSERT_GUEST_ID_SQL =
+      "insert into " + ACCOUNT_SCHEMA_MACRO + "guest_ids (user_id, token_id, creation_time) values (?, ?, ?)";
+  private static final Integer[] INSERT_GUEST_ID_PARAM_TYPES = {
+      Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP
+  };
+
+  private static final String INSERT_BEARER_TOKEN_SQL =
+      "insert into useraccounts.token_ids (token_id, user_id, creation_time, expiration_time, is_revoked) values (?, ?, ?, ?, ?)";
+  private static final Integer[] INSERT_BEARER_TOKEN_PARAM_TYPES = {
+      Types.VARCHAR, Types.BIGINT, Types.TIMESTAMP, Types.TIMESTAMP, Types.INTEGER
+  };
+
   private static final String UPDATE_EMAIL_SQL = getUpdateColumnSql(COL_EMAIL);
   private static final Integer[] UPDATE_EMAIL_PARAM_TYPES = { Types.VARCHAR, Types.BIGINT };
 
@@ -140,47 +265,209 @@ public class AccountDbManager {
       "  from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNTS +
       " where " + COL_USER_ID + " in (" + ID_LIST_MACRO + ")";
 
-  private static final String DELETE_USER_PROPERTIES =
-      "delete from " + ACCOUNT_SCHEMA_MACRO + TABLE_ACCOUNT_PROPS +
-      " where " + COL_USER_ID + " = ?";
-
   private static final String DELETE_USER_GROUP_LEADS =
       "delete from " + ACCOUNT_SCHEMA_MACRO + TABLE_SUBSCRIPTION_GROUP_LEADS +
       " where " + COL_USER_ID + " = ?";
 
   private final DatabaseInstance _accountDb;
   private final String _accountSchema;
-  private final Map<String, UserProperty> _propertyNames = new LinkedHashMap<>();
-  private final String _selectSql;
+  private final Map<String, UserProperty> _propertyNames;
+  private final Map<String, UserProperty> _propertyDbKeys;
+  private final boolean _useProfileProjection;
+
+  // SQL is rendered for the configured schema and properties once, so every
+  //   execution of a statement sends identical text and can reuse the
+  //   driver's cached prepared statement
+  private final String _selectByUserIdSql;
+  private final String _selectByEmailSql;
+  private final String _selectByUsernameSql;
+  private final String _selectByEmailAndPasswordSql;
+  private final String _selectByUsernameAndPasswordSql;
+  private final String _selectBySignatureSql;
+  private final String[] _selectByUserIdsSqls;
+  private final String[] _selectByEmailsSqls;
+  private final String[] _eavSelectByUserIdsSqls;
+  private final String _emailCredentialsSql;
+  private final String _usernameCredentialsSql;
+  private final String _insertUserSql;
+  private final String _insertPropertySql;
+  private final String _removePropertiesSql;
+  private final String _insertProfileSql;
+  private final String _removeProfileSql;
+  private final Integer[] _insertProfileParamTypes;
+  private final String _updatePasswordSql;
+  private final String _updateLastLoginSql;
+  private final String _updateEmailSql;
+  private final String _updateStableIdSql;
+  private final String _deleteUserGroupLeadsSql;
+  private final String _findUserIdsByEmailSql;
+  private final String _findUserIdsSql;
+  private final String _selectGuestCreationSql;
+  private final String[] _selectGuestCreationsSqls;
+  private final String _insertGuestIdSql;
 
   public AccountDbManager(DatabaseInstance accountDb, String accountSchema, List<UserProperty> propertyNames) {
+    this(accountDb, accountSchema, propertyNames, false);
+  }
+
+  /**
+   * @param useProfileProjection if true, the account_profiles projection is
+   * kept up to date on every write and profiles are read from it instead of
+   * from account_properties.  Existing accounts must be loaded into the
+   * projection (see AccountProfilesTool) before enabling, and every
+   * application writing accounts or account_properties must keep the
+   * projection up to date too (or run AccountProfilesTool's repair mode after
+   * writing); rows left stale are served as-is.
+   */
+  public AccountDbManager(DatabaseInstance accountDb, String accountSchema, List<UserProperty> propertyNames, boolean useProfileProjection) {
     _accountDb = accountDb;
     _accountSchema = accountSchema;
+    _useProfileProjection = useProfileProjection;
+    Map<String, UserProperty> names = new LinkedHashMap<>();
+    Map<String, UserProperty> dbKeys = new HashMap<>();
     for (UserProperty prop : propertyNames) {
-      _propertyNames.put(prop.getName(), prop);
+      names.put(prop.getName(), prop);
+      dbKeys.put(prop.getDbKey(), prop);
     }
-    _selectSql = getSelectSql(_accountSchema, propertyNames);
+    _propertyNames = Collections.unmodifiableMap(names);
+    _propertyDbKeys = Collections.unmodifiableMap(dbKeys);
+
+    _selectByUserIdSql = renderSelectSql(USER_ID_CONDITION);
+    _selectByEmailSql = renderSelectSql(EMAIL_CONDITION);
+    _selectByUsernameSql = renderSelectSql(USERNAME_CONDITION);
+    _selectByEmailAndPasswordSql = renderSelectSql(EMAIL_CONDITION + PASSWORD_CONDITION);
+    _selectByUsernameAndPasswordSql = renderSelectSql(USERNAME_CONDITION + PASSWORD_CONDITION);
+    _selectBySignatureSql = renderSelectSql(SIGNATURE_CONDITION);
+    _selectByUserIdsSqls = renderInListSqls(renderSelectSql(USER_IDS_CONDITION));
+    _selectByEmailsSqls = renderInListSqls(renderSelectSql(EMAILS_CONDITION));
+    _eavSelectByUserIdsSqls = renderInListSqls(getSelectSql(accountSchema, USER_IDS_CONDITION));
+    _emailCredentialsSql = getCredentialsSql(accountSchema, EMAIL_CONDITION);
+    _usernameCredentialsSql = getCredentialsSql(accountSchema, USERNAME_CONDITION);
+    _insertUserSql = INSERT_USER_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _insertPropertySql = INSERT_PROPERTY_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _removePropertiesSql = REMOVE_PROPERTIES_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _insertProfileSql = getInsertProfileSql(accountSchema, _propertyNames.values());
+    _removeProfileSql = REMOVE_PROFILE_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _insertProfileParamTypes = new Integer[_propertyNames.size() + 1];
+    Arrays.fill(_insertProfileParamTypes, Types.VARCHAR);
+    _insertProfileParamTypes[0] = Types.BIGINT;
+    _updatePasswordSql = UPDATE_PASSWORD_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _updateLastLoginSql = UPDATE_LAST_LOGIN_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _updateEmailSql = UPDATE_EMAIL_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _updateStableIdSql = getUpdateColumnSql(COL_STABLE_ID).replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _deleteUserGroupLeadsSql = DELETE_USER_GROUP_LEADS.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _findUserIdsByEmailSql = FIND_USER_IDS_BY_EMAIL_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _findUserIdsSql = FIND_USER_IDS.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _selectGuestCreationSql = SELECT_GUEST_CREATION_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+    _selectGuestCreationsSqls = renderInListSqls(SELECT_GUEST_CREATIONS_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema));
+    _insertGuestIdSql = INSERT_GUEST_ID_SQL.replace(ACCOUNT_SCHEMA_MACRO, accountSchema);
+  }
+
+  /**
+   * @return SQL selecting the profiles of users matching the passed condition,
+   * from account_profiles or account_properties as configured
+   */
+  private String renderSelectSql(String condition) {
+    return _useProfileProjection
+        ? getProjectedSelectSql(_accountSchema, _propertyNames.values(), condition)
+        : getSelectSql(_accountSchema, condition);
+  }
+
+  /**
+   * @return SQL selecting the accounts row and property rows of the users
+   * matching the passed condition
+   */
+  static String getSelectSql(String schema, String condition) {
+    return (SELECT_USER_SQL + condition).replace(ACCOUNT_SCHEMA_MACRO, schema);
+  }
+
+  /**
+   * @return SQL selecting the user ID and password hash of the users
+   * matching the passed condition
+   */
+  static String getCredentialsSql(String schema, String condition) {
+    return (SELECT_CREDENTIALS_SQL + condition).replace(ACCOUNT_SCHEMA_MACRO, schema);
+  }
+
+  /**
+   * @return SQL selecting the accounts row and account_profiles row of the
+   * users matching the passed condition
+   */
+  static String getProjectedSelectSql(String schema, Collection<UserProperty> propertyNames, String condition) {
+    return (SELECT_PROJECTED_USER_SQL + condition)
+        .replace(ACCOUNT_SCHEMA_MACRO, schema)
+        .replace(PROFILE_COLUMNS_MACRO, getProfileColumnsSql(propertyNames, ", p.", ""));
   }
 
-  private static String getSelectSql(String schema, List<UserProperty> propertyNames) {
-    return SELECT_FLAT_USER_SQL
+  /**
+   * @return SQL inserting a single account_profiles row; parameters are the
+   * user ID followed by the value of each property, in the passed order
+   */
+  static String getInsertProfileSql(String schema, Collection<UserProperty> propertyNames) {
+    return INSERT_PROFILE_SQL
         .replace(ACCOUNT_SCHEMA_MACRO, schema)
-        .replace(DEFINED_PROPERTY_NAMES_MACRO, join(mapToList(propertyNames,
-            prop -> ", " + prop.getDbKey()).toArray(), ""))
-        .replace(DEFINED_PROPERTY_SELECTION_MACRO, getPropSelectionSql(propertyNames));
+        .replace(PROFILE_COLUMNS_MACRO, getProfileColumnsSql(propertyNames, ", ", ""))
+        .replace(PROFILE_VALUES_MACRO, getProfileColumnsSql(propertyNames, ", ?", null));
+  }
+
+  /**
+   * @return SQL inserting an account_profiles row, built from account_properties,
+   * for each account that does not have one yet
+   */
+  static String getBackfillProfilesSql(String schema, Collection<UserProperty> propertyNames) {
+    return BACKFILL_PROFILES_SQL
+        .replace(ACCOUNT_SCHEMA_MACRO, schema)
+        .replace(DEFINED_PROPERTY_SELECTION_MACRO, getPropSelectionSql(propertyNames))
+        .replace(PROFILE_COLUMNS_MACRO, getProfileColumnsSql(propertyNames, ", ", ""))
+        .replace(PROFILE_VALUES_MACRO, getProfileColumnsSql(propertyNames, ", e.", ""));
   }
 
-  private static String getPropSelectionSql(List<UserProperty> propertyNames) {
+  /**
+   * @return SQL selecting the IDs of accounts whose account_profiles row is
+   * missing or does not match their account_properties rows
+   */
+  static String getFindProfileMismatchesSql(String schema, Collection<UserProperty> propertyNames) {
+    return renderProfileMismatchesSql(FIND_PROFILE_MISMATCHES_SQL, schema, propertyNames);
+  }
+
+  /**
+   * @return SQL deleting the account_profiles rows that do not match their
+   * account_properties rows; a backfill then inserts them again
+   */
+  static String getRemoveMismatchedProfilesSql(String schema, Collection<UserProperty> propertyNames) {
+    return renderProfileMismatchesSql(REMOVE_MISMATCHED_PROFILES_SQL, schema, propertyNames);
+  }
+
+  private static String renderProfileMismatchesSql(String sql, String schema, Collection<UserProperty> propertyNames) {
+    return sql
+        .replace(ACCOUNT_SCHEMA_MACRO, schema)
+        .replace(DEFINED_PROPERTY_SELECTION_MACRO, getPropSelectionSql(propertyNames))
+        .replace(PROFILE_COLUMNS_MACRO, join(mapToList(propertyNames, prop -> {
+          String e = "e." + prop.getDbKey(), p = "p." + prop.getDbKey();
+          return " or " + e + " <> " + p +
+              " or (" + e + " is null and " + p + " is not null)" +
+              " or (" + e + " is not null and " + p + " is null)";
+        }).toArray(), ""));
+  }
+
+  /**
+   * @return one prefix + dbKey + suffix per property, or just the prefix per
+   * property if suffix is null
+   */
+  private static String getProfileColumnsSql(Collection<UserProperty> propertyNames, String prefix, String suffix) {
+    return join(mapToList(propertyNames, prop ->
+      suffix == null ? prefix : prefix + prop.getDbKey() + suffix
+    ).toArray(), "");
+  }
+
+  private static String getPropSelectionSql(Collection<UserProperty> propertyNames) {
     return join(mapToList(propertyNames, prop ->
       PROPERTY_COLUMN_SELECTION_SQL.replace(DEFINED_PROPERTY_NAME_MACRO, prop.getDbKey()
     )).toArray(), "");
   }
 
   public UserProfile getUserProfile(Long userId) {
-    // note: need to qualify user_id column with 'u.' because of join above; not needed for other fields
-    return getSingleUserProfile(" where u." + COL_USER_ID + " = ?",
-        new Object[] { userId },
-        new Integer[] { Types.INTEGER });
+    return getSingleUserProfile(_selectByUserIdSql, new Object[] { userId }, USER_ID_PARAM_TYPES);
   }
 
   public static String trimAndLowercase(String usernameOrEmail) {
@@ -188,54 +475,276 @@ public class AccountDbManager {
   }
 
   public UserProfile getUserProfileByUsername(String username) {
-    return getSingleUserProfile(" where lower(" + USERNAME_PROPERTY_KEY + ") = lower(?)",
-        new Object[] { username.trim() },
-        new Integer[] { Types.VARCHAR });
+    return getSingleUserProfile(_selectByUsernameSql, new Object[] { username.trim() }, STRING_PARAM_TYPES);
   }
 
   public UserProfile getUserProfileByEmail(String email) {
-    return getSingleUserProfile(" where " + COL_EMAIL + " = ?",
-        new Object[] { trimAndLowercase(email) },
-        new Integer[] { Types.VARCHAR });
+    return getSingleUserProfile(_selectByEmailSql, new Object[] { trimAndLowercase(email) }, STRING_PARAM_TYPES);
   }
 
+  /**
+   * Looks up a user by email and by username.  The two lookups are run
+   * separately rather than OR-ed in one query so each can be served by its
+   * own index.
+   *
+   * @throws IllegalStateException if the email and username match different users
+   */
   public UserProfile getUserProfileByUsernameOrEmail(String usernameOrEmail) {
     String trimmedUserNameOrEmail = trimAndLowercase(usernameOrEmail);
-    return getSingleUserProfile(" where " + USERNAME_CONDITION,
-        new Object[] { trimmedUserNameOrEmail, trimmedUserNameOrEmail },
-        new Integer[] { Types.VARCHAR, Types.VARCHAR });
+    return getOnlyMatch(trimmedUserNameOrEmail,
+        getUserProfileByEmail(trimmedUserNameOrEmail),
+        getUserProfileByUsername(trimmedUserNameOrEmail),
+        UserProfile::getUserId);
   }
 
+  /**
+   * Looks up a user by email and password and by username and password
+   *
+   * @throws IllegalStateException if the email and username match different users
+   */
   public UserProfile getUserProfile(String usernameOrEmail, String password) {
     String trimmedUsernameOrEmail = trimAndLowercase(usernameOrEmail);
-    return getSingleUserProfile(" where " + USERNAME_CONDITION + " and " + COL_PASSWORD + " = ?",
-        new Object[] { trimmedUsernameOrEmail, trimmedUsernameOrEmail, encryptPassword(password) },
-        new Integer[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+    Object[] params = { trimmedUsernameOrEmail, encryptPassword(password) };
+    return getOnlyMatch(trimmedUsernameOrEmail,
+        getSingleUserProfile(_selectByEmailAndPasswordSql, params, TWO_STRING_PARAM_TYPES),
+        getSingleUserProfile(_selectByUsernameAndPasswordSql, params, TWO_STRING_PARAM_TYPES),
+        UserProfile::getUserId);
   }
 
-  public UserProfile getUserProfileBySignature(String signature) {
-    return getSingleUserProfile(" where " + COL_SIGNATURE + " = ?",
-        new Object[] { signature },
-        new Integer[] { Types.VARCHAR });
-  }
-
-  private UserProfile getSingleUserProfile(final String condition, final Object[] params, final Integer[] types) {
-    String sql = new StringBuilder(_selectSql).append(condition).toString();
-    LOG.debug("Running the following SQL: " + sql);
-    return new SQLRunner(_accountDb.getDataSource(), sql).executeQuery(params, types, rs -> {
-      if (rs.next()) {
-        UserProfile profile = loadUserProfile(rs, _propertyNames.values());
-        if (rs.next()) {
-          throw new IllegalStateException("More than one user found under condition '" +
-              condition + "' with values: " + FormatUtil.join(params, ", "));
+  /**
+   * Checks a login by email and password and by username and password, the
+   * same way getUserProfile(String, String) finds a user, but reads only the
+   * user ID and password hash of the matched accounts rather than the full
+   * profile.
+   *
+   * @return ID of the user with the passed credentials, or null if none
+   * @throws IllegalStateException if the email and username match different users
+   */
+  public Long getUserIdByCredentials(String usernameOrEmail, String password) {
+    String trimmedUsernameOrEmail = trimAndLowercase(usernameOrEmail);
+    byte[] encryptedPassword = encryptPassword(password).getBytes(StandardCharsets.UTF_8);
+    return getOnlyMatch(trimmedUsernameOrEmail,
+        findUserIdByCredentials(_emailCredentialsSql, trimmedUsernameOrEmail, encryptedPassword),
+        findUserIdByCredentials(_usernameCredentialsSql, trimmedUsernameOrEmail, encryptedPassword),
+        Function.identity());
+  }
+
+  /**
+   * Combines the results of looking a user up by email and by username.  One
+   * user's email may be another's username, in which case the login is
+   * ambiguous and neither user is chosen.
+   *
+   * @return the user found by either lookup, or null if neither found one
+   * @throws IllegalStateException if the lookups found different users
+   */
+  private static <T> T getOnlyMatch(String usernameOrEmail, T emailMatch, T usernameMatch, Function<T, Long> getUserId) {
+    if (emailMatch == null) return usernameMatch;
+    if (usernameMatch != null && !getUserId.apply(emailMatch).equals(getUserId.apply(usernameMatch))) {
+      throw new IllegalStateException("More than one user found by email or username '" + usernameOrEmail + "'");
+    }
+    return emailMatch;
+  }
+
+  private Long findUserIdByCredentials(String sql, String usernameOrEmail, byte[] encryptedPassword) {
+    return new SQLRunner(_accountDb.getDataSource(), sql, "check-user-credentials").executeQuery(
+        new Object[] { usernameOrEmail }, STRING_PARAM_TYPES, rs -> {
+      while (rs.next()) {
+        // constant-time comparison so response times do not leak hash prefixes
+        String storedPassword = rs.getString(COL_PASSWORD);
+        if (storedPassword != null && MessageDigest.isEqual(encryptedPassword, storedPassword.getBytes(StandardCharsets.UTF_8))) {
+          return rs.getLong(COL_USER_ID);
         }
-        return profile;
       }
-      return null;  
+      return null;
+    });
+  }
+
+  public UserProfile getUserProfileBySignature(String signature) {
+    return getSingleUserProfile(_selectBySignatureSql, new Object[] { signature }, STRING_PARAM_TYPES);
+  }
+
+  private UserProfile getSingleUserProfile(final String sql, final Object[] params, final Integer[] types) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Running the following SQL: " + sql);
+    }
+    Map<Long, UserProfile> profiles = new LinkedHashMap<>();
+    new SQLRunner(_accountDb.getDataSource(), sql).executeQuery(params, types, rs -> {
+      readProfiles(rs, profiles);
+      return null;
     });
+    if (profiles.size() > 1) {
+      throw new IllegalStateException("More than one user found by query '" +
+          sql + "' with values: " + FormatUtil.join(params, ", "));
+    }
+    readMissingProjectedProperties(profiles);
+    UserProfile profile = profiles.isEmpty() ? null : profiles.values().iterator().next();
+    if (profile != null && LOG.isDebugEnabled()) {
+      LOG.debug("Loaded profile: " + profile);
+    }
+    return profile;
+  }
+
+  /**
+   * Loads the profiles of the users with the passed IDs in one query per
+   * MAX_IN_LIST_SIZE IDs.
+   *
+   * @return found profiles by user ID; IDs of users not found are absent
+   */
+  public Map<Long, UserProfile> getUserProfiles(Collection<Long> userIds) {
+    Map<Long, UserProfile> profiles = new LinkedHashMap<>();
+    queryInChunks(new ArrayList<>(new LinkedHashSet<>(userIds)), _selectByUserIdsSqls,
+        Types.BIGINT, "select-users-by-ids", rs -> readProfiles(rs, profiles));
+    readMissingProjectedProperties(profiles);
+    return profiles;
+  }
+
+  /**
+   * Loads the profiles of the users with the passed emails in one query per
+   * MAX_IN_LIST_SIZE emails.  Emails are matched as getUserProfileByEmail()
+   * matches them, i.e. after trimming and lowercasing.
+   *
+   * @return found profiles by trimmed, lowercased email; emails of users not
+   * found are absent
+   */
+  public Map<String, UserProfile> getUserProfilesByEmails(Collection<String> emails) {
+    Map<Long, UserProfile> profiles = new LinkedHashMap<>();
+    List<String> normalizedEmails = emails.stream()
+        .map(AccountDbManager::trimAndLowercase)
+        .distinct()
+        .collect(Collectors.toList());
+    queryInChunks(normalizedEmails, _selectByEmailsSqls,
+        Types.VARCHAR, "select-users-by-emails", rs -> readProfiles(rs, profiles));
+    readMissingProjectedProperties(profiles);
+    Map<String, UserProfile> profilesByEmail = new HashMap<>();
+    for (UserProfile profile : profiles.values()) {
+      profilesByEmail.put(profile.getEmail(), profile);
+    }
+    return profilesByEmail;
+  }
+
+  /**
+   * Adds the profiles in rows returned by a query built by renderSelectSql()
+   * to the passed map.  If the projection is enabled, profiles of users
+   * without a projection row are added with null properties.
+   */
+  private void readProfiles(ResultSet rs, Map<Long, UserProfile> profiles) throws SQLException {
+    if (_useProfileProjection) {
+      readProjectedProfiles(rs, profiles);
+    }
+    else {
+      readEavProfiles(rs, profiles);
+    }
+  }
+
+  // rows are one per property of each user (or one with null key/value if the user has none)
+  private void readEavProfiles(ResultSet rs, Map<Long, UserProfile> profiles) throws SQLException {
+    while (rs.next()) {
+      long userId = rs.getLong(COL_USER_ID);
+      UserProfile profile = profiles.get(userId);
+      if (profile == null || profile.getProperties() == null) {
+        profile = loadUserProfile(rs);
+        profile.setProperties(new HashMap<>());
+        profiles.put(userId, profile);
+      }
+      // skip undefined properties and the empty row of a user with no properties
+      UserProperty prop = _propertyDbKeys.get(rs.getString(COL_PROP_KEY));
+      String value = rs.getString(COL_PROP_VALUE);
+      if (prop != null && value != null) {
+        profile.getProperties().put(prop.getName(), value);
+      }
+    }
   }
 
-  private static UserProfile loadUserProfile(ResultSet rs, Collection<UserProperty> props) throws SQLException {
+  // rows are one per user, with a column per property
+  private void readProjectedProfiles(ResultSet rs, Map<Long, UserProfile> profiles) throws SQLException {
+    while (rs.next()) {
+      UserProfile profile = loadUserProfile(rs);
+      profiles.put(profile.getUserId(), profile);
+      if (rs.getObject(COL_PROFILE_USER_ID) == null) {
+        // projection row missing; properties read afterward from account_properties
+        continue;
+      }
+      Map<String, String> properties = new HashMap<>();
+      for (UserProperty prop : _propertyNames.values()) {
+        String value = rs.getString(prop.getDbKey());
+        if (value != null) {
+          properties.put(prop.getName(), value);
+        }
+      }
+      profile.setProperties(properties);
+    }
+  }
+
+  /**
+   * Replaces profiles read without properties because they have no projection
+   * row with profiles read from account_properties
+   */
+  private void readMissingProjectedProperties(Map<Long, UserProfile> profiles) {
+    List<Long> missing = profiles.values().stream()
+        .filter(profile -> profile.getProperties() == null)
+        .map(UserProfile::getUserId)
+        .collect(Collectors.toList());
+    if (missing.isEmpty()) return;
+    LOG.warn("No " + TABLE_ACCOUNT_PROFILES + " row for users " + missing +
+        "; reading properties from " + TABLE_ACCOUNT_PROPS + ". Run AccountProfilesTool to backfill.");
+    queryInChunks(missing, _eavSelectByUserIdsSqls, Types.BIGINT,
+        "select-user-props-by-ids", rs -> readEavProfiles(rs, profiles));
+  }
+
+  @FunctionalInterface
+  private interface RowReader {
+    void read(ResultSet rs) throws SQLException;
+  }
+
+  /**
+   * Runs an IN-list query once per MAX_IN_LIST_SIZE values, passing each
+   * result to the reader.  Each chunk's list is padded (by repeating its last
+   * value) to the next power of two so only a few distinct statements are
+   * ever prepared.
+   *
+   * @param values values to bind into the IN-list
+   * @param inListSqls statement for each power-of-two list size, as rendered
+   * by renderInListSqls()
+   * @param sqlType JDBC type of the values
+   */
+  private void queryInChunks(List<?> values, String[] inListSqls, int sqlType, String queryName, RowReader reader) {
+    for (int start = 0; start < values.size(); start += MAX_IN_LIST_SIZE) {
+      List<?> chunk = values.subList(start, Math.min(start + MAX_IN_LIST_SIZE, values.size()));
+      int sizeIndex = getInListSizeIndex(chunk.size());
+      Object[] params = new Object[1 << sizeIndex];
+      Integer[] types = new Integer[params.length];
+      for (int i = 0; i < params.length; i++) {
+        params[i] = chunk.get(Math.min(i, chunk.size() - 1));
+        types[i] = sqlType;
+      }
+      new SQLRunner(_accountDb.getDataSource(), inListSqls[sizeIndex], queryName).executeQuery(params, types, rs -> {
+        reader.read(rs);
+        return null;
+      });
+    }
+  }
+
+  /**
+   * @return index into renderInListSqls() of the statement for a list of the
+   * passed size, i.e. log2 of the size rounded up to a power of two
+   */
+  static int getInListSizeIndex(int size) {
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+
+  /**
+   * @return the passed SQL, with IN_LIST_MACRO replaced by 1, 2, 4, ...
+   * MAX_IN_LIST_SIZE bind variables
+   */
+  static String[] renderInListSqls(String sql) {
+    String[] sqls = new String[getInListSizeIndex(MAX_IN_LIST_SIZE) + 1];
+    for (int i = 0; i < sqls.length; i++) {
+      sqls[i] = sql.replace(IN_LIST_MACRO, String.join(", ", Collections.nCopies(1 << i, "?")));
+    }
+    return sqls;
+  }
+
+  private static UserProfile loadUserProfile(ResultSet rs) throws SQLException {
     UserProfile profile = new UserProfile();
     profile.setUserId(rs.getLong(COL_USER_ID));
     profile.setEmail(rs.getString(COL_EMAIL));
@@ -244,15 +753,6 @@ public class AccountDbManager {
     profile.setStableId(rs.getString(COL_STABLE_ID));
     profile.setRegisterTime(rs.getDate(COL_REGISTER_TIME));
     profile.setLastLoginTime(rs.getDate(COL_LAST_LOGIN));
-    Map<String, String> properties = new HashMap<>();
-    for (UserProperty prop : props) {
-      String value = rs.getString(prop.getDbKey());
-      if (!rs.wasNull()) {
-        properties.put(prop.getName(), value);
-      }
-    }
-    profile.setProperties(properties);
-    LOG.debug("Loaded profile: " + profile);
     return profile;
   }
 
@@ -299,44 +799,109 @@ public class AccountDbManager {
       String stableId, Map<String, String> profileProperties, boolean assignLastLogin) throws Exception {
     // define SQL and params to insert user row
     Timestamp now = new Timestamp(new Date().getTime());
-    final String insertUserSql = INSERT_USER_SQL.replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
     final Object[] params = { userId, email, encryptPassword(password), false,
         signature, stableId, now, assignLastLogin ? now : null };
 
-    // define SQL and params to insert property rows
-    final String insertPropSql = INSERT_PROPERTY_SQL.replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
-    final ArgumentBatch propertyBatch = getUserPropertyBatch(userId, profileProperties);
+    // define params to insert property rows
+    final Map<String, String> dbKeyValues = getDbKeyValues(profileProperties);
+    final ArgumentBatch propertyBatch = getUserPropertyBatch(userId, dbKeyValues);
 
     // perform all inserts in a transaction
     SqlUtils.performInTransaction(_accountDb.getDataSource(), conn -> {
       // perform user row insert
-      new SQLRunner(conn, insertUserSql, "insert-user-row").executeStatement(params, INSERT_USER_PARAM_TYPES);
+      new SQLRunner(conn, _insertUserSql, "insert-user-row").executeStatement(params, INSERT_USER_PARAM_TYPES);
       // perform property rows insert
-      new SQLRunner(conn, insertPropSql, "insert-user-prop-rows").executeStatementBatch(propertyBatch);
+      new SQLRunner(conn, _insertPropertySql, "insert-user-prop-rows").executeStatementBatch(propertyBatch);
+      // perform projection row insert
+      insertProfileRow(conn, userId, dbKeyValues);
     });
   }
 
+  /**
+   * Inserts the user's account_profiles row if the projection is enabled
+   *
+   * @param dbKeyValues property values keyed by DB key
+   */
+  private void insertProfileRow(Connection conn, long userId, Map<String, String> dbKeyValues) {
+    if (!_useProfileProjection) return;
+    Object[] params = new Object[_propertyNames.size() + 1];
+    int i = 0;
+    params[i++] = userId;
+    for (UserProperty prop : _propertyNames.values()) {
+      params[i++] = dbKeyValues.get(prop.getDbKey());
+    }
+    new SQLRunner(conn, _insertProfileSql, "insert-user-profile-row")
+      .executeStatement(params, _insertProfileParamTypes);
+  }
+
+  /**
+   * Replaces the user's account_profiles row if the projection is enabled
+   *
+   * @param dbKeyValues property values keyed by DB key
+   */
+  private void replaceProfileRow(Connection conn, long userId, Map<String, String> dbKeyValues) {
+    if (!_useProfileProjection) return;
+    new SQLRunner(conn, _removeProfileSql, "remove-user-profile-row")
+      .executeStatement(new Object[] { userId }, USER_ID_PARAM_TYPES);
+    insertProfileRow(conn, userId, dbKeyValues);
+  }
+
   private long getNextUserId() throws DBStateException, SQLException {
     return _accountDb.getPlatform().getNextId(_accountDb.getDataSource(), _accountSchema, TABLE_ACCOUNTS);
   }
 
-  private ArgumentBatch getUserPropertyBatch(final long userId, Map<String, String> profileProperties) {
+  /**
+   * Reserves multiple user IDs from the accounts sequence in a single round
+   * trip.  The IDs are unique but, since other applications draw from the
+   * same sequence, not necessarily contiguous.
+   *
+   * @param count number of IDs to reserve
+   * @return reserved IDs
+   */
+  public List<Long> getNextUserIds(int count) {
+    DBPlatform platform = _accountDb.getPlatform();
+    String nextId = platform.getNextIdSqlExpression(_accountSchema, TABLE_ACCOUNTS);
+    String sql = platform instanceof Oracle
+        ? "select " + nextId + " as " + COL_USER_ID + " from dual connect by level <= " + count
+        : "select " + nextId + " as " + COL_USER_ID + " from generate_series(1, " + count + ")";
+    return new SQLRunner(_accountDb.getDataSource(), sql, "select-next-user-ids").executeQuery(rs -> {
+      List<Long> ids = new ArrayList<>(count);
+      while (rs.next()) {
+        ids.add(rs.getLong(COL_USER_ID));
+      }
+      return ids;
+    });
+  }
+
+  /**
+   * @return values of the passed properties allowed by the configuration of
+   * this account manager, keyed by DB key
+   */
+  private Map<String, String> getDbKeyValues(Map<String, String> profileProperties) {
     // deal with null property map; this can sometimes be passed
     if (profileProperties == null) profileProperties = Collections.emptyMap();
     // first trim props to those allowed by the configuration of this account manager
     final Set<String> propKeys = _propertyNames.keySet();
     final Map<String,String> trimmedProps = pickKeys(profileProperties, propKey -> propKeys.contains(propKey));
+    Map<String, String> dbKeyValues = new LinkedHashMap<>();
+    for (Entry<String, String> property : trimmedProps.entrySet()) {
+      dbKeyValues.put(_propertyNames.get(property.getKey()).getDbKey(), property.getValue());
+    }
+    return dbKeyValues;
+  }
+
+  private ArgumentBatch getUserPropertyBatch(final long userId, final Map<String, String> dbKeyValues) {
     return new ArgumentBatch() {
 
       @Override
       public Iterator<Object[]> iterator() {
-        return IteratorUtil.transform(trimmedProps.entrySet().iterator(), property ->
-            new Object[] { userId, _propertyNames.get(property.getKey()).getDbKey(), property.getValue() });
+        return IteratorUtil.transform(dbKeyValues.entrySet().iterator(), property ->
+            new Object[] { userId, property.getKey(), property.getValue() });
       }
 
       @Override
       public int getBatchSize() {
-        return trimmedProps.size();
+        return dbKeyValues.size();
       }
 
       @Override
@@ -388,43 +953,43 @@ public class AccountDbManager {
     return profile;
   }
 
-  private void updateColumn(String rawSql, Integer[] argTypes, String queryName, long userId, Object newValue) {
-    String sql = rawSql.replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
+  private void updateColumn(String sql, Integer[] argTypes, String queryName, long userId, Object newValue) {
     new SQLRunner(_accountDb.getDataSource(), sql, queryName)
       .executeUpdate(new Object[]{ newValue, userId }, argTypes);
   }
 
   public void updatePassword(long userId, String newPassword) {
-    updateColumn(UPDATE_PASSWORD_SQL, UPDATE_PASSWORD_PARAM_TYPES,
+    updateColumn(_updatePasswordSql, UPDATE_PASSWORD_PARAM_TYPES,
         "update-user-password", userId, encryptPassword(newPassword));
   }
 
   public void updateLastLogin(long userId) {
-    updateColumn(UPDATE_LAST_LOGIN_SQL, UPDATE_LAST_LOGIN_PARAM_TYPES,
+    updateColumn(_updateLastLoginSql, UPDATE_LAST_LOGIN_PARAM_TYPES,
         "update-user-last-login", userId, new Timestamp(new Date().getTime()));
   }
 
   public void saveUserProfile(final long userId, String email, Map<String, String> profileProperties) throws Exception {
 
     // first update email; this can be done independently of property updates
-    updateColumn(UPDATE_EMAIL_SQL, UPDATE_EMAIL_PARAM_TYPES,
+    updateColumn(_updateEmailSql, UPDATE_EMAIL_PARAM_TYPES,
         "update-user-email", userId, email.trim().toLowerCase());
 
     // make sure trimmed username is non-empty; if empty, remove
     massageUsername(profileProperties);
 
-    // define SQL and params to remove existing property rows and replace with new via insert
-    final String removePropsSql = REMOVE_PROPERTIES_SQL.replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
+    // define params to remove existing property rows and replace with new via insert
     final Object[] removePropsParams = { userId };
-    final String insertPropSql = INSERT_PROPERTY_SQL.replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
-    final ArgumentBatch propertyBatch = getUserPropertyBatch(userId, profileProperties);
+    final Map<String, String> dbKeyValues = getDbKeyValues(profileProperties);
+    final ArgumentBatch propertyBatch = getUserPropertyBatch(userId, dbKeyValues);
 
     // perform all property-related operations in a transaction
     SqlUtils.performInTransaction(_accountDb.getDataSource(), conn -> {
       // perform property rows delete
-      new SQLRunner(conn, removePropsSql, "remove-user-prop-rows").executeStatement(removePropsParams, REMOVE_PROPERTIES_PARAM_TYPES);
+      new SQLRunner(conn, _removePropertiesSql, "remove-user-prop-rows").executeStatement(removePropsParams, REMOVE_PROPERTIES_PARAM_TYPES);
       // perform property rows insert
-      new SQLRunner(conn, insertPropSql, "insert-user-prop-rows").executeStatementBatch(propertyBatch);
+      new SQLRunner(conn, _insertPropertySql, "insert-user-prop-rows").executeStatementBatch(propertyBatch);
+      // perform projection row replace
+      replaceProfileRow(conn, userId, dbKeyValues);
     });
   }
 
@@ -436,9 +1001,7 @@ public class AccountDbManager {
 
   public Map<String,Long> lookUpUserIdsByEmail(Collection<String> emailList) {
     String emailListSql = emailList.stream().map(id -> "'" + id.replace("'", "''") + "'").collect(Collectors.joining(","));
-    String sql = FIND_USER_IDS_BY_EMAIL_SQL
-        .replace(ACCOUNT_SCHEMA_MACRO, _accountSchema)
-        .replace(EMAIL_LIST_MACRO, emailListSql);
+    String sql = _findUserIdsByEmailSql.replace(EMAIL_LIST_MACRO, emailListSql);
     return new SQLRunner(_accountDb.getDataSource(), sql, "look-up-user-ids-by-email").executeQuery(rs -> {
       Map<String, Long> result = new HashMap<>();
       while (rs.next()) {
@@ -449,9 +1012,7 @@ public class AccountDbManager {
   }
 
   public Map<Long,Boolean> verifyUserids(Collection<Long> userIdList) {
-    String sql = FIND_USER_IDS
-        .replace(ACCOUNT_SCHEMA_MACRO, _accountSchema)
-        .replace(ID_LIST_MACRO, join(userIdList, ","));
+    String sql = _findUserIdsSql.replace(ID_LIST_MACRO, join(userIdList, ","));
     Map<Long, Boolean> result = new SQLRunner(_accountDb.getDataSource(), sql, "find-user-ids")
       .executeQuery(rs -> {
         Map<Long, Boolean> result1 = new HashMap<>();
@@ -470,57 +1031,124 @@ public class AccountDbManager {
 
   public void anonymizeUser(Long userId) {
 
-    // delete all user's account properties
-    String sql = DELETE_USER_PROPERTIES
-        .replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
-    new SQLRunner(_accountDb.getDataSource(), sql, "delete-user-props")
-      .executeStatement(new Object[] { userId }, new Integer[] { Types.BIGINT });
-
-    // put back first_name, last_name, organization with stub values
-    for (Entry<String,String> propUpdate : List.of(
-        new TwoTuple<>(UserInfo.FIRST_NAME_PROP_KEY, "deleted-user"),
-        new TwoTuple<>(UserInfo.LAST_NAME_PROP_KEY, userId.toString()),
-        new TwoTuple<>(UserInfo.ORGANIZATION_PROP_KEY, "deleted-user")
-    )) {
-      sql = INSERT_PROPERTY_SQL
-          .replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
-      new SQLRunner(_accountDb.getDataSource(), sql, "modify-prop-for-deletion")
-          .executeStatement(new Object[] { userId, propUpdate.getKey(), propUpdate.getValue() }, INSERT_PROPERTY_PARAM_TYPES);
+    // first and last name and organization are put back with stub values
+    Map<String, String> stubProperties = new LinkedHashMap<>();
+    stubProperties.put(UserInfo.FIRST_NAME_PROP_KEY, "deleted-user");
+    stubProperties.put(UserInfo.LAST_NAME_PROP_KEY, userId.toString());
+    stubProperties.put(UserInfo.ORGANIZATION_PROP_KEY, "deleted-user");
+
+    // perform all modifications in a transaction
+    try {
+      SqlUtils.performInTransaction(_accountDb.getDataSource(), conn -> {
+
+        // delete all user's account properties
+        new SQLRunner(conn, _removePropertiesSql, "delete-user-props")
+          .executeStatement(new Object[] { userId }, USER_ID_PARAM_TYPES);
+
+        // put back first_name, last_name, organization with stub values
+        for (Entry<String,String> propUpdate : stubProperties.entrySet()) {
+          new SQLRunner(conn, _insertPropertySql, "modify-prop-for-deletion")
+              .executeStatement(new Object[] { userId, propUpdate.getKey(), propUpdate.getValue() }, INSERT_PROPERTY_PARAM_TYPES);
+        }
+        replaceProfileRow(conn, userId, stubProperties);
+
+        // delete user as subscription group leads
+        new SQLRunner(conn, _deleteUserGroupLeadsSql, "delete-user-as-group-leads")
+          .executeStatement(new Object[] { userId }, USER_ID_PARAM_TYPES);
+
+        // modify user props to anonymize and prevent future login or password reset
+        for (Entry<String,String> columnUpdate : List.of(
+            new TwoTuple<>(_updateEmailSql, "deleted-user." + userId + "@veupathdb.org"),
+            new TwoTuple<>(_updatePasswordSql, "noaccess_password"),
+            new TwoTuple<>(_updateStableIdSql, "deleted-user." + userId)
+        )) {
+          new SQLRunner(conn, columnUpdate.getKey(), "modify-col-for-deletion")
+              .executeStatement(new Object[] { columnUpdate.getValue(), userId }, new Integer[] { Types.VARCHAR, Types.BIGINT });
+        }
+      });
     }
+    catch (Exception e) {
+      throw new RuntimeException("Unable to anonymize user " + userId, e);
+    }
+  }
+
+  /**
+   * Inserts an account_profiles row for each account that does not have one,
+   * built from its account_properties rows.
+   *
+   * @return number of rows inserted
+   */
+  public int backfillProfileProjection() {
+    String sql = getBackfillProfilesSql(_accountSchema, _propertyNames.values());
+    return new SQLRunner(_accountDb.getDataSource(), sql, "backfill-user-profiles").executeUpdate();
+  }
 
-    // delete user as subscription group leads
-    sql = DELETE_USER_GROUP_LEADS
-        .replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
-    new SQLRunner(_accountDb.getDataSource(), sql, "delete-user-as-group-leads")
-      .executeStatement(new Object[] { userId }, new Integer[] { Types.BIGINT });
-
-    // modify user props to anonymize and prevent future login or password reset
-    for (Entry<String,String> columnUpdate : List.of(
-        new TwoTuple<>(COL_EMAIL, "deleted-user." + userId + "@veupathdb.org"),
-        new TwoTuple<>(COL_PASSWORD, "noaccess_password"),
-        new TwoTuple<>(COL_STABLE_ID, "deleted-user." + userId)
-    )) {
-      sql = getUpdateColumnSql(columnUpdate.getKey())
-          .replace(ACCOUNT_SCHEMA_MACRO, _accountSchema);
-      new SQLRunner(_accountDb.getDataSource(), sql, "modify-col-for-deletion")
-          .executeStatement(new Object[] { columnUpdate.getValue(), userId }, new Integer[] { Types.VARCHAR, Types.BIGINT });
+  /**
+   * Rebuilds, from their account_properties rows, the account_profiles rows
+   * of accounts whose row is missing or out of date (i.e. those returned by
+   * findProfileProjectionMismatches()).  Rows are removed and reinserted in a
+   * single transaction.
+   *
+   * @return number of rows inserted
+   */
+  public int repairProfileProjection() {
+    String removeSql = getRemoveMismatchedProfilesSql(_accountSchema, _propertyNames.values());
+    String backfillSql = getBackfillProfilesSql(_accountSchema, _propertyNames.values());
+    int[] inserted = new int[1];
+    try {
+      SqlUtils.performInTransaction(_accountDb.getDataSource(), conn -> {
+        new SQLRunner(conn, removeSql, "remove-mismatched-user-profiles").executeStatement();
+        inserted[0] = new SQLRunner(conn, backfillSql, "backfill-user-profiles").executeUpdate();
+      });
+    }
+    catch (Exception e) {
+      throw new RuntimeException("Unable to repair " + TABLE_ACCOUNT_PROFILES, e);
     }
+    return inserted[0];
   }
 
-  public Optional<Date> findGuestCreationDate(long userId) {
+  /**
+   * @return IDs of accounts whose account_profiles row is missing or does not
+   * match their account_properties rows
+   */
+  public List<Long> findProfileProjectionMismatches() {
+    String sql = getFindProfileMismatchesSql(_accountSchema, _propertyNames.values());
+    return new SQLRunner(_accountDb.getDataSource(), sql, "find-user-profile-mismatches").executeQuery(rs -> {
+      List<Long> userIds = new ArrayList<>();
+      while (rs.next()) {
+        userIds.add(rs.getLong(COL_USER_ID));
+      }
+      return userIds;
+    });
+  }
 
-    String sql = "select creation_time from " + _accountSchema + "guest_ids where user_id = ?";
+  public Optional<Date> findGuestCreationDate(long userId) {
 
-    return new SQLRunner(_accountDb.getDataSource(), sql, "select-guest").executeQuery(
+    return new SQLRunner(_accountDb.getDataSource(), _selectGuestCreationSql, "select-guest").executeQuery(
         new ParamBuilder().addLong(userId),
         rs -> rs.next() ? Optional.of(rs.getDate("creation_time")) : Optional.empty());
   }
 
+  /**
+   * Looks up the creation dates of the guests with the passed IDs in one
+   * query per MAX_IN_LIST_SIZE IDs.
+   *
+   * @return creation dates by user ID; IDs not found are absent
+   */
+  public Map<Long, Date> findGuestCreationDates(Collection<Long> userIds) {
+    Map<Long, Date> creationDates = new HashMap<>();
+    queryInChunks(new ArrayList<>(new LinkedHashSet<>(userIds)), _selectGuestCreationsSqls,
+        Types.BIGINT, "select-guests", rs -> {
+      while (rs.next()) {
+        creationDates.put(rs.getLong(COL_USER_ID), rs.getDate("creation_time"));
+      }
+    });
+    return creationDates;
+  }
+
   public void insertGuestIds(String userId, String tokenId, TokenTimestamps timestamps) {
     try {
-      String sql = "insert into " + _accountSchema + "guest_ids (user_id, token_id, creation_time) values (?, ?, ?)";
-
-      int inserted = new SQLRunner(_accountDb.getDataSource(), sql, "insert-guest-id").executeUpdate(
+      int inserted = new SQLRunner(_accountDb.getDataSource(), _insertGuestIdSql, "insert-guest-id").executeUpdate(
           new ParamBuilder().addLong(Long.valueOf(userId)).addString(tokenId).addDate(timestamps.getCreationDate()));
 
       if (inserted != 1)
@@ -531,11 +1159,39 @@ public class AccountDbManager {
     }
   }
 
-  public void writeBearerTokenRecord(long userId, String tokenId, Date creationDate, Date expirationDate) {
+  /**
+   * Inserts multiple guest_ids rows in a single JDBC batch.
+   *
+   * @param records rows to insert
+   */
+  public void insertGuestIdRecords(Collection<GuestIdRecord> records) {
+    if (records.isEmpty()) return;
+    new SQLRunner(_accountDb.getDataSource(), _insertGuestIdSql, "insert-guest-id-batch")
+      .executeStatementBatch(new ArgumentBatch() {
+
+        @Override
+        public Iterator<Object[]> iterator() {
+          return IteratorUtil.transform(records.iterator(), record -> new Object[] {
+              record.getUserId(),
+              record.getTokenId(),
+              new Timestamp(record.getCreationDate().getTime())
+          });
+        }
 
-    String sql = "insert into useraccounts.token_ids (token_id, user_id, creation_time, expiration_time, is_revoked) values (?, ?, ?, ?, ?)";
+        @Override
+        public int getBatchSize() {
+          return records.size();
+        }
+
+        @Override
+        public Integer[] getParameterTypes() {
+          return INSERT_GUEST_ID_PARAM_TYPES;
+        }
+      });
+  }
 
-    new SQLRunner(_accountDb.getDataSource(), sql, "insert-bearer-token").executeUpdate(new ParamBuilder()
+  public void writeBearerTokenRecord(long userId, String tokenId, Date creationDate, Date expirationDate) {
+    new SQLRunner(_accountDb.getDataSource(), INSERT_BEARER_TOKEN_SQL, "insert-bearer-token").executeUpdate(new ParamBuilder()
         .addString(tokenId)        // token_id
         .addLong(userId)           // user_id
         .addDate(creationDate)     // creation_time
@@ -545,4 +1201,111 @@ public class AccountDbManager {
         .addInteger((Integer)_accountDb.getPlatform().convertBoolean(false)) // is_revoked
     );
   }
+
+  /**
+   * Inserts multiple token_ids rows in a single JDBC batch.
+   *
+   * @param records rows to insert
+   */
+  public void writeBearerTokenRecords(Collection<BearerTokenRecord> records) {
+    if (records.isEmpty()) return;
+    // FIXME: this will need to be changed if we move to postgres
+    final Integer isRevoked = (Integer)_accountDb.getPlatform().convertBoolean(false);
+    new SQLRunner(_accountDb.getDataSource(), INSERT_BEARER_TOKEN_SQL, "insert-bearer-token-batch")
+      .executeStatementBatch(new ArgumentBatch() {
+
+        @Override
+        public Iterator<Object[]> iterator() {
+          return IteratorUtil.transform(records.iterator(), record -> new Object[] {
+              record.getTokenId(),
+              record.getUserId(),
+              new Timestamp(record.getCreationDate().getTime()),
+              new Timestamp(record.getExpirationDate().getTime()),
+              isRevoked
+          });
+        }
+
+        @Override
+        public int getBatchSize() {
+          return records.size();
+        }
+
+        @Override
+        public Integer[] getParameterTypes() {
+          return INSERT_BEARER_TOKEN_PARAM_TYPES;
+        }
+      });
+  }
+
+  /**
+   * Updates the last login time of multiple users in a single JDBC batch.
+   *
+   * @param lastLogins map from user ID to that user's last login time
+   */
+  public void updateLastLogins(Map<Long, Date> lastLogins) {
+    if (lastLogins.isEmpty()) return;
+    new SQLRunner(_accountDb.getDataSource(), _updateLastLoginSql, "update-user-last-login-batch")
+      .executeStatementBatch(new ArgumentBatch() {
+
+        @Override
+        public Iterator<Object[]> iterator() {
+          return IteratorUtil.transform(lastLogins.entrySet().iterator(), lastLogin ->
+              new Object[] { new Timestamp(lastLogin.getValue().getTime()), lastLogin.getKey() });
+        }
+
+        @Override
+        public int getBatchSize() {
+          return lastLogins.size();
+        }
+
+        @Override
+        public Integer[] getParameterTypes() {
+          return UPDATE_LAST_LOGIN_PARAM_TYPES;
+        }
+      });
+  }
+
+  /**
+   * A row of the guest_ids table, recording the user ID assigned to a guest.
+   */
+  public static class GuestIdRecord {
+
+    private final long _userId;
+    private final String _tokenId;
+    private final Date _creationDate;
+
+    public GuestIdRecord(long userId, String tokenId, Date creationDate) {
+      _userId = userId;
+      _tokenId = tokenId;
+      _creationDate = creationDate;
+    }
+
+    public long getUserId() { return _userId; }
+    public String getTokenId() { return _tokenId; }
+    public Date getCreationDate() { return _creationDate; }
+  }
+
+  /**
+   * A row of the token_ids table, recording a bearer token issued to a
+   * registered user.
+   */
+  public static class BearerTokenRecord {
+
+    private final long _userId;
+    private final String _tokenId;
+    private final Date _creationDate;
+    private final Date _expirationDate;
+
+    public BearerTokenRecord(long userId, String tokenId, Date creationDate, Date expirationDate) {
+      _userId = userId;
+      _tokenId = tokenId;
+      _creationDate = creationDate;
+      _expirationDate = expirationDate;
+    }
+
+    public long getUserId() { return _userId; }
+    public String getTokenId() { return _tokenId; }
+    public Date getCreationDate() { return _creationDate; }
+    public Date getExpirationDate() { return _expirationDate; }
+  }
 }
@@ -0,0 +1,260 @@
+package org.gusdb.oauth2.eupathdb.accountdb;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+import org.gusdb.oauth2.eupathdb.accountdb.AccountDbManager.BearerTokenRecord;
+import org.gusdb.oauth2.eupathdb.accountdb.AccountDbManager.GuestIdRecord;
+
+/**
+ * Batches account DB writes made while issuing tokens.
+ *
+ * Writes that need not complete before a token response is sent (token_ids
+ * inserts and last login updates) are moved off the request thread: they are
+ * queued in memory and applied by a single background thread in periodic JDBC
+ * batches; repeated last login updates for the same user between flushes are
+ * coalesced into one.  Batches that fail are logged and dropped.
+ *
+ * A guest's token must not be issued before its guest_ids row exists, since
+ * any server sharing the account DB may be asked to resolve the guest.  Guest
+ * IDs are therefore group committed: insertGuestIds() queues the row and
+ * waits until a writer thread has inserted it, together with every other row
+ * queued while the writer's previous batch was being inserted.  A failed
+ * insert is thrown to the caller, so no token is issued for that guest.
+ *
+ * All queues are bounded.  If a queue is full when a write arrives, that
+ * write is performed synchronously on the calling thread instead, so load
+ * spikes slow token responses rather than grow the heap or lose records.
+ * Writes still queued when close() is called are written before it returns.
+ */
+public class AccountDbWriteBehind implements AutoCloseable {
+
+  private static final Logger LOG = Logger.getLogger(AccountDbWriteBehind.class);
+
+  // max number of rows sent in a single JDBC batch
+  private static final int MAX_BATCH_SIZE = 500;
+
+  private static final long SHUTDOWN_TIMEOUT_SECS = 30;
+
+  // max time a request waits for its guest ID to be written
+  private static final long GUEST_ID_WRITE_TIMEOUT_SECS = 30;
+
+  private static class PendingGuestId {
+
+    final GuestIdRecord record;
+    final CompletableFuture<Void> written = new CompletableFuture<>();
+
+    PendingGuestId(GuestIdRecord record) {
+      this.record = record;
+    }
+  }
+
+  private final AccountDbManager _accountMgr;
+  private final int _maxPendingUsers;
+  private final BlockingQueue<BearerTokenRecord> _tokenRecords;
+  private final ConcurrentMap<Long, Date> _lastLogins = new ConcurrentHashMap<>();
+  private final BlockingQueue<PendingGuestId> _guestIds;
+  private final ScheduledExecutorService _flusher;
+  private final ExecutorService _guestIdWriter;
+
+  /**
+   * @param accountMgr account manager used to write to the account DB; it
+   * must remain usable until this object is closed
+   * @param queueSize max number of token records, and separately of guest
+   * IDs and of users' last login times, that may be awaiting a write
+   * @param flushIntervalMs time between the end of one flush and the start
+   * of the next
+   */
+  public AccountDbWriteBehind(AccountDbManager accountMgr, int queueSize, long flushIntervalMs) {
+    _accountMgr = accountMgr;
+    _maxPendingUsers = queueSize;
+    _tokenRecords = new ArrayBlockingQueue<>(queueSize);
+    _guestIds = new ArrayBlockingQueue<>(queueSize);
+    _flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "account-db-write-behind");
+      thread.setDaemon(true);
+      return thread;
+    });
+    _flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    _guestIdWriter = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "account-db-guest-id-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void writeBearerTokenRecord(long userId, String tokenId, Date creationDate, Date expirationDate) {
+    BearerTokenRecord record = new BearerTokenRecord(userId, tokenId, creationDate, expirationDate);
+    if (!_tokenRecords.offer(record)) {
+      LOG.warn("Write-behind queue full; writing token record for user " + userId + " synchronously");
+      _accountMgr.writeBearerTokenRecords(List.of(record));
+    }
+  }
+
+  public void updateLastLogin(long userId) {
+    Date now = new Date();
+    // size check is approximate under concurrency, which is fine for a bound
+    if (_lastLogins.size() >= _maxPendingUsers && !_lastLogins.containsKey(userId)) {
+      LOG.warn("Write-behind queue full; updating last login for user " + userId + " synchronously");
+      _accountMgr.updateLastLogin(userId);
+      return;
+    }
+    _lastLogins.put(userId, now);
+  }
+
+  /**
+   * Inserts the guest's guest_ids row, batched with those of concurrent
+   * callers, and returns once it is committed.
+   *
+   * @throws RuntimeException if the row could not be written
+   */
+  public void insertGuestIds(long userId, String tokenId, Date creationDate) {
+    PendingGuestId pending = new PendingGuestId(new GuestIdRecord(userId, tokenId, creationDate));
+    if (!_guestIds.offer(pending)) {
+      LOG.warn("Write-behind queue full; inserting guest ID " + userId + " synchronously");
+      _accountMgr.insertGuestIdRecords(List.of(pending.record));
+      return;
+    }
+    // any writer task may take this row; tasks finding the queue empty do nothing
+    _guestIdWriter.execute(this::writeQueuedGuestIds);
+    try {
+      pending.written.get(GUEST_ID_WRITE_TIMEOUT_SECS, TimeUnit.SECONDS);
+    }
+    catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() :
+          new RuntimeException("Unable to insert guest ID " + userId, e.getCause());
+    }
+    catch (TimeoutException e) {
+      throw new RuntimeException("Guest ID " + userId + " was not written within " +
+          GUEST_ID_WRITE_TIMEOUT_SECS + " seconds", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while inserting guest ID " + userId, e);
+    }
+  }
+
+  /**
+   * Writes the guest IDs queued so far in as few batches as possible and
+   * completes each one's future.  Runs only on the guest ID writer thread.
+   */
+  private void writeQueuedGuestIds() {
+    List<PendingGuestId> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (_guestIds.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+      try {
+        _accountMgr.insertGuestIdRecords(mapToRecords(batch));
+        batch.forEach(pending -> pending.written.complete(null));
+      }
+      catch (RuntimeException e) {
+        // insert one at a time so one bad record cannot fail the rest
+        LOG.warn("Batch insert of " + batch.size() + " guest IDs failed; inserting them individually", e);
+        batch.forEach(this::writeGuestId);
+      }
+      batch.clear();
+    }
+  }
+
+  private void writeGuestId(PendingGuestId pending) {
+    try {
+      _accountMgr.insertGuestIdRecords(List.of(pending.record));
+      pending.written.complete(null);
+    }
+    catch (RuntimeException e) {
+      pending.written.completeExceptionally(e);
+    }
+  }
+
+  private static List<GuestIdRecord> mapToRecords(List<PendingGuestId> batch) {
+    List<GuestIdRecord> records = new ArrayList<>(batch.size());
+    for (PendingGuestId pending : batch) {
+      records.add(pending.record);
+    }
+    return records;
+  }
+
+  /**
+   * Writes all queued token records and last login times to the account DB.
+   * Called periodically by the flusher thread; failed writes are logged rather
+   * than thrown so a failed flush does not cancel later ones.
+   */
+  private synchronized void flush() {
+    flushTokenRecords();
+    flushLastLogins();
+  }
+
+  private void flushTokenRecords() {
+    List<BearerTokenRecord> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (_tokenRecords.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+      try {
+        _accountMgr.writeBearerTokenRecords(batch);
+      }
+      catch (RuntimeException e) {
+        LOG.error("Dropping " + batch.size() + " bearer token records after failed batch insert", e);
+      }
+      batch.clear();
+    }
+  }
+
+  private void flushLastLogins() {
+    Map<Long, Date> batch = new HashMap<>();
+    for (Long userId : _lastLogins.keySet()) {
+      // remove() rather than copy so an update arriving now is not lost
+      Date lastLogin = _lastLogins.remove(userId);
+      if (lastLogin != null) batch.put(userId, lastLogin);
+      if (batch.size() == MAX_BATCH_SIZE) {
+        writeLastLogins(batch);
+        batch.clear();
+      }
+    }
+    writeLastLogins(batch);
+  }
+
+  private void writeLastLogins(Map<Long, Date> batch) {
+    try {
+      _accountMgr.updateLastLogins(batch);
+    }
+    catch (RuntimeException e) {
+      LOG.error("Dropping " + batch.size() + " last login updates after failed batch update", e);
+    }
+  }
+
+  /**
+   * Stops the writer threads and writes any remaining queued records.  Writes
+   * submitted after this method is called are not guaranteed to be persisted.
+   */
+  @Override
+  public void close() {
+    // queued writer tasks still run, so waiting guest IDs are written
+    _guestIdWriter.shutdown();
+    _flusher.shutdown();
+    try {
+      if (!_guestIdWriter.awaitTermination(SHUTDOWN_TIMEOUT_SECS, TimeUnit.SECONDS)) {
+        LOG.warn("Guest ID writer did not stop within " + SHUTDOWN_TIMEOUT_SECS + " seconds");
+      }
+      if (!_flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECS, TimeUnit.SECONDS)) {
+        LOG.warn("Write-behind flusher did not stop within " + SHUTDOWN_TIMEOUT_SECS + " seconds");
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    LOG.info("Flushing " + _tokenRecords.size() + " token records and " +
+        _lastLogins.size() + " last login updates before shutdown");
+    flush();
+  }
+}
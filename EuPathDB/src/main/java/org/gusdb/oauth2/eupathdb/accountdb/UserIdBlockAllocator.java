@@ -0,0 +1,46 @@
+package org.gusdb.oauth2.eupathdb.accountdb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hands out user IDs from blocks reserved from the accounts sequence, so
+ * only one call in every blockSize goes to the database.  IDs reserved but
+ * not handed out before shutdown are never used; like any other sequence
+ * gap, this is harmless.
+ *
+ * Thread-safe.
+ */
+public class UserIdBlockAllocator {
+
+  private static final Logger LOG = Logger.getLogger(UserIdBlockAllocator.class);
+
+  private final AccountDbManager _accountMgr;
+  private final int _blockSize;
+  private final Deque<Long> _reservedIds = new ArrayDeque<>();
+
+  /**
+   * @param accountMgr account manager used to reserve IDs
+   * @param blockSize number of IDs to reserve per database round trip
+   */
+  public UserIdBlockAllocator(AccountDbManager accountMgr, int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("User ID block size must be positive");
+    }
+    _accountMgr = accountMgr;
+    _blockSize = blockSize;
+  }
+
+  public synchronized long getNextUserId() {
+    if (_reservedIds.isEmpty()) {
+      LOG.debug("Reserving block of " + _blockSize + " user IDs");
+      _reservedIds.addAll(_accountMgr.getNextUserIds(_blockSize));
+      if (_reservedIds.isEmpty()) {
+        throw new IllegalStateException("Unable to reserve user IDs from accounts sequence");
+      }
+    }
+    return _reservedIds.removeFirst();
+  }
+}
@@ -0,0 +1,101 @@
+package org.gusdb.oauth2.eupathdb.tools;
+
+import static org.gusdb.oauth2.client.veupathdb.UserInfo.USER_PROPERTY_LIST;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.gusdb.fgputil.db.platform.SupportedPlatform;
+import org.gusdb.fgputil.db.pool.DatabaseInstance;
+import org.gusdb.fgputil.db.pool.SimpleDbConfig;
+import org.gusdb.oauth2.eupathdb.accountdb.AccountDbManager;
+
+/**
+ * Loads and checks the account_profiles projection of account_properties.
+ * In backfill mode, a projection row is inserted for every account without
+ * one; existing rows are left alone, so the tool can be rerun safely (e.g.
+ * to pick up accounts created before the OAuth server's useProfileProjection
+ * option was enabled).  In repair mode, the projection rows that are missing
+ * or differ from their property rows are rebuilt.  In verify mode, the IDs of
+ * accounts whose projection row is missing or differs from their property
+ * rows are printed, and the tool exits with a non-zero status if there are
+ * any.
+ *
+ * The projection is only correct if every application that writes accounts or
+ * account_properties also maintains account_profiles; until that is true,
+ * run this tool in repair mode after such writes (or periodically), and do not
+ * enable useProfileProjection.
+ */
+public class AccountProfilesTool extends ToolBase {
+
+  private static final String PROP_MODE = "mode";
+  private static final String PROP_DB_PLATFORM = "dbPlatform";
+  private static final String PROP_ACCOUNTDB_CONNECTION_URL = "accountDbConnectionUrl";
+  private static final String PROP_ACCOUNTDB_LOGIN = "accountDbLogin";
+  private static final String PROP_ACCOUNTDB_PASSWORD = "accountDbPassword";
+  private static final String PROP_ACCOUNTDB_SCHEMA = "accountDbSchema";
+
+  private static final String MODE_BACKFILL = "backfill";
+  private static final String MODE_REPAIR = "repair";
+  private static final String MODE_VERIFY = "verify";
+
+  // number of mismatched user IDs to print in verify mode
+  private static final int MAX_REPORTED_MISMATCHES = 100;
+
+  public static void main(String[] args) {
+    System.exit(new AccountProfilesTool(args).execute() ? 0 : 1);
+  }
+
+  public AccountProfilesTool(String[] args) {
+    super(args, new String[] { PROP_MODE, PROP_DB_PLATFORM, PROP_ACCOUNTDB_CONNECTION_URL,
+        PROP_ACCOUNTDB_LOGIN, PROP_ACCOUNTDB_PASSWORD, PROP_ACCOUNTDB_SCHEMA });
+  }
+
+  /**
+   * @return true if the operation succeeded
+   */
+  public boolean execute() {
+
+    String mode = findProp(PROP_MODE);
+    if (!mode.equals(MODE_BACKFILL) && !mode.equals(MODE_REPAIR) && !mode.equals(MODE_VERIFY)) {
+      System.err.println("Property '" + PROP_MODE + "' must be '" + MODE_BACKFILL + "', '" +
+          MODE_REPAIR + "' or '" + MODE_VERIFY + "'");
+      return false;
+    }
+
+    String schema = findProp(PROP_ACCOUNTDB_SCHEMA);
+    if (!schema.isEmpty() && !schema.endsWith(".")) schema += ".";
+
+    SimpleDbConfig dbConfig = SimpleDbConfig.create(
+        SupportedPlatform.toPlatform(findProp(PROP_DB_PLATFORM)),
+        findProp(PROP_ACCOUNTDB_CONNECTION_URL),
+        findProp(PROP_ACCOUNTDB_LOGIN),
+        findProp(PROP_ACCOUNTDB_PASSWORD));
+
+    try (DatabaseInstance accountDb = new DatabaseInstance(dbConfig)) {
+      AccountDbManager accountMgr = new AccountDbManager(accountDb, schema, USER_PROPERTY_LIST, true);
+
+      if (mode.equals(MODE_BACKFILL)) {
+        int inserted = accountMgr.backfillProfileProjection();
+        System.out.println("Inserted " + inserted + " rows into " + schema + AccountDbManager.TABLE_ACCOUNT_PROFILES);
+        return true;
+      }
+
+      if (mode.equals(MODE_REPAIR)) {
+        int rebuilt = accountMgr.repairProfileProjection();
+        System.out.println("Rebuilt " + rebuilt + " rows of " + schema + AccountDbManager.TABLE_ACCOUNT_PROFILES);
+        return true;
+      }
+
+      List<Long> mismatches = accountMgr.findProfileProjectionMismatches();
+      if (mismatches.isEmpty()) {
+        System.out.println(schema + AccountDbManager.TABLE_ACCOUNT_PROFILES + " matches " + schema + AccountDbManager.TABLE_ACCOUNT_PROPS);
+        return true;
+      }
+      System.out.println(mismatches.size() + " accounts have a missing or out-of-date " +
+          AccountDbManager.TABLE_ACCOUNT_PROFILES + " row, including: " +
+          mismatches.stream().limit(MAX_REPORTED_MISMATCHES).map(String::valueOf).collect(Collectors.joining(", ")));
+      return false;
+    }
+  }
+}
@@ -14,6 +14,7 @@ import org.gusdb.oauth2.config.ApplicationConfig;
 import org.gusdb.oauth2.eupathdb.AccountDbAuthenticator;
 import org.gusdb.oauth2.service.token.TokenFactory;
 import org.gusdb.oauth2.service.token.TokenStore.IdTokenParams;
+import org.gusdb.oauth2.shared.ClaimsWriter;
 import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
 import org.gusdb.oauth2.shared.Signatures;
 import org.gusdb.oauth2.shared.SigningKeyStore;
@@ -92,10 +93,10 @@ public class BearerTokenGenerator extends ToolBase {
 
       IdTokenParams params = new IdTokenParams("apiComponentSite", null);
 
-      JsonObject tokenJson = TokenFactory.createTokenJson(authenticator, userId, params,
-          "https://auth.veupathdb.org", ApplicationConfig.DEFAULT_BEARER_TOKEN_EXPIRATION_SECS, DataScope.BEARER_TOKEN);
-
-      return Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(tokenJson, keyStore, params.getClientId(), null);
+      try (ClaimsWriter tokenClaims = TokenFactory.createTokenClaims(authenticator, userId, params,
+          "https://auth.veupathdb.org", ApplicationConfig.DEFAULT_BEARER_TOKEN_EXPIRATION_SECS, DataScope.BEARER_TOKEN)) {
+        return Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(tokenClaims, keyStore, params.getClientId(), null);
+      }
     }
   }
 }
@@ -35,7 +35,12 @@ public class UserInfoFetcher extends ToolBase {
         apiComponentSiteSecret
     );
 
-    OAuthClient client = new OAuthClient(new KeyStoreTrustManager());
+    try (OAuthClient client = new OAuthClient(new KeyStoreTrustManager())) {
+      execute(client, oauthConfig, tokenValue);
+    }
+  }
+
+  private static void execute(OAuthClient client, OAuthConfig oauthConfig, String tokenValue) throws InvalidTokenException, ExpiredTokenException {
 
     ValidatedToken token = client.getValidatedEcdsaSignedToken(oauthConfig.getOauthUrl(), tokenValue);
 
@@ -0,0 +1,276 @@
+package org.gusdb.oauth2.eupathdb.accountdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import org.gusdb.oauth2.client.veupathdb.UserInfo;
+import org.gusdb.oauth2.client.veupathdb.UserProperty;
+
+/**
+ * Measures single-user profile lookups against generated account databases
+ * of increasing size, comparing the queries AccountDbManager now runs, with
+ * and without the account_profiles projection, with the one it formerly ran,
+ * which pivoted the whole account_properties table before filtering.  The
+ * credentials query, which reads only the user ID and password hash for a
+ * login check, is measured alongside the email+password lookups.  Loading
+ * BATCH_SIZE users by ID is measured both as one query per user and as the
+ * padded IN-list queries AccountDbManager.getUserProfiles() runs; in-memory
+ * H2 has no network round trip to save, so the two take similar time here,
+ * whereas against a remote database the per-user queries each add a round
+ * trip.  The projection is loaded and then verified with the SQL used by
+ * AccountProfilesTool.  Uses an in-memory H2 database with the keys defined in
+ * data/create_schema_postgres.sql.  Username lookups are not measured: H2
+ * cannot index lower(value), so they scan every username row here however
+ * the query is written, whereas on Oracle and PostgreSQL they use the
+ * username index defined in the schema scripts.  Not a unit test; run via
+ * main().
+ *
+ * Usage: ProfileLookupBenchmark [commaSeparatedUserCounts [lookupsPerRun]]
+ */
+public class ProfileLookupBenchmark {
+
+  private static final String SCHEMA = "useraccounts.";
+
+  private static final String LEGACY_SELECT_SQL =
+      "select u.user_id, email, is_guest, signature, stable_id, register_time, last_login" +
+      UserInfo.USER_PROPERTY_LIST.stream().map(prop -> ", " + prop.getDbKey()).collect(Collectors.joining()) +
+      "  from " + SCHEMA + "accounts u left join (" +
+      "    select user_id" +
+      UserInfo.USER_PROPERTY_LIST.stream().map(prop ->
+          ", max(case when key = '" + prop.getDbKey() + "' then value end) as " + prop.getDbKey()).collect(Collectors.joining()) +
+      "    from " + SCHEMA + "account_properties group by user_id" +
+      "  ) p on u.user_id = p.user_id";
+
+  private static final String LEGACY_USER_ID_SQL = LEGACY_SELECT_SQL + " where u.user_id = ?";
+  private static final String LEGACY_CREDENTIALS_SQL = LEGACY_SELECT_SQL +
+      " where ( email = ? OR lower(username) = lower(?) ) and passwd = ?";
+
+  private static final String USER_ID_SQL =
+      AccountDbManager.getSelectSql(SCHEMA, AccountDbManager.USER_ID_CONDITION);
+  private static final String EMAIL_PASSWORD_SQL =
+      AccountDbManager.getSelectSql(SCHEMA, AccountDbManager.EMAIL_CONDITION + AccountDbManager.PASSWORD_CONDITION);
+
+  private static final String PROJECTED_USER_ID_SQL =
+      AccountDbManager.getProjectedSelectSql(SCHEMA, UserInfo.USER_PROPERTY_LIST, AccountDbManager.USER_ID_CONDITION);
+  private static final String PROJECTED_EMAIL_PASSWORD_SQL =
+      AccountDbManager.getProjectedSelectSql(SCHEMA, UserInfo.USER_PROPERTY_LIST, AccountDbManager.EMAIL_CONDITION + AccountDbManager.PASSWORD_CONDITION);
+
+  // password hash is compared by the caller
+  private static final String EMAIL_CREDENTIALS_SQL =
+      AccountDbManager.getCredentialsSql(SCHEMA, AccountDbManager.EMAIL_CONDITION);
+
+  // number of users loaded per batch lookup, as in a multi-user query
+  private static final int BATCH_SIZE = 1000;
+
+  private static final String[] PROJECTED_USER_IDS_SQLS = AccountDbManager.renderInListSqls(
+      AccountDbManager.getProjectedSelectSql(SCHEMA, UserInfo.USER_PROPERTY_LIST, AccountDbManager.USER_IDS_CONDITION));
+
+  private static class Lookup {
+
+    final String name;
+    final String query;
+    final String sql;
+    final IntFunction<Object[]> params;
+
+    Lookup(String name, String query, String sql, IntFunction<Object[]> params) {
+      this.name = name;
+      this.query = query;
+      this.sql = sql;
+      this.params = params;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String[] userCounts = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+    int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+    List<Lookup> benchmarks = List.of(
+      new Lookup("by id", "legacy", LEGACY_USER_ID_SQL, id -> new Object[] { id }),
+      new Lookup("by id", "keyed", USER_ID_SQL, id -> new Object[] { id }),
+      new Lookup("by id", "projected", PROJECTED_USER_ID_SQL, id -> new Object[] { id }),
+      new Lookup("by email+password", "legacy", LEGACY_CREDENTIALS_SQL,
+          id -> new Object[] { email(id), email(id), password(id) }),
+      new Lookup("by email+password", "keyed", EMAIL_PASSWORD_SQL,
+          id -> new Object[] { email(id), password(id) }),
+      new Lookup("by email+password", "projected", PROJECTED_EMAIL_PASSWORD_SQL,
+          id -> new Object[] { email(id), password(id) }),
+      new Lookup("by email+password", "credentials", EMAIL_CREDENTIALS_SQL,
+          id -> new Object[] { email(id) })
+    );
+
+    System.out.println("users\tlookup\tquery\tms/lookup (ms total for batches)");
+    for (String userCount : userCounts) {
+      int numUsers = Integer.parseInt(userCount.trim());
+      try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:" + UUID.randomUUID() + ";NON_KEYWORDS=KEY,VALUE")) {
+        createDataset(conn, numUsers);
+        loadProjection(conn);
+        for (Lookup lookup : benchmarks) {
+          run(conn, numUsers, lookups, lookup);
+        }
+        runBatch(conn, numUsers);
+      }
+    }
+  }
+
+  private static void createDataset(Connection conn, int numUsers) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("create schema useraccounts");
+      stmt.execute("create table " + SCHEMA + "accounts (user_id bigint not null, email varchar(255) not null," +
+          " passwd varchar(50) not null, is_guest boolean not null, signature varchar(40), stable_id varchar(500)," +
+          " register_time timestamp, last_login timestamp, constraint accounts_pk primary key (user_id)," +
+          " constraint email_uniq_constraint unique (email))");
+      stmt.execute("create table " + SCHEMA + "account_properties (user_id bigint, key varchar(30), value varchar(4000)," +
+          " constraint account_properties_pk primary key (user_id, key))");
+      stmt.execute("create table " + SCHEMA + AccountDbManager.TABLE_ACCOUNT_PROFILES + " (user_id bigint not null" +
+          UserInfo.USER_PROPERTY_LIST.stream().map(prop -> ", " + prop.getDbKey() + " varchar(4000)").collect(Collectors.joining()) +
+          ", constraint account_profiles_pk primary key (user_id))");
+    }
+    Random random = new Random(1);
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    conn.setAutoCommit(false);
+    try (PreparedStatement accounts = conn.prepareStatement("insert into " + SCHEMA + "accounts values (?, ?, ?, false, ?, ?, ?, ?)");
+         PreparedStatement props = conn.prepareStatement("insert into " + SCHEMA + "account_properties values (?, ?, ?)")) {
+      for (int userId = 1; userId <= numUsers; userId++) {
+        accounts.setLong(1, userId);
+        accounts.setString(2, email(userId));
+        accounts.setString(3, password(userId));
+        accounts.setString(4, Long.toHexString(random.nextLong()));
+        accounts.setString(5, "user." + userId);
+        accounts.setTimestamp(6, now);
+        accounts.setTimestamp(7, now);
+        accounts.addBatch();
+        for (UserProperty prop : UserInfo.USER_PROPERTY_LIST) {
+          props.setLong(1, userId);
+          props.setString(2, prop.getDbKey());
+          props.setString(3, prop.getName().equals(AccountDbManager.USERNAME_PROPERTY_KEY)
+              ? username(userId) : prop.getName() + " value " + random.nextInt(1000));
+          props.addBatch();
+        }
+        if (userId % 1000 == 0) {
+          accounts.executeBatch();
+          props.executeBatch();
+        }
+      }
+      accounts.executeBatch();
+      props.executeBatch();
+    }
+    conn.commit();
+    conn.setAutoCommit(true);
+  }
+
+  private static void loadProjection(Connection conn) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      int inserted = stmt.executeUpdate(AccountDbManager.getBackfillProfilesSql(SCHEMA, UserInfo.USER_PROPERTY_LIST));
+      try (ResultSet rs = stmt.executeQuery(AccountDbManager.getFindProfileMismatchesSql(SCHEMA, UserInfo.USER_PROPERTY_LIST))) {
+        if (rs.next()) {
+          throw new IllegalStateException("Projection of " + inserted + " rows does not match properties of user " + rs.getLong(1));
+        }
+      }
+    }
+  }
+
+  private static String email(int userId) {
+    return "user" + userId + "@example.org";
+  }
+
+  private static String username(int userId) {
+    return "User" + userId;
+  }
+
+  private static String password(int userId) {
+    return "pw" + userId;
+  }
+
+  private static void run(Connection conn, int numUsers, int lookups, Lookup lookup) throws SQLException {
+    Random random = new Random(2);
+    try (PreparedStatement stmt = conn.prepareStatement(lookup.sql)) {
+      // warm up
+      for (int i = 0; i < Math.min(lookups, 5); i++) {
+        execute(stmt, lookup.params.apply(random.nextInt(numUsers) + 1));
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < lookups; i++) {
+        int userId = random.nextInt(numUsers) + 1;
+        if (execute(stmt, lookup.params.apply(userId)) == 0) {
+          throw new IllegalStateException("User " + userId + " not found " + lookup.name + " with " + lookup.query + " query");
+        }
+      }
+      double msPerLookup = (System.nanoTime() - start) / 1_000_000.0 / lookups;
+      System.out.println(numUsers + "\t" + lookup.name + "\t" + lookup.query + "\t" + String.format("%.3f", msPerLookup));
+    }
+  }
+
+  private static void runBatch(Connection conn, int numUsers) throws SQLException {
+    Random random = new Random(3);
+    List<Integer> userIds = new ArrayList<>();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      userIds.add(random.nextInt(numUsers) + 1);
+    }
+    List<Integer> uniqueIds = new ArrayList<>(new LinkedHashSet<>(userIds));
+
+    // first pass warms up
+    for (int pass = 0; pass < 2; pass++) {
+      long start = System.nanoTime();
+      int rows = 0;
+      try (PreparedStatement stmt = conn.prepareStatement(PROJECTED_USER_ID_SQL)) {
+        for (Integer userId : uniqueIds) {
+          rows += execute(stmt, new Object[] { userId });
+        }
+      }
+      if (pass > 0) report(numUsers, uniqueIds.size(), "single", uniqueIds.size(), rows, start);
+
+      start = System.nanoTime();
+      rows = 0;
+      int queries = 0;
+      for (int i = 0; i < uniqueIds.size(); i += AccountDbManager.MAX_IN_LIST_SIZE, queries++) {
+        List<Integer> chunk = uniqueIds.subList(i, Math.min(i + AccountDbManager.MAX_IN_LIST_SIZE, uniqueIds.size()));
+        int sizeIndex = AccountDbManager.getInListSizeIndex(chunk.size());
+        Object[] params = new Object[1 << sizeIndex];
+        for (int j = 0; j < params.length; j++) {
+          params[j] = chunk.get(Math.min(j, chunk.size() - 1));
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(PROJECTED_USER_IDS_SQLS[sizeIndex])) {
+          rows += execute(stmt, params);
+        }
+      }
+      if (pass > 0) report(numUsers, uniqueIds.size(), "in-list", queries, rows, start);
+    }
+  }
+
+  private static void report(int numUsers, int batchSize, String query, int queries, int rows, long start) {
+    if (rows != batchSize) {
+      throw new IllegalStateException("Found " + rows + " of " + batchSize + " users with " + query + " queries");
+    }
+    double ms = (System.nanoTime() - start) / 1_000_000.0;
+    System.out.println(numUsers + "\t" + batchSize + " by id\t" + query + " (" + queries + " queries)\t" + String.format("%.3f", ms));
+  }
+
+  /**
+   * @return number of rows returned
+   */
+  private static int execute(PreparedStatement stmt, Object[] params) throws SQLException {
+    for (int i = 0; i < params.length; i++) {
+      stmt.setObject(i + 1, params[i]);
+    }
+    int rows = 0;
+    try (ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        rs.getString(2);
+        rows++;
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,245 @@
+package org.gusdb.oauth2;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.Authenticator.DataScope;
+import org.gusdb.oauth2.shared.CacheStatistics;
+
+/**
+ * Read-through cache of user information keyed by user ID and data scope,
+ * for Authenticator implementations whose user lookups are expensive.  The
+ * cache holds at most maxSize entries, evicting the least recently used, and
+ * each entry is reloaded once it is older than the configured time-to-live.
+ * Users that are not found are not cached.
+ *
+ * Implementations must call invalidate() whenever they change a user's data.
+ * This only clears the cache in this process, so the time-to-live bounds how
+ * long changes made elsewhere (e.g. by another server sharing the user store)
+ * can go unnoticed.  A lookup that overlaps an invalidation is returned to its
+ * caller but not cached, so it cannot reinstate data that was just replaced.
+ *
+ * Hit and miss counts are logged periodically and available via getStatistics().
+ *
+ * Thread-safe.
+ */
+public class UserInfoCache {
+
+  private static final Logger LOG = LogManager.getLogger(UserInfoCache.class);
+
+  @FunctionalInterface
+  public interface UserInfoLoader {
+    Optional<UserAccountInfo> load(String userId, DataScope scope) throws Exception;
+  }
+
+  @FunctionalInterface
+  public interface MultiUserInfoLoader {
+    /**
+     * @return information about the found users, keyed by user ID; users not
+     * found are absent
+     */
+    Map<String, UserAccountInfo> load(Collection<String> userIds, DataScope scope) throws Exception;
+  }
+
+  private static class Key {
+
+    private final String _userId;
+    private final DataScope _scope;
+
+    Key(String userId, DataScope scope) {
+      _userId = userId;
+      _scope = scope;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key &&
+          ((Key)obj)._userId.equals(_userId) &&
+          ((Key)obj)._scope == _scope;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(_userId, _scope);
+    }
+  }
+
+  private static class Entry {
+
+    final UserAccountInfo userInfo;
+    final long expirationTime;
+
+    Entry(UserAccountInfo userInfo, long expirationTime) {
+      this.userInfo = userInfo;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+  private final long _ttlMillis;
+  private final Map<Key, Entry> _entries; // guarded by itself
+  private final AtomicLong _invalidationCount = new AtomicLong();
+  private final CacheStatistics _stats;
+
+  /**
+   * @param maxSize max number of (user, scope) entries held; zero disables caching
+   * @param ttlSecs number of seconds an entry may be served before it is reloaded
+   */
+  public UserInfoCache(int maxSize, long ttlSecs) {
+    if (maxSize < 0 || ttlSecs < 0) {
+      throw new IllegalArgumentException("User info cache size and time-to-live cannot be negative");
+    }
+    _ttlMillis = ttlSecs * 1000;
+    Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+    _entries = entries;
+    // sized from the local so that 'this' does not escape the constructor
+    _stats = new CacheStatistics("User info cache", LOG, () -> {
+      synchronized (entries) {
+        return entries.size();
+      }
+    });
+  }
+
+  /**
+   * Returns the cached user information for the passed user and scope if
+   * present and fresh, else loads, caches and returns it.
+   *
+   * @param userId ID of the user to look up
+   * @param scope scope of the information to return
+   * @param loader loads the information on a miss
+   * @return user information, or empty if the loader found no such user
+   * @throws Exception if the loader throws
+   */
+  public Optional<UserAccountInfo> get(String userId, DataScope scope, UserInfoLoader loader) throws Exception {
+    Key key = new Key(userId, scope);
+    long now = System.currentTimeMillis();
+    _stats.logIfDue(now);
+    synchronized (_entries) {
+      Entry entry = _entries.get(key);
+      if (entry != null && entry.expirationTime > now) {
+        _stats.addHits(1);
+        return Optional.of(entry.userInfo);
+      }
+    }
+    _stats.addMisses(1);
+    long invalidationCount = _invalidationCount.get();
+    Optional<UserAccountInfo> userInfo = loader.load(userId, scope);
+    synchronized (_entries) {
+      if (_invalidationCount.get() == invalidationCount) {
+        if (userInfo.isPresent()) {
+          _entries.put(key, new Entry(userInfo.get(), now + _ttlMillis));
+        }
+        else {
+          _entries.remove(key);
+        }
+      }
+    }
+    return userInfo;
+  }
+
+  /**
+   * Returns the cached user information for each passed user and scope that is
+   * present and fresh, loading the rest with a single call to the loader and
+   * caching them as get() does.
+   *
+   * @param userIds IDs of the users to look up
+   * @param scope scope of the information to return
+   * @param loader loads the information of all missed users at once
+   * @return information about the found users, keyed by user ID; users not
+   * found are absent
+   * @throws Exception if the loader throws
+   */
+  public Map<String, UserAccountInfo> getAll(Collection<String> userIds, DataScope scope, MultiUserInfoLoader loader) throws Exception {
+    long now = System.currentTimeMillis();
+    _stats.logIfDue(now);
+    Map<String, UserAccountInfo> result = new HashMap<>();
+    Set<String> missed = new LinkedHashSet<>();
+    synchronized (_entries) {
+      for (String userId : userIds) {
+        if (result.containsKey(userId) || missed.contains(userId)) continue;
+        Entry entry = _entries.get(new Key(userId, scope));
+        if (entry != null && entry.expirationTime > now) {
+          result.put(userId, entry.userInfo);
+        }
+        else {
+          missed.add(userId);
+        }
+      }
+    }
+    _stats.addHits(result.size());
+    if (missed.isEmpty()) {
+      return result;
+    }
+    _stats.addMisses(missed.size());
+    long invalidationCount = _invalidationCount.get();
+    Map<String, UserAccountInfo> loaded = loader.load(missed, scope);
+    synchronized (_entries) {
+      if (_invalidationCount.get() == invalidationCount) {
+        for (String userId : missed) {
+          UserAccountInfo userInfo = loaded.get(userId);
+          if (userInfo != null) {
+            _entries.put(new Key(userId, scope), new Entry(userInfo, now + _ttlMillis));
+          }
+          else {
+            _entries.remove(new Key(userId, scope));
+          }
+        }
+      }
+    }
+    for (String userId : missed) {
+      UserAccountInfo userInfo = loaded.get(userId);
+      if (userInfo != null) {
+        result.put(userId, userInfo);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes all cached information about the passed user
+   *
+   * @param userId ID of user whose data has changed
+   */
+  public void invalidate(String userId) {
+    synchronized (_entries) {
+      _invalidationCount.incrementAndGet();
+      for (DataScope scope : DataScope.values()) {
+        _entries.remove(new Key(userId, scope));
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return _stats.getHitCount();
+  }
+
+  public long getMissCount() {
+    return _stats.getMissCount();
+  }
+
+  public int getSize() {
+    synchronized (_entries) {
+      return _entries.size();
+    }
+  }
+
+  /**
+   * @return summary of cache size and hit/miss counts since startup
+   */
+  public String getStatistics() {
+    return _stats.toString();
+  }
+}
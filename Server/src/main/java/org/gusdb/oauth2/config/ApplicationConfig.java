@@ -23,6 +23,7 @@ import org.apache.logging.log4j.Logger;
 import org.gusdb.oauth2.InitializationException;
 import org.gusdb.oauth2.assets.StaticResource;
 import org.gusdb.oauth2.exception.CryptoException;
+import org.gusdb.oauth2.service.token.InMemoryTokenStore;
 import org.gusdb.oauth2.shared.SigningKeyStore;
 import org.gusdb.oauth2.tools.KeyPairReader;
 
@@ -31,7 +32,11 @@ import org.gusdb.oauth2.tools.KeyPairReader;
   "issuer":"https://integrate.auth.veupathdb.org",
   "validateDomains": true,
   "tokenExpirationSecs": 3600,
+  "authCodeExpirationSecs": 300, // optional, tokenExpirationSecs is default
   "guestTokenExpirationSecs": 432000,
+  "guestTokenPoolSize": 100, // optional, 0 (no pool) is default
+  "guestTokenPoolMaxAgeSecs": 300, // optional, 300 is default
+  "verifiedTokenCacheSize": 10000, // optional, 10000 is default
   "bearerTokenExpirationSecs": 94608000,
   "oauthSessionExpirationSecs": 2592000,
   "keyStoreFile": "/home/rdoherty/oauth-keys.pkcs12",
@@ -50,6 +55,10 @@ import org.gusdb.oauth2.tools.KeyPairReader;
      "maxWait": "50",
      "userSchema": "userlogins5."
   },
+  "tokenStoreClass": "org.gusdb.oauth2.service.token.MappedFileTokenStore", // optional, InMemoryTokenStore is default
+  "tokenStoreConfig": { // optional, passed to the token store's initialize()
+     "directory": "/var/lib/oauth/tokens"
+  },
   "allowedClients": [
     {
       "clientId": "apiComponentSite",
@@ -79,20 +88,30 @@ public class ApplicationConfig extends SigningKeyStore {
 
   private static final String DEFAULT_LOGIN_FORM_PAGE = "login.html";
   private static final String DEFAULT_LOGIN_SUCCESS_PAGE = "success.html";
+  private static final String DEFAULT_TOKEN_STORE_CLASS = InMemoryTokenStore.class.getName();
 
   public static final long DEFAULT_TOKEN_EXPIRATION_SECS = 300; // 5 minutes
   public static final long DEFAULT_GUEST_TOKEN_EXPIRATION_SECS = 432000; // 5 days
   public static final long DEFAULT_BEARER_TOKEN_EXPIRATION_SECS = 5184000; // 60 days
   public static final long DEFAULT_OAUTH_SESSION_EXPIRATION_SECS = 31536000; // 365 days
+  public static final int DEFAULT_GUEST_TOKEN_POOL_SIZE = 0; // no pool
+  public static final long DEFAULT_GUEST_TOKEN_POOL_MAX_AGE_SECS = 300; // 5 minutes
+  public static final int DEFAULT_VERIFIED_TOKEN_CACHE_SIZE = 10000;
 
   private static enum JsonKey {
     issuer,
     authenticatorClass,
     authenticatorConfig,
+    tokenStoreClass,
+    tokenStoreConfig,
     loginFormPage,
     loginSuccessPage,
     tokenExpirationSecs,
+    authCodeExpirationSecs,
     guestTokenExpirationSecs,
+    guestTokenPoolSize,
+    guestTokenPoolMaxAgeSecs,
+    verifiedTokenCacheSize,
     bearerTokenExpirationSecs,
     oauthSessionExpirationSecs,
     allowAnonymousLogin,
@@ -112,12 +131,26 @@ public class ApplicationConfig extends SigningKeyStore {
         throw new InitializationException("Configuration property '" + JsonKey.issuer.name() + "' is required.");
       String authClassName = json.getString(JsonKey.authenticatorClass.name());
       JsonObject authClassConfig = json.getJsonObject(JsonKey.authenticatorConfig.name());
+      String tokenStoreClassName = json.getString(JsonKey.tokenStoreClass.name(), DEFAULT_TOKEN_STORE_CLASS);
+      JsonObject tokenStoreConfig = Optional.ofNullable(json.getJsonObject(JsonKey.tokenStoreConfig.name()))
+          .orElse(JsonValue.EMPTY_JSON_OBJECT);
       boolean validateDomains = json.getBoolean(JsonKey.validateDomains.name(), VALIDATE_DOMAINS_BY_DEFAULT);
       boolean allowAnonymousLogin = json.getBoolean(JsonKey.allowAnonymousLogin.name(), ALLOW_ANONYMOUS_LOGIN_BY_DEFAULT);
       String loginFormPage = json.getString(JsonKey.loginFormPage.name(), DEFAULT_LOGIN_FORM_PAGE);
       String loginSuccessPage = json.getString(JsonKey.loginSuccessPage.name(), DEFAULT_LOGIN_SUCCESS_PAGE);
       long tokenExpirationSecs = getJsonLong(json, JsonKey.tokenExpirationSecs, DEFAULT_TOKEN_EXPIRATION_SECS);
+      long authCodeExpirationSecs = getJsonLong(json, JsonKey.authCodeExpirationSecs, tokenExpirationSecs);
       long guestTokenExpirationSecs = getJsonLong(json, JsonKey.guestTokenExpirationSecs, DEFAULT_GUEST_TOKEN_EXPIRATION_SECS);
+      int guestTokenPoolSize = json.getInt(JsonKey.guestTokenPoolSize.name(), DEFAULT_GUEST_TOKEN_POOL_SIZE);
+      long guestTokenPoolMaxAgeSecs = getJsonLong(json, JsonKey.guestTokenPoolMaxAgeSecs, DEFAULT_GUEST_TOKEN_POOL_MAX_AGE_SECS);
+      if (guestTokenPoolSize < 0)
+        throw new InitializationException("Configuration property '" + JsonKey.guestTokenPoolSize.name() + "' cannot be negative.");
+      if (guestTokenPoolMaxAgeSecs <= 0 || guestTokenPoolMaxAgeSecs > guestTokenExpirationSecs / 10)
+        throw new InitializationException("Configuration property '" + JsonKey.guestTokenPoolMaxAgeSecs.name() +
+            "' must be positive and at most one tenth of '" + JsonKey.guestTokenExpirationSecs.name() + "'.");
+      int verifiedTokenCacheSize = json.getInt(JsonKey.verifiedTokenCacheSize.name(), DEFAULT_VERIFIED_TOKEN_CACHE_SIZE);
+      if (verifiedTokenCacheSize < 0)
+        throw new InitializationException("Configuration property '" + JsonKey.verifiedTokenCacheSize.name() + "' cannot be negative.");
       long bearerTokenExpirationSecs = getJsonLong(json, JsonKey.bearerTokenExpirationSecs, DEFAULT_BEARER_TOKEN_EXPIRATION_SECS);
       long oauthSessionExpirationSecs = getJsonLong(json, JsonKey.oauthSessionExpirationSecs, DEFAULT_OAUTH_SESSION_EXPIRATION_SECS);
       validateResource(loginFormPage);
@@ -137,9 +170,9 @@ public class ApplicationConfig extends SigningKeyStore {
       }
       String keyStoreFile = json.getString(JsonKey.keyStoreFile.name());
       String keyStorePassPhrase = json.getString(JsonKey.keyStorePassPhrase.name());
-      return new ApplicationConfig(issuer, authClassName, authClassConfig, loginFormPage,
-          loginSuccessPage, tokenExpirationSecs, guestTokenExpirationSecs, bearerTokenExpirationSecs, oauthSessionExpirationSecs,
-          allowAnonymousLogin, validateDomains, allowedClients, keyStoreFile, keyStorePassPhrase);
+      return new ApplicationConfig(issuer, authClassName, authClassConfig, tokenStoreClassName, tokenStoreConfig, loginFormPage,
+          loginSuccessPage, tokenExpirationSecs, authCodeExpirationSecs, guestTokenExpirationSecs, guestTokenPoolSize, guestTokenPoolMaxAgeSecs,
+          verifiedTokenCacheSize, bearerTokenExpirationSecs, oauthSessionExpirationSecs, allowAnonymousLogin, validateDomains, allowedClients, keyStoreFile, keyStorePassPhrase);
     }
     catch (ClassCastException | NullPointerException | IllegalArgumentException e) {
       throw new InitializationException("Misconfiguration", e);
@@ -168,10 +201,16 @@ public class ApplicationConfig extends SigningKeyStore {
   private final String _issuer;
   private final String _authClassName;
   private final JsonObject _authClassConfig;
+  private final String _tokenStoreClassName;
+  private final JsonObject _tokenStoreConfig;
   private final String _loginFormPage;
   private final String _loginSuccessPage;
   private final long _tokenExpirationSecs;
+  private final long _authCodeExpirationSecs;
   private final long _guestTokenExpirationSecs;
+  private final int _guestTokenPoolSize;
+  private final long _guestTokenPoolMaxAgeSecs;
+  private final int _verifiedTokenCacheSize;
   private final long _bearerTokenExpirationSecs;
   private final long _oauthSessionExpirationSecs;
   private final boolean _anonymousLoginsAllowed;
@@ -181,17 +220,25 @@ public class ApplicationConfig extends SigningKeyStore {
   private final Map<String,Set<String>> _secretsMap;
   private final Set<String> _iframeAllowedSites;
 
-  private ApplicationConfig(String issuer, String authClassName, JsonObject authClassConfig, String loginFormPage,
-      String loginSuccessPage, long tokenExpirationSecs, long guestTokenExpirationSecs, long bearerTokenExpirationSecs, long oauthSessionExpirationSecs, boolean anonymousLoginsAllowed,
+  private ApplicationConfig(String issuer, String authClassName, JsonObject authClassConfig,
+      String tokenStoreClassName, JsonObject tokenStoreConfig, String loginFormPage,
+      String loginSuccessPage, long tokenExpirationSecs, long authCodeExpirationSecs, long guestTokenExpirationSecs,
+      int guestTokenPoolSize, long guestTokenPoolMaxAgeSecs, int verifiedTokenCacheSize, long bearerTokenExpirationSecs, long oauthSessionExpirationSecs, boolean anonymousLoginsAllowed,
       boolean validateDomains, List<AllowedClient> allowedClients, String keyStoreFile, String keyStorePassPhrase) throws CryptoException, IOException {
-    super(new KeyPairReader().readKeyPair(Paths.get(keyStoreFile), keyStorePassPhrase));
+    super(new KeyPairReader().readSigningKeys(Paths.get(keyStoreFile), keyStorePassPhrase));
     _issuer = issuer;
     _authClassName = authClassName;
     _authClassConfig = authClassConfig;
+    _tokenStoreClassName = tokenStoreClassName;
+    _tokenStoreConfig = tokenStoreConfig;
     _loginFormPage = loginFormPage;
     _loginSuccessPage = loginSuccessPage;
     _tokenExpirationSecs = tokenExpirationSecs;
+    _authCodeExpirationSecs = authCodeExpirationSecs;
     _guestTokenExpirationSecs = guestTokenExpirationSecs;
+    _guestTokenPoolSize = guestTokenPoolSize;
+    _guestTokenPoolMaxAgeSecs = guestTokenPoolMaxAgeSecs;
+    _verifiedTokenCacheSize = verifiedTokenCacheSize;
     _bearerTokenExpirationSecs = bearerTokenExpirationSecs;
     _oauthSessionExpirationSecs = oauthSessionExpirationSecs;
     _anonymousLoginsAllowed = anonymousLoginsAllowed;
@@ -231,6 +278,14 @@ public class ApplicationConfig extends SigningKeyStore {
     return _authClassConfig;
   }
 
+  public String getTokenStoreClassName() {
+    return _tokenStoreClassName;
+  }
+
+  public JsonObject getTokenStoreConfig() {
+    return _tokenStoreConfig;
+  }
+
   public String getLoginFormPage() {
     return _loginFormPage;
   }
@@ -243,10 +298,26 @@ public class ApplicationConfig extends SigningKeyStore {
     return _tokenExpirationSecs;
   }
 
+  public long getAuthCodeExpirationSecs() {
+    return _authCodeExpirationSecs;
+  }
+
   public long getGuestTokenExpirationSecs() {
     return _guestTokenExpirationSecs;
   }
 
+  public int getGuestTokenPoolSize() {
+    return _guestTokenPoolSize;
+  }
+
+  public long getGuestTokenPoolMaxAgeSecs() {
+    return _guestTokenPoolMaxAgeSecs;
+  }
+
+  public int getVerifiedTokenCacheSize() {
+    return _verifiedTokenCacheSize;
+  }
+
   public long getBearerTokenExpirationSecs() {
     return _bearerTokenExpirationSecs;
   }
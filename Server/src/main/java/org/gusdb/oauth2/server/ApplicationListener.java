@@ -5,6 +5,10 @@ import javax.servlet.ServletContextListener;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.Authenticator;
+import org.gusdb.oauth2.service.token.GuestTokenPool;
+import org.gusdb.oauth2.service.token.TokenStore;
+import org.gusdb.oauth2.service.token.VerifiedTokenCache;
 
 /**
  * Application listener closes resources on the client-provided Authenticator
@@ -15,8 +19,9 @@ import org.apache.logging.log4j.Logger;
  * resources, you need not register this listener in web.xml.
  * 
  * Edit: This listener is also now responsible for shutting down the token
- * expirer thread.  If your application reports a possible memory leak on
- * webapp undeploy, you should include this listener in your app's web.xml.
+ * expirer thread and guest token pool, and closing the token store.  If your application reports a
+ * possible memory leak on webapp undeploy, or uses a persistent token store,
+ * you should include this listener in your app's web.xml.
  * 
  * @author ryan
  */
@@ -33,8 +38,25 @@ public class ApplicationListener implements ServletContextListener {
   @Override
   public void contextDestroyed(ServletContextEvent event) {
     LOG.info("Shutting down OAuth Server webapp");
-    OAuthServlet.getAuthenticator(event.getServletContext()).close();
+    // stop minting guest tokens before the authenticator is closed; these
+    //   objects are absent if servlet initialization failed or never ran
+    GuestTokenPool guestTokenPool = OAuthServlet.getGuestTokenPool(event.getServletContext());
+    if (guestTokenPool != null) {
+      guestTokenPool.close();
+    }
+    VerifiedTokenCache verifiedTokenCache = OAuthServlet.getVerifiedTokenCache(event.getServletContext());
+    if (verifiedTokenCache != null) {
+      LOG.info(verifiedTokenCache.getStatistics());
+    }
+    Authenticator authenticator = OAuthServlet.getAuthenticator(event.getServletContext());
+    if (authenticator != null) {
+      authenticator.close();
+    }
     TokenExpirerThread.shutdown();
+    TokenStore tokenStore = OAuthServlet.getTokenStore(event.getServletContext());
+    if (tokenStore != null) {
+      tokenStore.close();
+    }
   }
 
 }
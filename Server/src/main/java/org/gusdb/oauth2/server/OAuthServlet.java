@@ -15,6 +15,9 @@ import org.gusdb.oauth2.Authenticator;
 import org.gusdb.oauth2.InitializationException;
 import org.gusdb.oauth2.config.ApplicationConfig;
 import org.gusdb.oauth2.service.ClientValidator;
+import org.gusdb.oauth2.service.token.GuestTokenPool;
+import org.gusdb.oauth2.service.token.TokenStore;
+import org.gusdb.oauth2.service.token.VerifiedTokenCache;
 
 public class OAuthServlet extends ServletContainer {
 
@@ -25,6 +28,9 @@ public class OAuthServlet extends ServletContainer {
   private static final String CONFIG_FILE_PARAM_KEY = "oauth.config.file";
   private static final String OAUTH_CONFIG_KEY = "oauth.config";
   private static final String OAUTH_AUTHENTICATOR_KEY = "oauth.authenticator";
+  private static final String OAUTH_TOKEN_STORE_KEY = "oauth.tokenStore";
+  private static final String OAUTH_GUEST_TOKEN_POOL_KEY = "oauth.guestTokenPool";
+  private static final String OAUTH_VERIFIED_TOKEN_CACHE_KEY = "oauth.verifiedTokenCache";
 
   public static ApplicationConfig getApplicationConfig(ServletContext context) {
     return (ApplicationConfig)context.getAttribute(OAUTH_CONFIG_KEY);
@@ -34,6 +40,18 @@ public class OAuthServlet extends ServletContainer {
     return (Authenticator)context.getAttribute(OAUTH_AUTHENTICATOR_KEY);
   }
 
+  public static TokenStore getTokenStore(ServletContext context) {
+    return (TokenStore)context.getAttribute(OAUTH_TOKEN_STORE_KEY);
+  }
+
+  public static GuestTokenPool getGuestTokenPool(ServletContext context) {
+    return (GuestTokenPool)context.getAttribute(OAUTH_GUEST_TOKEN_POOL_KEY);
+  }
+
+  public static VerifiedTokenCache getVerifiedTokenCache(ServletContext context) {
+    return (VerifiedTokenCache)context.getAttribute(OAUTH_VERIFIED_TOKEN_CACHE_KEY);
+  }
+
   public static ClientValidator getClientValidator(ServletContext servletContext) {
     ApplicationConfig config = getApplicationConfig(servletContext);
     return new ClientValidator(config.getAllowedClients(), config.validateDomains());
@@ -62,9 +80,16 @@ public class OAuthServlet extends ServletContainer {
       LOG.info("Configuration parsed successfully.");
       LOG.info("Will initialize Authenticator implementation: " + config.getAuthClassName());
       context.setAttribute(OAUTH_CONFIG_KEY, config);
-      context.setAttribute(OAUTH_AUTHENTICATOR_KEY, getAuthenticator(config));
+      Authenticator authenticator = getAuthenticator(config);
+      context.setAttribute(OAUTH_AUTHENTICATOR_KEY, authenticator);
       LOG.info("Authenticator successfully initialized.");
-      TokenExpirerThread.start(config);
+      LOG.info("Will initialize TokenStore implementation: " + config.getTokenStoreClassName());
+      TokenStore tokenStore = getTokenStore(config);
+      context.setAttribute(OAUTH_TOKEN_STORE_KEY, tokenStore);
+      LOG.info("TokenStore successfully initialized.");
+      TokenExpirerThread.start(config, tokenStore);
+      context.setAttribute(OAUTH_GUEST_TOKEN_POOL_KEY, new GuestTokenPool(authenticator, config));
+      context.setAttribute(OAUTH_VERIFIED_TOKEN_CACHE_KEY, new VerifiedTokenCache(config, config.getVerifiedTokenCacheSize()));
       LOG.info("Ready to serve requests from " + config.getAllowedClients().size() + " unique clients.");
     }
     catch (InitializationException e) {
@@ -123,4 +148,30 @@ public class OAuthServlet extends ServletContainer {
     }
   }
 
+  private static TokenStore getTokenStore(ApplicationConfig config) throws InitializationException {
+    String classMsg = "Specified token store class '" + config.getTokenStoreClassName() + "'";
+    try {
+      @SuppressWarnings("unchecked")
+      Class<? extends TokenStore> storeClass = (Class<? extends TokenStore>)Class.forName(config.getTokenStoreClassName());
+      TokenStore tokenStore = storeClass.getConstructor().newInstance();
+      tokenStore.initialize(config.getTokenStoreConfig());
+      return tokenStore;
+    }
+    catch (ClassCastException e) {
+      throw new InitializationException(classMsg + " does not implement " + TokenStore.class.getName(), e);
+    }
+    catch (ClassNotFoundException e) {
+      throw new InitializationException(classMsg + " cannot be found", e);
+    }
+    catch (IllegalAccessException e) {
+      throw new InitializationException(classMsg + " must have a public no-arg constructor", e);
+    }
+    catch (InitializationException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new InitializationException(classMsg + " failed to initialize with provided configuration", e);
+    }
+  }
+
 }
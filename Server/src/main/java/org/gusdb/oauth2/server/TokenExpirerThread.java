@@ -14,24 +14,38 @@ public class TokenExpirerThread implements Runnable {
   private static final ScheduledExecutorService _executor =
       Executors.newSingleThreadScheduledExecutor();
 
-  public static void start(ApplicationConfig config) {
-    _executor.scheduleAtFixedRate(
-        new TokenExpirerThread(config.getTokenExpirationSecs()),
-        THREAD_SLEEP_SECS, THREAD_SLEEP_SECS, TimeUnit.SECONDS);
+  public static void start(ApplicationConfig config, TokenStore tokenStore) {
+    TokenExpirerThread expirer =
+        new TokenExpirerThread(tokenStore, config.getAuthCodeExpirationSecs(), config.getTokenExpirationSecs());
+    // sweep once before serving requests so persistent stores drop (and learn
+    //   the lifetimes of) codes and tokens that expired while the server was down
+    expirer.run();
+    _executor.scheduleAtFixedRate(expirer, THREAD_SLEEP_SECS, THREAD_SLEEP_SECS, TimeUnit.SECONDS);
   }
 
   public static void shutdown() {
     _executor.shutdown();
+    try {
+      // let an in-progress sweep finish before the token store is closed
+      _executor.awaitTermination(THREAD_SLEEP_SECS, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
-  private long _tokenExpirationSecs;
+  private TokenStore _tokenStore;
+  private long _authCodeExpirationSecs;
+  private long _accessTokenExpirationSecs;
 
-  public TokenExpirerThread(long tokenExpirationSecs) {
-    _tokenExpirationSecs = tokenExpirationSecs;
+  public TokenExpirerThread(TokenStore tokenStore, long authCodeExpirationSecs, long accessTokenExpirationSecs) {
+    _tokenStore = tokenStore;
+    _authCodeExpirationSecs = authCodeExpirationSecs;
+    _accessTokenExpirationSecs = accessTokenExpirationSecs;
   }
 
   @Override
   public void run() {
-    TokenStore.removeExpiredTokens(_tokenExpirationSecs);
+    _tokenStore.removeExpiredTokens(_authCodeExpirationSecs, _accessTokenExpirationSecs);
   }
 }
@@ -10,6 +10,7 @@ import javax.ws.rs.ext.Provider;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.glassfish.jersey.server.ParamException.PathParamException;
+import org.gusdb.oauth2.service.token.TokenStoreFullException;
 import org.json.JSONException;
 
 @Provider
@@ -17,9 +18,18 @@ public class ExceptionMapper implements javax.ws.rs.ext.ExceptionMapper<Exceptio
 
   private static Logger LOG = LogManager.getLogger(ExceptionMapper.class);
 
+  // how long clients are asked to wait when the token store is full
+  private static final int TOKEN_STORE_FULL_RETRY_AFTER_SECS = 10;
+
   @Override
   public Response toResponse(Exception e) {
 
+    // expected under load; skip the stack trace so rejections stay cheap
+    if (e instanceof TokenStoreFullException) {
+      LOG.warn("Rejecting request: " + e.getMessage());
+      return new OAuthResponseFactory().buildServiceUnavailableResponse(TOKEN_STORE_FULL_RETRY_AFTER_SECS);
+    }
+
     LOG.error("Error processing request", e);
     try { throw e; }
 
@@ -37,12 +37,16 @@ import org.gusdb.oauth2.Authenticator;
 import org.gusdb.oauth2.Authenticator.DataScope;
 import org.gusdb.oauth2.UserAccountInfo;
 import org.gusdb.oauth2.config.ApplicationConfig;
+import org.gusdb.oauth2.service.token.GuestTokenPool;
+import org.gusdb.oauth2.service.token.GuestTokenPool.GuestToken;
 import org.gusdb.oauth2.service.token.TokenFactory;
 import org.gusdb.oauth2.service.token.TokenStore;
 import org.gusdb.oauth2.service.token.TokenStore.AccessTokenData;
 import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+import org.gusdb.oauth2.service.token.TokenStoreFullException;
 import org.gusdb.oauth2.service.util.AuthzRequest;
 import org.gusdb.oauth2.service.util.StateParamHttpRequest;
+import org.gusdb.oauth2.shared.ClaimsWriter;
 import org.gusdb.oauth2.shared.Signatures;
 import org.gusdb.oauth2.shared.Signatures.TokenSigner;
 
@@ -50,7 +54,8 @@ public class OAuthRequestHandler {
 
   private static final Logger LOG = LogManager.getLogger(OAuthRequestHandler.class);
 
-  public static Response handleAuthorizationRequest(AuthzRequest oauthRequest, String userId, long expirationSecs)
+  public static Response handleAuthorizationRequest(AuthzRequest oauthRequest, String userId,
+      TokenStore tokenStore, long expirationSecs)
       throws URISyntaxException, OAuthSystemException {
     OAuthIssuerImpl oauthIssuerImpl = new OAuthIssuerImpl(new MD5Generator());
 
@@ -69,7 +74,7 @@ public class OAuthRequestHandler {
 
     LOG.debug("Generating authorization code...");
     final String authorizationCode = oauthIssuerImpl.authorizationCode();
-    TokenStore.addAuthCode(new AuthCodeData(authorizationCode,
+    tokenStore.addAuthCode(new AuthCodeData(authorizationCode,
         oauthRequest.getClientId(), userId, oauthRequest.getNonce()));
     builder.setCode(authorizationCode);
 
@@ -81,7 +86,7 @@ public class OAuthRequestHandler {
   }
 
   public static Response handleTokenRequest(OAuthTokenRequest oauthRequest,
-      ClientValidator clientValidator, Authenticator authenticator,
+      ClientValidator clientValidator, Authenticator authenticator, TokenStore tokenStore,
       ApplicationConfig config, TokenSigner tokenSigner, DataScope scope, long expirationSecs) throws OAuthSystemException {
     try {
       OAuthResponseFactory responses = new OAuthResponseFactory();
@@ -91,7 +96,7 @@ public class OAuthRequestHandler {
       String authCode;
       switch (grantType) {
         case AUTHORIZATION_CODE:
-          if (!TokenStore.isValidAuthCode(oauthRequest.getCode(), oauthRequest.getClientId())) {
+          if (!tokenStore.isValidAuthCode(oauthRequest.getCode(), oauthRequest.getClientId())) {
             LOG.info("Returning bad auth code response; could not find code " +
                 oauthRequest.getCode() + " for client " + oauthRequest.getClientId());
             return responses.buildBadAuthCodeResponse();
@@ -111,7 +116,11 @@ public class OAuthRequestHandler {
 
             // valid credentials; stub an auth code to store the generated token
             authCode = oauthIssuerImpl.authorizationCode();
-            TokenStore.addAuthCode(new AuthCodeData(authCode, oauthRequest.getClientId(), userId.get(), null));
+            tokenStore.addAuthCode(new AuthCodeData(authCode, oauthRequest.getClientId(), userId.get(), null));
+          }
+          catch (TokenStoreFullException e) {
+            // let the exception mapper ask the client to back off
+            throw e;
           }
           catch (Exception e) {
             LOG.error("Could not perform token request.", e);
@@ -126,10 +135,14 @@ public class OAuthRequestHandler {
       }
 
       final String accessToken = oauthIssuerImpl.accessToken();
-      AccessTokenData tokenData = TokenStore.addAccessToken(accessToken, authCode);
+      AccessTokenData tokenData = tokenStore.addAccessToken(accessToken, authCode);
+      if (tokenData == null) {
+        LOG.info("Returning bad auth code response; code " + authCode + " was revoked before token could be issued");
+        return responses.buildBadAuthCodeResponse();
+      }
 
       // tell the authenticator to update the user's last login timestamp if supported
-      authenticator.updateLastLoginTimestamp(tokenData.authCodeData.getUserId());
+      authenticator.updateLastLoginTimestamp(tokenData.userId);
 
       OAuthTokenResponseBuilder responseBuilder =
           OAuthASResponse.tokenResponse(HttpServletResponse.SC_OK)
@@ -138,11 +151,12 @@ public class OAuthRequestHandler {
           .setExpiresIn(String.valueOf(expirationSecs));
 
       // always send id_token with access token response, create and add it
-      JsonObject tokenJson = TokenFactory.createTokenJson(authenticator, tokenData.authCodeData.getUserId(),
-          tokenData.authCodeData, config.getIssuer(), expirationSecs, scope);
-
-      String signedToken = tokenSigner.getSignedEncodedToken(tokenJson, config,
-          tokenData.authCodeData.getClientId(), oauthRequest.getClientSecret()); // sign with the same secret sent in
+      String signedToken;
+      try (ClaimsWriter tokenClaims = TokenFactory.createTokenClaims(authenticator, tokenData.userId,
+          tokenData.idTokenParams, config.getIssuer(), expirationSecs, scope)) {
+        signedToken = tokenSigner.getSignedEncodedToken(tokenClaims, config,
+            tokenData.idTokenParams.getClientId(), oauthRequest.getClientSecret()); // sign with the same secret sent in
+      }
 
       responseBuilder.setParam("id_token", signedToken);
 
@@ -173,10 +187,10 @@ public class OAuthRequestHandler {
   }
 
   public static Response handleUserInfoRequest(OAuthAccessResourceRequest oauthRequest,
-      Authenticator authenticator, String issuer, long expirationSecs)
+      Authenticator authenticator, TokenStore tokenStore, String issuer, long expirationSecs)
           throws OAuthSystemException {
     String accessToken = oauthRequest.getAccessToken();
-    AccessTokenData tokenData = TokenStore.getTokenData(accessToken);
+    AccessTokenData tokenData = tokenStore.getTokenData(accessToken);
 
     // Validate the access token
     if (tokenData == null) {
@@ -193,7 +207,7 @@ public class OAuthRequestHandler {
           .build();
     }
 
-    return handleUserInfoRequest(authenticator, tokenData.authCodeData.getUserId(), false);
+    return handleUserInfoRequest(authenticator, tokenData.userId, false);
   }
 
   public static Response handleUserInfoRequest(Authenticator authenticator, String userId, boolean isGuest) {
@@ -238,13 +252,19 @@ public class OAuthRequestHandler {
     return stringWriter.toString();
   }
 
-  public static Response handleGuestTokenRequest(String clientId, Authenticator authenticator, ApplicationConfig config)
-      throws OAuthSystemException, OAuthProblemException {
+  public static Response handleGuestTokenRequest(String clientId, Authenticator authenticator,
+      GuestTokenPool guestTokenPool, ApplicationConfig config) throws OAuthSystemException, OAuthProblemException {
 
     OAuthIssuer oauthIssuerImpl = new OAuthIssuerImpl(new MD5Generator());
     final String accessToken = oauthIssuerImpl.accessToken();
 
-    long expirationSecs = config.getGuestTokenExpirationSecs();
+    // use a pre-minted token if one is ready, else mint one now
+    Optional<GuestToken> pooledToken = guestTokenPool.take(clientId);
+    GuestToken guestToken = pooledToken.isPresent() ? pooledToken.get() :
+        GuestTokenPool.mintGuestToken(authenticator, config, clientId);
+
+    // pooled tokens were created a short time ago
+    long expirationSecs = guestToken.getExpirationTimeSecs() - System.currentTimeMillis() / 1000;
 
     OAuthTokenResponseBuilder responseBuilder =
         OAuthASResponse.tokenResponse(HttpServletResponse.SC_OK)
@@ -252,10 +272,7 @@ public class OAuthRequestHandler {
         .setAccessToken(accessToken)
         .setExpiresIn(String.valueOf(expirationSecs));
 
-    JsonObject tokenJson = TokenFactory.createGuestTokenJson(authenticator, clientId, config.getIssuer(), expirationSecs);
-    String signedToken = Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(tokenJson, config, clientId, null);
-
-    responseBuilder.setParam("id_token", signedToken);
+    responseBuilder.setParam("id_token", guestToken.getSignedToken());
 
     OAuthResponse response = responseBuilder.buildJSONMessage();
 
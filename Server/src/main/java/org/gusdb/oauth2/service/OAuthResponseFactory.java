@@ -2,8 +2,10 @@ package org.gusdb.oauth2.service;
 
 import java.util.Collections;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 
 import org.apache.oltu.oauth2.common.exception.OAuthProblemException;
 import org.gusdb.oauth2.client.UnacceptableRequestReason;
@@ -48,4 +50,10 @@ public class OAuthResponseFactory {
     return Response.serverError().build();
   }
 
+  public Response buildServiceUnavailableResponse(int retryAfterSecs) {
+    return Response.status(Status.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, retryAfterSecs)
+        .build();
+  }
+
 }
@@ -7,7 +7,6 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
-import java.security.Key;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Arrays;
 import java.util.Collections;
@@ -75,13 +74,6 @@ import org.gusdb.oauth2.shared.IdTokenFields;
 import org.gusdb.oauth2.shared.Signatures;
 import org.gusdb.oauth2.shared.Signatures.TokenSigner;
 
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.ExpiredJwtException;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.UnsupportedJwtException;
-import io.jsonwebtoken.security.SignatureException;
-
 @Path("/")
 public class OAuthService {
 
@@ -164,7 +156,8 @@ public class OAuthService {
           return Response.seeOther(new URI(baseUri + RESOURCE_PREFIX + config.getLoginSuccessPage())).build();
         }
         authenticator.logSuccessfulLogin(loginName, validUserId.get(), originalRequest.getClientId(), originalRequest.getRedirectUri(), _request.getRemoteAddr());
-        return OAuthRequestHandler.handleAuthorizationRequest(originalRequest, validUserId.get(), config.getTokenExpirationSecs());
+        return OAuthRequestHandler.handleAuthorizationRequest(originalRequest, validUserId.get(),
+            OAuthServlet.getTokenStore(_context), config.getTokenExpirationSecs());
       }
       else {
         return Response.seeOther(getLoginUri(formId,
@@ -250,7 +243,7 @@ public class OAuthService {
         // user is already logged in; respond with auth code for user
         ApplicationConfig config = OAuthServlet.getApplicationConfig(_context);
         return OAuthRequestHandler.handleAuthorizationRequest(new AuthzRequest(oauthRequest),
-            session.getUserId(), config.getTokenExpirationSecs());
+            session.getUserId(), OAuthServlet.getTokenStore(_context), config.getTokenExpirationSecs());
       }
       else {
         // no one is logged in; generate form ID and send
@@ -329,7 +322,8 @@ public class OAuthService {
       ApplicationConfig config = OAuthServlet.getApplicationConfig(_context);
 
       return OAuthRequestHandler.handleTokenRequest(oauthRequest, clientValidator,
-          OAuthServlet.getAuthenticator(_context), config, signingStrategy, scope, expirationLookup.apply(config));
+          OAuthServlet.getAuthenticator(_context), OAuthServlet.getTokenStore(_context),
+          config, signingStrategy, scope, expirationLookup.apply(config));
     }
     catch (OAuthProblemException e) {
       LOG.error("Problem with authorize request: ", e);
@@ -359,6 +353,7 @@ public class OAuthService {
       return OAuthRequestHandler.handleGuestTokenRequest(
           clientId,
           OAuthServlet.getAuthenticator(_context),
+          OAuthServlet.getGuestTokenPool(_context),
           OAuthServlet.getApplicationConfig(_context));
     }
     catch (OAuthProblemException e) {
@@ -409,7 +404,8 @@ public class OAuthService {
       try {
         ApplicationConfig config = OAuthServlet.getApplicationConfig(_context);
         OAuthAccessResourceRequest oauthRequest = new OAuthAccessResourceRequest(_request, ParameterStyle.HEADER);
-        return OAuthRequestHandler.handleUserInfoRequest(oauthRequest, authenticator, config.getIssuer(), config.getTokenExpirationSecs());
+        return OAuthRequestHandler.handleUserInfoRequest(oauthRequest, authenticator,
+            OAuthServlet.getTokenStore(_context), config.getIssuer(), config.getTokenExpirationSecs());
       }
       catch (OAuthProblemException e) {
         LOG.error("Problem with user request: ", e);
@@ -419,24 +415,8 @@ public class OAuthService {
   }
 
   public static RequestingUser parseRequestingUser(String bearerToken, ServletContext servletContext) {
-    try {
-      Key publicKey = OAuthServlet.getApplicationConfig(servletContext).getAsyncKeys().getPublic();
-      // verify signature and create claims object
-      Claims claims = Jwts.parserBuilder()
-          .setSigningKey(publicKey)
-          .build()
-          .parseClaimsJws(bearerToken)
-          .getBody();
-      String userId = claims.getSubject();
-      boolean isGuest = claims.get(IdTokenFields.is_guest.name(), Boolean.class);
-      return new RequestingUser() {
-        @Override public String getUserId() { return userId; }
-        @Override public boolean isGuest() { return isGuest; }
-      };
-    }
-    catch (ExpiredJwtException | UnsupportedJwtException | MalformedJwtException | SignatureException e) {
-      throw new IllegalArgumentException(e.getClass().getSimpleName() + ", Could not parse JWT; " + e.getMessage());
-    }
+    // verifies signature and expiration, skipping the signature check for recently verified tokens
+    return OAuthServlet.getVerifiedTokenCache(servletContext).verify(bearerToken);
   }
 
   @POST
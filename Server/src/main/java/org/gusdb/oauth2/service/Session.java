@@ -9,7 +9,7 @@ import javax.servlet.http.HttpSession;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gusdb.oauth2.service.token.TokenStore;
+import org.gusdb.oauth2.server.OAuthServlet;
 import org.gusdb.oauth2.service.util.AuthzRequest;
 
 public class Session {
@@ -77,7 +77,7 @@ public class Session {
   public void invalidate() {
     String userId = getUserId();
     if (userId != null) {
-      TokenStore.clearObjectsForUser(userId);
+      OAuthServlet.getTokenStore(_session.getServletContext()).clearObjectsForUser(userId);
     }
     _session.invalidate();
   }
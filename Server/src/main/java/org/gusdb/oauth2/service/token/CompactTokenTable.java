@@ -0,0 +1,314 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Heap table of auth codes or access tokens held in parallel primitive
+ * arrays, so a stored entry costs a few dozen bytes and no objects.  Each
+ * entry is identified by an int index into the arrays and holds:
+ *
+ * - the code or token value as a 128-bit TokenKey; values that are not 32
+ *   lowercase hex characters (never the case for Oltu-generated values) also
+ *   keep the original String so lookups can be exact
+ * - interned user and client IDs (see StringInterner)
+ * - creation and auth times as unsigned 32-bit epoch seconds
+ * - the OIDC nonce, if the client sent one
+ *
+ * Entries are found by value through an open-addressing (linear probing)
+ * hash of entry indexes.  They are also threaded onto two doubly linked
+ * lists, both oldest first: one through the whole table, which the store
+ * uses as its expiration index, and one per user, used for logout and
+ * per-user limits.  Removed entries' indexes are reused.
+ *
+ * Not thread-safe; callers must synchronize access.  Readers may run without
+ * a lock only if they discard their results (and any exception thrown) when
+ * a write overlapped them; find() and the per-entry getters never loop or
+ * write, so they always return under such a race.
+ */
+final class CompactTokenTable {
+
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  // entry columns, indexed by entry
+  private long[] _keyHi;
+  private long[] _keyLo;
+  private String[] _rawValue;  // null if the value is recoverable from its key
+  private int[] _user;
+  private int[] _client;
+  private String[] _nonce;
+  private int[] _creationTime;
+  private int[] _authTime;
+  private int[] _agePrev;
+  private int[] _ageNext;      // also chains free entries
+  private int[] _userPrev;
+  private int[] _userNext;
+
+  // per-user list ends and sizes, indexed by interned user ID
+  private int[] _userHead = new int[0];
+  private int[] _userTail = new int[0];
+  private int[] _userCount = new int[0];
+
+  // hash of (entry + 1); 0 marks an empty slot.  Kept at most half full.
+  private int[] _slots;
+
+  private int _size = 0;
+  private int _highWater = 0;  // entries below this index have been used
+  private int _freeHead = NONE;
+  private int _oldest = NONE;
+  private int _newest = NONE;
+
+  CompactTokenTable() {
+    allocateEntries(INITIAL_CAPACITY);
+    _slots = new int[INITIAL_CAPACITY * 2];
+  }
+
+  int size() {
+    return _size;
+  }
+
+  /**
+   * @return entry holding the passed value, or -1 if not present
+   */
+  int find(String value) {
+    return find(TokenKey.of(value), TokenKey.isExact(value) ? null : value);
+  }
+
+  /**
+   * @param key key of the value to find
+   * @param rawValue the value if it is not exact (see TokenKey.isExact), else null
+   * @return entry holding the value, or -1 if not present
+   */
+  int find(TokenKey key, String rawValue) {
+    // arrays are read once and probing is bounded so that an unlocked reader
+    //   racing a writer always terminates (its result is then discarded)
+    int[] slots = _slots;
+    long[] keyHi = _keyHi, keyLo = _keyLo;
+    String[] rawValues = _rawValue;
+    int mask = slots.length - 1;
+    int slot = hash(key.hi, key.lo) & mask;
+    for (int probes = 0; probes <= mask && slots[slot] != 0; probes++, slot = (slot + 1) & mask) {
+      int entry = slots[slot] - 1;
+      if (keyHi[entry] == key.hi && keyLo[entry] == key.lo && Objects.equals(rawValues[entry], rawValue)) {
+        return entry;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Adds a new entry as the newest in the table and the newest for its user.
+   * The caller must ensure the value is not already present.
+   *
+   * @return the new entry
+   */
+  int add(String value, int user, int client, String nonce, long authTime, long creationTime) {
+    return add(TokenKey.of(value), TokenKey.isExact(value) ? null : value, user, client, nonce, authTime, creationTime);
+  }
+
+  /**
+   * Adds a new entry as add(String, ...) does, for a value whose key is known.
+   *
+   * @param rawValue the value if it is not exact (see TokenKey.isExact), else null
+   */
+  int add(TokenKey key, String rawValue, int user, int client, String nonce, long authTime, long creationTime) {
+    int entry = allocateEntry();
+    _keyHi[entry] = key.hi;
+    _keyLo[entry] = key.lo;
+    _rawValue[entry] = rawValue;
+    _user[entry] = user;
+    _client[entry] = client;
+    _nonce[entry] = nonce;
+    _authTime[entry] = (int)authTime;
+    _creationTime[entry] = (int)creationTime;
+
+    // append to table's age list
+    _agePrev[entry] = _newest;
+    _ageNext[entry] = NONE;
+    if (_newest == NONE) _oldest = entry; else _ageNext[_newest] = entry;
+    _newest = entry;
+
+    // append to user's list
+    ensureUserCapacity(user + 1);
+    _userPrev[entry] = _userTail[user];
+    _userNext[entry] = NONE;
+    if (_userTail[user] == NONE) _userHead[user] = entry; else _userNext[_userTail[user]] = entry;
+    _userTail[user] = entry;
+    _userCount[user]++;
+
+    if (++_size > _slots.length / 2) {
+      rehash(_slots.length * 2);
+    }
+    else {
+      insertSlot(entry);
+    }
+    return entry;
+  }
+
+  void remove(int entry) {
+    removeSlot(entry);
+
+    // unlink from table's age list
+    int prev = _agePrev[entry], next = _ageNext[entry];
+    if (prev == NONE) _oldest = next; else _ageNext[prev] = next;
+    if (next == NONE) _newest = prev; else _agePrev[next] = prev;
+
+    // unlink from user's list
+    int user = _user[entry];
+    prev = _userPrev[entry];
+    next = _userNext[entry];
+    if (prev == NONE) _userHead[user] = next; else _userNext[prev] = next;
+    if (next == NONE) _userTail[user] = prev; else _userPrev[next] = prev;
+    _userCount[user]--;
+
+    // drop references and put entry on the free list
+    _rawValue[entry] = null;
+    _nonce[entry] = null;
+    _ageNext[entry] = _freeHead;
+    _freeHead = entry;
+    _size--;
+  }
+
+  /**
+   * @return oldest entry in the table, or -1 if empty
+   */
+  int oldest() {
+    return _oldest;
+  }
+
+  /**
+   * @return next-oldest entry after the passed entry, or -1 if it is the newest
+   */
+  int newer(int entry) {
+    return _ageNext[entry];
+  }
+
+  /**
+   * @return oldest entry belonging to the passed user, or -1 if there is none
+   */
+  int oldestForUser(int user) {
+    return user < _userHead.length ? _userHead[user] : NONE;
+  }
+
+  int countForUser(int user) {
+    return user < _userCount.length ? _userCount[user] : 0;
+  }
+
+  String value(int entry) {
+    String rawValue = _rawValue[entry];
+    return rawValue != null ? rawValue : TokenKey.toHex(_keyHi[entry], _keyLo[entry]);
+  }
+
+  long keyHi(int entry) {
+    return _keyHi[entry];
+  }
+
+  long keyLo(int entry) {
+    return _keyLo[entry];
+  }
+
+  int user(int entry) {
+    return _user[entry];
+  }
+
+  int client(int entry) {
+    return _client[entry];
+  }
+
+  String nonce(int entry) {
+    return _nonce[entry];
+  }
+
+  long authTime(int entry) {
+    return Integer.toUnsignedLong(_authTime[entry]);
+  }
+
+  long creationTime(int entry) {
+    return Integer.toUnsignedLong(_creationTime[entry]);
+  }
+
+  private int allocateEntry() {
+    if (_freeHead != NONE) {
+      int entry = _freeHead;
+      _freeHead = _ageNext[entry];
+      return entry;
+    }
+    if (_highWater == _keyHi.length) {
+      allocateEntries(_keyHi.length * 2);
+    }
+    return _highWater++;
+  }
+
+  private void allocateEntries(int capacity) {
+    _keyHi = _keyHi == null ? new long[capacity] : Arrays.copyOf(_keyHi, capacity);
+    _keyLo = _keyLo == null ? new long[capacity] : Arrays.copyOf(_keyLo, capacity);
+    _rawValue = _rawValue == null ? new String[capacity] : Arrays.copyOf(_rawValue, capacity);
+    _user = _user == null ? new int[capacity] : Arrays.copyOf(_user, capacity);
+    _client = _client == null ? new int[capacity] : Arrays.copyOf(_client, capacity);
+    _nonce = _nonce == null ? new String[capacity] : Arrays.copyOf(_nonce, capacity);
+    _creationTime = _creationTime == null ? new int[capacity] : Arrays.copyOf(_creationTime, capacity);
+    _authTime = _authTime == null ? new int[capacity] : Arrays.copyOf(_authTime, capacity);
+    _agePrev = _agePrev == null ? new int[capacity] : Arrays.copyOf(_agePrev, capacity);
+    _ageNext = _ageNext == null ? new int[capacity] : Arrays.copyOf(_ageNext, capacity);
+    _userPrev = _userPrev == null ? new int[capacity] : Arrays.copyOf(_userPrev, capacity);
+    _userNext = _userNext == null ? new int[capacity] : Arrays.copyOf(_userNext, capacity);
+  }
+
+  private void ensureUserCapacity(int numUsers) {
+    int oldLength = _userHead.length;
+    if (numUsers <= oldLength) return;
+    int newLength = Math.max(numUsers, Math.max(16, oldLength * 2));
+    _userHead = Arrays.copyOf(_userHead, newLength);
+    _userTail = Arrays.copyOf(_userTail, newLength);
+    _userCount = Arrays.copyOf(_userCount, newLength);
+    Arrays.fill(_userHead, oldLength, newLength, NONE);
+    Arrays.fill(_userTail, oldLength, newLength, NONE);
+  }
+
+  private static int hash(long hi, long lo) {
+    long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+
+  private int idealSlot(int entry) {
+    return hash(_keyHi[entry], _keyLo[entry]) & (_slots.length - 1);
+  }
+
+  private void insertSlot(int entry) {
+    int mask = _slots.length - 1;
+    int slot = idealSlot(entry);
+    while (_slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    _slots[slot] = entry + 1;
+  }
+
+  /**
+   * Removes the passed entry from the hash, shifting later entries in its
+   * probe run back so no deleted markers are needed.
+   */
+  private void removeSlot(int entry) {
+    int mask = _slots.length - 1;
+    int hole = idealSlot(entry);
+    while (_slots[hole] != entry + 1) {
+      hole = (hole + 1) & mask;
+    }
+    for (int slot = (hole + 1) & mask; _slots[slot] != 0; slot = (slot + 1) & mask) {
+      int ideal = idealSlot(_slots[slot] - 1);
+      // move the entry into the hole unless its ideal slot lies after the hole
+      if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+        _slots[hole] = _slots[slot];
+        hole = slot;
+      }
+    }
+    _slots[hole] = 0;
+  }
+
+  private void rehash(int numSlots) {
+    _slots = new int[numSlots];
+    for (int entry = _oldest; entry != NONE; entry = _ageNext[entry]) {
+      insertSlot(entry);
+    }
+  }
+}
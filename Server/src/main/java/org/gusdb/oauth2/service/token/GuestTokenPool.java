@@ -0,0 +1,180 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.oltu.oauth2.common.exception.OAuthProblemException;
+import org.gusdb.oauth2.Authenticator;
+import org.gusdb.oauth2.Authenticator.TokenTimestamps;
+import org.gusdb.oauth2.config.AllowedClient;
+import org.gusdb.oauth2.config.ApplicationConfig;
+import org.gusdb.oauth2.shared.ClaimsWriter;
+import org.gusdb.oauth2.shared.Signatures;
+
+/**
+ * Keeps a queue of ready-to-issue guest tokens for each client allowed to
+ * obtain them, so a guest token request can be answered without waiting on
+ * the authenticator for guest IDs or on an ES512 signature.  Each queue
+ * starts full; after that, a background thread checks once a second and
+ * mints only replacements for tokens that requests have taken (or wanted
+ * while the queue was empty), up to the configured depth.  Requests that find
+ * their client's queue empty mint a token on demand as before.
+ *
+ * Pooled tokens are issued only while younger than the configured max age,
+ * which is kept small relative to the guest token lifetime, so issued tokens
+ * always have nearly their full lifetime remaining.  Older tokens are
+ * discarded and not replaced, so an idle pool empties rather than minting
+ * (and using up guest IDs for) tokens no one asks for.  A pool with depth
+ * zero holds nothing and starts no thread.
+ */
+public class GuestTokenPool implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger(GuestTokenPool.class);
+
+  private static final long REFILL_INTERVAL_MS = 1000;
+
+  /**
+   * A signed guest token (JWS) and its expiration time
+   */
+  public static class GuestToken {
+
+    private final String _signedToken;
+    private final long _creationTimeSecs;
+    private final long _expirationTimeSecs;
+
+    private GuestToken(String signedToken, long creationTimeSecs, long expirationTimeSecs) {
+      _signedToken = signedToken;
+      _creationTimeSecs = creationTimeSecs;
+      _expirationTimeSecs = expirationTimeSecs;
+    }
+
+    public String getSignedToken() { return _signedToken; }
+    public long getCreationTimeSecs() { return _creationTimeSecs; }
+    public long getExpirationTimeSecs() { return _expirationTimeSecs; }
+  }
+
+  /**
+   * Creates and signs a new guest token for the passed client.
+   */
+  public static GuestToken mintGuestToken(Authenticator authenticator, ApplicationConfig config, String clientId)
+      throws OAuthProblemException {
+    TokenTimestamps timestamps = new TokenTimestamps(config.getGuestTokenExpirationSecs());
+    String signedToken;
+    try (ClaimsWriter tokenClaims = TokenFactory.createGuestTokenClaims(authenticator, clientId, config.getIssuer(), timestamps)) {
+      signedToken = Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(tokenClaims, config, clientId, null);
+    }
+    return new GuestToken(signedToken, timestamps.getCreationTimeSecs(), timestamps.getExpirationTimeSecs());
+  }
+
+  private static class ClientQueue {
+    final Queue<GuestToken> tokens = new ConcurrentLinkedQueue<>();
+    final AtomicInteger size = new AtomicInteger(); // ConcurrentLinkedQueue.size() is O(n)
+    final AtomicInteger wanted; // tokens to mint on the next refill, at most depth
+
+    ClientQueue(int depth) {
+      wanted = new AtomicInteger(depth);
+    }
+  }
+
+  private final Authenticator _authenticator;
+  private final ApplicationConfig _config;
+  private final int _depth;
+  private final long _maxAgeSecs;
+  private final Map<String, ClientQueue> _queues = new HashMap<>(); // read-only after construction
+  private final ScheduledExecutorService _refiller;
+
+  public GuestTokenPool(Authenticator authenticator, ApplicationConfig config) {
+    _authenticator = authenticator;
+    _config = config;
+    _depth = authenticator.supportsGuests() ? config.getGuestTokenPoolSize() : 0;
+    _maxAgeSecs = config.getGuestTokenPoolMaxAgeSecs();
+    if (_depth == 0) {
+      _refiller = null;
+      return;
+    }
+    for (AllowedClient client : config.getAllowedClients()) {
+      if (client.allowGuestObtainment()) {
+        _queues.put(client.getId(), new ClientQueue(_depth));
+      }
+    }
+    _refiller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "guest-token-pool");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    _refiller.scheduleWithFixedDelay(this::refill, 0, REFILL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    LOG.info("Guest token pool will hold up to " + _depth + " tokens for each of " + _queues.size() + " clients");
+  }
+
+  /**
+   * @param clientId client requesting a guest token
+   * @return a ready-to-issue token for the client, or empty if none is available
+   */
+  public Optional<GuestToken> take(String clientId) {
+    ClientQueue queue = _queues.get(clientId);
+    if (queue == null) return Optional.empty();
+    // a hit or a miss both ask for one more token, replacing the one taken
+    //   or warming the pool back up after it emptied while idle
+    queue.wanted.updateAndGet(wanted -> Math.min(wanted + 1, _depth));
+    long oldestAllowed = nowSecs() - _maxAgeSecs;
+    GuestToken token;
+    while ((token = queue.tokens.poll()) != null) {
+      queue.size.decrementAndGet();
+      if (token.getCreationTimeSecs() >= oldestAllowed) {
+        return Optional.of(token);
+      }
+      // too old to issue; tokens are queued in creation order so keep looking
+    }
+    return Optional.empty();
+  }
+
+  private void refill() {
+    for (Map.Entry<String, ClientQueue> entry : _queues.entrySet()) {
+      ClientQueue queue = entry.getValue();
+      discardStale(queue);
+      try {
+        while (queue.size.get() < _depth && queue.wanted.get() > 0) {
+          queue.tokens.add(mintGuestToken(_authenticator, _config, entry.getKey()));
+          queue.size.incrementAndGet();
+          queue.wanted.decrementAndGet();
+        }
+      }
+      catch (Exception e) {
+        // requests still mint on demand; try again on the next pass
+        LOG.error("Unable to add guest token to pool for client " + entry.getKey(), e);
+      }
+    }
+  }
+
+  private void discardStale(ClientQueue queue) {
+    long oldestAllowed = nowSecs() - _maxAgeSecs;
+    GuestToken token;
+    while ((token = queue.tokens.peek()) != null && token.getCreationTimeSecs() < oldestAllowed) {
+      // only remove the token we examined; a request may have taken it already
+      if (queue.tokens.remove(token)) {
+        queue.size.decrementAndGet();
+      }
+    }
+  }
+
+  private static long nowSecs() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  @Override
+  public void close() {
+    if (_refiller != null) {
+      _refiller.shutdownNow();
+    }
+  }
+}
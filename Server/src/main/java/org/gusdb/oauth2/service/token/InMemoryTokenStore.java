@@ -0,0 +1,559 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+import javax.json.JsonObject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.InitializationException;
+
+/**
+ * Default TokenStore implementation; holds auth codes and access tokens in
+ * heap tables.  All state is lost when the webapp is unloaded.
+ *
+ * The number of codes and tokens held is bounded, both in total and per user.
+ * When a user reaches their limit, that user's oldest code or token is
+ * evicted to make room.  What happens when a table is full depends on
+ * evictWhenFull:
+ *
+ * - false (default): once a table is rejectAtPercent full, new codes or
+ *   tokens are refused with a TokenStoreFullException (sent to the client as
+ *   a 503) so that a burst of logins is pushed back on rather than growing
+ *   the heap.  A refused request changes nothing in the store.
+ * - true: nothing is refused; once a table holds its max, each new code or
+ *   token evicts the oldest one in the table, whoever it belongs to.  The
+ *   table may briefly exceed its max by the number of concurrent writers.
+ *   rejectAtPercent is ignored.
+ *
+ * Configuration (tokenStoreConfig):
+ * {
+ *   "maxAuthCodes": 100000,          // optional, 100000 is default
+ *   "maxAccessTokens": 100000,       // optional, 100000 is default
+ *   "maxAuthCodesPerUser": 100,      // optional, 100 is default
+ *   "maxAccessTokensPerUser": 100,   // optional, 100 is default
+ *   "rejectAtPercent": 90,           // optional, 90 is default
+ *   "evictWhenFull": false           // optional, false is default
+ * }
+ *
+ * @author ryan
+ */
+public class InMemoryTokenStore implements TokenStore {
+
+  private static final Logger LOG = LogManager.getLogger(InMemoryTokenStore.class);
+
+  private static final int DEFAULT_MAX_ENTRIES = 100000;
+  private static final int DEFAULT_MAX_ENTRIES_PER_USER = 100;
+  private static final int DEFAULT_REJECT_AT_PERCENT = 90;
+
+  // number of user stripes; must be a power of two and, since TokenStripeIndex
+  //   stores stripe numbers in a byte, at most 64
+  private static final int NUM_STRIPES = 64;
+
+  // max number of entries expired per acquisition of a stripe's write lock
+  private static final int SWEEP_BATCH_SIZE = 1000;
+
+  private static enum JsonKey {
+    maxAuthCodes,
+    maxAccessTokens,
+    maxAuthCodesPerUser,
+    maxAccessTokensPerUser,
+    rejectAtPercent,
+    evictWhenFull
+  }
+
+  /*
+   * Codes and tokens are kept in compact primitive tables (see
+   * CompactTokenTable), which hold no per-entry objects, and user and client
+   * IDs are interned so each entry stores ints rather than Strings.
+   *
+   * Users are spread over NUM_STRIPES stripes by the hash of their ID; each
+   * stripe holds its users' codes and tokens in its own tables, guarded by
+   * its own lock.  Writes, logouts and per-user evictions for users in
+   * different stripes therefore proceed in parallel, while those for the
+   * same user are serialized.  Lookups by code or token value take no locks:
+   * they find the owning stripe in a segmented index (see TokenStripeIndex),
+   * then read that stripe's tables and validate afterwards that no write
+   * overlapped them (see read()).  Only a lookup that did overlap a write is
+   * retried, under the stripe's read lock.  A thread holding a stripe's lock
+   * may take an index segment's lock, never the reverse, and never holds two
+   * stripes' locks, so no two locks can deadlock.
+   *
+   * The totals are kept in atomic counters.  When refusing new entries, a
+   * slot is reserved in them before anything is changed, so a refused
+   * request has no side effects.  When evicting instead, the writer evicts
+   * the table's oldest entries after releasing its stripe's lock.
+   *
+   * Every code and token of a given type lives for the same number of
+   * seconds, so each table's oldest-first list is also in deadline order and
+   * the sweep only ever looks at the oldest entries, stopping at the first
+   * one that has not yet expired.
+   */
+  private static final class Stripe {
+
+    final StampedLock lock = new StampedLock();
+    final CompactTokenTable authCodes = new CompactTokenTable();
+    final CompactTokenTable accessTokens = new CompactTokenTable();
+    final StringInterner userIds = new StringInterner();
+    final StringInterner clientIds = new StringInterner();
+  }
+
+  private final Stripe[] _stripes = new Stripe[NUM_STRIPES];
+  private final TokenStripeIndex _authCodeIndex = new TokenStripeIndex();
+  private final TokenStripeIndex _accessTokenIndex = new TokenStripeIndex();
+  private final AtomicInteger _numAuthCodes = new AtomicInteger();
+  private final AtomicInteger _numAccessTokens = new AtomicInteger();
+
+  // capacity limits
+  private int _maxAuthCodesPerUser = DEFAULT_MAX_ENTRIES_PER_USER;
+  private int _maxAccessTokensPerUser = DEFAULT_MAX_ENTRIES_PER_USER;
+  private int _maxAuthCodes = DEFAULT_MAX_ENTRIES;
+  private int _maxAccessTokens = DEFAULT_MAX_ENTRIES;
+  private boolean _evictWhenFull = false;
+  private int _authCodeRejectionSize = DEFAULT_MAX_ENTRIES * DEFAULT_REJECT_AT_PERCENT / 100;
+  private int _accessTokenRejectionSize = DEFAULT_MAX_ENTRIES * DEFAULT_REJECT_AT_PERCENT / 100;
+
+  // counters; logged by the sweep whenever they change
+  private final LongAdder _authCodeEvictions = new LongAdder();
+  private final LongAdder _accessTokenEvictions = new LongAdder();
+  private final LongAdder _authCodeRejections = new LongAdder();
+  private final LongAdder _accessTokenRejections = new LongAdder();
+  private long _lastLoggedCounterTotal = 0;
+
+  public InMemoryTokenStore() {
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      _stripes[i] = new Stripe();
+    }
+  }
+
+  @Override
+  public void initialize(JsonObject configJson) throws InitializationException {
+    _maxAuthCodes = getPositiveInt(configJson, JsonKey.maxAuthCodes, DEFAULT_MAX_ENTRIES);
+    _maxAccessTokens = getPositiveInt(configJson, JsonKey.maxAccessTokens, DEFAULT_MAX_ENTRIES);
+    _maxAuthCodesPerUser = getPositiveInt(configJson, JsonKey.maxAuthCodesPerUser, DEFAULT_MAX_ENTRIES_PER_USER);
+    _maxAccessTokensPerUser = getPositiveInt(configJson, JsonKey.maxAccessTokensPerUser, DEFAULT_MAX_ENTRIES_PER_USER);
+    int rejectAtPercent = getPositiveInt(configJson, JsonKey.rejectAtPercent, DEFAULT_REJECT_AT_PERCENT);
+    if (rejectAtPercent > 100) {
+      throw new InitializationException("Token store configuration property '" +
+          JsonKey.rejectAtPercent + "' cannot be greater than 100.");
+    }
+    _authCodeRejectionSize = (int)((long)_maxAuthCodes * rejectAtPercent / 100);
+    _accessTokenRejectionSize = (int)((long)_maxAccessTokens * rejectAtPercent / 100);
+    _evictWhenFull = configJson.getBoolean(JsonKey.evictWhenFull.name(), false);
+  }
+
+  private static int getPositiveInt(JsonObject configJson, JsonKey key, int defaultValue) throws InitializationException {
+    int value = configJson.getInt(key.name(), defaultValue);
+    if (value <= 0) {
+      throw new InitializationException("Token store configuration property '" + key + "' must be positive.");
+    }
+    return value;
+  }
+
+  @Override
+  public void addAuthCode(AuthCodeData authCodeData) {
+    String value = authCodeData.getAuthCode();
+    TokenKey key = TokenKey.of(value);
+    String rawValue = TokenKey.isExact(value) ? null : value;
+    int stripeNum = stripeFor(authCodeData.getUserId());
+    int previousStripeNum;
+    Stripe stripe = _stripes[stripeNum];
+    long stamp = stripe.lock.writeLock();
+    try {
+      int existing = stripe.authCodes.find(key, rawValue);
+      int user = stripe.userIds.find(authCodeData.getUserId());
+      // a replacement, or a user at their limit making room from their own
+      // codes, does not grow the table; anything else must fit first
+      boolean atUserLimit = user >= 0 && stripe.authCodes.countForUser(user) >= _maxAuthCodesPerUser;
+      if (existing < 0 && !atUserLimit) {
+        reserve(_numAuthCodes, _authCodeRejectionSize, _authCodeRejections, "Auth code store is full (%d codes).");
+      }
+      if (existing >= 0) {
+        remove(stripeNum, stripe.authCodes, _authCodeIndex, _numAuthCodes, existing);
+      }
+      else if (atUserLimit) {
+        remove(stripeNum, stripe.authCodes, _authCodeIndex, _numAuthCodes, stripe.authCodes.oldestForUser(user));
+        _authCodeEvictions.increment();
+      }
+      int code = stripe.authCodes.add(key, rawValue, stripe.userIds.acquire(authCodeData.getUserId()),
+          stripe.clientIds.acquire(authCodeData.getClientId()), authCodeData.getNonce(),
+          authCodeData.getCreationTime(), authCodeData.getCreationTime());
+      previousStripeNum = _authCodeIndex.put(key, stripeNum);
+    }
+    finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+    // codes are random, but keep put semantics should one be reused by another user
+    removeFromOtherStripe(previousStripeNum, stripeNum, true, key, rawValue);
+    evictOldestWhileOverMax(true);
+    LOG.debug("Added auth code with data:" + authCodeData);
+  }
+
+  @Override
+  public AccessTokenData addAccessToken(String accessToken, String authCode) {
+    LOG.debug("Adding access token '" + accessToken + "' to user behind auth code '" + authCode + "'.");
+    long creationTime = new Date().getTime() / 1000;
+    TokenKey codeKey = TokenKey.of(authCode);
+    String codeRawValue = TokenKey.isExact(authCode) ? null : authCode;
+    int stripeNum = _authCodeIndex.get(codeKey);
+    if (stripeNum < 0) {
+      return null;
+    }
+    TokenKey key = TokenKey.of(accessToken);
+    String rawValue = TokenKey.isExact(accessToken) ? null : accessToken;
+    int previousStripeNum;
+    AccessTokenData tokenData;
+    Stripe stripe = _stripes[stripeNum];
+    long stamp = stripe.lock.writeLock();
+    try {
+      // the code's stripe lock orders this against logout, so a token is
+      // either added before a logout clears the user's tokens or not at all
+      int code = stripe.authCodes.find(codeKey, codeRawValue);
+      if (code < 0) {
+        return null;
+      }
+      int user = stripe.authCodes.user(code);
+      int client = stripe.authCodes.client(code);
+      int existing = stripe.accessTokens.find(key, rawValue);
+      boolean atUserLimit = stripe.accessTokens.countForUser(user) >= _maxAccessTokensPerUser;
+      if (existing < 0 && !atUserLimit) {
+        reserve(_numAccessTokens, _accessTokenRejectionSize, _accessTokenRejections, "Access token store is full (%d tokens).");
+      }
+      if (existing >= 0) {
+        remove(stripeNum, stripe.accessTokens, _accessTokenIndex, _numAccessTokens, existing);
+      }
+      else if (atUserLimit) {
+        remove(stripeNum, stripe.accessTokens, _accessTokenIndex, _numAccessTokens, stripe.accessTokens.oldestForUser(user));
+        _accessTokenEvictions.increment();
+      }
+      stripe.userIds.retain(user);
+      stripe.clientIds.retain(client);
+      int token = stripe.accessTokens.add(key, rawValue, user, client,
+          stripe.authCodes.nonce(code), stripe.authCodes.creationTime(code), creationTime);
+      previousStripeNum = _accessTokenIndex.put(key, stripeNum);
+      tokenData = toAccessTokenData(stripe, accessToken, token);
+    }
+    finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+    removeFromOtherStripe(previousStripeNum, stripeNum, false, key, rawValue);
+    evictOldestWhileOverMax(false);
+    return tokenData;
+  }
+
+  private static int stripeFor(String userId) {
+    int h = userId.hashCode();
+    return (h ^ (h >>> 16)) & (NUM_STRIPES - 1);
+  }
+
+  /**
+   * Reserves room for one new entry in a table, or refuses it if the table is
+   * at its rejection size.  Must be called before the store is modified.  When
+   * evicting rather than refusing, room is always granted and is made
+   * afterwards by evictOldestWhileOverMax().
+   */
+  private void reserve(AtomicInteger count, int rejectionSize, LongAdder rejections, String message) {
+    if (_evictWhenFull) {
+      count.incrementAndGet();
+      return;
+    }
+    for (int size = count.get(); ; size = count.get()) {
+      if (size >= rejectionSize) {
+        rejections.increment();
+        throw new TokenStoreFullException(String.format(message, size));
+      }
+      if (count.compareAndSet(size, size + 1)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes the entry with the passed value from the stripe it was held in
+   * before being added to another stripe (i.e. for another user).  Its index
+   * mapping already points to the new stripe, so lookups never see it.
+   */
+  private void removeFromOtherStripe(int otherNum, int stripeNum, boolean isAuthCode, TokenKey key, String rawValue) {
+    if (otherNum < 0 || otherNum == stripeNum) {
+      return;
+    }
+    Stripe other = _stripes[otherNum];
+    long stamp = other.lock.writeLock();
+    try {
+      CompactTokenTable table = isAuthCode ? other.authCodes : other.accessTokens;
+      int entry = table.find(key, rawValue);
+      if (entry >= 0) {
+        remove(otherNum, table, isAuthCode ? _authCodeIndex : _accessTokenIndex,
+            isAuthCode ? _numAuthCodes : _numAccessTokens, entry);
+      }
+    }
+    finally {
+      other.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * If evicting when full, removes the oldest entries of the passed table
+   * across all stripes until it holds no more than its max.  Must be called
+   * without holding any stripe's lock.
+   */
+  private void evictOldestWhileOverMax(boolean isAuthCode) {
+    if (!_evictWhenFull) {
+      return;
+    }
+    AtomicInteger count = isAuthCode ? _numAuthCodes : _numAccessTokens;
+    int max = isAuthCode ? _maxAuthCodes : _maxAccessTokens;
+    while (count.get() > max) {
+      // find the stripe holding the table's oldest entry
+      int oldestStripeNum = -1;
+      long oldestTime = Long.MAX_VALUE;
+      for (int stripeNum = 0; stripeNum < NUM_STRIPES; stripeNum++) {
+        long creationTime = read(_stripes[stripeNum], stripe -> {
+          CompactTokenTable table = isAuthCode ? stripe.authCodes : stripe.accessTokens;
+          int oldest = table.oldest();
+          return oldest < 0 ? Long.MAX_VALUE : table.creationTime(oldest);
+        });
+        if (creationTime < oldestTime) {
+          oldestStripeNum = stripeNum;
+          oldestTime = creationTime;
+        }
+      }
+      if (oldestStripeNum < 0) {
+        return;
+      }
+      Stripe stripe = _stripes[oldestStripeNum];
+      long stamp = stripe.lock.writeLock();
+      try {
+        // another writer may have evicted from this stripe meanwhile; if it
+        //   is now empty, the next pass looks again
+        CompactTokenTable table = isAuthCode ? stripe.authCodes : stripe.accessTokens;
+        int oldest = table.oldest();
+        if (oldest >= 0 && count.get() > max) {
+          remove(oldestStripeNum, table, isAuthCode ? _authCodeIndex : _accessTokenIndex, count, oldest);
+          (isAuthCode ? _authCodeEvictions : _accessTokenEvictions).increment();
+        }
+      }
+      finally {
+        stripe.lock.unlockWrite(stamp);
+      }
+    }
+  }
+
+  /**
+   * Runs the passed read of a stripe without locking, then validates that no
+   * write to the stripe overlapped it; if one did, runs it again under the
+   * stripe's read lock.  An unvalidated read may see the stripe half-changed,
+   * so readers must not loop on or act upon what they read, and an exception
+   * thrown by an overlapped read is taken to be the result of such a race.
+   */
+  private static <T> T read(Stripe stripe, Function<Stripe, T> reader) {
+    long stamp = stripe.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        T result = reader.apply(stripe);
+        if (stripe.lock.validate(stamp)) {
+          return result;
+        }
+      }
+      catch (RuntimeException e) {
+        if (stripe.lock.validate(stamp)) {
+          throw e;
+        }
+      }
+    }
+    stamp = stripe.lock.readLock();
+    try {
+      return reader.apply(stripe);
+    }
+    finally {
+      stripe.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Removes an entry from the passed table of the passed stripe, along with
+   * its index mapping, and releases its interned IDs.  Caller must hold the
+   * stripe's write lock.
+   */
+  private void remove(int stripeNum, CompactTokenTable table, TokenStripeIndex index, AtomicInteger count, int entry) {
+    Stripe stripe = _stripes[stripeNum];
+    int user = table.user(entry);
+    int client = table.client(entry);
+    index.remove(table.keyHi(entry), table.keyLo(entry), stripeNum);
+    table.remove(entry);
+    count.decrementAndGet();
+    stripe.userIds.release(user);
+    stripe.clientIds.release(client);
+  }
+
+  // caller must hold the stripe's lock
+  private static AccessTokenData toAccessTokenData(Stripe stripe, String accessToken, int token) {
+    CompactTokenTable tokens = stripe.accessTokens;
+    return new AccessTokenData(accessToken, stripe.userIds.get(tokens.user(token)),
+        new IdTokenParams(stripe.clientIds.get(tokens.client(token)), tokens.nonce(token),
+            tokens.authTime(token)), tokens.creationTime(token));
+  }
+
+  public long getAuthCodeEvictionCount() {
+    return _authCodeEvictions.sum();
+  }
+
+  public long getAccessTokenEvictionCount() {
+    return _accessTokenEvictions.sum();
+  }
+
+  public long getAuthCodeRejectionCount() {
+    return _authCodeRejections.sum();
+  }
+
+  public long getAccessTokenRejectionCount() {
+    return _accessTokenRejections.sum();
+  }
+
+  @Override
+  public boolean isValidAuthCode(String authCode, String clientId) {
+    if (LOG.isDebugEnabled()) LOG.debug(dumpAuthCodes());
+    TokenKey key = TokenKey.of(authCode);
+    String rawValue = TokenKey.isExact(authCode) ? null : authCode;
+    int stripeNum = _authCodeIndex.get(key);
+    if (stripeNum < 0) {
+      return false;
+    }
+    return read(_stripes[stripeNum], stripe -> {
+      int code = stripe.authCodes.find(key, rawValue);
+      return code >= 0 && clientId.equals(stripe.clientIds.get(stripe.authCodes.client(code)));
+    });
+  }
+
+  private String dumpAuthCodes() {
+    String NL = System.lineSeparator();
+    StringBuilder str = new StringBuilder("AUTH_CODES:").append(NL);
+    for (Stripe stripe : _stripes) {
+      long stamp = stripe.lock.readLock();
+      try {
+        CompactTokenTable codes = stripe.authCodes;
+        for (int code = codes.oldest(); code >= 0; code = codes.newer(code)) {
+          str.append(codes.value(code)).append(": ").append(new AuthCodeData(
+              codes.value(code), stripe.clientIds.get(codes.client(code)), stripe.userIds.get(codes.user(code)),
+              codes.nonce(code), codes.creationTime(code)).toString()).append(NL);
+        }
+      }
+      finally {
+        stripe.lock.unlockRead(stamp);
+      }
+    }
+    return str.toString();
+  }
+
+  @Override
+  public AccessTokenData getTokenData(String accessToken) {
+    TokenKey key = TokenKey.of(accessToken);
+    String rawValue = TokenKey.isExact(accessToken) ? null : accessToken;
+    int stripeNum = _accessTokenIndex.get(key);
+    if (stripeNum < 0) {
+      return null;
+    }
+    return read(_stripes[stripeNum], stripe -> {
+      // null if the token was removed since the index was read
+      int token = stripe.accessTokens.find(key, rawValue);
+      return token < 0 ? null : toAccessTokenData(stripe, accessToken, token);
+    });
+  }
+
+  @Override
+  public void clearObjectsForUser(String userId) {
+    int stripeNum = stripeFor(userId);
+    Stripe stripe = _stripes[stripeNum];
+    long stamp = stripe.lock.writeLock();
+    try {
+      int user = stripe.userIds.find(userId);
+      if (user < 0) {
+        return;
+      }
+      // each entry holds a reference to the user's ID, so the ID stays
+      // valid until the last of the user's entries is removed
+      for (int code; (code = stripe.authCodes.oldestForUser(user)) >= 0; ) {
+        remove(stripeNum, stripe.authCodes, _authCodeIndex, _numAuthCodes, code);
+      }
+      for (int token; (token = stripe.accessTokens.oldestForUser(user)) >= 0; ) {
+        remove(stripeNum, stripe.accessTokens, _accessTokenIndex, _numAccessTokens, token);
+      }
+    }
+    finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Cost is proportional to the number of entries that have expired since
+   * the last call, not to the size of the store.
+   */
+  @Override
+  public void removeExpiredTokens(long authCodeExpirationSecs, long accessTokenExpirationSecs) {
+    long currentDateSecs = new Date().getTime() / 1000;
+    List<String> expiredCodes = LOG.isDebugEnabled() ? new ArrayList<>() : null;
+    List<String> expiredTokens = LOG.isDebugEnabled() ? new ArrayList<>() : null;
+    for (int stripeNum = 0; stripeNum < NUM_STRIPES; stripeNum++) {
+      while (removeExpired(stripeNum, true, currentDateSecs, authCodeExpirationSecs, expiredCodes) == SWEEP_BATCH_SIZE);
+      while (removeExpired(stripeNum, false, currentDateSecs, accessTokenExpirationSecs, expiredTokens) == SWEEP_BATCH_SIZE);
+    }
+    if (expiredCodes != null) LOG.debug("Expired the following auth codes: " + expiredCodes);
+    if (expiredTokens != null) LOG.debug("Expired the following access tokens: " + expiredTokens);
+    logCounters();
+  }
+
+  /**
+   * Removes up to SWEEP_BATCH_SIZE expired entries from one of the passed
+   * stripe's tables, oldest first, adding their values to expiredValues if it
+   * is non-null.
+   *
+   * @return number of entries removed
+   */
+  private int removeExpired(int stripeNum, boolean isAuthCode, long currentDateSecs, long expirationSeconds, List<String> expiredValues) {
+    Stripe stripe = _stripes[stripeNum];
+    CompactTokenTable table = isAuthCode ? stripe.authCodes : stripe.accessTokens;
+    TokenStripeIndex index = isAuthCode ? _authCodeIndex : _accessTokenIndex;
+    AtomicInteger count = isAuthCode ? _numAuthCodes : _numAccessTokens;
+    long stamp = stripe.lock.writeLock();
+    try {
+      int numRemoved = 0;
+      for (int entry = table.oldest(); numRemoved < SWEEP_BATCH_SIZE && entry >= 0 &&
+          isExpired(table.creationTime(entry), currentDateSecs, expirationSeconds); entry = table.oldest()) {
+        if (expiredValues != null) expiredValues.add(table.value(entry));
+        remove(stripeNum, table, index, count, entry);
+        numRemoved++;
+      }
+      return numRemoved;
+    }
+    finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  private void logCounters() {
+    long codeEvictions = getAuthCodeEvictionCount();
+    long tokenEvictions = getAccessTokenEvictionCount();
+    long codeRejections = getAuthCodeRejectionCount();
+    long tokenRejections = getAccessTokenRejectionCount();
+    long total = codeEvictions + tokenEvictions + codeRejections + tokenRejections;
+    if (total != _lastLoggedCounterTotal) {
+      int numCodes = _numAuthCodes.get();
+      int numTokens = _numAccessTokens.get();
+      LOG.info("Token store holds " + numCodes + " auth codes and " + numTokens +
+          " access tokens; evictions (codes/tokens): " + codeEvictions + "/" + tokenEvictions +
+          ", rejections (codes/tokens): " + codeRejections + "/" + tokenRejections);
+      _lastLoggedCounterTotal = total;
+    }
+  }
+
+  private static boolean isExpired(long creationTimeSecs, long currentDateSecs, long expirationSeconds) {
+    long ageSecs = currentDateSecs - creationTimeSecs;
+    return (ageSecs > expirationSeconds);
+  }
+}
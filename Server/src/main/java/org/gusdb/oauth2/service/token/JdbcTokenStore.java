@@ -0,0 +1,427 @@
+package org.gusdb.oauth2.service.token;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import javax.json.JsonObject;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.InitializationException;
+
+/**
+ * TokenStore implementation backed by database tables shared by all server
+ * nodes, allowing auth codes issued on one node to be redeemed on another
+ * without sticky sessions.  DDL for the required tables can be found in the
+ * sql/create_token_store_tables.sql classpath resource.
+ *
+ * Each node keeps a write-through near cache of codes and tokens it has
+ * written or read, so repeated lookups of the same token skip the database.
+ * Entries stay in the near cache for at most nearCacheSecs; a logout on one
+ * node may therefore take that long to be seen by lookups on other nodes.
+ * Each of the code and token caches holds at most nearCacheSize entries; when
+ * full, stale entries are swept (at most once a second) and, if that does not
+ * make room, an arbitrary entry is evicted.  Set nearCacheSecs to 0 to
+ * disable the cache.
+ *
+ * Every node runs the expiration thread, but a lease row ensures only one
+ * node at a time actually deletes expired rows.
+ *
+ * Configuration (tokenStoreConfig):
+ * {
+ *   "connectionUrl": "jdbc:postgresql://host/db", // required
+ *   "login": "db_login",                           // required
+ *   "password": "db_password",                     // required
+ *   "poolSize": 10,                                // optional, 10 is default
+ *   "schema": "oauth.",                            // optional, default is login's schema
+ *   "nearCacheSecs": 5,                            // optional, 5 is default
+ *   "nearCacheSize": 10000,                        // optional, 10000 is default
+ *   "sweepLeaseSecs": 60                           // optional, 60 is default
+ * }
+ */
+public class JdbcTokenStore implements TokenStore {
+
+  private static final Logger LOG = LogManager.getLogger(JdbcTokenStore.class);
+
+  private static final int DEFAULT_POOL_SIZE = 10;
+  private static final int DEFAULT_NEAR_CACHE_SECS = 5;
+  private static final int DEFAULT_NEAR_CACHE_SIZE = 10000;
+  private static final int DEFAULT_SWEEP_LEASE_SECS = 60;
+
+  private static final String SWEEP_LEASE_NAME = "token_expiration";
+
+  private static enum JsonKey {
+    connectionUrl,
+    login,
+    password,
+    poolSize,
+    schema,
+    nearCacheSecs,
+    nearCacheSize,
+    sweepLeaseSecs
+  }
+
+  // SQL templates; $$schema$$ is replaced at initialization
+  private static final String INSERT_AUTH_CODE_SQL =
+      "insert into $$schema$$oauth_auth_codes (auth_code, client_id, user_id, nonce, creation_time) values (?, ?, ?, ?, ?)";
+  private static final String SELECT_AUTH_CODE_SQL =
+      "select auth_code, client_id, user_id, nonce, creation_time from $$schema$$oauth_auth_codes where auth_code = ?";
+  // row lock orders token creation against a concurrent logout's delete of the code
+  private static final String LOCK_AUTH_CODE_SQL = SELECT_AUTH_CODE_SQL + " for update";
+  private static final String INSERT_ACCESS_TOKEN_SQL =
+      "insert into $$schema$$oauth_access_tokens (token, auth_code, client_id, user_id, nonce, auth_time, creation_time) values (?, ?, ?, ?, ?, ?, ?)";
+  private static final String SELECT_ACCESS_TOKEN_SQL =
+      "select token, auth_code, client_id, user_id, nonce, auth_time, creation_time from $$schema$$oauth_access_tokens where token = ?";
+  private static final String DELETE_USER_AUTH_CODES_SQL =
+      "delete from $$schema$$oauth_auth_codes where user_id = ?";
+  private static final String DELETE_USER_ACCESS_TOKENS_SQL =
+      "delete from $$schema$$oauth_access_tokens where user_id = ?";
+  private static final String DELETE_EXPIRED_AUTH_CODES_SQL =
+      "delete from $$schema$$oauth_auth_codes where creation_time < ?";
+  private static final String DELETE_EXPIRED_ACCESS_TOKENS_SQL =
+      "delete from $$schema$$oauth_access_tokens where creation_time < ?";
+  private static final String ACQUIRE_LEASE_SQL =
+      "update $$schema$$oauth_store_leases set holder = ?, expires_at = ? where lease_name = ? and (holder = ? or expires_at < ?)";
+
+  /**
+   * Short-lived local copies of stored values, keyed by code or token
+   */
+  private static class NearCache<T> {
+
+    private static final long MIN_SWEEP_INTERVAL_MS = 1000;
+
+    private static class Entry<T> {
+      final T value;
+      final long cachedAtMillis;
+      Entry(T value) {
+        this.value = value;
+        cachedAtMillis = System.currentTimeMillis();
+      }
+    }
+
+    private final ConcurrentMap<String, Entry<T>> _entries = new ConcurrentHashMap<>();
+    private final long _maxAgeMillis;
+    private final int _maxSize;
+    private final AtomicLong _lastSweepTime = new AtomicLong();
+
+    NearCache(long maxAgeSecs, int maxSize) {
+      _maxAgeMillis = maxAgeSecs * 1000;
+      _maxSize = maxSize;
+    }
+
+    void put(String key, T value) {
+      if (_maxAgeMillis <= 0 || _maxSize <= 0) return;
+      // size check is approximate under concurrency, which is fine for a bound
+      if (_entries.size() >= _maxSize && !_entries.containsKey(key)) {
+        makeRoom();
+      }
+      _entries.put(key, new Entry<>(value));
+    }
+
+    /**
+     * Removes stale entries unless a sweep was done within the last second;
+     * if the cache is still full, evicts an arbitrary entry.
+     */
+    private void makeRoom() {
+      long now = System.currentTimeMillis();
+      long lastSweep = _lastSweepTime.get();
+      if (now - lastSweep >= MIN_SWEEP_INTERVAL_MS && _lastSweepTime.compareAndSet(lastSweep, now)) {
+        long oldestValidMillis = now - _maxAgeMillis;
+        _entries.values().removeIf(entry -> entry.cachedAtMillis < oldestValidMillis);
+      }
+      if (_entries.size() >= _maxSize) {
+        Iterator<String> keys = _entries.keySet().iterator();
+        if (keys.hasNext()) {
+          _entries.remove(keys.next());
+        }
+      }
+    }
+
+    T get(String key) {
+      Entry<T> entry = _entries.get(key);
+      if (entry == null) return null;
+      if (System.currentTimeMillis() - entry.cachedAtMillis > _maxAgeMillis) {
+        _entries.remove(key, entry);
+        return null;
+      }
+      return entry.value;
+    }
+
+    void removeUser(String userId, Function<T, String> userIdGetter) {
+      _entries.values().removeIf(entry -> userIdGetter.apply(entry.value).equals(userId));
+    }
+
+    void removeExpired(ToLongFunction<T> creationTime, long currentDateSecs, long expirationSecs) {
+      long oldestValidMillis = System.currentTimeMillis() - _maxAgeMillis;
+      _entries.values().removeIf(entry -> entry.cachedAtMillis < oldestValidMillis ||
+          currentDateSecs - creationTime.applyAsLong(entry.value) > expirationSecs);
+    }
+  }
+
+  private BasicDataSource _dataSource;
+  private String _nodeId;
+  private long _sweepLeaseSecs;
+
+  private NearCache<AuthCodeData> _codeCache;
+  private NearCache<AccessTokenData> _tokenCache;
+
+  private String _insertAuthCodeSql;
+  private String _selectAuthCodeSql;
+  private String _lockAuthCodeSql;
+  private String _insertAccessTokenSql;
+  private String _selectAccessTokenSql;
+  private String _deleteUserAuthCodesSql;
+  private String _deleteUserAccessTokensSql;
+  private String _deleteExpiredAuthCodesSql;
+  private String _deleteExpiredAccessTokensSql;
+  private String _acquireLeaseSql;
+
+  @Override
+  public void initialize(JsonObject configJson) throws InitializationException {
+    try {
+      String schema = configJson.getString(JsonKey.schema.name(), "");
+      if (!schema.isEmpty() && !schema.endsWith(".")) schema += ".";
+      _insertAuthCodeSql = INSERT_AUTH_CODE_SQL.replace("$$schema$$", schema);
+      _selectAuthCodeSql = SELECT_AUTH_CODE_SQL.replace("$$schema$$", schema);
+      _lockAuthCodeSql = LOCK_AUTH_CODE_SQL.replace("$$schema$$", schema);
+      _insertAccessTokenSql = INSERT_ACCESS_TOKEN_SQL.replace("$$schema$$", schema);
+      _selectAccessTokenSql = SELECT_ACCESS_TOKEN_SQL.replace("$$schema$$", schema);
+      _deleteUserAuthCodesSql = DELETE_USER_AUTH_CODES_SQL.replace("$$schema$$", schema);
+      _deleteUserAccessTokensSql = DELETE_USER_ACCESS_TOKENS_SQL.replace("$$schema$$", schema);
+      _deleteExpiredAuthCodesSql = DELETE_EXPIRED_AUTH_CODES_SQL.replace("$$schema$$", schema);
+      _deleteExpiredAccessTokensSql = DELETE_EXPIRED_ACCESS_TOKENS_SQL.replace("$$schema$$", schema);
+      _acquireLeaseSql = ACQUIRE_LEASE_SQL.replace("$$schema$$", schema);
+
+      int nearCacheSecs = configJson.getInt(JsonKey.nearCacheSecs.name(), DEFAULT_NEAR_CACHE_SECS);
+      int nearCacheSize = configJson.getInt(JsonKey.nearCacheSize.name(), DEFAULT_NEAR_CACHE_SIZE);
+      _codeCache = new NearCache<>(nearCacheSecs, nearCacheSize);
+      _tokenCache = new NearCache<>(nearCacheSecs, nearCacheSize);
+      _sweepLeaseSecs = configJson.getInt(JsonKey.sweepLeaseSecs.name(), DEFAULT_SWEEP_LEASE_SECS);
+      _nodeId = getHostName() + ":" + UUID.randomUUID();
+
+      _dataSource = new BasicDataSource();
+      _dataSource.setUrl(configJson.getString(JsonKey.connectionUrl.name()));
+      _dataSource.setUsername(configJson.getString(JsonKey.login.name()));
+      _dataSource.setPassword(configJson.getString(JsonKey.password.name()));
+      _dataSource.setMaxTotal(configJson.getInt(JsonKey.poolSize.name(), DEFAULT_POOL_SIZE));
+      _dataSource.setDefaultAutoCommit(true);
+
+      // fail fast if the database or tables are not reachable
+      try (Connection conn = _dataSource.getConnection();
+           PreparedStatement stmt = conn.prepareStatement(_selectAuthCodeSql)) {
+        stmt.setString(1, "");
+        stmt.executeQuery().close();
+      }
+      LOG.info("Initialized JDBC token store as node " + _nodeId + " with near cache of " + nearCacheSecs +
+          " seconds and " + nearCacheSize + " entries.");
+    }
+    catch (ClassCastException | NullPointerException e) {
+      throw new InitializationException("Misconfigured JDBC token store", e);
+    }
+    catch (SQLException e) {
+      throw new InitializationException("Unable to access JDBC token store tables", e);
+    }
+  }
+
+  private static String getHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    }
+    catch (UnknownHostException e) {
+      return "unknown";
+    }
+  }
+
+  @Override
+  public void addAuthCode(AuthCodeData authCodeData) {
+    try (Connection conn = _dataSource.getConnection();
+         PreparedStatement stmt = conn.prepareStatement(_insertAuthCodeSql)) {
+      stmt.setString(1, authCodeData.getAuthCode());
+      stmt.setString(2, authCodeData.getClientId());
+      stmt.setString(3, authCodeData.getUserId());
+      setNullableString(stmt, 4, authCodeData.getNonce());
+      stmt.setLong(5, authCodeData.getCreationTime());
+      stmt.executeUpdate();
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("Unable to store auth code", e);
+    }
+    _codeCache.put(authCodeData.getAuthCode(), authCodeData);
+    LOG.debug("Added auth code with data:" + authCodeData);
+  }
+
+  @Override
+  public AccessTokenData addAccessToken(String accessToken, String authCode) {
+    LOG.debug("Adding access token '" + accessToken + "' to user behind auth code '" + authCode + "'.");
+    AccessTokenData tokenData;
+    try (Connection conn = _dataSource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        AuthCodeData authCodeData = readAuthCode(conn, _lockAuthCodeSql, authCode);
+        if (authCodeData == null) {
+          conn.rollback();
+          return null;
+        }
+        tokenData = new AccessTokenData(accessToken, authCodeData);
+        try (PreparedStatement stmt = conn.prepareStatement(_insertAccessTokenSql)) {
+          stmt.setString(1, accessToken);
+          stmt.setString(2, authCode);
+          stmt.setString(3, authCodeData.getClientId());
+          stmt.setString(4, authCodeData.getUserId());
+          setNullableString(stmt, 5, authCodeData.getNonce());
+          stmt.setLong(6, authCodeData.getCreationTime());
+          stmt.setLong(7, tokenData.creationTime);
+          stmt.executeUpdate();
+        }
+        conn.commit();
+      }
+      catch (SQLException e) {
+        conn.rollback();
+        throw e;
+      }
+      finally {
+        conn.setAutoCommit(true);
+      }
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("Unable to store access token", e);
+    }
+    _tokenCache.put(accessToken, tokenData);
+    return tokenData;
+  }
+
+  @Override
+  public boolean isValidAuthCode(String authCode, String clientId) {
+    AuthCodeData authCodeData = _codeCache.get(authCode);
+    if (authCodeData == null) {
+      try (Connection conn = _dataSource.getConnection()) {
+        authCodeData = readAuthCode(conn, _selectAuthCodeSql, authCode);
+      }
+      catch (SQLException e) {
+        throw new RuntimeException("Unable to look up auth code", e);
+      }
+      if (authCodeData == null) return false;
+      _codeCache.put(authCode, authCodeData);
+    }
+    return authCodeData.getClientId().equals(clientId);
+  }
+
+  @Override
+  public AccessTokenData getTokenData(String accessToken) {
+    AccessTokenData tokenData = _tokenCache.get(accessToken);
+    if (tokenData != null) return tokenData;
+    try (Connection conn = _dataSource.getConnection();
+         PreparedStatement stmt = conn.prepareStatement(_selectAccessTokenSql)) {
+      stmt.setString(1, accessToken);
+      try (ResultSet rs = stmt.executeQuery()) {
+        if (!rs.next()) return null;
+        AuthCodeData authCodeData = new AuthCodeData(rs.getString("auth_code"), rs.getString("client_id"),
+            rs.getString("user_id"), rs.getString("nonce"), rs.getLong("auth_time"));
+        tokenData = new AccessTokenData(rs.getString("token"), authCodeData, rs.getLong("creation_time"));
+      }
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("Unable to look up access token", e);
+    }
+    _tokenCache.put(accessToken, tokenData);
+    return tokenData;
+  }
+
+  private static AuthCodeData readAuthCode(Connection conn, String sql, String authCode) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      stmt.setString(1, authCode);
+      try (ResultSet rs = stmt.executeQuery()) {
+        return !rs.next() ? null : new AuthCodeData(rs.getString("auth_code"), rs.getString("client_id"),
+            rs.getString("user_id"), rs.getString("nonce"), rs.getLong("creation_time"));
+      }
+    }
+  }
+
+  @Override
+  public void clearObjectsForUser(String userId) {
+    // codes first: waits on any in-progress token creation holding a code lock
+    try (Connection conn = _dataSource.getConnection()) {
+      executeUpdate(conn, _deleteUserAuthCodesSql, userId);
+      executeUpdate(conn, _deleteUserAccessTokensSql, userId);
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("Unable to clear codes and tokens for user " + userId, e);
+    }
+    _codeCache.removeUser(userId, AuthCodeData::getUserId);
+    _tokenCache.removeUser(userId, token -> token.userId);
+  }
+
+  @Override
+  public void removeExpiredTokens(long authCodeExpirationSecs, long accessTokenExpirationSecs) {
+    long currentDateSecs = new Date().getTime() / 1000;
+    _codeCache.removeExpired(AuthCodeData::getCreationTime, currentDateSecs, authCodeExpirationSecs);
+    _tokenCache.removeExpired(token -> token.creationTime, currentDateSecs, accessTokenExpirationSecs);
+    try (Connection conn = _dataSource.getConnection()) {
+      if (!acquireSweepLease(conn, currentDateSecs)) {
+        LOG.debug("Another node holds the expiration lease; skipping sweep.");
+        return;
+      }
+      int numCodes = executeUpdate(conn, _deleteExpiredAuthCodesSql, currentDateSecs - authCodeExpirationSecs);
+      int numTokens = executeUpdate(conn, _deleteExpiredAccessTokensSql, currentDateSecs - accessTokenExpirationSecs);
+      LOG.debug("Expired " + numCodes + " auth codes and " + numTokens + " access tokens.");
+    }
+    catch (SQLException e) {
+      LOG.error("Unable to remove expired codes and tokens", e);
+    }
+  }
+
+  /**
+   * Takes (or renews) the sweep lease if it is free, expired, or already held
+   * by this node.
+   */
+  private boolean acquireSweepLease(Connection conn, long currentDateSecs) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(_acquireLeaseSql)) {
+      stmt.setString(1, _nodeId);
+      stmt.setLong(2, currentDateSecs + _sweepLeaseSecs);
+      stmt.setString(3, SWEEP_LEASE_NAME);
+      stmt.setString(4, _nodeId);
+      stmt.setLong(5, currentDateSecs);
+      return stmt.executeUpdate() == 1;
+    }
+  }
+
+  private static int executeUpdate(Connection conn, String sql, Object param) throws SQLException {
+    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      stmt.setObject(1, param);
+      return stmt.executeUpdate();
+    }
+  }
+
+  private static void setNullableString(PreparedStatement stmt, int index, String value) throws SQLException {
+    if (value == null) {
+      stmt.setNull(index, Types.VARCHAR);
+    }
+    else {
+      stmt.setString(index, value);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      _dataSource.close();
+    }
+    catch (SQLException e) {
+      LOG.warn("Unable to close token store connection pool", e);
+    }
+  }
+}
@@ -0,0 +1,578 @@
+package org.gusdb.oauth2.service.token;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import javax.json.JsonObject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.InitializationException;
+
+/**
+ * TokenStore implementation that survives webapp restarts.  Every change is
+ * appended as a record to a memory-mapped log made up of fixed-size segment
+ * files; state is rebuilt on startup by replaying the log.  Lookups go
+ * through off-heap indexes mapping each code or token's 128-bit key to the
+ * log position of its record, so the heap holds only per-user logout marks.
+ *
+ * Logout appends a revocation record; codes and tokens of that user written
+ * before it are treated as absent.  Expiration advances a cursor per record
+ * type through the log, unindexing expired records, and unmaps and deletes
+ * segments once both cursors have passed them.  Lookups also check each
+ * record's age against the lifetimes last passed to removeExpiredTokens(), so
+ * expired records replayed on startup are never returned; the expirer passes
+ * them once before any request is served (see TokenExpirerThread.start()).
+ *
+ * Configuration (tokenStoreConfig):
+ * {
+ *   "directory": "/var/lib/oauth/tokens", // required; created if absent
+ *   "segmentSizeMb": 64,                  // optional, 64 is default
+ *   "syncWrites": false                   // optional; if true, force each record to disk
+ * }
+ *
+ * Only one server process may use a directory at a time; a lock file in the
+ * directory enforces this.
+ */
+public class MappedFileTokenStore implements TokenStore {
+
+  private static final Logger LOG = LogManager.getLogger(MappedFileTokenStore.class);
+
+  private static final int DEFAULT_SEGMENT_SIZE_MB = 64;
+  private static final int INITIAL_INDEX_CAPACITY = 1 << 16;
+
+  private static final String SEGMENT_FILE_PREFIX = "segment-";
+  private static final String SEGMENT_FILE_SUFFIX = ".log";
+  private static final String LOCK_FILE_NAME = "store.lock";
+
+  // record types
+  private static final byte AUTH_CODE = 1;
+  private static final byte ACCESS_TOKEN = 2;
+  private static final byte USER_REVOCATION = 3;
+
+  // record header is body length followed by body checksum
+  private static final int HEADER_BYTES = 8;
+
+  // unmaps a buffer immediately rather than when it is garbage collected, so
+  //   a deleted segment's disk space is freed; null if the JVM does not allow it
+  private static final Consumer<ByteBuffer> UNMAPPER = findUnmapper();
+
+  private static class Segment {
+
+    final int id;
+    final Path file;
+    final MappedByteBuffer buffer;
+    int writePos;
+
+    Segment(int id, Path file, MappedByteBuffer buffer) {
+      this.id = id;
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+  private Path _directory;
+  private int _segmentSize;
+  private boolean _syncWrites;
+  private FileChannel _lockChannel;
+  private FileLock _directoryLock;
+
+  private final TreeMap<Integer, Segment> _segments = new TreeMap<>();
+  private Segment _current;
+
+  private final OffHeapTokenIndex _codeIndex = new OffHeapTokenIndex(INITIAL_INDEX_CAPACITY);
+  private final OffHeapTokenIndex _tokenIndex = new OffHeapTokenIndex(INITIAL_INDEX_CAPACITY);
+
+  // log position of each user's most recent logout
+  private final Map<String, Long> _revocations = new HashMap<>();
+
+  // log positions of the next record to check for expiration
+  private long _codeCursor;
+  private long _tokenCursor;
+
+  // lifetimes last passed to removeExpiredTokens(); records are not treated
+  //   as expired by lookups until the first call
+  private long _authCodeExpirationSecs = Long.MAX_VALUE;
+  private long _accessTokenExpirationSecs = Long.MAX_VALUE;
+
+  @Override
+  public void initialize(JsonObject configJson) throws InitializationException {
+    String directory = configJson.getString("directory", null);
+    if (directory == null) {
+      throw new InitializationException("Token store configuration property 'directory' is required.");
+    }
+    _directory = Paths.get(directory);
+    _segmentSize = configJson.getInt("segmentSizeMb", DEFAULT_SEGMENT_SIZE_MB) * 1024 * 1024;
+    if (_segmentSize <= 0) {
+      throw new InitializationException("Token store configuration property 'segmentSizeMb' must be positive.");
+    }
+    _syncWrites = configJson.getBoolean("syncWrites", false);
+    try {
+      Files.createDirectories(_directory);
+      _lockChannel = FileChannel.open(_directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+        _directoryLock = _lockChannel.tryLock();
+      }
+      catch (OverlappingFileLockException e) {
+        // already held by another store in this JVM
+        _directoryLock = null;
+      }
+      if (_directoryLock == null) {
+        _lockChannel.close();
+        throw new InitializationException("Token store directory " + _directory + " is in use by another process.");
+      }
+      replay();
+    }
+    catch (IOException e) {
+      throw new InitializationException("Unable to open token store directory " + _directory, e);
+    }
+  }
+
+  /*********************** replay ***********************/
+
+  private void replay() throws IOException {
+    long start = System.currentTimeMillis();
+    List<Integer> segmentIds = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        segmentIds.add(Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length())));
+      }
+    }
+    segmentIds.sort(null);
+    int numRecords = 0;
+    for (int id : segmentIds) {
+      Segment segment = mapSegment(id);
+      _segments.put(id, segment);
+      numRecords += replaySegment(segment);
+    }
+    _current = _segments.isEmpty() ? addSegment(1) : _segments.lastEntry().getValue();
+    _codeCursor = _tokenCursor = position(_segments.firstKey(), 0);
+    LOG.info("Replayed " + numRecords + " token store records from " + _segments.size() + " segment(s) in " +
+        (System.currentTimeMillis() - start) + "ms; " + _codeIndex.size() + " auth codes and " +
+        _tokenIndex.size() + " access tokens indexed.");
+  }
+
+  private int replaySegment(Segment segment) {
+    ByteBuffer buf = segment.buffer;
+    int offset = 0;
+    int numRecords = 0;
+    byte[] body;
+    while ((body = readRecord(buf, offset)) != null) {
+      long position = position(segment.id, offset);
+      ByteBuffer in = ByteBuffer.wrap(body);
+      byte type = in.get();
+      in.getLong(); // creation time
+      switch (type) {
+        case AUTH_CODE:
+        case ACCESS_TOKEN:
+          TokenKey key = TokenKey.of(readString(in));
+          (type == AUTH_CODE ? _codeIndex : _tokenIndex).put(key.hi, key.lo, position);
+          break;
+        case USER_REVOCATION:
+          _revocations.put(readString(in), position);
+          break;
+        default:
+          // checksum passed, so this is a bug rather than a torn write
+          throw new IllegalStateException("Unknown record type " + type + " in " + segment.file);
+      }
+      offset += HEADER_BYTES + body.length;
+      numRecords++;
+    }
+    // anything after the last intact record (e.g. a torn write) is overwritten
+    segment.writePos = offset;
+    return numRecords;
+  }
+
+  /**
+   * @return body of the record at the passed offset, or null if there is no
+   * complete, intact record there
+   */
+  private static byte[] readRecord(ByteBuffer buf, int offset) {
+    if (offset + HEADER_BYTES > buf.capacity()) return null;
+    int length = buf.getInt(offset);
+    if (length <= 0 || length > buf.capacity() - offset - HEADER_BYTES) return null;
+    byte[] body = new byte[length];
+    buf.get(offset + HEADER_BYTES, body);
+    return checksum(body) == buf.getInt(offset + 4) ? body : null;
+  }
+
+  /*********************** lookups ***********************/
+
+  @Override
+  public boolean isValidAuthCode(String authCode, String clientId) {
+    _lock.readLock().lock();
+    try {
+      AuthCodeData data = findAuthCode(authCode);
+      return data != null && data.getClientId().equals(clientId);
+    }
+    finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public AccessTokenData getTokenData(String accessToken) {
+    _lock.readLock().lock();
+    try {
+      TokenKey key = TokenKey.of(accessToken);
+      long position = _tokenIndex.get(key.hi, key.lo);
+      if (position == 0) return null;
+      ByteBuffer in = readBody(position);
+      in.get(); // type
+      long creationTime = in.getLong();
+      String tokenValue = readString(in);
+      AuthCodeData authCodeData = readAuthCodeData(in);
+      return tokenValue.equals(accessToken) && !isRevoked(authCodeData.getUserId(), position) &&
+          !isExpired(creationTime, _accessTokenExpirationSecs) ?
+          new AccessTokenData(tokenValue, authCodeData, creationTime) : null;
+    }
+    finally {
+      _lock.readLock().unlock();
+    }
+  }
+
+  // caller must hold a lock
+  private AuthCodeData findAuthCode(String authCode) {
+    TokenKey key = TokenKey.of(authCode);
+    long position = _codeIndex.get(key.hi, key.lo);
+    if (position == 0) return null;
+    ByteBuffer in = readBody(position);
+    in.get(); // type
+    in.getLong(); // creation time is repeated in the code data
+    readString(in); // key is repeated in the code data
+    AuthCodeData data = readAuthCodeData(in);
+    return data.getAuthCode().equals(authCode) && !isRevoked(data.getUserId(), position) &&
+        !isExpired(data.getCreationTime(), _authCodeExpirationSecs) ? data : null;
+  }
+
+  private boolean isRevoked(String userId, long position) {
+    Long revocation = _revocations.get(userId);
+    return revocation != null && position < revocation;
+  }
+
+  // matches expire(); a record is expired once older than its lifetime
+  private static boolean isExpired(long creationTimeSecs, long expirationSecs) {
+    return new Date().getTime() / 1000 - creationTimeSecs > expirationSecs;
+  }
+
+  private ByteBuffer readBody(long position) {
+    ByteBuffer buf = _segments.get(segmentId(position)).buffer;
+    int offset = offset(position);
+    byte[] body = new byte[buf.getInt(offset)];
+    buf.get(offset + HEADER_BYTES, body);
+    return ByteBuffer.wrap(body);
+  }
+
+  /*********************** writes ***********************/
+
+  @Override
+  public void addAuthCode(AuthCodeData authCodeData) {
+    ByteBuffer body = newBody(AUTH_CODE, authCodeData.getCreationTime(), authCodeData.getAuthCode(), authCodeData);
+    TokenKey key = TokenKey.of(authCodeData.getAuthCode());
+    _lock.writeLock().lock();
+    try {
+      _codeIndex.put(key.hi, key.lo, append(body));
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+    LOG.debug("Added auth code with data:" + authCodeData);
+  }
+
+  @Override
+  public AccessTokenData addAccessToken(String accessToken, String authCode) {
+    LOG.debug("Adding access token '" + accessToken + "' to user behind auth code '" + authCode + "'.");
+    TokenKey key = TokenKey.of(accessToken);
+    _lock.writeLock().lock();
+    try {
+      // checking the code under the write lock orders this against logout
+      AuthCodeData authCodeData = findAuthCode(authCode);
+      if (authCodeData == null) {
+        return null;
+      }
+      AccessTokenData tokenData = new AccessTokenData(accessToken, authCodeData);
+      _tokenIndex.put(key.hi, key.lo, append(newBody(ACCESS_TOKEN, tokenData.creationTime, accessToken, authCodeData)));
+      return tokenData;
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clearObjectsForUser(String userId) {
+    byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer body = ByteBuffer.allocate(1 + 8 + 4 + userIdBytes.length)
+        .put(USER_REVOCATION).putLong(new Date().getTime() / 1000);
+    writeString(body, userIdBytes);
+    _lock.writeLock().lock();
+    try {
+      _revocations.put(userId, append(body));
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  private static ByteBuffer newBody(byte type, long creationTime, String key, AuthCodeData code) {
+    byte[][] strings = {
+      bytes(key), bytes(code.getAuthCode()), bytes(code.getClientId()), bytes(code.getUserId()), bytes(code.getNonce())
+    };
+    int size = 1 + 8 + 8;
+    for (byte[] string : strings) {
+      size += 4 + (string == null ? 0 : string.length);
+    }
+    ByteBuffer body = ByteBuffer.allocate(size).put(type).putLong(creationTime);
+    writeString(body, strings[0]);
+    body.putLong(code.getCreationTime());
+    for (int i = 1; i < strings.length; i++) {
+      writeString(body, strings[i]);
+    }
+    return body;
+  }
+
+  /**
+   * Appends the passed record body to the log; caller must hold the write lock.
+   *
+   * @return log position of the new record
+   */
+  private long append(ByteBuffer body) {
+    byte[] bytes = body.array();
+    int recordSize = HEADER_BYTES + bytes.length;
+    if (recordSize > _segmentSize) {
+      throw new IllegalStateException("Token store record of " + recordSize + " bytes exceeds segment size");
+    }
+    if (_current.writePos + recordSize > _segmentSize) {
+      try {
+        _current = addSegment(_current.id + 1);
+      }
+      catch (IOException e) {
+        throw new RuntimeException("Unable to create token store segment", e);
+      }
+    }
+    MappedByteBuffer buf = _current.buffer;
+    int offset = _current.writePos;
+    // length goes in last so a torn write is never seen as a complete record
+    buf.put(offset + HEADER_BYTES, bytes);
+    buf.putInt(offset + 4, checksum(bytes));
+    buf.putInt(offset, bytes.length);
+    if (_syncWrites) {
+      buf.force(offset, recordSize);
+    }
+    _current.writePos += recordSize;
+    return position(_current.id, offset);
+  }
+
+  /*********************** expiration ***********************/
+
+  @Override
+  public void removeExpiredTokens(long authCodeExpirationSecs, long accessTokenExpirationSecs) {
+    long currentDateSecs = new Date().getTime() / 1000;
+    _lock.writeLock().lock();
+    try {
+      _authCodeExpirationSecs = authCodeExpirationSecs;
+      _accessTokenExpirationSecs = accessTokenExpirationSecs;
+      _codeCursor = expire(_codeCursor, AUTH_CODE, _codeIndex, currentDateSecs, authCodeExpirationSecs);
+      _tokenCursor = expire(_tokenCursor, ACCESS_TOKEN, _tokenIndex, currentDateSecs, accessTokenExpirationSecs);
+      deleteSegmentsBefore(Math.min(segmentId(_codeCursor), segmentId(_tokenCursor)));
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Unindexes expired records of the passed type, starting at the cursor and
+   * stopping at the first record of that type that has not yet expired.
+   *
+   * @return new cursor position
+   */
+  private long expire(long cursor, byte type, OffHeapTokenIndex index, long currentDateSecs, long expirationSecs) {
+    int numExpired = 0;
+    while (true) {
+      Segment segment = _segments.get(segmentId(cursor));
+      int offset = offset(cursor);
+      if (offset >= segment.writePos) {
+        if (segment == _current) break;
+        cursor = position(_segments.higherKey(segment.id), 0);
+        continue;
+      }
+      ByteBuffer buf = segment.buffer;
+      int length = buf.getInt(offset);
+      if (buf.get(offset + HEADER_BYTES) == type) {
+        long creationTime = buf.getLong(offset + HEADER_BYTES + 1);
+        if (currentDateSecs - creationTime <= expirationSecs) break;
+        ByteBuffer in = readBody(cursor);
+        in.position(1 + 8);
+        TokenKey key = TokenKey.of(readString(in));
+        if (index.remove(key.hi, key.lo, cursor)) numExpired++;
+      }
+      cursor = position(segment.id, offset + HEADER_BYTES + length);
+    }
+    if (numExpired > 0) {
+      LOG.debug("Expired " + numExpired + (type == AUTH_CODE ? " auth codes" : " access tokens"));
+    }
+    return cursor;
+  }
+
+  /**
+   * Unmaps and deletes segments holding only expired records; caller must hold
+   * the write lock, and nothing may refer to their buffers afterward.
+   */
+  private void deleteSegmentsBefore(int segmentId) {
+    Iterator<Segment> segments = _segments.headMap(segmentId).values().iterator();
+    while (segments.hasNext()) {
+      Segment segment = segments.next();
+      segments.remove();
+      // the cursors have passed every record in it, so no index entry points here
+      if (UNMAPPER != null) {
+        UNMAPPER.accept(segment.buffer);
+      }
+      try {
+        Files.deleteIfExists(segment.file);
+      }
+      catch (IOException e) {
+        LOG.warn("Unable to delete expired token store segment " + segment.file, e);
+      }
+    }
+    // logout marks older than every remaining record no longer hide anything
+    int firstSegmentId = _segments.firstKey();
+    _revocations.values().removeIf(position -> segmentId(position) < firstSegmentId);
+  }
+
+  @Override
+  public void close() {
+    _lock.writeLock().lock();
+    try {
+      for (Segment segment : _segments.values()) {
+        segment.buffer.force();
+      }
+      _directoryLock.release();
+      _lockChannel.close();
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to release token store directory lock", e);
+    }
+    finally {
+      _lock.writeLock().unlock();
+    }
+  }
+
+  /*********************** segments ***********************/
+
+  private Segment addSegment(int id) throws IOException {
+    Segment segment = mapSegment(id);
+    _segments.put(id, segment);
+    return segment;
+  }
+
+  private Segment mapSegment(int id) throws IOException {
+    Path file = _directory.resolve(String.format("%s%010d%s", SEGMENT_FILE_PREFIX, id, SEGMENT_FILE_SUFFIX));
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      // new files are zero-filled, which reads as end of log
+      long size = Math.max(raf.length(), _segmentSize);
+      raf.setLength(size);
+      return new Segment(id, file, raf.getChannel().map(MapMode.READ_WRITE, 0, size));
+    }
+  }
+
+  private static Consumer<ByteBuffer> findUnmapper() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      return buffer -> {
+        try {
+          invokeCleaner.invoke(unsafe, buffer);
+        }
+        catch (ReflectiveOperationException e) {
+          LOG.warn("Unable to unmap token store segment; it will be unmapped when garbage collected", e);
+        }
+      };
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.warn("Deleted token store segments will be unmapped only when garbage collected", e);
+      return null;
+    }
+  }
+
+  /*********************** encoding ***********************/
+
+  private static long position(int segmentId, int offset) {
+    return ((long)segmentId << 32) | offset;
+  }
+
+  private static int segmentId(long position) {
+    return (int)(position >>> 32);
+  }
+
+  private static int offset(long position) {
+    return (int)position;
+  }
+
+  private static int checksum(byte[] bytes) {
+    CRC32C crc = new CRC32C();
+    crc.update(bytes);
+    return (int)crc.getValue();
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(ByteBuffer out, byte[] value) {
+    if (value == null) {
+      out.putInt(-1);
+    }
+    else {
+      out.putInt(value.length).put(value);
+    }
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) return null;
+    String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return value;
+  }
+
+  private static AuthCodeData readAuthCodeData(ByteBuffer in) {
+    long creationTime = in.getLong();
+    String authCode = readString(in);
+    String clientId = readString(in);
+    String userId = readString(in);
+    String nonce = readString(in);
+    return new AuthCodeData(authCode, clientId, userId, nonce, creationTime);
+  }
+}
@@ -0,0 +1,134 @@
+package org.gusdb.oauth2.service.token;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Open-addressing hash map from a 128-bit TokenKey to a non-zero long value,
+ * stored in a direct (off-heap) buffer.  Each slot holds the two key longs
+ * and the value; there are no per-entry objects.  Not thread-safe; callers
+ * must synchronize access.
+ */
+final class OffHeapTokenIndex {
+
+  private static final int SLOT_BYTES = 24;
+  private static final int VALUE_OFFSET = 16;
+
+  // special values marking unused slots; stored values must not use these
+  private static final long EMPTY = 0;
+  private static final long DELETED = -1;
+
+  private static final double MAX_LOAD = 0.6;
+
+  private ByteBuffer _slots;
+  private int _capacity; // always a power of 2
+  private int _size;     // live entries
+  private int _used;     // live entries + deleted markers
+
+  OffHeapTokenIndex(int initialCapacity) {
+    _capacity = Integer.highestOneBit(Math.max(16, initialCapacity) * 2 - 1);
+    _slots = ByteBuffer.allocateDirect(_capacity * SLOT_BYTES);
+  }
+
+  int size() {
+    return _size;
+  }
+
+  long offHeapBytes() {
+    return (long)_capacity * SLOT_BYTES;
+  }
+
+  /**
+   * @return value stored for the passed key, or 0 if not present
+   */
+  long get(long hi, long lo) {
+    int slot = findSlot(hi, lo);
+    return slot < 0 ? EMPTY : value(slot);
+  }
+
+  void put(long hi, long lo, long value) {
+    if (value == EMPTY || value == DELETED) {
+      throw new IllegalArgumentException("Illegal index value: " + value);
+    }
+    int slot = findSlot(hi, lo);
+    if (slot >= 0) {
+      _slots.putLong(slot * SLOT_BYTES + VALUE_OFFSET, value);
+      return;
+    }
+    if (_used + 1 > _capacity * MAX_LOAD) {
+      // grow if mostly live entries, else just clear out deleted markers
+      rehash(_size + 1 > _capacity * MAX_LOAD / 2 ? _capacity * 2 : _capacity);
+    }
+    int mask = _capacity - 1;
+    for (int i = hash(hi, lo) & mask; ; i = (i + 1) & mask) {
+      long current = value(i);
+      if (current == EMPTY || current == DELETED) {
+        int pos = i * SLOT_BYTES;
+        _slots.putLong(pos, hi);
+        _slots.putLong(pos + 8, lo);
+        _slots.putLong(pos + VALUE_OFFSET, value);
+        _size++;
+        if (current == EMPTY) _used++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Removes the entry for the passed key only if it is mapped to the
+   * expected value.
+   *
+   * @return true if an entry was removed
+   */
+  boolean remove(long hi, long lo, long expectedValue) {
+    int slot = findSlot(hi, lo);
+    if (slot < 0 || value(slot) != expectedValue) {
+      return false;
+    }
+    _slots.putLong(slot * SLOT_BYTES + VALUE_OFFSET, DELETED);
+    _size--;
+    return true;
+  }
+
+  private int findSlot(long hi, long lo) {
+    int mask = _capacity - 1;
+    for (int i = hash(hi, lo) & mask; ; i = (i + 1) & mask) {
+      long current = value(i);
+      if (current == EMPTY) return -1;
+      if (current != DELETED) {
+        int pos = i * SLOT_BYTES;
+        if (_slots.getLong(pos) == hi && _slots.getLong(pos + 8) == lo) return i;
+      }
+    }
+  }
+
+  private long value(int slot) {
+    return _slots.getLong(slot * SLOT_BYTES + VALUE_OFFSET);
+  }
+
+  private void rehash(int newCapacity) {
+    ByteBuffer oldSlots = _slots;
+    int oldCapacity = _capacity;
+    _slots = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+    _capacity = newCapacity;
+    _size = 0;
+    _used = 0;
+    for (int i = 0; i < oldCapacity; i++) {
+      int pos = i * SLOT_BYTES;
+      long value = oldSlots.getLong(pos + VALUE_OFFSET);
+      if (value != EMPTY && value != DELETED) {
+        put(oldSlots.getLong(pos), oldSlots.getLong(pos + 8), value);
+      }
+    }
+  }
+
+  private static int hash(long hi, long lo) {
+    // murmur3 finalizer; keys are usually random already but may not be
+    long h = hi ^ Long.rotateLeft(lo, 32);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb93fe1a85ec3L;
+    h ^= h >>> 33;
+    return (int)h;
+  }
+}
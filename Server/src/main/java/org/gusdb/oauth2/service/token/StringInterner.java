@@ -0,0 +1,90 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns small int IDs to strings (e.g. user IDs) so that tables holding
+ * many references to the same few values can store an int per reference
+ * instead of a pointer to a String.  IDs are reference counted; once all
+ * references to a value are released its ID is reused.  Not thread-safe;
+ * callers must synchronize access.
+ */
+final class StringInterner {
+
+  private final Map<String, Integer> _ids = new HashMap<>();
+  private String[] _values = new String[16];
+  private int[] _refCounts = new int[16];
+  private int[] _freeIds = new int[16];
+  private int _numFreeIds = 0;
+  private int _nextId = 0;
+
+  /**
+   * @return ID of the passed value, or -1 if it is not interned
+   */
+  int find(String value) {
+    Integer id = _ids.get(value);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Adds a reference to the passed value, interning it if necessary.
+   *
+   * @return ID of the passed value
+   */
+  int acquire(String value) {
+    Integer existing = _ids.get(value);
+    if (existing != null) {
+      _refCounts[existing]++;
+      return existing;
+    }
+    int id;
+    if (_numFreeIds > 0) {
+      id = _freeIds[--_numFreeIds];
+    }
+    else {
+      id = _nextId++;
+      if (id == _values.length) {
+        _values = Arrays.copyOf(_values, id * 2);
+        _refCounts = Arrays.copyOf(_refCounts, id * 2);
+      }
+    }
+    _values[id] = value;
+    _refCounts[id] = 1;
+    _ids.put(value, id);
+    return id;
+  }
+
+  /**
+   * Adds a reference to an already interned value.
+   */
+  void retain(int id) {
+    _refCounts[id]++;
+  }
+
+  /**
+   * Removes a reference to the value with the passed ID, releasing the ID
+   * once no references remain.
+   */
+  void release(int id) {
+    if (--_refCounts[id] > 0) return;
+    _ids.remove(_values[id]);
+    _values[id] = null;
+    if (_numFreeIds == _freeIds.length) {
+      _freeIds = Arrays.copyOf(_freeIds, _numFreeIds * 2);
+    }
+    _freeIds[_numFreeIds++] = id;
+  }
+
+  String get(int id) {
+    return _values[id];
+  }
+
+  /**
+   * @return an upper bound (exclusive) on IDs handed out so far
+   */
+  int idLimit() {
+    return _nextId;
+  }
+}
@@ -1,13 +1,12 @@
 package org.gusdb.oauth2.service.token;
 
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.json.Json;
-import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
 import javax.ws.rs.ForbiddenException;
 
 import org.apache.logging.log4j.LogManager;
@@ -20,13 +19,20 @@ import org.gusdb.oauth2.Authenticator.GuestIds;
 import org.gusdb.oauth2.Authenticator.TokenTimestamps;
 import org.gusdb.oauth2.UserAccountInfo;
 import org.gusdb.oauth2.service.token.TokenStore.IdTokenParams;
+import org.gusdb.oauth2.shared.ClaimsWriter;
 import org.gusdb.oauth2.shared.IdTokenFields;
 
 public class TokenFactory {
 
   private static final Logger LOG = LogManager.getLogger(TokenFactory.class);
 
-  public static JsonObject createTokenJson(Authenticator authenticator, String userId,
+  private static final Set<String> RESERVED_FIELDS = IdTokenFields.getNames();
+
+  /**
+   * Streams the claims of an ID or bearer token for the passed user into a
+   * pooled ClaimsWriter, which the caller must close once the claims are signed.
+   */
+  public static ClaimsWriter createTokenClaims(Authenticator authenticator, String userId,
       IdTokenParams tokenParams, String issuer, long expirationSecs, DataScope scope)
           throws OAuthSystemException {
     assert(scope != DataScope.PROFILE);
@@ -38,11 +44,19 @@ public class TokenFactory {
     UserAccountInfo user = getUserInfoForToken(authenticator, userId, scope);
     String tokenId = authenticator.generateBearerTokenId(user, timestamps);
 
-    // get base object (common to ID and guest tokens, and user profiles)
-    JsonObjectBuilder json = getBaseJson(user);
-    appendOidcFields(json, tokenParams, issuer, tokenId, timestamps);
-    appendProfileFields(json, user, scope);
-    return json.build();
+    ClaimsWriter claims = ClaimsWriter.acquire();
+    JsonGenerator json = claims.start();
+    writeTokenClaims(json, user, tokenParams, issuer, tokenId, timestamps, scope);
+    claims.end(json);
+    return claims;
+  }
+
+  // package-private so the claims benchmark can drive it without an authenticator
+  static void writeTokenClaims(JsonGenerator json, UserAccountInfo user, IdTokenParams tokenParams,
+      String issuer, String tokenId, TokenTimestamps timestamps, DataScope scope) {
+    writeBaseClaims(json, user);
+    writeOidcClaims(json, tokenParams, issuer, tokenId, timestamps);
+    writeProfileClaims(json, user, scope);
   }
 
   public static JsonObjectBuilder getBaseJson(UserAccountInfo user) {
@@ -75,13 +89,8 @@ public class TokenFactory {
     }
 
     // add any supplemental fields from Authenticator
-    Map<String, JsonValue> extra = user.getSupplementalFields();
-    Set<String> reservedKeys = IdTokenFields.getNames();
-    for (Entry<String,JsonValue> entry : extra.entrySet()) {
-      if (reservedKeys.contains(entry.getKey())) {
-        LOG.warn("Authenticator tried to override ID token property [" + entry.getKey() + "]. Skipping...");
-      }
-      else {
+    for (Entry<String,JsonValue> entry : user.getSupplementalFields().entrySet()) {
+      if (!isReservedField(entry.getKey())) {
         jsonBuilder.add(entry.getKey(), entry.getValue());
       }
     }
@@ -89,52 +98,94 @@ public class TokenFactory {
     return jsonBuilder;
   }
 
-  private static JsonObjectBuilder appendOidcFields(JsonObjectBuilder jsonBuilder,
+  private static void writeBaseClaims(JsonGenerator json, UserAccountInfo user) {
+    json
+      .write(IdTokenFields.sub.name(), user.getUserId())
+      .write(IdTokenFields.is_guest.name(), user.isGuest());
+  }
+
+  // streaming counterpart of appendProfileFields(); keep the two in step
+  private static void writeProfileClaims(JsonGenerator json, UserAccountInfo user, DataScope scope) {
+    String email = user.getEmail();
+    if (scope != DataScope.BEARER_TOKEN && email != null && !email.isBlank()) {
+      json
+        .write(IdTokenFields.email.name(), email)
+        .write(IdTokenFields.email_verified.name(), user.isEmailVerified());
+    }
+
+    String preferredUsername = user.getPreferredUsername();
+    if (preferredUsername != null && !preferredUsername.isBlank()) {
+      json.write(IdTokenFields.preferred_username.name(), preferredUsername);
+    }
+
+    String signature = user.getSignature();
+    if (signature != null && !signature.isBlank()) {
+      json.write(IdTokenFields.signature.name(), signature);
+    }
+
+    for (Entry<String,JsonValue> entry : user.getSupplementalFields().entrySet()) {
+      if (!isReservedField(entry.getKey())) {
+        json.write(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static boolean isReservedField(String key) {
+    if (RESERVED_FIELDS.contains(key)) {
+      LOG.warn("Authenticator tried to override ID token property [" + key + "]. Skipping...");
+      return true;
+    }
+    return false;
+  }
+
+  private static void writeOidcClaims(JsonGenerator json,
       IdTokenParams params, String issuer, String tokenId, TokenTimestamps timestamps) {
     // OpenID Connect claims that we support
-    jsonBuilder
-      .add(IdTokenFields.iss.name(), issuer)
-      .add(IdTokenFields.aud.name(), params.getClientId())
-      .add(IdTokenFields.azp.name(), params.getClientId())
-      .add(IdTokenFields.jti.name(), tokenId)
-      .add(IdTokenFields.auth_time.name(), params.getCreationTime())
+    json
+      .write(IdTokenFields.iss.name(), issuer)
+      .write(IdTokenFields.aud.name(), params.getClientId())
+      .write(IdTokenFields.azp.name(), params.getClientId())
+      .write(IdTokenFields.jti.name(), tokenId)
+      .write(IdTokenFields.auth_time.name(), params.getCreationTime())
       // Setting iat and exp to seconds per JWT spec.
       //    See NumericDate here: https://datatracker.ietf.org/doc/html/rfc7519#section-2
-      .add(IdTokenFields.iat.name(), timestamps.getCreationTimeSecs())
-      .add(IdTokenFields.exp.name(), timestamps.getExpirationTimeSecs());
+      .write(IdTokenFields.iat.name(), timestamps.getCreationTimeSecs())
+      .write(IdTokenFields.exp.name(), timestamps.getExpirationTimeSecs());
 
     // add nonce if client sent as part of original authentication request
     String nonce = params.getNonce();
     if (nonce != null && !nonce.isEmpty()) {
-      jsonBuilder.add(IdTokenFields.nonce.name(), nonce);
+      json.write(IdTokenFields.nonce.name(), nonce);
     }
-    return jsonBuilder;
   }
 
-
   public static JsonObjectBuilder appendPassword(JsonObjectBuilder jsonBuilder, String password) {
     jsonBuilder.add(IdTokenFields.password.name(), password);
     return jsonBuilder;
   }
 
-  public static JsonObject createGuestTokenJson(Authenticator authenticator, String clientId, String issuer, long expirationSecs)
+  /**
+   * Streams the claims of a new guest token into a pooled ClaimsWriter, which
+   * the caller must close once the claims are signed.
+   */
+  public static ClaimsWriter createGuestTokenClaims(Authenticator authenticator, String clientId, String issuer, TokenTimestamps tokenTimestamps)
       throws OAuthProblemException {
 
     if (!authenticator.supportsGuests()) {
       throw OAuthProblemException.error("This token service does not support guest tokens.");
     }
 
-    // establish creation and expiration timestamps
-    TokenTimestamps tokenTimestamps = new TokenTimestamps(expirationSecs);
-
     // get IDs for the guest (tuple of [user_id, token_id], and user object
     GuestIds guestIds = authenticator.getNextGuestIds(tokenTimestamps);
     UserAccountInfo guestUser = authenticator.getGuestProfileInfo(guestIds.getUserId()).orElseThrow(); // just inserted on the last line
 
-    // build and return token JSON
-    JsonObjectBuilder json = getBaseJson(guestUser);
-    appendOidcFields(json, new IdTokenParams(clientId, null), issuer, guestIds.getTokenId(), tokenTimestamps);
-    return json.build();
+    // write and return token claims
+    ClaimsWriter claims = ClaimsWriter.acquire();
+    JsonGenerator json = claims.start();
+    writeBaseClaims(json, guestUser);
+    writeOidcClaims(json, new IdTokenParams(clientId, null), issuer, guestIds.getTokenId(), tokenTimestamps);
+    claims.end(json);
+    return claims;
   }
 
   private static UserAccountInfo getUserInfoForToken(Authenticator authenticator, String userId, DataScope scope) throws OAuthSystemException {
@@ -0,0 +1,88 @@
+package org.gusdb.oauth2.service.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fixed-width 128-bit key for an auth code or access token value.  Values
+ * produced by Oltu's MD5Generator are 32 hex characters and are parsed
+ * directly into two longs; any other value is reduced to its MD5 digest.
+ * Since distinct values may (rarely) share a key, callers must compare the
+ * stored value against the requested one after a lookup.
+ */
+final class TokenKey {
+
+  private static final int HEX_KEY_LENGTH = 32;
+
+  final long hi;
+  final long lo;
+
+  private TokenKey(long hi, long lo) {
+    this.hi = hi;
+    this.lo = lo;
+  }
+
+  static TokenKey of(String value) {
+    if (value.length() == HEX_KEY_LENGTH && isHex(value)) {
+      return new TokenKey(
+          Long.parseUnsignedLong(value, 0, 16, 16),
+          Long.parseUnsignedLong(value, 16, 32, 16));
+    }
+    byte[] digest = md5(value.getBytes(StandardCharsets.UTF_8));
+    return new TokenKey(toLong(digest, 0), toLong(digest, 8));
+  }
+
+  /**
+   * @return true if the passed value is 32 lowercase hex characters, in which
+   * case its key maps back to exactly that value (see toHex), so no copy of
+   * the value itself need be kept
+   */
+  static boolean isExact(String value) {
+    if (value.length() != HEX_KEY_LENGTH) return false;
+    for (int i = 0; i < HEX_KEY_LENGTH; i++) {
+      char c = value.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the 32 lowercase hex characters the passed key was parsed from
+   */
+  static String toHex(long hi, long lo) {
+    char[] chars = new char[HEX_KEY_LENGTH];
+    for (int i = 15; i >= 0; i--) {
+      chars[i] = Character.forDigit((int)(hi & 0xf), 16);
+      chars[i + 16] = Character.forDigit((int)(lo & 0xf), 16);
+      hi >>>= 4;
+      lo >>>= 4;
+    }
+    return new String(chars);
+  }
+
+  private static boolean isHex(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (Character.digit(value.charAt(i), 16) < 0) return false;
+    }
+    return true;
+  }
+
+  private static byte[] md5(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(bytes);
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every JRE is required to provide MD5
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+}
@@ -1,25 +1,20 @@
 package org.gusdb.oauth2.service.token;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import javax.json.JsonObject;
+
+import org.gusdb.oauth2.InitializationException;
 
 /**
  * Manages state on the OAuth server.  This includes OAuth server sessions,
- * their owners, and associated authentication codes and tokens
+ * their owners, and associated authentication codes and tokens.  The
+ * implementation used is chosen by the tokenStoreClass property of the OAuth
+ * config file; InMemoryTokenStore is the default.
  * 
  * @author ryan
  */
-public class TokenStore {
-
-  private static final Logger LOG = LogManager.getLogger(TokenStore.class);
+public interface TokenStore extends AutoCloseable {
 
   /*
    * HttpSession contains the username (string used in username field of
@@ -41,9 +36,13 @@ public class TokenStore {
     protected final long _creationTime;
 
     public IdTokenParams(String clientId, String nonce) {
+      this(clientId, nonce, new Date().getTime() / 1000);
+    }
+
+    public IdTokenParams(String clientId, String nonce, long creationTime) {
       _clientId = clientId;
       _nonce = nonce;
-      _creationTime = new Date().getTime() / 1000;
+      _creationTime = creationTime;
     }
 
     public String getClientId() {
@@ -70,6 +69,13 @@ public class TokenStore {
       _userId = userId;
     }
 
+    // used to restore persisted codes
+    public AuthCodeData(String authCode, String clientId, String userId, String nonce, long creationTime) {
+      super(clientId, nonce, creationTime);
+      _authCode = authCode;
+      _userId = userId;
+    }
+
     @Override
     public String toString() {
       return new StringBuilder()
@@ -100,16 +106,33 @@ public class TokenStore {
     }
   }
 
+  /**
+   * Data behind an access token.  Holds copies of the values it needs from the
+   * auth code it was issued against rather than the code itself, so a stored
+   * token does not keep its code reachable once the code expires.
+   */
   public static class AccessTokenData {
 
     public final String tokenValue;
-    public final AuthCodeData authCodeData;
+    public final String userId;
+    public final IdTokenParams idTokenParams;
     public final long creationTime;
 
     public AccessTokenData(String tokenValue, AuthCodeData authCodeData) {
+      this(tokenValue, authCodeData, new Date().getTime() / 1000);
+    }
+
+    // used to restore persisted tokens
+    public AccessTokenData(String tokenValue, AuthCodeData authCodeData, long creationTime) {
+      this(tokenValue, authCodeData.getUserId(), new IdTokenParams(authCodeData.getClientId(),
+          authCodeData.getNonce(), authCodeData.getCreationTime()), creationTime);
+    }
+
+    public AccessTokenData(String tokenValue, String userId, IdTokenParams idTokenParams, long creationTime) {
       this.tokenValue = tokenValue;
-      this.authCodeData = authCodeData;
-      this.creationTime = new Date().getTime() / 1000;
+      this.userId = userId;
+      this.idTokenParams = idTokenParams;
+      this.creationTime = creationTime;
     }
 
     @Override
@@ -124,111 +147,60 @@ public class TokenStore {
     }
   }
 
-  // maps to provide data lookup from code or token value
-  private static final Map<String /* key = auth_code */, AuthCodeData> AUTH_CODE_MAP = new HashMap<>();
-  private static final Map<String /* key = token     */, AccessTokenData> ACCESS_TOKEN_MAP = new HashMap<>();
-  private static final Map<String /* key = user_id   */, List<AuthCodeData>> USER_AUTH_CODE_MAP = new HashMap<>();
-  private static final Map<String /* key = user_id   */, List<AccessTokenData>> USER_ACCESS_TOKEN_MAP = new HashMap<>();
-
-  public static synchronized void addAuthCode(AuthCodeData authCodeData) {
-    AUTH_CODE_MAP.put(authCodeData.getAuthCode(), authCodeData);
-    LOG.debug("Added auth code with data:" + authCodeData);
-    List<AuthCodeData> list = USER_AUTH_CODE_MAP.get(authCodeData.getUserId());
-    if (list == null) {
-      list = new ArrayList<>();
-      USER_AUTH_CODE_MAP.put(authCodeData.getUserId(), list);
-    }
-    list.add(authCodeData);
-  }
-
-  public static synchronized AccessTokenData addAccessToken(String accessToken, String authCode) {
-    LOG.debug("Adding access token '" + accessToken + "' to user behind auth code '" + authCode + "'.");
-    AuthCodeData authCodeData = AUTH_CODE_MAP.get(authCode);
-    AccessTokenData accessTokenData = new AccessTokenData(accessToken, authCodeData);
-    ACCESS_TOKEN_MAP.put(accessTokenData.tokenValue, accessTokenData);
-    List<AccessTokenData> list = USER_ACCESS_TOKEN_MAP.get(accessTokenData.authCodeData.getUserId());
-    if (list == null) {
-      list = new ArrayList<>();
-      USER_ACCESS_TOKEN_MAP.put(accessTokenData.authCodeData.getUserId(), list);
-    }
-    list.add(accessTokenData);
-    return accessTokenData;
-  }
+  /**
+   * Initializes this token store using configuration set in the OAuth config
+   * file (tokenStoreConfig property).  An empty object is passed if no
+   * configuration was provided.
+   *
+   * @param configJson configuration for this token store
+   * @throws InitializationException if passed JSON is malformed or incomplete,
+   * or if an error occurs during initialization
+   */
+  public void initialize(JsonObject configJson) throws InitializationException;
 
-  public static synchronized boolean isValidAuthCode(String authCode, String clientId) {
-    if (LOG.isDebugEnabled()) LOG.debug(dumpAuthCodeMap());
-    return AUTH_CODE_MAP.containsKey(authCode) && AUTH_CODE_MAP.get(authCode).getClientId().equals(clientId);
-  }
+  /**
+   * Adds an auth code.
+   *
+   * @throws TokenStoreFullException if the store is too full to accept it
+   */
+  public void addAuthCode(AuthCodeData authCodeData);
+
+  /**
+   * Adds an access token for the user behind the passed auth code.  Returns
+   * null if the code is no longer stored, e.g. because the user logged out
+   * after the code was validated.
+   *
+   * @throws TokenStoreFullException if the store is too full to accept it
+   */
+  public AccessTokenData addAccessToken(String accessToken, String authCode);
 
-  private static String dumpAuthCodeMap() {
-    String NL = System.lineSeparator();
-    StringBuilder str = new StringBuilder("AUTH_CODE_MAP:").append(NL);
-    for (Entry<String, AuthCodeData> entry : AUTH_CODE_MAP.entrySet()) {
-      str.append(entry.getKey()).append(": ").append(entry.getValue().toString());
-    }
-    return str.toString();
-  }
+  public boolean isValidAuthCode(String authCode, String clientId);
 
+  public AccessTokenData getTokenData(String accessToken);
 
-  public static AccessTokenData getTokenData(String accessToken) {
-    return ACCESS_TOKEN_MAP.get(accessToken);
+  public default String getUserIdForToken(String accessToken) {
+    AccessTokenData data = getTokenData(accessToken);
+    return data == null ? null : data.userId;
   }
 
-  public static String getUserIdForToken(String accessToken) {
-    AccessTokenData data = ACCESS_TOKEN_MAP.get(accessToken);
-    if (data != null) {
-      return data.authCodeData.getUserId();
-    }
-    return null;
-  }
-
-  public static synchronized void clearObjectsForUser(String userId) {
-    List<AuthCodeData> codeList = USER_AUTH_CODE_MAP.remove(userId);
-    if (codeList != null)
-      for (AuthCodeData data : codeList)
-        AUTH_CODE_MAP.remove(data.getAuthCode());
-    List<AccessTokenData> tokenList = USER_ACCESS_TOKEN_MAP.remove(userId);
-    if (tokenList != null)
-      for (AccessTokenData data : tokenList)
-        ACCESS_TOKEN_MAP.remove(data.tokenValue);
-  }
+  public void clearObjectsForUser(String userId);
 
-  public static synchronized void removeExpiredTokens(long expirationSeconds) {
-    long currentDateSecs = new Date().getTime() / 1000;
-    List<String> expiredCodes = new ArrayList<>();
-    for (Entry<String, AuthCodeData> entry : AUTH_CODE_MAP.entrySet()) {
-      if (isExpired(entry.getValue().getCreationTime(), currentDateSecs, expirationSeconds)) {
-        expiredCodes.add(entry.getKey());
-      }
-    }
-    LOG.debug("Expiring the following auth codes: " + Arrays.toString(expiredCodes.toArray()));
-    for (String authCode : expiredCodes) {
-      AuthCodeData removedCode = AUTH_CODE_MAP.remove(authCode);
-      String userId = removedCode.getUserId();
-      USER_AUTH_CODE_MAP.get(userId).remove(removedCode);
-      if (USER_AUTH_CODE_MAP.get(userId).isEmpty()) {
-        USER_AUTH_CODE_MAP.remove(userId);
-      }
-    }
-    List<String> expiredTokens = new ArrayList<>();
-    for (Entry<String, AccessTokenData> entry : ACCESS_TOKEN_MAP.entrySet()) {
-      if (isExpired(entry.getValue().creationTime, currentDateSecs, expirationSeconds)) {
-        expiredTokens.add(entry.getKey());
-      }
-    }
-    LOG.debug("Expiring the following access tokens: " + Arrays.toString(expiredTokens.toArray()));
-    for (String accessToken : expiredTokens) {
-      AccessTokenData removedToken = ACCESS_TOKEN_MAP.remove(accessToken);
-      String userId = removedToken.authCodeData.getUserId();
-      USER_ACCESS_TOKEN_MAP.get(userId).remove(removedToken);
-      if (USER_ACCESS_TOKEN_MAP.get(userId).isEmpty()) {
-        USER_ACCESS_TOKEN_MAP.remove(userId);
-      }
-    }
-  }
+  /**
+   * Removes auth codes and access tokens older than their respective
+   * expiration periods.  Called periodically by a single expirer thread.
+   *
+   * @param authCodeExpirationSecs lifetime of an auth code
+   * @param accessTokenExpirationSecs lifetime of an access token
+   */
+  public void removeExpiredTokens(long authCodeExpirationSecs, long accessTokenExpirationSecs);
 
-  private static boolean isExpired(long creationTimeSecs, long currentDateSecs, long expirationSeconds) {
-    long ageMillis = currentDateSecs - creationTimeSecs;
-    return (ageMillis > expirationSeconds);
+  /**
+   * Closes resources opened during initialization.  This method will be called
+   * on webapp unloading if the org.gusdb.oauth2.server.ApplicationListener is
+   * added as a listener in web.xml.
+   */
+  @Override
+  public default void close() {
+    // nothing to do by default
   }
 }
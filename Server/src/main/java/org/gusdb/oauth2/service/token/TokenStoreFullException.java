@@ -0,0 +1,15 @@
+package org.gusdb.oauth2.service.token;
+
+/**
+ * Thrown when a token store refuses a new auth code or access token because
+ * it is at or near capacity.  Callers should tell the client to try again
+ * later rather than treating this as a server error.
+ */
+public class TokenStoreFullException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public TokenStoreFullException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,190 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Maps auth code and access token values to the number of the store stripe
+ * holding them, so that a lookup by value can go straight to the one stripe
+ * (and lock) that owns it.  Each entry is a 128-bit TokenKey and a one-byte
+ * stripe number, held in open-addressing (linear probing) tables with no
+ * per-entry objects.
+ *
+ * Only keys are stored, so the index is a router rather than a set: a value
+ * merely sharing a stored value's key (possible only for values that are not
+ * exact; see TokenKey.isExact) is routed to that value's stripe, where the
+ * stripe's own table, which compares values exactly, finds nothing.
+ *
+ * The index is split into segments by key, each with its own lock, so it
+ * never becomes the single point of contention the stripes exist to avoid.
+ * Lookups read optimistically and only take a segment's read lock if a
+ * write to that segment overlapped them.  Thread-safe.
+ */
+final class TokenStripeIndex {
+
+  private static final int SEGMENT_BITS = 6;
+  private static final int INITIAL_SLOTS = 128;
+
+  // slot columns, replaced as a whole on rehash so readers see matching
+  //   lengths; stripe numbers are stored as (stripe + 1), so 0 marks an empty
+  //   slot and at most 127 stripes are supported
+  private static final class Slots {
+
+    final long[] keyHi;
+    final long[] keyLo;
+    final byte[] stripe;
+
+    Slots(int numSlots) {
+      keyHi = new long[numSlots];
+      keyLo = new long[numSlots];
+      stripe = new byte[numSlots];
+    }
+  }
+
+  private static final class Segment {
+
+    final StampedLock lock = new StampedLock();
+    Slots slots = new Slots(INITIAL_SLOTS); // kept at most 3/4 full
+    int size = 0;
+  }
+
+  private final Segment[] _segments = new Segment[1 << SEGMENT_BITS];
+
+  TokenStripeIndex() {
+    for (int i = 0; i < _segments.length; i++) {
+      _segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * @return stripe holding the value with the passed key, or -1 if not present
+   */
+  int get(TokenKey key) {
+    long hash = hash(key.hi, key.lo);
+    Segment segment = segment(hash);
+    long stamp = segment.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      Slots slots = segment.slots;
+      int slot = find(slots, hash, key.hi, key.lo);
+      int stripe = slot < 0 ? -1 : slots.stripe[slot] - 1;
+      if (segment.lock.validate(stamp)) {
+        return stripe;
+      }
+    }
+    stamp = segment.lock.readLock();
+    try {
+      Slots slots = segment.slots;
+      int slot = find(slots, hash, key.hi, key.lo);
+      return slot < 0 ? -1 : slots.stripe[slot] - 1;
+    }
+    finally {
+      segment.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Maps the passed key to the passed stripe, replacing any existing mapping
+   *
+   * @return stripe the key was previously mapped to, or -1 if it was not present
+   */
+  int put(TokenKey key, int stripe) {
+    long keyHi = key.hi, keyLo = key.lo;
+    long hash = hash(keyHi, keyLo);
+    Segment segment = segment(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int slot = find(segment.slots, hash, keyHi, keyLo);
+      if (slot >= 0) {
+        int previous = segment.slots.stripe[slot] - 1;
+        segment.slots.stripe[slot] = (byte)(stripe + 1);
+        return previous;
+      }
+      if (++segment.size > segment.slots.stripe.length / 4 * 3) {
+        rehash(segment, segment.slots.stripe.length * 2);
+      }
+      Slots slots = segment.slots;
+      int mask = slots.stripe.length - 1;
+      for (slot = (int)hash & mask; slots.stripe[slot] != 0; slot = (slot + 1) & mask);
+      slots.keyHi[slot] = keyHi;
+      slots.keyLo[slot] = keyLo;
+      slots.stripe[slot] = (byte)(stripe + 1);
+      return -1;
+    }
+    finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the mapping of the passed key if it maps to the passed stripe;
+   * a mapping since replaced by one to another stripe is left alone.
+   */
+  void remove(long keyHi, long keyLo, int stripe) {
+    long hash = hash(keyHi, keyLo);
+    Segment segment = segment(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      Slots slots = segment.slots;
+      int hole = find(slots, hash, keyHi, keyLo);
+      if (hole < 0 || slots.stripe[hole] != stripe + 1) {
+        return;
+      }
+      // shift later entries in the probe run back so no deleted markers are needed
+      int mask = slots.stripe.length - 1;
+      for (int slot = (hole + 1) & mask; slots.stripe[slot] != 0; slot = (slot + 1) & mask) {
+        int ideal = (int)hash(slots.keyHi[slot], slots.keyLo[slot]) & mask;
+        if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+          slots.keyHi[hole] = slots.keyHi[slot];
+          slots.keyLo[hole] = slots.keyLo[slot];
+          slots.stripe[hole] = slots.stripe[slot];
+          hole = slot;
+        }
+      }
+      slots.stripe[hole] = 0;
+      segment.size--;
+    }
+    finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Probes at most one full pass of the table, so an optimistic reader racing
+   * a writer always terminates (its result is then discarded).
+   */
+  private static int find(Slots slots, long hash, long keyHi, long keyLo) {
+    int mask = slots.stripe.length - 1;
+    int slot = (int)hash & mask;
+    for (int probes = 0; probes <= mask && slots.stripe[slot] != 0; probes++, slot = (slot + 1) & mask) {
+      if (slots.keyHi[slot] == keyHi && slots.keyLo[slot] == keyLo) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  // caller must hold the segment's write lock
+  private static void rehash(Segment segment, int numSlots) {
+    Slots old = segment.slots;
+    Slots slots = new Slots(numSlots);
+    int mask = numSlots - 1;
+    for (int i = 0; i < old.stripe.length; i++) {
+      if (old.stripe[i] == 0) continue;
+      int slot = (int)hash(old.keyHi[i], old.keyLo[i]) & mask;
+      while (slots.stripe[slot] != 0) slot = (slot + 1) & mask;
+      slots.keyHi[slot] = old.keyHi[i];
+      slots.keyLo[slot] = old.keyLo[i];
+      slots.stripe[slot] = old.stripe[i];
+    }
+    segment.slots = slots;
+  }
+
+  // top bits pick the segment; low bits pick the slot within it
+  private Segment segment(long hash) {
+    return _segments[(int)(hash >>> (Long.SIZE - SEGMENT_BITS))];
+  }
+
+  private static long hash(long hi, long lo) {
+    long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 29);
+  }
+}
@@ -0,0 +1,144 @@
+package org.gusdb.oauth2.service.token;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gusdb.oauth2.Authenticator.RequestingUser;
+import org.gusdb.oauth2.shared.AsyncSigningKey;
+import org.gusdb.oauth2.shared.IdTokenFields;
+import org.gusdb.oauth2.shared.SigningKeyStore;
+import org.gusdb.oauth2.shared.TokenDigestCache;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.security.SignatureException;
+
+/**
+ * Verifies bearer and guest tokens signed by this server and remembers the
+ * ones that passed, so a token presented again is answered without another
+ * ECDSA verification.  Entries are keyed by the SHA-256 digest of the token
+ * (the token itself is never stored) and each is dropped once the token's
+ * exp passes, after which the token is verified (and rejected) as usual.
+ *
+ * Tokens are verified against the key named by their kid header, so tokens
+ * signed by any published key verify after a rotation; tokens without a kid
+ * predate rotation and are verified against the original key.  The verifying
+ * parser is built once.
+ *
+ * At most maxSize tokens are remembered; see TokenDigestCache for how a full
+ * cache behaves.  A size of zero disables caching but keeps the shared parser.
+ *
+ * Thread-safe.
+ */
+public class VerifiedTokenCache {
+
+  private static final Logger LOG = LogManager.getLogger(VerifiedTokenCache.class);
+
+  private static class VerifiedToken implements RequestingUser {
+
+    private final String _userId;
+    private final boolean _isGuest;
+    private final long _expirationTime;
+
+    VerifiedToken(String userId, boolean isGuest, long expirationTime) {
+      _userId = userId;
+      _isGuest = isGuest;
+      _expirationTime = expirationTime;
+    }
+
+    @Override public String getUserId() { return _userId; }
+    @Override public boolean isGuest() { return _isGuest; }
+  }
+
+  private final JwtParser _parser;
+  private final TokenDigestCache<VerifiedToken> _tokens;
+
+  /**
+   * @param keyStore key store holding the keys tokens may be signed with
+   * @param maxSize max number of verified tokens remembered
+   */
+  public VerifiedTokenCache(SigningKeyStore keyStore, int maxSize) {
+    _tokens = new TokenDigestCache<>(maxSize, "Verified token cache", LOG);
+    Map<String, Key> verificationKeys = new HashMap<>();
+    for (AsyncSigningKey key : keyStore.getAsyncSigningKeys()) {
+      verificationKeys.put(key.getKeyId(), key.getKeyPair().getPublic());
+    }
+    _parser = Jwts.parserBuilder()
+        .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+          @Override
+          @SuppressWarnings("rawtypes")
+          public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            String keyId = header.getKeyId() == null ? SigningKeyStore.DEFAULT_ASYNC_KEY_ID : header.getKeyId();
+            Key key = verificationKeys.get(keyId);
+            if (key == null) {
+              throw new SignatureException("Token signed with unknown key ID '" + keyId + "'");
+            }
+            return key;
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Returns the user a token was issued to if the token was signed by this
+   * server and has not expired.
+   *
+   * @param bearerToken signed token (JWS)
+   * @return user identified by the token's claims
+   * @throws IllegalArgumentException if the token is invalid or expired
+   */
+  public RequestingUser verify(String bearerToken) {
+    ByteBuffer digest = TokenDigestCache.digest(bearerToken);
+    VerifiedToken token = _tokens.get(digest);
+    if (token == null) {
+      token = parse(bearerToken);
+      _tokens.put(digest, token, token._expirationTime);
+    }
+    return token;
+  }
+
+  private VerifiedToken parse(String bearerToken) {
+    try {
+      // verify signature and create claims object
+      Claims claims = _parser.parseClaimsJws(bearerToken).getBody();
+      String userId = claims.getSubject();
+      boolean isGuest = claims.get(IdTokenFields.is_guest.name(), Boolean.class);
+      Date expiration = claims.getExpiration();
+      // the parser accepts tokens without exp, so the cache keeps them until evicted
+      return new VerifiedToken(userId, isGuest, expiration == null ? Long.MAX_VALUE : expiration.getTime());
+    }
+    catch (ExpiredJwtException | UnsupportedJwtException | MalformedJwtException | SignatureException e) {
+      throw new IllegalArgumentException(e.getClass().getSimpleName() + ", Could not parse JWT; " + e.getMessage());
+    }
+  }
+
+  public long getHitCount() {
+    return _tokens.getHitCount();
+  }
+
+  public long getMissCount() {
+    return _tokens.getMissCount();
+  }
+
+  public int getSize() {
+    return _tokens.getSize();
+  }
+
+  /**
+   * @return summary of cache size and hit/miss counts since startup
+   */
+  public String getStatistics() {
+    return _tokens.getStatistics();
+  }
+}
@@ -12,11 +12,18 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import org.gusdb.oauth2.exception.CryptoException;
+import org.gusdb.oauth2.shared.AsyncSigningKey;
 import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
+import org.gusdb.oauth2.shared.SigningKeyStore;
 
 public class KeyPairReader {
 
@@ -28,9 +35,11 @@ public class KeyPairReader {
       }
       Path inputFile = Paths.get(args[0]);
       String passPhrase = args[1];
-      KeyPair keyPair = new KeyPairReader().readKeyPair(inputFile, passPhrase);
-      ECPublicKeyRepresentation keyRep = new ECPublicKeyRepresentation((ECPublicKey)keyPair.getPublic());
-      System.out.println("Stored public key:\n" + keyRep.getBase64String());
+      for (AsyncSigningKey key : new KeyPairReader().readSigningKeys(inputFile, passPhrase)) {
+        ECPublicKeyRepresentation keyRep = new ECPublicKeyRepresentation((ECPublicKey)key.getKeyPair().getPublic());
+        System.out.println("Stored public key '" + key.getKeyId() + "' (" + key.getAlgorithm().getValue() +
+            ", active from " + new Date(key.getActivationTime()) + "):\n" + keyRep.getBase64String());
+      }
     }
     catch (IOException | CryptoException  e) {
       
@@ -38,29 +47,70 @@ public class KeyPairReader {
   }
 
   public KeyPair readKeyPair(Path inputFile, String passPhrase) throws IOException, CryptoException {
+    KeyStore pkcs12KeyStore = loadKeyStore(inputFile, passPhrase);
+    try {
+      return toKeyPair(readEntry(pkcs12KeyStore, KeyPairWriter.SELF_SIGN_CERT_ENTRY_NAME, passPhrase));
+    }
+    catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableEntryException | ClassCastException e) {
+      throw new CryptoException("Unable to produce or verify EC keys from key store file", e);
+    }
+  }
+
+  /**
+   * Reads every key pair in the passed key store file as an async signing
+   * key.  Each key's ID is its entry alias (the original single-key entry is
+   * published as key "1", as it was before key rotation was supported), and
+   * its activation time is the start of its certificate's validity period.
+   */
+  public List<AsyncSigningKey> readSigningKeys(Path inputFile, String passPhrase) throws IOException, CryptoException {
+    KeyStore pkcs12KeyStore = loadKeyStore(inputFile, passPhrase);
+    try {
+      List<AsyncSigningKey> keys = new ArrayList<>();
+      for (String alias : Collections.list(pkcs12KeyStore.aliases())) {
+        PrivateKeyEntry entry = readEntry(pkcs12KeyStore, alias, passPhrase);
+        String keyId = alias.equalsIgnoreCase(KeyPairWriter.SELF_SIGN_CERT_ENTRY_NAME) ?
+            SigningKeyStore.DEFAULT_ASYNC_KEY_ID : alias;
+        long activationTime = ((X509Certificate)entry.getCertificate()).getNotBefore().getTime();
+        keys.add(new AsyncSigningKey(keyId, toKeyPair(entry), activationTime));
+      }
+      if (keys.isEmpty()) {
+        throw new KeyStoreException("Key store contains no key pairs");
+      }
+      return keys;
+    }
+    catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableEntryException | ClassCastException | IllegalArgumentException e) {
+      throw new CryptoException("Unable to produce or verify EC keys from key store file", e);
+    }
+  }
 
+  private static KeyStore loadKeyStore(Path inputFile, String passPhrase) throws IOException, CryptoException {
     try {
       KeyStore pkcs12KeyStore = KeyStore.getInstance("PKCS12");
-  
       try (FileInputStream fis = new FileInputStream(inputFile.toFile());) {
         pkcs12KeyStore.load(fis, passPhrase.toCharArray());
       }
-    
-      KeyStore.ProtectionParameter param = new KeyStore.PasswordProtection(passPhrase.toCharArray());
-      Entry entry = pkcs12KeyStore.getEntry(KeyPairWriter.SELF_SIGN_CERT_ENTRY_NAME, param);
-      if (!(entry instanceof PrivateKeyEntry)) {
-        throw new KeyStoreException("That's not a private key!");
-      }
-      PrivateKeyEntry privKeyEntry = (PrivateKeyEntry) entry;
+      return pkcs12KeyStore;
+    }
+    catch (CertificateException | KeyStoreException | NoSuchAlgorithmException e) {
+      throw new CryptoException("Unable to load key store file", e);
+    }
+  }
 
-      // cast just to prove we can; want to generate ClassCastException here if not
-      ECPublicKey publicKey = (ECPublicKey)privKeyEntry.getCertificate().getPublicKey();
-      ECPrivateKey privateKey = (ECPrivateKey)privKeyEntry.getPrivateKey();
+  private static PrivateKeyEntry readEntry(KeyStore pkcs12KeyStore, String alias, String passPhrase)
+      throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableEntryException {
 
-      return new KeyPair(publicKey, privateKey);
-    }
-    catch (CertificateException | KeyStoreException | NoSuchAlgorithmException | UnrecoverableEntryException | ClassCastException e) {
-      throw new CryptoException("Unable to produce or verify EC keys from key store file", e);
+    KeyStore.ProtectionParameter param = new KeyStore.PasswordProtection(passPhrase.toCharArray());
+    Entry entry = pkcs12KeyStore.getEntry(alias, param);
+    if (!(entry instanceof PrivateKeyEntry)) {
+      throw new KeyStoreException("That's not a private key!");
     }
+    return (PrivateKeyEntry) entry;
+  }
+
+  private static KeyPair toKeyPair(PrivateKeyEntry privKeyEntry) {
+    // cast just to prove we can; want to generate ClassCastException here if not
+    ECPublicKey publicKey = (ECPublicKey)privKeyEntry.getCertificate().getPublicKey();
+    ECPrivateKey privateKey = (ECPrivateKey)privKeyEntry.getPrivateKey();
+    return new KeyPair(publicKey, privateKey);
   }
 }
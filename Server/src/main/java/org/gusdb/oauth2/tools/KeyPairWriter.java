@@ -1,8 +1,10 @@
 package org.gusdb.oauth2.tools;
 
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.InvalidKeyException;
@@ -16,6 +18,9 @@ import java.security.Security;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.interfaces.ECPublicKey;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -33,7 +38,9 @@ import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.bc.BcECContentSignerBuilder;
 import org.gusdb.oauth2.exception.CryptoException;
 import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
-import org.gusdb.oauth2.shared.SigningKeyStore;
+import org.gusdb.oauth2.shared.Signatures;
+
+import io.jsonwebtoken.SignatureAlgorithm;
 
 /**
  * This program generates a keystore file at the passed location containing a pair
@@ -42,6 +49,13 @@ import org.gusdb.oauth2.shared.SigningKeyStore;
  *
  * Note: seed value does NOT generate the same keys i.e. key generation is not
  * deterministic given the same passed arguments.
+ *
+ * To rotate keys, pass an algorithm (ES256, ES384 or ES512), a key ID and the
+ * date (yyyy-MM-dd, UTC) from which the new key should sign tokens.  The new
+ * key is added to the key store file if it exists.  Once the server is
+ * restarted with the updated file, it publishes the new key in its JWKS and
+ * switches to signing with it on its activation date; older keys stay
+ * published until removed from the file.
  */
 public class KeyPairWriter {
 
@@ -57,8 +71,9 @@ public class KeyPairWriter {
 
   public static void main(String[] args) {
     try {
-      if (args.length != 3) {
-        System.err.println("\nUSAGE: java " + KeyPairWriter.class.getName() + " <outputFile> <passPhrase> <seed>\n");
+      if (args.length != 3 && args.length != 6) {
+        System.err.println("\nUSAGE: java " + KeyPairWriter.class.getName() +
+            " <outputFile> <passPhrase> <seed> [<algorithm> <keyId> <activationDate>]\n");
         System.exit(1);
       }
       Path outputFile = Paths.get(args[0]);
@@ -67,32 +82,51 @@ public class KeyPairWriter {
       }
       String passPhrase = args[1];
       String seed = args[2];
-      new KeyPairWriter().writeKeyPair(outputFile, passPhrase, seed);
+      if (args.length == 3) {
+        new KeyPairWriter().writeKeyPair(outputFile, passPhrase, seed, Signatures.ASYMMETRIC_KEY_ALGORITHM,
+            SELF_SIGN_CERT_ENTRY_NAME, new Date());
+      }
+      else {
+        SignatureAlgorithm algorithm = SignatureAlgorithm.forName(args[3]);
+        Date activationDate = Date.from(LocalDate.parse(args[5]).atStartOfDay(ZoneOffset.UTC).toInstant());
+        new KeyPairWriter().writeKeyPair(outputFile, passPhrase, seed, algorithm, args[4], activationDate);
+      }
     }
-    catch (CryptoException | IOException e) {
+    catch (CryptoException | IOException | IllegalArgumentException | DateTimeParseException e) {
       System.err.println("Unable to generate or write keys");
       e.printStackTrace(System.err);
       System.exit(2);
     }
   }
 
-  private void writeKeyPair(Path outputFile, String passPhrase, String seed)
-      throws CryptoException, IOException {
+  private void writeKeyPair(Path outputFile, String passPhrase, String seed, SignatureAlgorithm algorithm,
+      String alias, Date activationDate) throws CryptoException, IOException {
 
-    KeyPair keyPair = new SigningKeyStore(seed).getAsyncKeys();
+    KeyPair keyPair = Signatures.getKeyPair(seed, algorithm);
     try {
       ECPublicKeyRepresentation keyRep = new ECPublicKeyRepresentation((ECPublicKey)keyPair.getPublic());
       System.out.println("Stored public key:\n" + keyRep.getBase64String());
   
-      Certificate selfSignedCertificate = getSelfSignedCert(keyPair, SELF_SIGN_CERT_DN);
+      Certificate selfSignedCertificate = getSelfSignedCert(keyPair, SELF_SIGN_CERT_DN, activationDate);
   
+      // add to existing key store if present
       KeyStore pkcs12KeyStore = KeyStore.getInstance("PKCS12");
-      pkcs12KeyStore.load(null, null);
+      if (Files.exists(outputFile)) {
+        try (FileInputStream fis = new FileInputStream(outputFile.toFile())) {
+          pkcs12KeyStore.load(fis, passPhrase.toCharArray());
+        }
+        if (pkcs12KeyStore.containsAlias(alias)) {
+          throw new IllegalArgumentException("Key store file already contains key '" + alias + "'");
+        }
+      }
+      else {
+        pkcs12KeyStore.load(null, null);
+      }
   
       KeyStore.Entry entry = new PrivateKeyEntry(keyPair.getPrivate(), new Certificate[] { selfSignedCertificate });
       KeyStore.ProtectionParameter param = new KeyStore.PasswordProtection(passPhrase.toCharArray());
   
-      pkcs12KeyStore.setEntry(SELF_SIGN_CERT_ENTRY_NAME, entry, param);
+      pkcs12KeyStore.setEntry(alias, entry, param);
   
       try (FileOutputStream fos = new FileOutputStream(outputFile.toFile())) {
         pkcs12KeyStore.store(fos, passPhrase.toCharArray());
@@ -105,11 +139,16 @@ public class KeyPairWriter {
 
   public Certificate getSelfSignedCert(KeyPair keyPair, String subjectDN)
       throws OperatorCreationException, CertificateException, InvalidKeyException {
+    return getSelfSignedCert(keyPair, subjectDN, new Date());
+  }
+
+  public Certificate getSelfSignedCert(KeyPair keyPair, String subjectDN, Date validFrom)
+      throws OperatorCreationException, CertificateException, InvalidKeyException {
 
     Provider bcProvider = new BouncyCastleProvider();
     Security.addProvider(bcProvider);
 
-    Date[] validTimeWindow = getValidTimeWindow();
+    Date[] validTimeWindow = getValidTimeWindow(validFrom);
 
     X500Name dnName = new X500Name(SELF_SIGN_CERT_DN);
 
@@ -133,8 +172,7 @@ public class KeyPairWriter {
     return selfSignedCert;
   }
 
-  private Date[] getValidTimeWindow() {
-    Date startDate = new Date();
+  private Date[] getValidTimeWindow(Date startDate) {
     Calendar calendar = Calendar.getInstance();
     calendar.setTime(startDate);
     calendar.add(SELF_SIGN_CERT_EXP_UNITS, SELF_SIGN_CERT_EXP_LENGTH);
@@ -0,0 +1,42 @@
+-- Tables used by org.gusdb.oauth2.service.token.JdbcTokenStore
+--
+-- Prefix table names with a schema (and set the tokenStoreConfig "schema"
+-- property to match) if the tables do not live in the login's default schema.
+-- The SQL below is portable across Oracle, PostgreSQL and H2.
+
+CREATE TABLE OAUTH_AUTH_CODES (
+  AUTH_CODE     VARCHAR(100) NOT NULL,
+  CLIENT_ID     VARCHAR(255) NOT NULL,
+  USER_ID       VARCHAR(255) NOT NULL,
+  NONCE         VARCHAR(1000),
+  CREATION_TIME NUMERIC(19) NOT NULL,
+  CONSTRAINT OAUTH_AUTH_CODES_PK PRIMARY KEY (AUTH_CODE)
+);
+
+CREATE INDEX OAUTH_AUTH_CODES_USER_IX ON OAUTH_AUTH_CODES (USER_ID);
+CREATE INDEX OAUTH_AUTH_CODES_TIME_IX ON OAUTH_AUTH_CODES (CREATION_TIME);
+
+-- code data is copied into each token row so tokens outlive their codes
+CREATE TABLE OAUTH_ACCESS_TOKENS (
+  TOKEN         VARCHAR(100) NOT NULL,
+  AUTH_CODE     VARCHAR(100) NOT NULL,
+  CLIENT_ID     VARCHAR(255) NOT NULL,
+  USER_ID       VARCHAR(255) NOT NULL,
+  NONCE         VARCHAR(1000),
+  AUTH_TIME     NUMERIC(19) NOT NULL,
+  CREATION_TIME NUMERIC(19) NOT NULL,
+  CONSTRAINT OAUTH_ACCESS_TOKENS_PK PRIMARY KEY (TOKEN)
+);
+
+CREATE INDEX OAUTH_ACCESS_TOKENS_USER_IX ON OAUTH_ACCESS_TOKENS (USER_ID);
+CREATE INDEX OAUTH_ACCESS_TOKENS_TIME_IX ON OAUTH_ACCESS_TOKENS (CREATION_TIME);
+
+-- lease ensuring only one server node runs the expiration sweep at a time
+CREATE TABLE OAUTH_STORE_LEASES (
+  LEASE_NAME VARCHAR(50) NOT NULL,
+  HOLDER     VARCHAR(255),
+  EXPIRES_AT NUMERIC(19) NOT NULL,
+  CONSTRAINT OAUTH_STORE_LEASES_PK PRIMARY KEY (LEASE_NAME)
+);
+
+INSERT INTO OAUTH_STORE_LEASES (LEASE_NAME, HOLDER, EXPIRES_AT) VALUES ('token_expiration', NULL, 0);
@@ -0,0 +1,148 @@
+package org.gusdb.oauth2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.JsonValue;
+
+import org.gusdb.oauth2.Authenticator.DataScope;
+import org.gusdb.oauth2.UserInfoCache.UserInfoLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UserInfoCacheTest {
+
+  private static class CountingLoader implements UserInfoLoader {
+
+    final AtomicInteger loads = new AtomicInteger();
+    Runnable duringLoad = () -> {};
+
+    @Override
+    public Optional<UserAccountInfo> load(String userId, DataScope scope) {
+      loads.incrementAndGet();
+      duringLoad.run();
+      return userId.startsWith("missing") ? Optional.empty() : Optional.of(new TestUser(userId, scope));
+    }
+  }
+
+  @Test
+  public void testHitsAndScopes() throws Exception {
+    UserInfoCache cache = new UserInfoCache(100, 60);
+    CountingLoader loader = new CountingLoader();
+    UserAccountInfo first = cache.get("1", DataScope.PROFILE, loader).orElseThrow();
+    Assert.assertSame(first, cache.get("1", DataScope.PROFILE, loader).orElseThrow());
+    Assert.assertEquals(1, loader.loads.get());
+
+    // each scope is a separate entry
+    Assert.assertEquals(DataScope.BEARER_TOKEN.name(), cache.get("1", DataScope.BEARER_TOKEN, loader).orElseThrow().getEmail());
+    Assert.assertEquals(2, loader.loads.get());
+
+    // unknown users are looked up every time
+    Assert.assertTrue(cache.get("missing", DataScope.PROFILE, loader).isEmpty());
+    Assert.assertTrue(cache.get("missing", DataScope.PROFILE, loader).isEmpty());
+    Assert.assertEquals(4, loader.loads.get());
+
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(4, cache.getMissCount());
+    Assert.assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void testInvalidateRemovesAllScopes() throws Exception {
+    UserInfoCache cache = new UserInfoCache(100, 60);
+    CountingLoader loader = new CountingLoader();
+    cache.get("1", DataScope.PROFILE, loader);
+    cache.get("1", DataScope.ID_TOKEN, loader);
+    cache.get("2", DataScope.PROFILE, loader);
+    cache.invalidate("1");
+    Assert.assertEquals(1, cache.getSize());
+    cache.get("1", DataScope.ID_TOKEN, loader);
+    cache.get("2", DataScope.PROFILE, loader);
+    Assert.assertEquals(4, loader.loads.get());
+  }
+
+  @Test
+  public void testLoadOverlappingInvalidationIsNotCached() throws Exception {
+    UserInfoCache cache = new UserInfoCache(100, 60);
+    CountingLoader loader = new CountingLoader();
+    // simulate the user being modified while their old data is being read
+    loader.duringLoad = () -> cache.invalidate("1");
+    Assert.assertTrue(cache.get("1", DataScope.PROFILE, loader).isPresent());
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testSizeAndTimeLimits() throws Exception {
+    UserInfoCache cache = new UserInfoCache(2, 60);
+    CountingLoader loader = new CountingLoader();
+    cache.get("1", DataScope.PROFILE, loader);
+    cache.get("2", DataScope.PROFILE, loader);
+    cache.get("1", DataScope.PROFILE, loader); // 2 is now least recently used
+    cache.get("3", DataScope.PROFILE, loader);
+    Assert.assertEquals(2, cache.getSize());
+    cache.get("1", DataScope.PROFILE, loader);
+    Assert.assertEquals(3, loader.loads.get());
+    cache.get("2", DataScope.PROFILE, loader);
+    Assert.assertEquals(4, loader.loads.get());
+
+    // zero time-to-live means every lookup reloads
+    UserInfoCache uncached = new UserInfoCache(2, 0);
+    CountingLoader uncachedLoader = new CountingLoader();
+    uncached.get("1", DataScope.PROFILE, uncachedLoader);
+    uncached.get("1", DataScope.PROFILE, uncachedLoader);
+    Assert.assertEquals(2, uncachedLoader.loads.get());
+  }
+
+  @Test
+  public void testGetAllLoadsMissesInOneCall() throws Exception {
+    UserInfoCache cache = new UserInfoCache(100, 60);
+    CountingLoader loader = new CountingLoader();
+    UserAccountInfo cached = cache.get("1", DataScope.PROFILE, loader).orElseThrow();
+    List<List<String>> batches = new ArrayList<>();
+    UserInfoCache.MultiUserInfoLoader multiLoader = (userIds, scope) -> {
+      batches.add(new ArrayList<>(userIds));
+      Map<String, UserAccountInfo> found = new HashMap<>();
+      for (String userId : userIds) {
+        loader.load(userId, scope).ifPresent(user -> found.put(userId, user));
+      }
+      return found;
+    };
+
+    Map<String, UserAccountInfo> users = cache.getAll(List.of("1", "2", "missing", "3", "2"), DataScope.PROFILE, multiLoader);
+    Assert.assertEquals(3, users.size());
+    Assert.assertSame(cached, users.get("1"));
+    Assert.assertFalse(users.containsKey("missing"));
+    Assert.assertEquals(List.of(List.of("2", "missing", "3")), batches);
+
+    // loaded users are cached; unknown users are not
+    cache.getAll(List.of("2", "3", "missing"), DataScope.PROFILE, multiLoader);
+    Assert.assertEquals(List.of("missing"), batches.get(1));
+    Assert.assertEquals(3, cache.getHitCount());
+    Assert.assertEquals(5, cache.getMissCount());
+    Assert.assertEquals(3, cache.getSize());
+  }
+
+  private static class TestUser implements UserAccountInfo {
+
+    private final String _userId;
+    private final DataScope _scope;
+
+    TestUser(String userId, DataScope scope) {
+      _userId = userId;
+      _scope = scope;
+    }
+
+    @Override public String getUserId() { return _userId; }
+    @Override public boolean isGuest() { return false; }
+    @Override public String getEmail() { return _scope.name(); }
+    @Override public boolean isEmailVerified() { return true; }
+    @Override public String getPreferredUsername() { return null; }
+    @Override public String getSignature() { return null; }
+    @Override public Map<String, JsonValue> getSupplementalFields() { return Collections.emptyMap(); }
+  }
+}
@@ -0,0 +1,134 @@
+package org.gusdb.oauth2.client;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncHttpTransportTest {
+
+  private HttpServer _server;
+  private String _url;
+  private final AtomicInteger _received = new AtomicInteger();
+  private final AtomicInteger _inProgress = new AtomicInteger();
+  private final AtomicInteger _maxInProgress = new AtomicInteger();
+  private volatile CountDownLatch _release = new CountDownLatch(0);
+
+  @Before
+  public void startServer() throws Exception {
+    _server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    _server.setExecutor(Executors.newCachedThreadPool());
+    _server.createContext("/", exchange -> {
+      _received.incrementAndGet();
+      _maxInProgress.accumulateAndGet(_inProgress.incrementAndGet(), Math::max);
+      try {
+        _release.await(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      _inProgress.decrementAndGet();
+      byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    _server.start();
+    _url = "http://localhost:" + _server.getAddress().getPort() + "/";
+  }
+
+  @After
+  public void stopServer() {
+    _release.countDown();
+    _server.stop(0);
+  }
+
+  private HttpRequest.Builder request() {
+    return HttpRequest.newBuilder(URI.create(_url)).GET();
+  }
+
+  @Test
+  public void testConcurrencyIsBounded() throws Exception {
+    _release = new CountDownLatch(1);
+    try (AsyncHttpTransport transport = new AsyncHttpTransport(SSLContext.getDefault(), 5000, 10000, 2)) {
+      List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        responses.add(transport.send(request()));
+      }
+      Thread.sleep(500);
+      Assert.assertEquals(2, _received.get());
+      _release.countDown();
+      for (CompletableFuture<HttpResponse<String>> response : responses) {
+        Assert.assertEquals("ok", response.get(10, TimeUnit.SECONDS).body());
+      }
+      Assert.assertEquals(6, _received.get());
+      Assert.assertEquals(2, _maxInProgress.get());
+    }
+  }
+
+  @Test
+  public void testCancelledQueuedRequestIsNotSent() throws Exception {
+    _release = new CountDownLatch(1);
+    try (AsyncHttpTransport transport = new AsyncHttpTransport(SSLContext.getDefault(), 5000, 10000, 1)) {
+      CompletableFuture<HttpResponse<String>> first = transport.send(request());
+      CompletableFuture<HttpResponse<String>> second = transport.send(request());
+      CompletableFuture<HttpResponse<String>> third = transport.send(request());
+      Assert.assertTrue(second.cancel(true));
+      _release.countDown();
+      Assert.assertEquals("ok", first.get(10, TimeUnit.SECONDS).body());
+      Assert.assertEquals("ok", third.get(10, TimeUnit.SECONDS).body());
+      Assert.assertEquals(2, _received.get());
+    }
+  }
+
+  @Test
+  public void testCloseFailsQueuedRequests() throws Exception {
+    _release = new CountDownLatch(1);
+    AsyncHttpTransport transport = new AsyncHttpTransport(SSLContext.getDefault(), 5000, 10000, 1);
+    transport.send(request());
+    CompletableFuture<HttpResponse<String>> queued = transport.send(request());
+    transport.close();
+    try {
+      queued.get(10, TimeUnit.SECONDS);
+      Assert.fail("Queued request completed after close");
+    }
+    catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void testCloseFailsInFlightRequests() throws Exception {
+    _release = new CountDownLatch(1);
+    AsyncHttpTransport transport = new AsyncHttpTransport(SSLContext.getDefault(), 5000, 10000, 1);
+    CompletableFuture<HttpResponse<String>> inFlight = transport.send(request());
+    Thread.sleep(500);
+    transport.close();
+    try {
+      inFlight.get(5, TimeUnit.SECONDS);
+      Assert.fail("In-flight request completed after close");
+    }
+    catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertTrue(transport.send(request()).isCompletedExceptionally());
+  }
+}
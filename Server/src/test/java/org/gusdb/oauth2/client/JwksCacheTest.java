@@ -0,0 +1,126 @@
+package org.gusdb.oauth2.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JwksCacheTest {
+
+  private static final String ISSUER_1 = "https://one.example.org/oauth";
+  private static final String ISSUER_2 = "https://two.example.org/oauth";
+
+  /**
+   * Returns {"<fetch number>": "<issuer URL>"} on each fetch, or throws if failing
+   */
+  private static class CountingFetcher implements Function<String, Map<String,String>> {
+
+    final AtomicInteger fetches = new AtomicInteger();
+    volatile boolean failing = false;
+
+    @Override
+    public Map<String,String> apply(String oauthBaseUrl) {
+      int fetchNumber = fetches.incrementAndGet();
+      if (failing) {
+        throw new RuntimeException("OAuth server is down");
+      }
+      return Map.of(String.valueOf(fetchNumber), oauthBaseUrl);
+    }
+  }
+
+  /**
+   * Holds submitted tasks until the test runs them
+   */
+  private static class ManualExecutor implements Executor {
+
+    final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public synchronized void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    synchronized void runAll() {
+      tasks.forEach(Runnable::run);
+      tasks.clear();
+    }
+  }
+
+  @Test
+  public void testIssuersAreCachedSeparately() throws Exception {
+    CountingFetcher fetcher = new CountingFetcher();
+    JwksCache cache = new JwksCache(fetcher, new ManualExecutor(), () -> 60000, 60000);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(ISSUER_1, cache.getKeys(ISSUER_1, null).get("1"));
+      Assert.assertEquals(ISSUER_2, cache.getKeys(ISSUER_2, null).get("2"));
+    }
+    Assert.assertEquals(2, fetcher.fetches.get());
+  }
+
+  @Test
+  public void testStaleKeysServedDuringSingleRefresh() throws Exception {
+    CountingFetcher fetcher = new CountingFetcher();
+    ManualExecutor executor = new ManualExecutor();
+    JwksCache cache = new JwksCache(fetcher, executor, () -> 0, 60000); // keys expire immediately
+    Assert.assertTrue(cache.getKeys(ISSUER_1, null).containsKey("1"));
+
+    // expired keys are returned without waiting; only one refresh is started
+    for (int i = 0; i < 5; i++) {
+      Assert.assertTrue(cache.getKeys(ISSUER_1, null).containsKey("1"));
+    }
+    Assert.assertEquals(1, executor.tasks.size());
+    Assert.assertEquals(1, fetcher.fetches.get());
+
+    executor.runAll();
+    Assert.assertTrue(cache.getKeys(ISSUER_1, null).containsKey("2"));
+  }
+
+  @Test
+  public void testUnknownKeyIdTriggersRefresh() throws Exception {
+    CountingFetcher fetcher = new CountingFetcher();
+    ManualExecutor executor = new ManualExecutor();
+    JwksCache cache = new JwksCache(fetcher, executor, () -> 60000, 0);
+    cache.getKeys(ISSUER_1, null);
+    Assert.assertTrue(cache.getKeys(ISSUER_1, "1").containsKey("1"));
+    Assert.assertTrue(executor.tasks.isEmpty());
+
+    // caller gets current keys back and must reject the token; refresh follows
+    Assert.assertFalse(cache.getKeys(ISSUER_1, "2").containsKey("2"));
+    executor.runAll();
+    Assert.assertTrue(cache.getKeys(ISSUER_1, "2").containsKey("2"));
+  }
+
+  @Test
+  public void testFailuresAreNotRetriedImmediately() throws Exception {
+    CountingFetcher fetcher = new CountingFetcher();
+    fetcher.failing = true;
+    ManualExecutor executor = new ManualExecutor();
+    JwksCache cache = new JwksCache(fetcher, executor, () -> 0, 60000);
+    for (int i = 0; i < 3; i++) {
+      try {
+        cache.getKeys(ISSUER_1, null);
+        Assert.fail("Keys returned from failing server");
+      }
+      catch (RuntimeException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(1, fetcher.fetches.get());
+
+    // once keys are held, failed refreshes leave them in place
+    JwksCache recovered = new JwksCache(fetcher, executor, () -> 0, 60000);
+    fetcher.failing = false;
+    recovered.getKeys(ISSUER_1, null);
+    fetcher.failing = true;
+    recovered.getKeys(ISSUER_1, null);
+    executor.runAll();
+    Assert.assertEquals(3, fetcher.fetches.get());
+    Assert.assertTrue(recovered.getKeys(ISSUER_1, null).containsKey("2"));
+    Assert.assertTrue(executor.tasks.isEmpty());
+  }
+}
@@ -0,0 +1,162 @@
+package org.gusdb.oauth2.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.glassfish.jersey.client.ClientConfig;
+import org.gusdb.oauth2.client.ValidatedToken.TokenType;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Measures user info requests against a local HTTPS stub of the OAuth server,
+ * comparing a long-lived OAuthClient with building a new JAX-RS client and SSL
+ * context per request as OAuthClient formerly did.  The stub records the
+ * remote address of each request, so the number of distinct addresses is the
+ * number of connections (and TLS handshakes) each approach needed.  Not a
+ * unit test; run via main().
+ *
+ * Usage: OAuthClientTransportBenchmark [requestsPerRun]
+ */
+public class OAuthClientTransportBenchmark {
+
+  private static final String USER_INFO_JSON = new JSONObject()
+      .put("sub", "123456789")
+      .put("email", "someuser@example.org")
+      .toString();
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+    Set<SocketAddress> connections = ConcurrentHashMap.newKeySet();
+    HttpsServer server = startStubServer(connections);
+    String oauthUrl = "https://localhost:" + server.getAddress().getPort();
+    TrustManager trustManager = new KeyStoreTrustManager(); // trusts the stub's self-signed cert
+    ValidatedToken token = ValidatedToken.build(TokenType.BEARER, "benchmarkToken", null);
+
+    try (OAuthClient client = new OAuthClient(trustManager)) {
+      System.out.println("transport\trequests\tconnections\tms/request");
+      for (int i = 0; i < 2; i++) { // first pass warms up
+        boolean report = i > 0;
+        run("new client per request", requests, connections, report,
+            () -> getUserDataWithNewClient(trustManager, oauthUrl, token));
+        run("shared client", requests, connections, report,
+            () -> client.getUserData(oauthUrl, token));
+      }
+    }
+    finally {
+      server.stop(0);
+    }
+  }
+
+  private static void run(String transport, int requests, Set<SocketAddress> connections, boolean report, Supplier<JSONObject> request) {
+    connections.clear();
+    long start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      request.get();
+    }
+    double msPerRequest = (System.nanoTime() - start) / 1_000_000.0 / requests;
+    if (report) {
+      System.out.println(transport + "\t" + requests + "\t" + connections.size() + "\t" + String.format("%.3f", msPerRequest));
+    }
+  }
+
+  /**
+   * Replicates OAuthClient.getUserData() before its HTTP client was shared
+   */
+  private static JSONObject getUserDataWithNewClient(TrustManager trustManager, String oauthUrl, ValidatedToken token) {
+    try {
+      SSLContext sslContext = SSLContext.getInstance("SSL");
+      sslContext.init(null, new TrustManager[]{ trustManager }, null);
+      try (Response response = ClientBuilder.newBuilder()
+            .withConfig(new ClientConfig())
+            .sslContext(sslContext)
+            .build()
+            .target(oauthUrl + Endpoints.USER_INFO)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, OAuthClient.getAuthorizationHeaderValue(token))
+            .get()) {
+        return new JSONObject(OAuthClient.readResponseBody(response));
+      }
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static HttpsServer startStubServer(Set<SocketAddress> connections) throws Exception {
+    // without this, delayed ACKs add ~40ms to each request on a reused connection
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setHttpsConfigurator(new HttpsConfigurator(createServerSslContext()));
+    server.createContext(Endpoints.USER_INFO, exchange -> {
+      connections.add(exchange.getRemoteAddress());
+      byte[] body = USER_INFO_JSON.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      catch (IOException e) {
+        // client went away; nothing to do
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  private static SSLContext createServerSslContext() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    KeyPair keyPair = generator.generateKeyPair();
+
+    long now = System.currentTimeMillis();
+    X500Name name = new X500Name("CN=localhost");
+    Certificate cert = new JcaX509CertificateConverter().getCertificate(
+        new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now), new Date(now - 60000),
+            new Date(now + 24 * 60 * 60 * 1000), name, keyPair.getPublic())
+          .addExtension(Extension.subjectAlternativeName, false,
+              new GeneralNames(new GeneralName(GeneralName.dNSName, "localhost")))
+          .build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+
+    char[] password = "benchmark".toCharArray();
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(null, null);
+    keyStore.setKeyEntry("stub", keyPair.getPrivate(), password, new Certificate[]{ cert });
+    KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagers.init(keyStore, password);
+
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(keyManagers.getKeyManagers(), null, null);
+    return sslContext;
+  }
+}
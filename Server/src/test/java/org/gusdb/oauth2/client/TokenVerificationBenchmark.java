@@ -0,0 +1,109 @@
+package org.gusdb.oauth2.client;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.interfaces.ECPublicKey;
+import java.util.Base64;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
+import org.gusdb.oauth2.shared.Signatures;
+import org.gusdb.oauth2.shared.SigningKeyStore;
+
+import com.sun.management.ThreadMXBean;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+
+/**
+ * Measures throughput and heap allocation per token of client-side token
+ * verification, comparing the parsers kept by TokenVerifiers with decoding
+ * the key and building a new parser for each token as OAuthClient formerly
+ * did.  Public key lookup returns a fixed key, as a warm JwksCache would.
+ * Not a unit test; run via main().
+ *
+ * Usage: TokenVerificationBenchmark [secondsPerRun]
+ */
+public class TokenVerificationBenchmark {
+
+  private static final String KEY_PAIR_RANDOM_SEED = "ne2OCyFSoXXtLCR2RQuUsaqaWBmnwufNNhCyv6KygkwDDpILeOv67MEecKguBFrhqyiYO/UM6JJzVd5Xh3JwSA==";
+  private static final String CLIENT_ID = "benchmarkClient";
+  private static final String CLIENT_SECRET = "123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890";
+  private static final String OAUTH_URL = "https://eupathdb.org/oauth";
+
+  private static final ThreadMXBean THREADS = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    keyStore.setClientSigningKeys(CLIENT_ID, Set.of(CLIENT_SECRET));
+    String publicKey = new ECPublicKeyRepresentation((ECPublicKey)keyStore.getActiveAsyncKey().getKeyPair().getPublic()).getBase64String();
+
+    long now = System.currentTimeMillis() / 1000;
+    JsonObject claims = Json.createObjectBuilder()
+        .add("sub", "123456789")
+        .add("is_guest", false)
+        .add("iat", now)
+        .add("exp", now + 24 * 60 * 60)
+        .build();
+    String hmacToken = Signatures.SECRET_KEY_SIGNER.getSignedEncodedToken(claims, keyStore, CLIENT_ID, CLIENT_SECRET);
+    String ecdsaToken = Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(claims, keyStore, null, null);
+
+    TokenVerifiers verifiers = new TokenVerifiers((url, keyId) -> publicKey);
+
+    System.out.println("algorithm\tparser\tops/sec\tbytes/op");
+    run("HS512", "new per token", seconds, hmacToken, token -> {
+      byte[] keyBytes = Base64.getDecoder().decode(
+          Base64.getEncoder().encodeToString(CLIENT_SECRET.getBytes(StandardCharsets.UTF_8)));
+      return Jwts.parserBuilder().setSigningKey(keyBytes).build().parseClaimsJws(token).getBody();
+    });
+    run("HS512", "TokenVerifiers", seconds, hmacToken, token ->
+      verifiers.getHmacParser(CLIENT_SECRET).parseClaimsJws(token).getBody());
+    run("ES512", "new per token", seconds, ecdsaToken, token -> Jwts.parserBuilder()
+      .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+        @Override
+        public Key resolveSigningKey(@SuppressWarnings("rawtypes") JwsHeader header, Claims claims) {
+          return new ECPublicKeyRepresentation(publicKey).getPublicKey();
+        }
+      })
+      .build().parseClaimsJws(token).getBody());
+    run("ES512", "TokenVerifiers", seconds, ecdsaToken, token ->
+      verifiers.getEcdsaParser(OAUTH_URL).parseClaimsJws(token).getBody());
+  }
+
+  private static void run(String algorithm, String parser, int seconds, String token, Function<String,Claims> verifier) {
+    // warm up so the JIT has compiled the whole path
+    measure(verifier, token, 2);
+    long threadId = Thread.currentThread().threadId();
+    long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+    long[] result = measure(verifier, token, seconds);
+    long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    double opsPerSec = result[0] * 1_000_000_000.0 / result[1];
+    System.out.println(algorithm + "\t" + parser + "\t" + (long)opsPerSec + "\t" + allocated / result[0]);
+  }
+
+  /**
+   * @return [number of tokens verified, elapsed nanos]
+   */
+  private static long[] measure(Function<String,Claims> verifier, String token, int seconds) {
+    long start = System.nanoTime();
+    long end = start + seconds * 1_000_000_000L;
+    long ops = 0;
+    int totalLength = 0; // consumed below so verification cannot be optimized away
+    long now;
+    while ((now = System.nanoTime()) < end) {
+      totalLength += verifier.apply(token).getSubject().length();
+      ops++;
+    }
+    if (totalLength == 0) System.out.println();
+    return new long[] { ops, now - start };
+  }
+}
@@ -0,0 +1,106 @@
+package org.gusdb.oauth2.client;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gusdb.oauth2.client.ValidatedToken.TokenType;
+import org.gusdb.oauth2.client.ValidatedTokenCache.TokenValidator;
+import org.gusdb.oauth2.exception.InvalidTokenException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+public class ValidatedTokenCacheTest {
+
+  private static final String OAUTH_URL = "https://one.example.org/oauth";
+  private static final String OTHER_OAUTH_URL = "https://two.example.org/oauth";
+
+  private static class CountingValidator implements TokenValidator {
+
+    final AtomicInteger validations = new AtomicInteger();
+    private final String _token;
+    private final long _expirationTime;
+
+    CountingValidator(String token, long expirationTime) {
+      _token = token;
+      _expirationTime = expirationTime;
+    }
+
+    @Override
+    public ValidatedToken validate() throws InvalidTokenException {
+      validations.incrementAndGet();
+      if (_token.startsWith("bad")) {
+        throw new InvalidTokenException(new IllegalArgumentException("bad signature"));
+      }
+      Claims claims = Jwts.claims().setSubject(_token).setExpiration(new Date(_expirationTime));
+      return ValidatedToken.build(TokenType.BEARER, _token, claims);
+    }
+  }
+
+  @Test
+  public void testRepeatedTokenSkipsValidation() throws Exception {
+    ValidatedTokenCache cache = new ValidatedTokenCache(10);
+    CountingValidator validator = new CountingValidator("token", System.currentTimeMillis() + 60000);
+    ValidatedToken first = cache.get(OAUTH_URL, "token", validator);
+    Assert.assertSame(first, cache.get(OAUTH_URL, "token", validator));
+    Assert.assertEquals(1, validator.validations.get());
+
+    // same token from a different server is validated separately
+    cache.get(OTHER_OAUTH_URL, "token", validator);
+    Assert.assertEquals(2, validator.validations.get());
+
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(2, cache.getMissCount());
+    Assert.assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void testEntryExpiresWithToken() throws Exception {
+    ValidatedTokenCache cache = new ValidatedTokenCache(10);
+    // exp claims have one-second precision, so this expires 0.5-1.5 seconds from now
+    CountingValidator validator = new CountingValidator("token", System.currentTimeMillis() + 1500);
+    cache.get(OAUTH_URL, "token", validator);
+    cache.get(OAUTH_URL, "token", validator);
+    Assert.assertEquals(1, validator.validations.get());
+    Thread.sleep(1600);
+    cache.get(OAUTH_URL, "token", validator);
+    Assert.assertEquals(2, validator.validations.get());
+  }
+
+  @Test
+  public void testInvalidTokensAreNotCached() throws Exception {
+    ValidatedTokenCache cache = new ValidatedTokenCache(10);
+    CountingValidator validator = new CountingValidator("bad token", System.currentTimeMillis() + 60000);
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.get(OAUTH_URL, "bad token", validator);
+        Assert.fail("Invalid token accepted");
+      }
+      catch (InvalidTokenException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(2, validator.validations.get());
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testSizeBound() throws Exception {
+    ValidatedTokenCache cache = new ValidatedTokenCache(2);
+    long expiration = System.currentTimeMillis() + 60000;
+    for (int i = 0; i < 4; i++) {
+      String token = "token" + i;
+      Assert.assertEquals(token, cache.get(OAUTH_URL, token, new CountingValidator(token, expiration)).getTokenValue());
+    }
+    Assert.assertEquals(2, cache.getSize());
+
+    // zero size disables caching
+    ValidatedTokenCache disabled = new ValidatedTokenCache(0);
+    CountingValidator validator = new CountingValidator("token", expiration);
+    disabled.get(OAUTH_URL, "token", validator);
+    disabled.get(OAUTH_URL, "token", validator);
+    Assert.assertEquals(2, validator.validations.get());
+  }
+}
@@ -0,0 +1,116 @@
+package org.gusdb.oauth2.client.veupathdb;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gusdb.oauth2.client.Endpoints;
+import org.gusdb.oauth2.client.KeyStoreTrustManager;
+import org.gusdb.oauth2.client.OAuthClient;
+import org.gusdb.oauth2.client.OAuthConfig;
+import org.gusdb.oauth2.shared.IdTokenFields;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class OAuthQuerierTest {
+
+  private HttpServer _server;
+  private OAuthConfig _config;
+  private final List<Integer> _batchSizes = new ArrayList<>();
+  private final AtomicInteger _inProgress = new AtomicInteger();
+  private final AtomicInteger _maxInProgress = new AtomicInteger();
+
+  @Before
+  public void startServer() throws Exception {
+    _server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    _server.setExecutor(Executors.newCachedThreadPool());
+    _server.createContext(Endpoints.QUERY_USERS, this::handleQuery);
+    _server.start();
+    _config = OAuthConfig.build("http://localhost:" + _server.getAddress().getPort(), "client", "secret");
+  }
+
+  @After
+  public void stopServer() {
+    _server.stop(0);
+  }
+
+  // finds users with even IDs
+  private void handleQuery(HttpExchange exchange) throws IOException {
+    _maxInProgress.accumulateAndGet(_inProgress.incrementAndGet(), Math::max);
+    try {
+      JSONArray userIds = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8))
+          .getJSONObject("query").getJSONArray("userIds");
+      synchronized (_batchSizes) {
+        _batchSizes.add(userIds.length());
+      }
+      Thread.sleep(50);
+      JSONArray users = new JSONArray();
+      for (int i = 0; i < userIds.length(); i++) {
+        long userId = userIds.getLong(i);
+        JSONObject user = new JSONObject()
+            .put(IdTokenFields.sub.name(), String.valueOf(userId))
+            .put("found", userId % 2 == 0);
+        if (userId % 2 == 0) {
+          user.put(IdTokenFields.is_guest.name(), false)
+              .put(IdTokenFields.signature.name(), "sig" + userId)
+              .put(IdTokenFields.preferred_username.name(), "user" + userId);
+        }
+        users.put(user);
+      }
+      byte[] body = users.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    }
+    catch (InterruptedException e) {
+      exchange.sendResponseHeaders(500, -1);
+    }
+    finally {
+      _inProgress.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  @Test
+  public void testUsersAreQueriedInParallelBatches() throws Exception {
+    int batchSize = OAuthQuerier.BATCH_SIZE.getAndSet(10);
+    int maxParallel = OAuthQuerier.MAX_PARALLEL_BATCHES.getAndSet(3);
+    try (OAuthClient client = new OAuthClient(new KeyStoreTrustManager())) {
+      List<Long> userIds = new ArrayList<>();
+      for (long i = 1; i <= 95; i++) {
+        userIds.add(i);
+      }
+      userIds.add(4L); // duplicates are queried once
+
+      Map<Long, UserInfo> users = OAuthQuerier.getUsersById(client, _config, userIds);
+
+      Assert.assertEquals(95, users.size());
+      Assert.assertNull(users.get(3L));
+      Assert.assertEquals("user4", users.get(4L).getStableId());
+      Assert.assertEquals(10, _batchSizes.size());
+      Assert.assertEquals(95, _batchSizes.stream().mapToInt(Integer::intValue).sum());
+      Assert.assertTrue(_maxInProgress.get() <= 3);
+
+      // streaming form delivers the same results
+      Map<Long, UserInfo> streamed = new HashMap<>();
+      OAuthQuerier.forEachUserById(client, _config, userIds, UserInfoImpl::new, streamed::put);
+      Assert.assertEquals(users.keySet(), streamed.keySet());
+    }
+    finally {
+      OAuthQuerier.BATCH_SIZE.set(batchSize);
+      OAuthQuerier.MAX_PARALLEL_BATCHES.set(maxParallel);
+    }
+  }
+}
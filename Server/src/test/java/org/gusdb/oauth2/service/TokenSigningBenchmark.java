@@ -0,0 +1,85 @@
+package org.gusdb.oauth2.service;
+
+import java.security.Key;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.gusdb.oauth2.shared.AsyncSigningKey;
+import org.gusdb.oauth2.shared.JwsSigner;
+import org.gusdb.oauth2.shared.Signatures;
+import org.gusdb.oauth2.shared.SigningKeyStore;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Compares token signing throughput of JwsSigner with the jjwt JwtBuilder
+ * path it replaced, for both the ES512 (bearer token) and HS512 (ID token)
+ * algorithms, and JwsSigner with an ES256 key as may be rotated in to replace
+ * the ES512 key.  Each run signs a typical bearer token payload repeatedly on
+ * the calling thread after a warm-up period.  Not a unit test; run via main().
+ *
+ * Usage: TokenSigningBenchmark [secondsPerRun]
+ */
+public class TokenSigningBenchmark {
+
+  private static final String KEY_PAIR_RANDOM_SEED = "ne2OCyFSoXXtLCR2RQuUsaqaWBmnwufNNhCyv6KygkwDDpILeOv67MEecKguBFrhqyiYO/UM6JJzVd5Xh3JwSA==";
+  private static final String CLIENT_ID = "benchmarkClient";
+  private static final String CLIENT_SECRET = "123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890";
+
+  private static final JsonObject PAYLOAD = Json.createObjectBuilder()
+      .add("iss", "https://eupathdb.org/oauth")
+      .add("sub", "123456789")
+      .add("aud", CLIENT_ID)
+      .add("azp", CLIENT_ID)
+      .add("jti", "0123456789abcdef0123456789abcdef")
+      .add("auth_time", 1700000000L)
+      .add("iat", 1700000000L)
+      .add("exp", 1700003600L)
+      .add("is_guest", false)
+      .add("preferred_username", "someuser")
+      .build();
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    keyStore.setClientSigningKeys(CLIENT_ID, Set.of(CLIENT_SECRET));
+    Key privateKey = keyStore.getAsyncKeys().getPrivate();
+    Key secretKey = keyStore.getSecretKey(CLIENT_ID, CLIENT_SECRET);
+    JwsSigner asyncSigner = keyStore.getAsyncKeySigner();
+    JwsSigner secretSigner = keyStore.getSecretKeySigner(CLIENT_ID, CLIENT_SECRET);
+
+    System.out.println("algorithm\timplementation\tops/sec\tmicros/op");
+    run("ES512", "jjwt", seconds, json -> Jwts.builder().setPayload(json.toString()).signWith(privateKey).compact());
+    run("ES512", "JwsSigner", seconds, json -> asyncSigner.sign(json.toString()));
+    JwsSigner es256Signer = new AsyncSigningKey("es256", Signatures.getKeyPair(KEY_PAIR_RANDOM_SEED, SignatureAlgorithm.ES256), 0).getSigner();
+    run("ES256", "JwsSigner", seconds, json -> es256Signer.sign(json.toString()));
+    run("HS512", "jjwt", seconds, json -> Jwts.builder().setPayload(json.toString()).signWith(secretKey).compact());
+    run("HS512", "JwsSigner", seconds, json -> secretSigner.sign(json.toString()));
+  }
+
+  private static void run(String algorithm, String implementation, int seconds, Function<JsonObject,String> signer) {
+    // warm up so the JIT has compiled the signing path
+    measure(signer, 2);
+    double opsPerSec = measure(signer, seconds);
+    System.out.println(algorithm + "\t" + implementation + "\t" + (long)opsPerSec + "\t" + String.format("%.1f", 1_000_000 / opsPerSec));
+  }
+
+  private static double measure(Function<JsonObject,String> signer, int seconds) {
+    long start = System.nanoTime();
+    long end = start + seconds * 1_000_000_000L;
+    long ops = 0;
+    int totalLength = 0; // consumed below so signing cannot be optimized away
+    long now;
+    while ((now = System.nanoTime()) < end) {
+      totalLength += signer.apply(PAYLOAD).length();
+      ops++;
+    }
+    if (totalLength == 0) System.out.println();
+    return ops * 1_000_000_000.0 / (now - start);
+  }
+}
@@ -1,18 +1,24 @@
 package org.gusdb.oauth2.service;
 
+import java.io.StringReader;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.security.PublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.util.Base64;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
 
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
 
 import org.gusdb.oauth2.exception.CryptoException;
+import org.gusdb.oauth2.shared.AsyncSigningKey;
+import org.gusdb.oauth2.shared.ClaimsWriter;
 import org.gusdb.oauth2.shared.ECPublicKeyRepresentation;
 import org.gusdb.oauth2.shared.Signatures;
 import org.gusdb.oauth2.shared.SigningKeyStore;
@@ -22,7 +28,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.impl.TextCodec;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
@@ -227,4 +235,100 @@ public class TokenSigningValidationTest {
     Assert.assertEquals("myUserId", claims.getSubject());
 
   }
+
+  @Test
+  public void testSignerMatchesJjwtHeader() throws Exception {
+    // tokens must look the same to clients as those formerly built with jjwt
+    String payload = DUMMY_CLAIMS.toString();
+    String jjwtEcdsa = Jwts.builder().setHeaderParam("kid", SigningKeyStore.DEFAULT_ASYNC_KEY_ID)
+        .setPayload(payload).signWith(KEY_STORE.getAsyncKeys().getPrivate()).compact();
+    String ecdsa = Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(DUMMY_CLAIMS, KEY_STORE, MANUAL_CLIENT_ID, null);
+    assertSameUnsignedParts(jjwtEcdsa, ecdsa);
+    String jjwtHmac = Jwts.builder().setPayload(payload).signWith(KEY_STORE.getSecretKey(MANUAL_CLIENT_ID, MANUAL_CLIENT_SECRET)).compact();
+    String hmac = Signatures.SECRET_KEY_SIGNER.getSignedEncodedToken(DUMMY_CLAIMS, KEY_STORE, MANUAL_CLIENT_ID, MANUAL_CLIENT_SECRET);
+    // HMAC is deterministic, so the whole token should match
+    Assert.assertEquals(jjwtHmac, hmac);
+  }
+
+  @Test
+  public void testKeyRotation() throws Exception {
+    long now = System.currentTimeMillis();
+    AsyncSigningKey oldKey = new AsyncSigningKey("old", Signatures.getKeyPair(KEY_PAIR_RANDOM_SEED), now - 2000);
+    AsyncSigningKey currentKey = new AsyncSigningKey("current", Signatures.getKeyPair(KEY_PAIR_RANDOM_SEED, SignatureAlgorithm.ES256), now - 1000);
+    AsyncSigningKey futureKey = new AsyncSigningKey("future", Signatures.getKeyPair(KEY_PAIR_RANDOM_SEED, SignatureAlgorithm.ES384), now + 100000);
+    SigningKeyStore keyStore = new SigningKeyStore(List.of(oldKey, futureKey, currentKey));
+    keyStore.setClientSigningKeys(MANUAL_CLIENT_ID, Set.of(MANUAL_CLIENT_SECRET));
+
+    // latest key whose activation time has passed signs, and names itself in the header
+    Assert.assertSame(currentKey, keyStore.getActiveAsyncKey());
+    String token = Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(DUMMY_CLAIMS, keyStore, MANUAL_CLIENT_ID, null);
+    JwsHeader<?> header = Jwts.parserBuilder()
+        .setSigningKey(currentKey.getKeyPair().getPublic())
+        .build()
+        .parseClaimsJws(token)
+        .getHeader();
+    Assert.assertEquals("current", header.getKeyId());
+    Assert.assertEquals("ES256", header.getAlgorithm());
+
+    // all keys are published, active key first so kid-unaware clients pick it
+    JsonArray keys = Signatures.getJwksContent(keyStore).getJsonArray("keys");
+    Assert.assertEquals(4, keys.size());
+    Assert.assertEquals("current", keys.getJsonObject(1).getString("kid"));
+    Assert.assertEquals("P-256", keys.getJsonObject(1).getString("crv"));
+    Set<String> published = Set.of(keys.getJsonObject(2).getString("kid"), keys.getJsonObject(3).getString("kid"));
+    Assert.assertEquals(Set.of("old", "future"), published);
+
+    // published coordinates reproduce the key on its own curve
+    JsonObject futureJwk = keys.getJsonObject(2).getString("kid").equals("future") ? keys.getJsonObject(2) : keys.getJsonObject(3);
+    Assert.assertEquals(futureKey.getKeyPair().getPublic(), new ECPublicKeyRepresentation(
+        futureJwk.getString("x"), futureJwk.getString("y"), futureJwk.getString("crv")).getPublicKey());
+  }
+
+  @Test
+  public void testStreamedClaimsMatchJsonObject() throws Exception {
+    // multi-byte characters and a supplementary-plane character (surrogate pair)
+    // exercise the writer's UTF-8 encoding; long values force buffer growth
+    JsonObject claims = Json.createObjectBuilder()
+        .add("sub", "myUserId")
+        .add("name", "J\u00f6rg \u00c5str\u00f6m \u4e2d\u6587 \ud83d\ude00 \"quoted\"")
+        .add("organization", "x".repeat(5000))
+        .add("is_guest", false)
+        .add("auth_time", 1700000000L)
+        .build();
+    for (int i = 0; i < 2; i++) { // second pass reuses the pooled writer's buffer
+      try (ClaimsWriter writer = ClaimsWriter.acquire()) {
+        JsonGenerator json = writer.start();
+        for (String name : claims.keySet()) {
+          json.write(name, claims.get(name));
+        }
+        writer.end(json);
+        Assert.assertEquals(claims, Json.createReader(new StringReader(writer.toString())).readObject());
+
+        // HMAC is deterministic, so streamed and string payloads must sign identically
+        String streamed = Signatures.SECRET_KEY_SIGNER.getSignedEncodedToken(writer, KEY_STORE, MANUAL_CLIENT_ID, MANUAL_CLIENT_SECRET);
+        String fromString = KEY_STORE.getSecretKeySigner(MANUAL_CLIENT_ID, MANUAL_CLIENT_SECRET).sign(writer.toString());
+        Assert.assertEquals(fromString, streamed);
+        Claims parsed = Jwts.parserBuilder()
+            .setSigningKey(KEY_STORE.getSecretKey(MANUAL_CLIENT_ID, MANUAL_CLIENT_SECRET))
+            .build()
+            .parseClaimsJws(streamed)
+            .getBody();
+        Assert.assertEquals(claims.getString("name"), parsed.get("name", String.class));
+      }
+    }
+  }
+
+  private static void assertSameUnsignedParts(String expected, String actual) {
+    String[] expectedParts = expected.split("\\.");
+    String[] actualParts = actual.split("\\.");
+    Assert.assertEquals(3, actualParts.length);
+    // header members may be in a different order
+    Assert.assertEquals(decodeJson(expectedParts[0]), decodeJson(actualParts[0]));
+    Assert.assertEquals(expectedParts[1], actualParts[1]);
+    Assert.assertEquals(expectedParts[2].length(), actualParts[2].length());
+  }
+
+  private static JsonObject decodeJson(String base64UrlJson) {
+    return Json.createReader(new StringReader(new String(Base64.getUrlDecoder().decode(base64UrlJson), StandardCharsets.UTF_8))).readObject();
+  }
 }
@@ -0,0 +1,167 @@
+package org.gusdb.oauth2.service.token;
+
+import javax.json.Json;
+import javax.json.JsonValue;
+
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InMemoryTokenStoreTest extends TokenStoreTest {
+
+  @Override
+  protected TokenStore createStore() throws Exception {
+    TokenStore store = new InMemoryTokenStore();
+    store.initialize(JsonValue.EMPTY_JSON_OBJECT);
+    return store;
+  }
+
+  private static InMemoryTokenStore createSmallStore() throws Exception {
+    InMemoryTokenStore store = new InMemoryTokenStore();
+    store.initialize(Json.createObjectBuilder()
+        .add("maxAuthCodes", 5)
+        .add("maxAccessTokens", 5)
+        .add("maxAuthCodesPerUser", 3)
+        .add("maxAccessTokensPerUser", 2)
+        .add("rejectAtPercent", 100)
+        .build());
+    return store;
+  }
+
+  @Test
+  public void testPerUserLimitEvictsOldest() throws Exception {
+    InMemoryTokenStore store = createSmallStore();
+    String userId = newId();
+    String[] codes = new String[4];
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = newId();
+      store.addAuthCode(new AuthCodeData(codes[i], "client", userId, null));
+    }
+    Assert.assertFalse(store.isValidAuthCode(codes[0], "client"));
+    for (int i = 1; i < codes.length; i++) {
+      Assert.assertTrue(store.isValidAuthCode(codes[i], "client"));
+    }
+    String[] tokens = { newId(), newId(), newId() };
+    for (String token : tokens) {
+      store.addAccessToken(token, codes[3]);
+    }
+    Assert.assertNull(store.getTokenData(tokens[0]));
+    Assert.assertNotNull(store.getTokenData(tokens[1]));
+    Assert.assertNotNull(store.getTokenData(tokens[2]));
+    Assert.assertEquals(1, store.getAuthCodeEvictionCount());
+    Assert.assertEquals(1, store.getAccessTokenEvictionCount());
+  }
+
+  @Test
+  public void testFullStoreRejectsNewCodes() throws Exception {
+    InMemoryTokenStore store = createSmallStore();
+    for (int i = 0; i < 5; i++) {
+      store.addAuthCode(new AuthCodeData(newId(), "client", newId(), null));
+    }
+    String rejectedCode = newId();
+    try {
+      store.addAuthCode(new AuthCodeData(rejectedCode, "client", newId(), null));
+      Assert.fail("Store should have rejected the sixth code.");
+    }
+    catch (TokenStoreFullException e) {
+      // expected
+    }
+    Assert.assertFalse(store.isValidAuthCode(rejectedCode, "client"));
+    Assert.assertEquals(1, store.getAuthCodeRejectionCount());
+
+    // expiring codes makes room again
+    store.removeExpiredTokens(-1, -1);
+    store.addAuthCode(new AuthCodeData(newId(), "client", newId(), null));
+  }
+
+  @Test
+  public void testRejectionChangesNothing() throws Exception {
+    InMemoryTokenStore store = createSmallStore();
+    String userId = newId();
+    String[] codes = new String[5];
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = newId();
+      store.addAuthCode(new AuthCodeData(codes[i], "client", i < 3 ? userId : newId(), null));
+    }
+    try {
+      store.addAuthCode(new AuthCodeData(newId(), "client", userId + "-other", null));
+      Assert.fail("Store should have rejected the sixth code.");
+    }
+    catch (TokenStoreFullException e) {
+      // expected
+    }
+    for (String code : codes) {
+      Assert.assertTrue(store.isValidAuthCode(code, "client"));
+    }
+    Assert.assertEquals(0, store.getAuthCodeEvictionCount());
+
+    // a user at their limit still makes room from their own codes when full
+    store.addAuthCode(new AuthCodeData(newId(), "client", userId, null));
+    Assert.assertFalse(store.isValidAuthCode(codes[0], "client"));
+    Assert.assertEquals(1, store.getAuthCodeEvictionCount());
+  }
+
+  @Test
+  public void testRejectAtPercent() throws Exception {
+    InMemoryTokenStore store = new InMemoryTokenStore();
+    store.initialize(Json.createObjectBuilder()
+        .add("maxAuthCodes", 10)
+        .add("rejectAtPercent", 50)
+        .build());
+    for (int i = 0; i < 5; i++) {
+      store.addAuthCode(new AuthCodeData(newId(), "client", newId(), null));
+    }
+    try {
+      store.addAuthCode(new AuthCodeData(newId(), "client", newId(), null));
+      Assert.fail("Store should have rejected codes past half of its limit.");
+    }
+    catch (TokenStoreFullException e) {
+      Assert.assertEquals(1, store.getAuthCodeRejectionCount());
+    }
+  }
+
+  @Test
+  public void testEvictWhenFullEvictsOldest() throws Exception {
+    InMemoryTokenStore store = new InMemoryTokenStore();
+    store.initialize(Json.createObjectBuilder()
+        .add("maxAuthCodes", 3)
+        .add("evictWhenFull", true)
+        .build());
+    String[] codes = new String[4];
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = newId();
+      store.addAuthCode(new AuthCodeData(codes[i], "client", newId(), null));
+      Thread.sleep(1100); // creation times are in seconds
+    }
+    Assert.assertFalse(store.isValidAuthCode(codes[0], "client"));
+    for (int i = 1; i < codes.length; i++) {
+      Assert.assertTrue(store.isValidAuthCode(codes[i], "client"));
+    }
+    Assert.assertEquals(1, store.getAuthCodeEvictionCount());
+    Assert.assertEquals(0, store.getAuthCodeRejectionCount());
+  }
+
+  @Test
+  public void testReusedCodeMovesToNewUser() throws Exception {
+    String authCode = newId();
+    String firstUserId = newId();
+    String secondUserId = newId();
+    _store.addAuthCode(new AuthCodeData(authCode, "client", firstUserId, null));
+    _store.addAuthCode(new AuthCodeData(authCode, "client", secondUserId, null));
+    _store.clearObjectsForUser(firstUserId);
+    Assert.assertEquals(secondUserId, _store.addAccessToken(newId(), authCode).userId);
+  }
+
+  @Test
+  public void testHexValuesAreExact() throws Exception {
+    // Oltu-style values are stored only as their 128-bit keys
+    String authCode = "0123456789abcdef0123456789abcdef";
+    String token = "fedcba9876543210fedcba9876543210";
+    _store.addAuthCode(new AuthCodeData(authCode, "client", "user", "nonce"));
+    Assert.assertTrue(_store.isValidAuthCode(authCode, "client"));
+    Assert.assertFalse(_store.isValidAuthCode(authCode.toUpperCase(), "client"));
+    Assert.assertEquals(token, _store.addAccessToken(token, authCode).tokenValue);
+    Assert.assertNull(_store.getTokenData(token.toUpperCase()));
+    Assert.assertEquals("nonce", _store.getTokenData(token).idTokenParams.getNonce());
+  }
+}
@@ -0,0 +1,82 @@
+package org.gusdb.oauth2.service.token;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+import javax.json.Json;
+
+import org.gusdb.oauth2.InitializationException;
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JdbcTokenStoreTest extends TokenStoreTest {
+
+  private String _dbUrl;
+
+  @Override
+  protected TokenStore createStore() throws Exception {
+    _dbUrl = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+    createTables(_dbUrl);
+    // disable near cache so every node sees every write immediately
+    return openNode(0);
+  }
+
+  private TokenStore openNode(int nearCacheSecs) throws InitializationException {
+    TokenStore store = new JdbcTokenStore();
+    store.initialize(Json.createObjectBuilder()
+        .add("connectionUrl", _dbUrl)
+        .add("login", "sa")
+        .add("password", "")
+        .add("nearCacheSecs", nearCacheSecs)
+        .build());
+    return store;
+  }
+
+  private static void createTables(String dbUrl) throws IOException, SQLException {
+    String ddl;
+    try (InputStream in = JdbcTokenStore.class.getResourceAsStream("/sql/create_token_store_tables.sql")) {
+      ddl = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+    try (Connection conn = DriverManager.getConnection(dbUrl, "sa", "");
+         Statement stmt = conn.createStatement()) {
+      for (String sql : ddl.replaceAll("--[^\n]*", "").split(";")) {
+        if (!sql.isBlank()) stmt.execute(sql);
+      }
+    }
+  }
+
+  @Test
+  public void testCodeRedeemableOnOtherNode() throws Exception {
+    try (TokenStore otherNode = openNode(5)) {
+      String authCode = newId();
+      String token = newId();
+      _store.addAuthCode(new AuthCodeData(authCode, "client", "user", "nonce"));
+      Assert.assertTrue(otherNode.isValidAuthCode(authCode, "client"));
+      Assert.assertNotNull(otherNode.addAccessToken(token, authCode));
+      Assert.assertEquals("nonce", _store.getTokenData(token).idTokenParams.getNonce());
+      _store.clearObjectsForUser("user");
+      Assert.assertNull(_store.getTokenData(token));
+    }
+  }
+
+  @Test
+  public void testOnlyOneNodeSweeps() throws Exception {
+    try (TokenStore otherNode = openNode(0)) {
+      String authCode = newId();
+      _store.addAuthCode(new AuthCodeData(authCode, "client", "user", null));
+      // this node takes the lease; the other node's sweep does nothing
+      _store.removeExpiredTokens(Long.MAX_VALUE, Long.MAX_VALUE);
+      otherNode.removeExpiredTokens(-1, -1);
+      Assert.assertTrue(_store.isValidAuthCode(authCode, "client"));
+      _store.removeExpiredTokens(-1, -1);
+      Assert.assertFalse(_store.isValidAuthCode(authCode, "client"));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.gusdb.oauth2.service.token;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import javax.json.Json;
+
+import org.gusdb.oauth2.InitializationException;
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedFileTokenStoreTest extends TokenStoreTest {
+
+  private Path _directory;
+
+  @Override
+  protected TokenStore createStore() throws Exception {
+    _directory = Files.createTempDirectory("token-store-test");
+    return openStore(1);
+  }
+
+  private TokenStore openStore(int segmentSizeMb) throws InitializationException {
+    TokenStore store = new MappedFileTokenStore();
+    store.initialize(Json.createObjectBuilder()
+        .add("directory", _directory.toString())
+        .add("segmentSizeMb", segmentSizeMb)
+        .build());
+    return store;
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    try (Stream<Path> files = Files.walk(_directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testStateSurvivesRestart() throws Exception {
+    String userId = newId();
+    String loggedOutUserId = newId();
+    String authCode = "0123456789abcdef0123456789abcdef";
+    String token = "fedcba9876543210fedcba9876543210";
+    String loggedOutCode = newId();
+    _store.addAuthCode(new AuthCodeData(authCode, "client", userId, "nonce"));
+    _store.addAccessToken(token, authCode);
+    _store.addAuthCode(new AuthCodeData(loggedOutCode, "client", loggedOutUserId, null));
+    _store.clearObjectsForUser(loggedOutUserId);
+    long creationTime = _store.getTokenData(token).creationTime;
+    _store.close();
+
+    _store = openStore(1);
+    Assert.assertTrue(_store.isValidAuthCode(authCode, "client"));
+    Assert.assertFalse(_store.isValidAuthCode(loggedOutCode, "client"));
+    Assert.assertEquals(userId, _store.getUserIdForToken(token));
+    Assert.assertEquals("nonce", _store.getTokenData(token).idTokenParams.getNonce());
+    Assert.assertEquals(creationTime, _store.getTokenData(token).creationTime);
+
+    // a user who logged out may log in again
+    String newCode = newId();
+    _store.addAuthCode(new AuthCodeData(newCode, "client", loggedOutUserId, null));
+    Assert.assertTrue(_store.isValidAuthCode(newCode, "client"));
+  }
+
+  @Test
+  public void testExpiredSegmentsAreDeleted() throws Exception {
+    // fill several 1MB segments
+    for (int i = 0; i < 20000; i++) {
+      String code = newId();
+      _store.addAuthCode(new AuthCodeData(code, "client", "user" + (i % 100), null));
+      _store.addAccessToken(newId(), code);
+    }
+    Assert.assertTrue(countSegments() > 2);
+    _store.removeExpiredTokens(-1, -1);
+    Assert.assertEquals(1, countSegments());
+  }
+
+  @Test
+  public void testLookupsCheckExpiration() throws Exception {
+    // the sweep stops at the first unexpired record, so an older record
+    //   written after it stays indexed and must be rejected by lookups
+    long now = System.currentTimeMillis() / 1000;
+    String newCode = newId();
+    String oldCode = newId();
+    _store.addAuthCode(new AuthCodeData(newCode, "client", newId(), null));
+    _store.addAuthCode(new AuthCodeData(oldCode, "client", newId(), null, now - 100));
+    _store.close();
+
+    _store = openStore(1);
+    _store.removeExpiredTokens(50, 50);
+    Assert.assertTrue(_store.isValidAuthCode(newCode, "client"));
+    Assert.assertFalse(_store.isValidAuthCode(oldCode, "client"));
+    Assert.assertNull(_store.addAccessToken(newId(), oldCode));
+  }
+
+  @Test(expected = InitializationException.class)
+  public void testDirectoryIsLocked() throws Exception {
+    openStore(1);
+  }
+
+  private long countSegments() throws IOException {
+    try (Stream<Path> files = Files.list(_directory)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+    }
+  }
+}
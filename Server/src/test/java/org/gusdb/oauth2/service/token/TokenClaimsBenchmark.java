@@ -0,0 +1,155 @@
+package org.gusdb.oauth2.service.token;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+
+import org.gusdb.oauth2.Authenticator.DataScope;
+import org.gusdb.oauth2.Authenticator.TokenTimestamps;
+import org.gusdb.oauth2.UserAccountInfo;
+import org.gusdb.oauth2.service.token.TokenStore.IdTokenParams;
+import org.gusdb.oauth2.shared.ClaimsWriter;
+import org.gusdb.oauth2.shared.IdTokenFields;
+import org.gusdb.oauth2.shared.JwsSigner;
+import org.gusdb.oauth2.shared.SigningKeyStore;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures throughput and heap allocation per token of ID token construction
+ * and signing, comparing claims streamed into a ClaimsWriter and signed from
+ * its buffer with the JsonObjectBuilder/toString() path it replaced.  The
+ * user's supplemental fields are built per token as an authenticator would.
+ * Allocation is read from the JVM's per-thread allocation counter, so the
+ * figures include everything the signing provider allocates.  Not a unit
+ * test; run via main().
+ *
+ * Usage: TokenClaimsBenchmark [secondsPerRun]
+ */
+public class TokenClaimsBenchmark {
+
+  private static final String KEY_PAIR_RANDOM_SEED = "ne2OCyFSoXXtLCR2RQuUsaqaWBmnwufNNhCyv6KygkwDDpILeOv67MEecKguBFrhqyiYO/UM6JJzVd5Xh3JwSA==";
+  private static final String CLIENT_ID = "benchmarkClient";
+  private static final String CLIENT_SECRET = "123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890";
+  private static final String ISSUER = "https://eupathdb.org/oauth";
+  private static final String TOKEN_ID = "0123456789abcdef0123456789abcdef";
+
+  private static final JsonProvider JSON_PROVIDER = JsonProvider.provider();
+
+  private static final ThreadMXBean THREADS = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    keyStore.setClientSigningKeys(CLIENT_ID, Set.of(CLIENT_SECRET));
+    JwsSigner hmacSigner = keyStore.getSecretKeySigner(CLIENT_ID, CLIENT_SECRET);
+    JwsSigner ecdsaSigner = keyStore.getAsyncKeySigner();
+
+    IdTokenParams params = new IdTokenParams(CLIENT_ID, "n-0S6_WzA2Mj");
+    UserAccountInfo streamedUser = new BenchmarkUser(true);
+    UserAccountInfo builtUser = new BenchmarkUser(false);
+
+    System.out.println("algorithm\tclaims\tops/sec\tbytes/op");
+    for (JwsSigner signer : new JwsSigner[] { hmacSigner, ecdsaSigner }) {
+      String algorithm = signer.getAlgorithm().getValue();
+      run(algorithm, "JsonObjectBuilder", seconds, () -> {
+        TokenTimestamps timestamps = new TokenTimestamps(3600);
+        JsonObjectBuilder json = TokenFactory.getBaseJson(builtUser)
+            .add(IdTokenFields.iss.name(), ISSUER)
+            .add(IdTokenFields.aud.name(), params.getClientId())
+            .add(IdTokenFields.azp.name(), params.getClientId())
+            .add(IdTokenFields.jti.name(), TOKEN_ID)
+            .add(IdTokenFields.auth_time.name(), params.getCreationTime())
+            .add(IdTokenFields.iat.name(), timestamps.getCreationTimeSecs())
+            .add(IdTokenFields.exp.name(), timestamps.getExpirationTimeSecs())
+            .add(IdTokenFields.nonce.name(), params.getNonce());
+        TokenFactory.appendProfileFields(json, builtUser, DataScope.ID_TOKEN);
+        return signer.sign(json.build().toString());
+      });
+      run(algorithm, "ClaimsWriter", seconds, () -> {
+        TokenTimestamps timestamps = new TokenTimestamps(3600);
+        try (ClaimsWriter claims = ClaimsWriter.acquire()) {
+          JsonGenerator json = claims.start();
+          TokenFactory.writeTokenClaims(json, streamedUser, params, ISSUER, TOKEN_ID, timestamps, DataScope.ID_TOKEN);
+          claims.end(json);
+          return signer.sign(claims);
+        }
+      });
+    }
+  }
+
+  private static void run(String algorithm, String claims, int seconds, Supplier<String> tokenFactory) {
+    // warm up so the JIT has compiled (and escape-analyzed) the whole path
+    measure(tokenFactory, 2);
+    long threadId = Thread.currentThread().threadId();
+    long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+    long[] result = measure(tokenFactory, seconds);
+    long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    double opsPerSec = result[0] * 1_000_000_000.0 / result[1];
+    System.out.println(algorithm + "\t" + claims + "\t" + (long)opsPerSec + "\t" + allocated / result[0]);
+  }
+
+  /**
+   * @return [number of tokens created, elapsed nanos]
+   */
+  private static long[] measure(Supplier<String> tokenFactory, int seconds) {
+    long start = System.nanoTime();
+    long end = start + seconds * 1_000_000_000L;
+    long ops = 0;
+    int totalLength = 0; // consumed below so token creation cannot be optimized away
+    long now;
+    while ((now = System.nanoTime()) < end) {
+      totalLength += tokenFactory.get().length();
+      ops++;
+    }
+    if (totalLength == 0) System.out.println();
+    return new long[] { ops, now - start };
+  }
+
+  /**
+   * A registered user with the fields AccountDbAuthenticator puts in ID tokens.
+   * Supplemental fields are built on each call, either directly into a map or,
+   * as AccountDbAuthenticator formerly did, through a JsonObject.
+   */
+  private static class BenchmarkUser implements UserAccountInfo {
+
+    private final boolean _buildMapDirectly;
+
+    BenchmarkUser(boolean buildMapDirectly) {
+      _buildMapDirectly = buildMapDirectly;
+    }
+
+    @Override public String getUserId() { return "123456789"; }
+    @Override public boolean isGuest() { return false; }
+    @Override public String getEmail() { return "someuser@example.org"; }
+    @Override public boolean isEmailVerified() { return true; }
+    @Override public String getPreferredUsername() { return "a1b2c3d4e5f6a1b2c3d4e5f6a1b2c3d4e5f6a1b2"; }
+    @Override public String getSignature() { return "0123456789abcdef0123456789abcdef0123456789abcdef"; }
+
+    @Override
+    public Map<String, JsonValue> getSupplementalFields() {
+      if (_buildMapDirectly) {
+        Map<String, JsonValue> fields = new LinkedHashMap<>();
+        fields.put("name", JSON_PROVIDER.createValue("Some User"));
+        fields.put("organization", JSON_PROVIDER.createValue("Some University"));
+        return fields;
+      }
+      return Json.createObjectBuilder()
+          .add("name", "Some User")
+          .add("organization", "Some University")
+          .build().entrySet().stream()
+          .collect(Collectors.toMap(Entry::getKey, Entry::getValue));
+    }
+  }
+}
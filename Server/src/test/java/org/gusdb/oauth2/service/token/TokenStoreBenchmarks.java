@@ -0,0 +1,40 @@
+package org.gusdb.oauth2.service.token;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.json.Json;
+
+import org.gusdb.oauth2.InitializationException;
+
+/**
+ * Creates the token store implementations exercised by the TokenStore
+ * benchmarks, so every benchmark runs against every backend.
+ */
+class TokenStoreBenchmarks {
+
+  static final String USAGE_STORE_TYPES = "memory|mapped";
+
+  static TokenStore createStore(String type) throws InitializationException, IOException {
+    switch (type) {
+      case "memory":
+        // lift the capacity limits so they do not cut the benchmarks short
+        TokenStore memoryStore = new InMemoryTokenStore();
+        memoryStore.initialize(Json.createObjectBuilder()
+            .add("maxAuthCodes", Integer.MAX_VALUE)
+            .add("maxAccessTokens", Integer.MAX_VALUE)
+            .add("maxAuthCodesPerUser", Integer.MAX_VALUE)
+            .add("maxAccessTokensPerUser", Integer.MAX_VALUE)
+            .build());
+        return memoryStore;
+      case "mapped":
+        TokenStore mappedStore = new MappedFileTokenStore();
+        mappedStore.initialize(Json.createObjectBuilder()
+            .add("directory", Files.createTempDirectory("token-store-benchmark").toString())
+            .build());
+        return mappedStore;
+      default:
+        throw new IllegalArgumentException("Unknown store type '" + type + "'; must be one of " + USAGE_STORE_TYPES);
+    }
+  }
+}
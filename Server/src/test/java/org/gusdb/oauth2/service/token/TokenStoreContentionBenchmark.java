@@ -0,0 +1,91 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+
+/**
+ * Measures TokenStore throughput under a mixed workload (auth code issue,
+ * code validation, token issue, token lookups, occasional logouts) at
+ * increasing thread counts.  Not a unit test; run via main().
+ *
+ * Usage: TokenStoreContentionBenchmark memory|mapped [maxThreads] [secondsPerRun] [numUsers]
+ */
+public class TokenStoreContentionBenchmark {
+
+  private static final String CLIENT_ID = "benchmarkClient";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("USAGE: TokenStoreContentionBenchmark " + TokenStoreBenchmarks.USAGE_STORE_TYPES + " [maxThreads] [secondsPerRun] [numUsers]");
+      System.exit(1);
+    }
+    int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int numUsers = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+    try (TokenStore store = TokenStoreBenchmarks.createStore(args[0])) {
+      // warm up once so JIT effects do not skew the single-thread number
+      runTrial(store, maxThreads, 2, numUsers);
+
+      System.out.println("threads\tops/sec");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        System.out.println(threads + "\t" + runTrial(store, threads, seconds, numUsers));
+        if (threads < maxThreads && threads * 2 > maxThreads) threads = maxThreads / 2;
+      }
+    }
+  }
+
+  private static long runTrial(TokenStore store, int numThreads, int seconds, int numUsers) throws InterruptedException {
+    LongAdder ops = new LongAdder();
+    CountDownLatch start = new CountDownLatch(1);
+    long endTime = System.nanoTime() + seconds * 1_000_000_000L;
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long counter = 0;
+        String threadName = Thread.currentThread().getName();
+        while (System.nanoTime() < endTime) {
+          String userId = "user" + random.nextInt(numUsers);
+          String authCode = threadName + "-code-" + counter;
+          String token = threadName + "-token-" + counter;
+          counter++;
+          store.addAuthCode(new AuthCodeData(authCode, CLIENT_ID, userId, null));
+          store.isValidAuthCode(authCode, CLIENT_ID);
+          store.addAccessToken(token, authCode);
+          // token lookups dominate real traffic
+          for (int j = 0; j < 8; j++) {
+            store.getUserIdForToken(token);
+          }
+          if (random.nextInt(50) == 0) {
+            store.clearObjectsForUser(userId);
+          }
+          ops.add(11);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) thread.join();
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    // empty the store so runs do not feed each other's heap
+    for (int i = 0; i < numUsers; i++) {
+      store.clearObjectsForUser("user" + i);
+    }
+    return ops.sum() * 1_000_000_000L / elapsedNanos;
+  }
+}
@@ -0,0 +1,140 @@
+package org.gusdb.oauth2.service.token;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+
+/**
+ * Measures heap bytes per live access token for InMemoryTokenStore's compact
+ * tables against the String-keyed layout it replaced (concurrent maps from
+ * code/token String to data objects, per-user sets and expiry queues, with
+ * each token holding a reference to its code's data), reproduced below.
+ * Each entry is added the way a password grant adds it: a fresh code and a
+ * fresh token, with user and client ID Strings as they arrive per request.
+ * Heap use is measured once with codes and tokens live, and again after the
+ * codes have expired.  Not a unit test; run via main() with a large enough
+ * heap, e.g. -Xmx4g.
+ *
+ * Usage: TokenStoreFootprintBenchmark compact|string-keyed [numTokens] [numUsers]
+ */
+public class TokenStoreFootprintBenchmark {
+
+  private static final String CLIENT_ID = "benchmarkClient";
+
+  private interface Layout {
+    void add(String authCode, String accessToken, String userId, String clientId);
+    void expireAuthCodes();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("USAGE: TokenStoreFootprintBenchmark compact|string-keyed [numTokens] [numUsers]");
+      System.exit(1);
+    }
+    int numTokens = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    int numUsers = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+    long baseline = usedHeap();
+    Layout layout = createLayout(args[0]);
+    Random random = new Random(1);
+    for (int i = 0; i < numTokens; i++) {
+      layout.add(randomHex(random), randomHex(random),
+          String.valueOf(1_000_000 + i % numUsers), new String(CLIENT_ID));
+    }
+    long withCodes = usedHeap() - baseline;
+    layout.expireAuthCodes();
+    long tokensOnly = usedHeap() - baseline;
+    Reference.reachabilityFence(layout);
+
+    System.out.println("layout\ttokens\tbytesPerCodeAndToken\tbytesPerTokenAfterCodesExpire");
+    System.out.println(args[0] + "\t" + numTokens + "\t" + (withCodes / numTokens) + "\t" + (tokensOnly / numTokens));
+  }
+
+  private static Layout createLayout(String type) throws Exception {
+    switch (type) {
+      case "compact":
+        TokenStore store = TokenStoreBenchmarks.createStore("memory");
+        return new Layout() {
+          @Override
+          public void add(String authCode, String accessToken, String userId, String clientId) {
+            store.addAuthCode(new AuthCodeData(authCode, clientId, userId, null));
+            store.addAccessToken(accessToken, authCode);
+          }
+          @Override
+          public void expireAuthCodes() {
+            store.removeExpiredTokens(-1, Long.MAX_VALUE);
+          }
+        };
+      case "string-keyed":
+        return new StringKeyedLayout();
+      default:
+        throw new IllegalArgumentException("Unknown layout '" + type + "'");
+    }
+  }
+
+  private static String randomHex(Random random) {
+    return TokenKey.toHex(random.nextLong(), random.nextLong());
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private static class StringKeyedTokenData {
+    final String tokenValue;
+    final AuthCodeData authCodeData;
+    final long creationTime;
+    StringKeyedTokenData(String tokenValue, AuthCodeData authCodeData) {
+      this.tokenValue = tokenValue;
+      this.authCodeData = authCodeData;
+      this.creationTime = System.currentTimeMillis() / 1000;
+    }
+  }
+
+  private static class StringKeyedLayout implements Layout {
+
+    private final ConcurrentMap<String, AuthCodeData> _authCodeMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StringKeyedTokenData> _accessTokenMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<AuthCodeData>> _userAuthCodeMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<StringKeyedTokenData>> _userAccessTokenMap = new ConcurrentHashMap<>();
+    private final Queue<AuthCodeData> _authCodeExpiryQueue = new ConcurrentLinkedQueue<>();
+    private final Queue<StringKeyedTokenData> _accessTokenExpiryQueue = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void add(String authCode, String accessToken, String userId, String clientId) {
+      AuthCodeData code = new AuthCodeData(authCode, clientId, userId, null);
+      _authCodeMap.put(authCode, code);
+      _userAuthCodeMap.computeIfAbsent(userId, k -> new LinkedHashSet<>()).add(code);
+      _authCodeExpiryQueue.add(code);
+      StringKeyedTokenData token = new StringKeyedTokenData(accessToken, code);
+      _accessTokenMap.put(accessToken, token);
+      _userAccessTokenMap.computeIfAbsent(userId, k -> new LinkedHashSet<>()).add(token);
+      _accessTokenExpiryQueue.add(token);
+    }
+
+    @Override
+    public void expireAuthCodes() {
+      AuthCodeData code;
+      while ((code = _authCodeExpiryQueue.poll()) != null) {
+        _authCodeMap.remove(code.getAuthCode());
+        Set<AuthCodeData> userCodes = _userAuthCodeMap.get(code.getUserId());
+        userCodes.remove(code);
+        if (userCodes.isEmpty()) _userAuthCodeMap.remove(code.getUserId());
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package org.gusdb.oauth2.service.token;
+
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+
+/**
+ * Measures the pause taken by store.removeExpiredTokens() as the number
+ * of live (unexpired) entries grows while the number of expiring entries
+ * stays fixed.  Not a unit test; run via main().
+ *
+ * Usage: TokenStoreSweepBenchmark memory|mapped [expiringEntries] [maxLiveEntries]
+ */
+public class TokenStoreSweepBenchmark {
+
+  private static final String CLIENT_ID = "benchmarkClient";
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("USAGE: TokenStoreSweepBenchmark " + TokenStoreBenchmarks.USAGE_STORE_TYPES + " [expiringEntries] [maxLiveEntries]");
+      System.exit(1);
+    }
+    int expiring = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+    int maxLive = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+
+    try (TokenStore store = TokenStoreBenchmarks.createStore(args[0])) {
+      runTrials(store, expiring, maxLive);
+    }
+  }
+
+  private static void runTrials(TokenStore store, int expiring, int maxLive) throws InterruptedException {
+    System.out.println("liveEntries\texpiredEntries\tsweepMillis");
+    long counter = 0;
+    for (int live = maxLive / 64; live <= maxLive; live *= 2) {
+      // start each round from an empty store
+      store.removeExpiredTokens(-1, -1);
+      // entries that will have expired by the time of the sweep
+      for (int i = 0; i < expiring; i++, counter++) {
+        addEntry(store, counter);
+      }
+      Thread.sleep(2000);
+      // entries that survive the sweep
+      long liveStartSecs = nowSecs();
+      for (int i = 0; i < live; i++, counter++) {
+        addEntry(store, counter);
+      }
+      // expire anything created before the survivors, however long they took to add
+      long ttlSecs = nowSecs() - liveStartSecs;
+      long start = System.nanoTime();
+      store.removeExpiredTokens(ttlSecs, ttlSecs);
+      long elapsed = System.nanoTime() - start;
+      System.out.println(live + "\t" + expiring + "\t" + (elapsed / 1_000_000.0));
+    }
+  }
+
+  private static long nowSecs() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  private static void addEntry(TokenStore store, long counter) {
+    String code = "code-" + counter;
+    store.addAuthCode(new AuthCodeData(code, CLIENT_ID, "user" + (counter % 10_000), null));
+    store.addAccessToken("token-" + counter, code);
+  }
+}
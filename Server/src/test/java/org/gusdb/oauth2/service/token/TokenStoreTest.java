@@ -0,0 +1,135 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.gusdb.oauth2.service.token.TokenStore.AccessTokenData;
+import org.gusdb.oauth2.service.token.TokenStore.AuthCodeData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests every TokenStore implementation must pass.  Subclasses provide the
+ * implementation under test.
+ */
+public abstract class TokenStoreTest {
+
+  protected TokenStore _store;
+
+  protected abstract TokenStore createStore() throws Exception;
+
+  @Before
+  public void setUp() throws Exception {
+    _store = createStore();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    _store.close();
+  }
+
+  protected static String newId() {
+    return UUID.randomUUID().toString();
+  }
+
+  @Test
+  public void testAddAndLookUp() {
+    String userId = newId();
+    String authCode = newId();
+    String token = newId();
+    _store.addAuthCode(new AuthCodeData(authCode, "client", userId, "nonce"));
+    Assert.assertTrue(_store.isValidAuthCode(authCode, "client"));
+    Assert.assertFalse(_store.isValidAuthCode(authCode, "otherClient"));
+    AccessTokenData tokenData = _store.addAccessToken(token, authCode);
+    Assert.assertEquals(userId, tokenData.userId);
+    Assert.assertEquals(userId, _store.getUserIdForToken(token));
+    Assert.assertEquals("nonce", _store.getTokenData(token).idTokenParams.getNonce());
+  }
+
+  @Test
+  public void testClearObjectsForUser() {
+    String userId = newId();
+    String otherUserId = newId();
+    String authCode = newId();
+    String otherAuthCode = newId();
+    String token = newId();
+    _store.addAuthCode(new AuthCodeData(authCode, "client", userId, null));
+    _store.addAuthCode(new AuthCodeData(otherAuthCode, "client", otherUserId, null));
+    _store.addAccessToken(token, authCode);
+    _store.clearObjectsForUser(userId);
+    Assert.assertFalse(_store.isValidAuthCode(authCode, "client"));
+    Assert.assertNull(_store.getTokenData(token));
+    Assert.assertTrue(_store.isValidAuthCode(otherAuthCode, "client"));
+    // tokens may no longer be issued against a revoked code
+    Assert.assertNull(_store.addAccessToken(newId(), authCode));
+  }
+
+  @Test
+  public void testSeparateExpirationPeriods() {
+    String userId = newId();
+    String authCode = newId();
+    String token = newId();
+    _store.addAuthCode(new AuthCodeData(authCode, "client", userId, null));
+    _store.addAccessToken(token, authCode);
+
+    // nothing expires if periods have not passed
+    _store.removeExpiredTokens(Long.MAX_VALUE, Long.MAX_VALUE);
+    Assert.assertTrue(_store.isValidAuthCode(authCode, "client"));
+    Assert.assertNotNull(_store.getTokenData(token));
+
+    // codes and tokens expire independently
+    _store.removeExpiredTokens(-1, Long.MAX_VALUE);
+    Assert.assertFalse(_store.isValidAuthCode(authCode, "client"));
+    Assert.assertEquals(userId, _store.getUserIdForToken(token));
+    _store.removeExpiredTokens(Long.MAX_VALUE, -1);
+    Assert.assertNull(_store.getTokenData(token));
+  }
+
+  @Test
+  public void testConcurrentWritesAndLogouts() throws InterruptedException {
+    int numThreads = 8;
+    int numOps = 2000;
+    String userId = newId();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    List<List<String>> tokensByThread = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      List<String> threadTokens = new ArrayList<>();
+      tokensByThread.add(threadTokens);
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < numOps; i++) {
+            String code = newId();
+            String token = newId();
+            _store.addAuthCode(new AuthCodeData(code, "client", userId, null));
+            // may be null if another thread's logout already revoked the code
+            if (_store.addAccessToken(token, code) != null) {
+              threadTokens.add(token);
+            }
+            if (i % 100 == 0) _store.clearObjectsForUser(userId);
+          }
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) thread.join();
+
+    // a final logout must leave nothing behind for this user
+    _store.clearObjectsForUser(userId);
+    for (List<String> threadTokens : tokensByThread) {
+      for (String token : threadTokens) {
+        Assert.assertNull(_store.getTokenData(token));
+      }
+    }
+  }
+}
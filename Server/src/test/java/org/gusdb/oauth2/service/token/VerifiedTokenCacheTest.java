@@ -0,0 +1,116 @@
+package org.gusdb.oauth2.service.token;
+
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.gusdb.oauth2.Authenticator.RequestingUser;
+import org.gusdb.oauth2.shared.AsyncSigningKey;
+import org.gusdb.oauth2.shared.JwsSigner;
+import org.gusdb.oauth2.shared.Signatures;
+import org.gusdb.oauth2.shared.SigningKeyStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+
+public class VerifiedTokenCacheTest {
+
+  private static final String KEY_PAIR_RANDOM_SEED = "ne2OCyFSoXXtLCR2RQuUsaqaWBmnwufNNhCyv6KygkwDDpILeOv67MEecKguBFrhqyiYO/UM6JJzVd5Xh3JwSA==";
+  private static final String OTHER_RANDOM_SEED = "9f3kQ0b1mZ8cL2xV7nR4tY6uI0oP5aS3dF1gH8jK2lZ7xC4vB9nM6qW0eR3tY5uI";
+
+  private static String createToken(SigningKeyStore keyStore, String userId, long expirationSecs) {
+    long now = System.currentTimeMillis() / 1000;
+    JsonObject claims = Json.createObjectBuilder()
+        .add("sub", userId)
+        .add("is_guest", false)
+        .add("iat", now)
+        .add("exp", now + expirationSecs)
+        .build();
+    return Signatures.ASYMMETRIC_KEY_SIGNER.getSignedEncodedToken(claims, keyStore, null, null);
+  }
+
+  @Test
+  public void testRepeatedTokenSkipsVerification() throws Exception {
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    VerifiedTokenCache cache = new VerifiedTokenCache(keyStore, 10);
+    String token = createToken(keyStore, "123", 3600);
+    RequestingUser user = cache.verify(token);
+    Assert.assertEquals("123", user.getUserId());
+    Assert.assertFalse(user.isGuest());
+    Assert.assertSame(user, cache.verify(token));
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void testInvalidTokensAreRejectedAndNotCached() throws Exception {
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    VerifiedTokenCache cache = new VerifiedTokenCache(keyStore, 10);
+    String[] badTokens = {
+      createToken(keyStore, "123", -10), // expired
+      createToken(new SigningKeyStore(OTHER_RANDOM_SEED), "123", 3600), // wrong key
+      createToken(keyStore, "123", 3600).replace('.', '!'), // malformed
+    };
+    for (String badToken : badTokens) {
+      for (int i = 0; i < 2; i++) {
+        try {
+          cache.verify(badToken);
+          Assert.fail("Invalid token accepted: " + badToken);
+        }
+        catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+    }
+    Assert.assertEquals(0, cache.getSize());
+    Assert.assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testExpiredEntryIsReverified() throws Exception {
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    VerifiedTokenCache cache = new VerifiedTokenCache(keyStore, 10);
+    String token = createToken(keyStore, "123", 1);
+    cache.verify(token);
+    Thread.sleep(2100);
+    try {
+      cache.verify(token);
+      Assert.fail("Expired token accepted from cache");
+    }
+    catch (IllegalArgumentException e) {
+      Assert.assertEquals(0, cache.getSize());
+    }
+  }
+
+  @Test
+  public void testFullCacheStillVerifies() throws Exception {
+    SigningKeyStore keyStore = new SigningKeyStore(KEY_PAIR_RANDOM_SEED);
+    VerifiedTokenCache cache = new VerifiedTokenCache(keyStore, 2);
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(String.valueOf(i), cache.verify(createToken(keyStore, String.valueOf(i), 3600)).getUserId());
+    }
+    Assert.assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void testTokensFromRotatedKeysVerify() throws Exception {
+    long now = System.currentTimeMillis();
+    AsyncSigningKey originalKey = new AsyncSigningKey(SigningKeyStore.DEFAULT_ASYNC_KEY_ID, Signatures.getKeyPair(KEY_PAIR_RANDOM_SEED), now - 2000);
+    AsyncSigningKey currentKey = new AsyncSigningKey("2", Signatures.getKeyPair(OTHER_RANDOM_SEED, SignatureAlgorithm.ES256), now - 1000);
+    SigningKeyStore keyStore = new SigningKeyStore(List.of(originalKey, currentKey));
+    VerifiedTokenCache cache = new VerifiedTokenCache(keyStore, 10);
+
+    // signed by the active key, with its kid
+    Assert.assertEquals("1", cache.verify(createToken(keyStore, "1", 3600)).getUserId());
+
+    // signed by the original key before kids were written
+    JsonObject claims = Json.createObjectBuilder().add("sub", "2").add("is_guest", true).build();
+    String legacyToken = new JwsSigner(SignatureAlgorithm.ES512, originalKey.getKeyPair().getPrivate()).sign(claims.toString());
+    RequestingUser legacyUser = cache.verify(legacyToken);
+    Assert.assertEquals("2", legacyUser.getUserId());
+    Assert.assertTrue(legacyUser.isGuest());
+  }
+}